@@ -0,0 +1,12 @@
+package Exceptions;
+
+public class UncheckedDatabaseException extends RuntimeException {
+    public UncheckedDatabaseException(DatabaseException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized DatabaseException getCause() {
+        return (DatabaseException) super.getCause();
+    }
+}
@@ -14,6 +14,12 @@ import java.util.List;
  */
 
 public class LibraryController {
+
+    /**
+     * The number of typos per word tolerated by the fuzzy book search.
+     */
+    public static final int FUZZY_MAX_DISTANCE = 2;
+
     private final LibraryService libraryService;
 
     /**
@@ -138,6 +144,54 @@ public class LibraryController {
         }
     }
 
+    /**
+     * Borrows several books for a member at once and prints what happened to every book.
+     *
+     * @param memberID the ID of the member borrowing the books
+     * @param bookIDs the IDs of the books to be borrowed
+     */
+
+    public void borrowBooks(int memberID, List<Integer> bookIDs) {
+        try {
+            printOutcomes("Book", libraryService.borrowBooks(memberID, bookIDs));
+        } catch (EntityNotFoundException e) {
+            System.err.println("Entity not found error: " + e.getMessage());
+        } catch (DatabaseException e) {
+            System.err.println("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns several loans at once and prints what happened to every loan.
+     *
+     * @param loanIDs the IDs of the loans to be returned
+     */
+
+    public void returnBooks(List<Integer> loanIDs) {
+        try {
+            printOutcomes("Loan", libraryService.returnBooks(loanIDs));
+        } catch (DatabaseException e) {
+            System.err.println("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the outcome of every item of a bulk circulation operation.
+     *
+     * @param item the name of the items, such as Book or Loan
+     * @param outcomes the outcomes of the items
+     */
+
+    private void printOutcomes(String item, List<CirculationOutcome> outcomes) {
+        for (CirculationOutcome outcome : outcomes) {
+            if (outcome.succeeded()) {
+                System.out.println(item + " ID: " + outcome.id() + " - " + outcome.result().name().toLowerCase());
+            } else {
+                System.err.println(item + " ID: " + outcome.id() + " - failed: " + outcome.message());
+            }
+        }
+    }
+
     /**
      * Displays all active loans for a specified member, sorted from oldest to newest.
      *
@@ -146,20 +200,20 @@ public class LibraryController {
 
     public void viewActiveLoans(int memberID) {
         try {
-            List<Loan> loans = libraryService.getActiveLoansForMember(memberID);
+            List<LoanSummary> loans = libraryService.getActiveLoanSummariesForMember(memberID);
             System.out.println("Active loans for member ID: " + memberID);
 
             if (loans.isEmpty()) {
                 System.out.println("No active loans found for this member.");
             } else {
-                for (Loan loan : loans) {
-                    System.out.println("ID: " + loan.getID() +
-                            ", Loan date: " + loan.getLoanDate() +
-                            ", Due date: " + loan.getDueDate() +
-                            ", Return date: " + loan.getReturnDate() +
-                            ", Status: " + loan.getStatus() +
-                            ", Book: " + loan.getBook().getBookName() +
-                            ", Book author: " + loan.getBook().getAuthor().getName());
+                for (LoanSummary loan : loans) {
+                    System.out.println("ID: " + loan.id() +
+                            ", Loan date: " + loan.loanDate() +
+                            ", Due date: " + loan.dueDate() +
+                            ", Return date: " + loan.returnDate() +
+                            ", Status: " + loan.status() +
+                            ", Book: " + loan.bookTitle() +
+                            ", Book author: " + loan.authorName());
                 }
             }
         } catch (EntityNotFoundException e) {
@@ -208,6 +262,43 @@ public class LibraryController {
         }
     }
 
+    /**
+     * Displays the best rated and the most borrowed books of the library.
+     *
+     * @param limit the number of books shown in each list
+     */
+
+    public void viewLeaderboards(int limit) {
+        try {
+            System.out.println("Top Rated Books:");
+            printBooks(libraryService.getTopRatedBooks(limit));
+            System.out.println("Most Borrowed Books:");
+            printBooks(libraryService.getMostBorrowedBooks(limit));
+        } catch (DatabaseException e) {
+            System.err.println("Database error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Displays the best rated and the most borrowed books of a category.
+     *
+     * @param categoryID the ID of the category
+     * @param limit the number of books shown in each list
+     */
+
+    public void viewLeaderboardsInCategory(int categoryID, int limit) {
+        try {
+            System.out.println("Top Rated Books in category: " + categoryID);
+            printBooks(libraryService.getTopRatedBooksInCategory(categoryID, limit));
+            System.out.println("Most Borrowed Books in category: " + categoryID);
+            printBooks(libraryService.getMostBorrowedBooksInCategory(categoryID, limit));
+        } catch (EntityNotFoundException e) {
+            System.err.println("Entity not found error: " + e.getMessage());
+        } catch (DatabaseException e) {
+            System.err.println("Database error: " + e.getMessage());
+        }
+    }
+
     /**
      * Displays all categories available in the library.
      */
@@ -232,8 +323,8 @@ public class LibraryController {
     public void viewAllBooks() {
         try {
             System.out.println("Available Books:");
-            List<Book> books = libraryService.getAllBooks();
-            printBooks(books);
+            List<BookSummary> books = libraryService.getAllBookSummaries();
+            printBookSummaries(books);
         } catch (DatabaseException e) {
             System.err.println("Database error: " + e.getMessage());
         }
@@ -317,8 +408,8 @@ public class LibraryController {
     public void viewBooksByAuthor(int authorID) {
         try {
             System.out.println("Books by author: " + authorID);
-            List<Book> books = libraryService.getBooksByAuthor(authorID);
-            printBooks(books);
+            List<BookSummary> books = libraryService.getBookSummariesByAuthor(authorID);
+            printBookSummaries(books);
         } catch (EntityNotFoundException e) {
             System.err.println("Entity not found error: " + e.getMessage());
         } catch (DatabaseException e) {
@@ -564,9 +655,25 @@ public class LibraryController {
      */
 
     public List<Book> searchBook(String title) {
+        return searchBook(title, false);
+    }
+
+    /**
+     * Searches for books in the library by their title, or, in fuzzy mode, by the words of their title
+     * and author name allowing up to {@value #FUZZY_MAX_DISTANCE} typos per word.
+     * If the search term is empty, retrieves all books sorted by title.
+     *
+     * @param title the title or part of the title of the book to search for;
+     *              if null or empty, all books sorted by title will be displayed
+     * @param fuzzy true to tolerate typos in the search term
+     * @return list of the books found
+     */
+
+    public List<Book> searchBook(String title, boolean fuzzy) {
         try {
-            System.out.println("Searching for books with title containing: " + (title != null ? title : "No search term provided"));
-            List<Book> books = libraryService.searchBook(title);
+            System.out.println((fuzzy ? "Searching for books with title or author close to: " : "Searching for books with title containing: ")
+                    + (title != null ? title : "No search term provided"));
+            List<Book> books = fuzzy ? libraryService.fuzzySearchBook(title, FUZZY_MAX_DISTANCE) : libraryService.searchBook(title);
             printBooks(books);
             return books;
         } catch (DatabaseException e) {
@@ -604,7 +711,7 @@ public class LibraryController {
                 String status = book.isAvailable() ? "Available" : "Borrowed";
                 String categoryName = (book.getCategory() != null) ? book.getCategory().getCategoryName() : "No Category";
                 String publisherName = (book.getPublisher() != null) ? book.getPublisher().getName() : "No Publisher";
-                double averageRating = libraryService.calculateAverageRating(book);
+                double averageRating = book.getRatings().getAverage();
                 System.out.println("ID: " + book.getID() + ", Title: " + book.getBookName() + ", Author: " + book.getAuthor().getName()
                         + ", Publisher: " + publisherName + ", Category: " + categoryName + ", Status: " + status + ", Copies available: " + book.getCopiesAvailable()
                         +  ", Rating: " + averageRating);
@@ -612,6 +719,39 @@ public class LibraryController {
         }
     }
 
+    /**
+     * Prints the summaries of the books in a list, in the same format as {@link #printBooks(List)}.
+     *
+     * @param books the list of book summaries that needs to be printed
+     */
+
+    public void printBookSummaries(List<BookSummary> books) {
+        if (books.isEmpty()) {
+            System.out.println("No books found.");
+        }
+        else {
+            for (BookSummary book : books) {
+                String status = book.available() ? "Available" : "Borrowed";
+                String categoryName = (book.categoryName() != null) ? book.categoryName() : "No Category";
+                String publisherName = (book.publisherName() != null) ? book.publisherName() : "No Publisher";
+                System.out.println("ID: " + book.id() + ", Title: " + book.title() + ", Author: " + book.authorName()
+                        + ", Publisher: " + publisherName + ", Category: " + categoryName + ", Status: " + status + ", Copies available: " + book.copiesAvailable()
+                        +  ", Rating: " + book.averageRating());
+            }
+        }
+    }
+
+    /**
+     * Starts preparing the recommended books for a member in the background, so that they are ready when
+     * the member asks for them.
+     *
+     * @param memberID the ID of the member
+     */
+
+    public void prefetchRecommendations(int memberID) {
+        libraryService.prefetchRecommendations(memberID);
+    }
+
     /**
      * Prints the recommended books for a member
      *
@@ -1,8 +1,14 @@
 package LibraryModel;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a book in a library with attributes such as ID, name, author, availability status,
@@ -10,14 +16,34 @@ import java.util.List;
  */
 public class Book implements HasID, Serializable {
 
+    private static final long serialVersionUID = -4860645390153075087L;
+
+    /**
+     * The serialized form of a book, which keeps the number of copies as an int so that books written before
+     * the count became atomic can still be read. Books written before the rating aggregates were added have no
+     * ratings, which are then computed from the reviews.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("bookID", int.class),
+            new ObjectStreamField("bookName", String.class),
+            new ObjectStreamField("author", Author.class),
+            new ObjectStreamField("isAvailable", boolean.class),
+            new ObjectStreamField("category", Category.class),
+            new ObjectStreamField("publisher", Publisher.class),
+            new ObjectStreamField("copiesAvailable", int.class),
+            new ObjectStreamField("reviews", List.class),
+            new ObjectStreamField("ratings", RatingStats.class)
+    };
+
     private int bookID;
     private String bookName;
     private Author author;
     private boolean isAvailable;
     private Category category;
     private Publisher publisher;
-    private int copiesAvailable;
+    private AtomicInteger copiesAvailable;
     private List<Review> reviews;
+    private RatingStats ratings;
 
     /**
      * Constructs a new Book instance with the specified parameters.
@@ -37,8 +63,9 @@ public class Book implements HasID, Serializable {
         this.isAvailable = isAvailable;
         this.category = category;
         this.publisher = publisher;
-        this.copiesAvailable = copiesAvailable;
+        this.copiesAvailable = new AtomicInteger(copiesAvailable);
         this.reviews = new ArrayList<>();
+        this.ratings = new RatingStats();
     }
 
     /**
@@ -156,7 +183,7 @@ public class Book implements HasID, Serializable {
      * @return the number of copies
      */
     public int getCopiesAvailable() {
-        return copiesAvailable;
+        return copiesAvailable.get();
     }
 
     /**
@@ -165,7 +192,33 @@ public class Book implements HasID, Serializable {
      * @param copiesAvailable the new number of copies of the book
      */
     public void setCopiesAvailable(int copiesAvailable) {
-        this.copiesAvailable = copiesAvailable;
+        this.copiesAvailable.set(copiesAvailable);
+    }
+
+    /**
+     * Takes one copy of the book if there is any left.
+     * The check and the decrement are done atomically, so concurrent checkouts never take the same copy.
+     *
+     * @return true if a copy was taken, false if no copies were available
+     */
+    public boolean tryTakeCopy() {
+        int copies;
+        do {
+            copies = copiesAvailable.get();
+            if (copies < 1) {
+                return false;
+            }
+        } while (!copiesAvailable.compareAndSet(copies, copies - 1));
+        return true;
+    }
+
+    /**
+     * Puts one copy of the book back.
+     *
+     * @return the number of copies available after the return
+     */
+    public int returnCopy() {
+        return copiesAvailable.incrementAndGet();
     }
 
     /**
@@ -186,6 +239,60 @@ public class Book implements HasID, Serializable {
         this.reviews = reviews;
     }
 
+    /**
+     * Gets the running rating aggregates of the book, kept up to date as reviews are added and deleted.
+     *
+     * @return the rating aggregates of the book
+     */
+    public RatingStats getRatings() {
+        return ratings;
+    }
+
+    /**
+     * Sets the rating aggregates of the book.
+     *
+     * @param ratings the new rating aggregates of the book
+     */
+    public void setRatings(RatingStats ratings) {
+        this.ratings = ratings;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("bookID", bookID);
+        fields.put("bookName", bookName);
+        fields.put("author", author);
+        fields.put("isAvailable", isAvailable);
+        fields.put("category", category);
+        fields.put("publisher", publisher);
+        fields.put("copiesAvailable", copiesAvailable.get());
+        fields.put("reviews", reviews);
+        fields.put("ratings", ratings);
+        out.writeFields();
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        bookID = fields.get("bookID", 0);
+        bookName = (String) fields.get("bookName", null);
+        author = (Author) fields.get("author", null);
+        isAvailable = fields.get("isAvailable", false);
+        category = (Category) fields.get("category", null);
+        publisher = (Publisher) fields.get("publisher", null);
+        copiesAvailable = new AtomicInteger(fields.get("copiesAvailable", 0));
+        reviews = (List<Review>) fields.get("reviews", null);
+        if (reviews == null) {
+            reviews = new ArrayList<>();
+        }
+        ratings = (RatingStats) fields.get("ratings", null);
+        if (ratings == null) {
+            ratings = RatingStats.of(reviews);
+        }
+    }
+
     /**
      * Returns a string representation of the book.
      *
@@ -200,7 +307,7 @@ public class Book implements HasID, Serializable {
                 "  Available        : " + (isAvailable ? "Yes" : "No") + "\n" +
                 "  Category         : " + category + "\n" +
                 "  Publisher        : " + publisher + "\n" +
-                "  Copies Available : " + copiesAvailable + "\n" +
+                "  Copies Available : " + copiesAvailable.get() + "\n" +
                 "  Reviews          : " + reviews + "\n" +
                 "}";
     }
@@ -0,0 +1,37 @@
+package LibraryModel;
+
+/**
+ * A read-only view of a book with the columns shown in book listings.
+ * Unlike {@link Book}, it does not hold the author, category and publisher objects, only their names.
+ *
+ * @param id              the ID of the book
+ * @param title           the title of the book
+ * @param authorName      the name of the author
+ * @param publisherName   the name of the publisher, or null if the book has no publisher
+ * @param categoryName    the name of the category, or null if the book has no category
+ * @param available       whether the book is available for loan
+ * @param copiesAvailable the number of copies available
+ * @param averageRating   the average rating of the book, or 0 if it has no reviews
+ */
+public record BookSummary(int id, String title, String authorName, String publisherName, String categoryName,
+                          boolean available, int copiesAvailable, double averageRating) {
+
+    /**
+     * Creates the summary of a book.
+     *
+     * @param book          the book
+     * @param averageRating the average rating of the book
+     * @return the summary of the book
+     */
+    public static BookSummary of(Book book, double averageRating) {
+        return new BookSummary(
+                book.getID(),
+                book.getBookName(),
+                book.getAuthor() != null ? book.getAuthor().getName() : null,
+                book.getPublisher() != null ? book.getPublisher().getName() : null,
+                book.getCategory() != null ? book.getCategory().getCategoryName() : null,
+                book.isAvailable(),
+                book.getCopiesAvailable(),
+                averageRating);
+    }
+}
@@ -0,0 +1,115 @@
+package LibraryModel;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * A change to the loans and reservations of the library, as recorded in the circulation log.
+ * The current loans and reservations are the result of applying the events in order, and the events
+ * can be replayed to build other views of the circulation history.
+ * <p>
+ * Events only hold IDs and values, not the books and members themselves, so that an event is small
+ * and means the same thing whenever it is replayed.
+ */
+public sealed interface CirculationEvent extends Serializable {
+
+    /**
+     * A book was lent to a member. The loan starts ACTIVE, without a return date.
+     *
+     * @param loanID   the ID of the loan
+     * @param bookID   the ID of the book
+     * @param memberID the ID of the member
+     * @param loanDate the date the book was borrowed
+     * @param dueDate  the date the book is due
+     */
+    record LoanCreated(int loanID, int bookID, int memberID, LocalDate loanDate, LocalDate dueDate) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A loan was returned.
+     *
+     * @param loanID     the ID of the loan
+     * @param returnDate the date the book was returned
+     */
+    record LoanReturned(int loanID, LocalDate returnDate) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * An active loan went past its due date.
+     *
+     * @param loanID the ID of the loan
+     */
+    record LoanMarkedOverdue(int loanID) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A loan was changed in any other way; the event holds the whole new state of the loan.
+     *
+     * @param loanID     the ID of the loan
+     * @param bookID     the ID of the book
+     * @param memberID   the ID of the member
+     * @param loanDate   the date the book was borrowed
+     * @param dueDate    the date the book is due
+     * @param returnDate the date the book was returned, or null
+     * @param status     the status of the loan
+     */
+    record LoanRevised(int loanID, int bookID, int memberID, LocalDate loanDate, LocalDate dueDate, LocalDate returnDate,
+                       String status) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A loan was deleted.
+     *
+     * @param loanID the ID of the loan
+     */
+    record LoanDeleted(int loanID) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A member reserved a book that had no available copy.
+     *
+     * @param reservationID   the ID of the reservation
+     * @param bookID          the ID of the book
+     * @param memberID        the ID of the member
+     * @param reservationDate the date of the reservation
+     */
+    record ReservationPlaced(int reservationID, int bookID, int memberID, LocalDate reservationDate) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A reservation was changed; the event holds the whole new state of the reservation.
+     *
+     * @param reservationID   the ID of the reservation
+     * @param bookID          the ID of the book
+     * @param memberID        the ID of the member
+     * @param reservationDate the date of the reservation
+     */
+    record ReservationRevised(int reservationID, int bookID, int memberID, LocalDate reservationDate) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A reservation was closed by lending the book to the member who reserved it.
+     *
+     * @param reservationID the ID of the reservation
+     * @param loanID        the ID of the loan that fulfilled it
+     */
+    record ReservationFulfilled(int reservationID, int loanID) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A reservation was closed without a loan.
+     *
+     * @param reservationID the ID of the reservation
+     */
+    record ReservationCancelled(int reservationID) implements CirculationEvent {
+        private static final long serialVersionUID = 1L;
+    }
+}
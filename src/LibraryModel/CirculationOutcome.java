@@ -0,0 +1,53 @@
+package LibraryModel;
+
+/**
+ * The outcome of one item of a bulk circulation operation, such as one book of a checkout at a kiosk
+ * or one loan of a book drop.
+ *
+ * @param id      the ID of the item: the book for a checkout, the loan for a return
+ * @param result  what happened to the item
+ * @param message why the item failed, or null if it did not fail
+ */
+public record CirculationOutcome(int id, Result result, String message) {
+
+    /**
+     * What happened to an item of a bulk circulation operation.
+     */
+    public enum Result {
+        BORROWED,
+        RESERVED,
+        RETURNED,
+        FAILED
+    }
+
+    /**
+     * Creates the outcome of an item that succeeded.
+     *
+     * @param id     the ID of the item
+     * @param result what happened to the item
+     * @return the outcome
+     */
+    public static CirculationOutcome of(int id, Result result) {
+        return new CirculationOutcome(id, result, null);
+    }
+
+    /**
+     * Creates the outcome of an item that failed.
+     *
+     * @param id      the ID of the item
+     * @param message why the item failed
+     * @return the outcome
+     */
+    public static CirculationOutcome failed(int id, String message) {
+        return new CirculationOutcome(id, Result.FAILED, message);
+    }
+
+    /**
+     * Checks whether the item succeeded.
+     *
+     * @return true if the item did not fail
+     */
+    public boolean succeeded() {
+        return result != Result.FAILED;
+    }
+}
@@ -0,0 +1,34 @@
+package LibraryModel;
+
+/**
+ * Something that happened in the library, published by the service once the change that caused it is
+ * committed, so that the data derived from it can be brought up to date off the request path.
+ * <p>
+ * Events about the same aggregate, the object given by {@link #aggregateID()}, are delivered in the order
+ * they were published; events about different aggregates can be delivered in any order and at the same time.
+ */
+public sealed interface DomainEvent {
+
+    /**
+     * Gets the ID of the aggregate the event is about.
+     *
+     * @return the ID of the aggregate
+     */
+    int aggregateID();
+
+    /**
+     * A book was added to the catalog.
+     *
+     * @param bookID      the ID of the book
+     * @param authorID    the ID of the author of the book
+     * @param categoryID  the ID of the category of the book
+     * @param publisherID the ID of the publisher of the book
+     */
+    record BookAdded(int bookID, int authorID, int categoryID, int publisherID) implements DomainEvent {
+
+        @Override
+        public int aggregateID() {
+            return bookID;
+        }
+    }
+}
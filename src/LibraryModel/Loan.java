@@ -10,6 +10,8 @@ import java.util.Date;
  */
 public class Loan implements HasID, Serializable {
 
+    private static final long serialVersionUID = -2263589896217911550L;
+
     private int loanID;
     private LocalDate loanDate;
     private LocalDate dueDate;
@@ -130,6 +132,15 @@ public class Loan implements HasID, Serializable {
         this.status = status;
     }
 
+    /**
+     * Checks whether the book of the loan is still out, that is whether the loan is active or overdue.
+     *
+     * @return true if the loan has not been returned, false otherwise
+     */
+    public boolean isActive() {
+        return "ACTIVE".equals(status) || "OVERDUE".equals(status);
+    }
+
     /**
      * Gets the book associated with this loan.
      *
@@ -0,0 +1,37 @@
+package LibraryModel;
+
+import java.time.LocalDate;
+
+/**
+ * A read-only view of a loan with the columns shown in loan listings.
+ * Unlike {@link Loan}, it does not hold the book and member objects, only the book title and author name.
+ *
+ * @param id         the ID of the loan
+ * @param loanDate   the date the book was borrowed
+ * @param dueDate    the date the book is due
+ * @param returnDate the date the book was returned, or null if it has not been returned
+ * @param status     the status of the loan
+ * @param bookTitle  the title of the borrowed book
+ * @param authorName the name of the author of the borrowed book
+ */
+public record LoanSummary(int id, LocalDate loanDate, LocalDate dueDate, LocalDate returnDate, String status,
+                          String bookTitle, String authorName) {
+
+    /**
+     * Creates the summary of a loan.
+     *
+     * @param loan the loan
+     * @return the summary of the loan
+     */
+    public static LoanSummary of(Loan loan) {
+        Book book = loan.getBook();
+        return new LoanSummary(
+                loan.getID(),
+                loan.getLoanDate(),
+                loan.getDueDate(),
+                loan.getReturnDate(),
+                loan.getStatus(),
+                book.getBookName(),
+                book.getAuthor() != null ? book.getAuthor().getName() : null);
+    }
+}
@@ -0,0 +1,164 @@
+package LibraryModel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The running rating aggregates of a book: the number of reviews, the sum of their ratings and how many
+ * reviews gave each number of stars. They are updated as reviews are added and deleted, so the average
+ * rating of a book is read without going through its reviews.
+ */
+public class RatingStats implements Serializable {
+
+    private static final long serialVersionUID = -7832426168936579133L;
+
+    /**
+     * The lowest rating a review can give.
+     */
+    public static final int MIN_RATING = 1;
+
+    /**
+     * The highest rating a review can give.
+     */
+    public static final int MAX_RATING = 5;
+
+    private final int[] histogram = new int[MAX_RATING - MIN_RATING + 1];
+    private int count;
+    private long sum;
+
+    /**
+     * Constructs the aggregates of a book without reviews.
+     */
+    public RatingStats() {
+    }
+
+    /**
+     * Constructs the aggregates of a book from the number of reviews that gave each number of stars.
+     *
+     * @param histogram the number of reviews per rating, from {@value #MIN_RATING} to {@value #MAX_RATING} stars
+     */
+    public RatingStats(int[] histogram) {
+        if (histogram.length != this.histogram.length) {
+            throw new IllegalArgumentException("Expected " + this.histogram.length + " ratings, got " + histogram.length + ".");
+        }
+        for (int i = 0; i < histogram.length; i++) {
+            this.histogram[i] = histogram[i];
+            count += histogram[i];
+            sum += (long) histogram[i] * (MIN_RATING + i);
+        }
+    }
+
+    /**
+     * Computes the aggregates of a list of reviews.
+     *
+     * @param reviews the reviews
+     * @return the aggregates of the reviews
+     */
+    public static RatingStats of(List<Review> reviews) {
+        RatingStats stats = new RatingStats();
+        for (Review review : reviews) {
+            stats.add(review.getRating());
+        }
+        return stats;
+    }
+
+    /**
+     * Checks whether a rating is within the allowed range.
+     *
+     * @param rating the rating
+     * @return true if the rating is between {@value #MIN_RATING} and {@value #MAX_RATING} stars
+     */
+    public static boolean isValid(int rating) {
+        return rating >= MIN_RATING && rating <= MAX_RATING;
+    }
+
+    /**
+     * Counts a new review.
+     *
+     * @param rating the rating of the review
+     */
+    public synchronized void add(int rating) {
+        histogram[index(rating)]++;
+        count++;
+        sum += rating;
+    }
+
+    /**
+     * Stops counting a deleted review.
+     *
+     * @param rating the rating of the review
+     */
+    public synchronized void remove(int rating) {
+        int index = index(rating);
+        if (histogram[index] == 0) {
+            return;
+        }
+        histogram[index]--;
+        count--;
+        sum -= rating;
+    }
+
+    /**
+     * Gets the number of reviews.
+     *
+     * @return the number of reviews
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the sum of the ratings of the reviews.
+     *
+     * @return the sum of the ratings
+     */
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /**
+     * Gets the number of reviews that gave a number of stars.
+     *
+     * @param rating the number of stars
+     * @return the number of reviews with that rating
+     */
+    public synchronized int getCount(int rating) {
+        return histogram[index(rating)];
+    }
+
+    /**
+     * Gets the number of reviews per rating.
+     *
+     * @return a copy of the histogram, from {@value #MIN_RATING} to {@value #MAX_RATING} stars
+     */
+    public synchronized int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * Gets the average rating.
+     *
+     * @return the average rating, or 0 if there are no reviews
+     */
+    public synchronized double getAverage() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    private static int index(int rating) {
+        if (!isValid(rating)) {
+            throw new IllegalArgumentException("Rating must be between " + MIN_RATING + " and " + MAX_RATING + ".");
+        }
+        return rating - MIN_RATING;
+    }
+
+    /**
+     * Returns a string representation of the aggregates.
+     *
+     * @return a string with the number of reviews, the average rating and the histogram
+     */
+    @Override
+    public synchronized String toString() {
+        return count + " reviews, average " + getAverage() + ", histogram " + Arrays.toString(histogram);
+    }
+}
@@ -0,0 +1,170 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * Loads a one-to-many relationship (such as the loans of a member) for many parents with one query.
+ * <p>
+ * The repository that maps the parents creates a {@link LazyList} for each of them with {@link #lazyList(int)}.
+ * Nothing is read until one of those lists is used; then the children of that parent and of up to
+ * {@link #getBatchSize()} - 1 other parents whose lists are still waiting are read together, and every list
+ * in the batch is filled. Waiting lists are held weakly, so parents that are no longer used are not kept alive,
+ * and the lists that were collected are dropped as they are found on a reference queue; a batch is claimed from
+ * the parents that waited longest, without looking at the others.
+ *
+ * @param <T> the type of the children.
+ */
+public class BatchLoader<T> {
+
+    /**
+     * The default maximum number of parents loaded by one query.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final Query<T> query;
+    private final int batchSize;
+    private final Map<Integer, List<Waiting<T>>> pending = new LinkedHashMap<>();
+    private final ReferenceQueue<LazyList<T>> collected = new ReferenceQueue<>();
+
+    /**
+     * Constructs a BatchLoader with the default batch size.
+     *
+     * @param query the query that reads the children of a set of parents.
+     */
+    public BatchLoader(Query<T> query) {
+        this(query, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a BatchLoader.
+     *
+     * @param query     the query that reads the children of a set of parents.
+     * @param batchSize the maximum number of parents loaded by one query.
+     */
+    public BatchLoader(Query<T> query, int batchSize) {
+        this.query = query;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the maximum number of parents loaded by one query.
+     *
+     * @return the batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Creates a list of the children of a parent that is loaded on first use, together with the lists of other parents.
+     *
+     * @param parentID the ID of the parent.
+     * @return the lazy list of children.
+     */
+    public synchronized LazyList<T> lazyList(int parentID) {
+        purgeCollected();
+        LazyList<T> list = new LazyList<>(this, parentID);
+        pending.computeIfAbsent(parentID, id -> new ArrayList<>()).add(new Waiting<>(list, collected));
+        return list;
+    }
+
+    /**
+     * Gets the number of parents with lists waiting to be loaded.
+     *
+     * @return the number of waiting parents.
+     */
+    public synchronized int getPendingCount() {
+        purgeCollected();
+        return pending.size();
+    }
+
+    /**
+     * Loads the given list and the other waiting lists that fit in its batch.
+     * The batch is claimed under the lock, but the query runs outside it, because mapping the children
+     * creates lazy lists in other loaders.
+     */
+    void load(LazyList<T> list) throws DatabaseException {
+        Map<Integer, List<LazyList<T>>> batch = claimBatch(list);
+        Map<Integer, List<T>> children = query.load(batch.keySet());
+        for (Map.Entry<Integer, List<LazyList<T>>> entry : batch.entrySet()) {
+            List<T> parentChildren = children.getOrDefault(entry.getKey(), List.of());
+            for (LazyList<T> waiting : entry.getValue()) {
+                waiting.fill(new ArrayList<>(parentChildren));
+            }
+        }
+    }
+
+    private synchronized Map<Integer, List<LazyList<T>>> claimBatch(LazyList<T> list) {
+        purgeCollected();
+        Map<Integer, List<LazyList<T>>> batch = new LinkedHashMap<>();
+        batch.computeIfAbsent(list.getParentID(), id -> new ArrayList<>()).add(list);
+        claim(batch, list.getParentID(), pending.remove(list.getParentID()), list);
+        Iterator<Map.Entry<Integer, List<Waiting<T>>>> entries = pending.entrySet().iterator();
+        while (batch.size() < batchSize && entries.hasNext()) {
+            Map.Entry<Integer, List<Waiting<T>>> entry = entries.next();
+            entries.remove();
+            claim(batch, entry.getKey(), entry.getValue(), list);
+        }
+        return batch;
+    }
+
+    private void claim(Map<Integer, List<LazyList<T>>> batch, int parentID, List<Waiting<T>> waitingLists, LazyList<T> list) {
+        if (waitingLists == null) {
+            return;
+        }
+        for (Waiting<T> reference : waitingLists) {
+            LazyList<T> waiting = reference.get();
+            if (waiting != null && waiting != list && !waiting.isLoaded()) {
+                batch.computeIfAbsent(parentID, id -> new ArrayList<>()).add(waiting);
+            }
+        }
+    }
+
+    /**
+     * Drops the waiting lists that were garbage collected, and the parents left without waiting lists.
+     */
+    private void purgeCollected() {
+        Waiting<?> reference;
+        while ((reference = (Waiting<?>) collected.poll()) != null) {
+            List<Waiting<T>> waitingLists = pending.get(reference.parentID);
+            if (waitingLists != null && waitingLists.remove(reference) && waitingLists.isEmpty()) {
+                pending.remove(reference.parentID);
+            }
+        }
+    }
+
+    /**
+     * A weak reference to a waiting list that remembers the parent of the list once it is collected.
+     */
+    private static final class Waiting<T> extends WeakReference<LazyList<T>> {
+
+        private final int parentID;
+
+        Waiting(LazyList<T> list, ReferenceQueue<LazyList<T>> queue) {
+            super(list, queue);
+            this.parentID = list.getParentID();
+        }
+    }
+
+    /**
+     * Reads the children of a set of parents.
+     *
+     * @param <T> the type of the children.
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+
+        /**
+         * Reads the children of the given parents.
+         *
+         * @param parentIDs the IDs of the parents.
+         * @return the children of each parent, by parent ID; parents without children may be left out.
+         * @throws DatabaseException if a database error occurs.
+         */
+        Map<Integer, List<T>> load(Set<Integer> parentIDs) throws DatabaseException;
+    }
+}
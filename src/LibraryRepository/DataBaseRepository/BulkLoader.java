@@ -0,0 +1,221 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+import Exceptions.UncheckedDatabaseException;
+import LibraryModel.*;
+import LibraryRepository.IRepository;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Loads large amounts of data into the PostgreSQL database with the COPY FROM STDIN protocol,
+ * which is much faster than inserting the rows one by one through the repositories.
+ * <p>
+ * The rows are read from the source repositories as streams and sent to the database in batches,
+ * so the data never has to fit in memory. The tables are loaded in an order that satisfies the
+ * foreign keys, and the whole load runs in one transaction that is rolled back if any table fails.
+ */
+public class BulkLoader {
+
+    /**
+     * The number of rows between two progress reports.
+     */
+    public static final int PROGRESS_INTERVAL = 100_000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Connection connection;
+    private final ProgressListener progressListener;
+
+    /**
+     * Constructs a BulkLoader that reports its progress on the standard output.
+     *
+     * @param connection the connection to the database.
+     */
+    public BulkLoader(Connection connection) {
+        this(connection, (table, rows, rowsPerSecond, done) ->
+                System.out.printf("%s: %d rows%s (%.0f rows/s)%n", table, rows, done ? " loaded" : "", rowsPerSecond));
+    }
+
+    /**
+     * Constructs a BulkLoader that reports its progress to the given listener.
+     *
+     * @param connection       the connection to the database.
+     * @param progressListener the listener that receives the progress of the load.
+     */
+    public BulkLoader(Connection connection, ProgressListener progressListener) {
+        this.connection = connection;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Copies the content of the given repositories into the database, in foreign key order:
+     * categories, authors and publishers, then books and their authors, then members and staff,
+     * and finally loans, reservations and reviews. The source repositories are usually in-memory or file
+     * repositories; they must not be database repositories on the connection that is loaded.
+     *
+     * @return the total number of rows loaded.
+     * @throws DatabaseException if a table cannot be loaded; nothing is loaded in that case.
+     */
+    public long load(IRepository<Book> bookRepo, IRepository<Loan> loanRepo, IRepository<Reservation> reservationRepo,
+                     IRepository<Category> categoryRepo, IRepository<Member> memberRepo, IRepository<Review> reviewRepo,
+                     IRepository<Author> authorRepo, IRepository<Publisher> publisherRepo, IRepository<Staff> staffRepo) throws DatabaseException {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                skipChangeNotices();
+                long rows = 0;
+                rows += copy("Category", "ID, Name, Description", categoryRepo,
+                        category -> Arrays.asList(category.getID(), category.getCategoryName(), category.getDescription()));
+                rows += copy("Author", "ID, Name, Email, Phone_number", authorRepo, this::personColumns);
+                rows += copy("Publisher", "ID, Name, Email, Phone_number", publisherRepo, this::personColumns);
+                rows += copy("Book", "ID, Title, ID_author, Is_available, ID_category, ID_publisher, Copies_available", bookRepo,
+                        book -> Arrays.asList(book.getID(), book.getBookName(), idOf(book.getAuthor()), book.isAvailable(),
+                                idOf(book.getCategory()), idOf(book.getPublisher()), book.getCopiesAvailable()));
+                rows += copy("AuthorBooks", "ID_book, ID_author", bookRepo,
+                        book -> book.getAuthor() != null ? Arrays.asList(book.getID(), book.getAuthor().getID()) : null);
+                rows += copy("Member", "ID, Name, Email, Phone_number", memberRepo, this::personColumns);
+                rows += copy("Staff", "ID, Name, Email, Phone_number, Position", staffRepo,
+                        staff -> Arrays.asList(staff.getID(), staff.getName(), staff.getEmail(), staff.getPhoneNumber(), staff.getPosition()));
+                rows += copy("Loan", "ID, Loan_date, Due_date, Return_date, Status, ID_book, ID_member", loanRepo,
+                        loan -> Arrays.asList(loan.getID(), loan.getLoanDate(), loan.getDueDate(), loan.getReturnDate(),
+                                loan.getStatus(), idOf(loan.getBook()), idOf(loan.getMember())));
+                rows += copy("Reservation", "ID, Reservation_date, ID_book, ID_member", reservationRepo,
+                        reservation -> Arrays.asList(reservation.getID(), reservation.getReservationDate(),
+                                idOf(reservation.getBook()), idOf(reservation.getMember())));
+                rows += copy("Review", "ID, Rating, Comments, ID_book, ID_member", reviewRepo,
+                        review -> Arrays.asList(review.getID(), review.getRating(), review.getComments(),
+                                idOf(review.getBook()), idOf(review.getMember())));
+                connection.commit();
+                return rows;
+            } catch (SQLException | DatabaseException e) {
+                connection.rollback();
+                throw e;
+            } catch (UncheckedDatabaseException e) {
+                connection.rollback();
+                throw e.getCause();
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copies the objects of a repository into a table. Objects that are mapped to null are skipped.
+     */
+    /**
+     * Turns off the change notices of the tables for the load transaction. The load only inserts new rows,
+     * which no instance has cached, and a notice per row would flood the listeners of the invalidation bus.
+     */
+    private void skipChangeNotices() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LOCAL library.notify_changes = 'off'");
+        }
+    }
+
+    private <T extends HasID> long copy(String table, String columns, IRepository<T> repository, RowMapper<T> mapper) throws SQLException, DatabaseException {
+        CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        CopyIn copyIn = copyManager.copyIn("COPY " + table + " (" + columns + ") FROM STDIN WITH (FORMAT csv)");
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Stream<T> objects = repository.streamAll()) {
+            StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 1024);
+            Iterator<T> iterator = objects.iterator();
+            while (iterator.hasNext()) {
+                List<Object> values = mapper.map(iterator.next());
+                if (values == null) {
+                    continue;
+                }
+                appendRow(buffer, values);
+                if (buffer.length() >= BUFFER_SIZE) {
+                    write(copyIn, buffer);
+                }
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    progressListener.onProgress(table, rows, rowsPerSecond(rows, start), false);
+                }
+            }
+            write(copyIn, buffer);
+            copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+        progressListener.onProgress(table, rows, rowsPerSecond(rows, start), true);
+        return rows;
+    }
+
+    private void write(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * Appends a row in CSV format. Null values are written as empty unquoted fields, which COPY reads as NULL;
+     * every other value is quoted, so that empty strings, commas, quotes and line breaks survive the copy.
+     */
+    private void appendRow(StringBuilder buffer, List<Object> values) {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            Object value = values.get(i);
+            if (value != null) {
+                buffer.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+            }
+        }
+        buffer.append('\n');
+    }
+
+    private List<Object> personColumns(Person person) {
+        return Arrays.asList(person.getID(), person.getName(), person.getEmail(), person.getPhoneNumber());
+    }
+
+    private Integer idOf(HasID obj) {
+        return obj != null ? obj.getID() : null;
+    }
+
+    private double rowsPerSecond(long rows, long start) {
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        return seconds > 0 ? rows / seconds : rows;
+    }
+
+    /**
+     * Maps an object to the values of its row, in the order of the copied columns.
+     */
+    @FunctionalInterface
+    private interface RowMapper<T> {
+        List<Object> map(T obj);
+    }
+
+    /**
+     * Receives the progress of a bulk load.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called every {@link #PROGRESS_INTERVAL} rows and once more when a table is loaded.
+         *
+         * @param table         the table being loaded
+         * @param rows          the number of rows loaded into the table so far
+         * @param rowsPerSecond the average load rate of the table so far
+         * @param done          whether the table is completely loaded
+         */
+        void onProgress(String table, long rows, double rowsPerSecond, boolean done);
+    }
+}
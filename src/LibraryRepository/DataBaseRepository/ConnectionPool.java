@@ -0,0 +1,335 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+import LibraryRepository.ReadRouting;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The connections of the database repositories.
+ * <p>
+ * Statements outside a transaction run on one shared connection, which stays in auto-commit mode and may route
+ * reads to replicas. A transaction, such as the flush of a unit of work or the cursor of a stream, gets a
+ * connection of its own to the primary that no other thread uses until the transaction ends, so the writes of
+ * one thread can never be committed or rolled back by another. {@link #begin()} binds the transaction to the
+ * current thread: while it is open, the statements that thread prepares on {@link #getConnection()} run in it.
+ * Connections are kept for the next transaction once it ends.
+ * <p>
+ * A pool built on a single connection, without a way to open more, gives every transaction that connection and
+ * serializes all use of it: while a transaction is open, the statements of other threads wait for it to end.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /**
+     * Opens a new connection to the primary database.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    /**
+     * The largest number of idle connections kept for later transactions.
+     */
+    public static final int MAX_IDLE = 8;
+
+    private static final Map<Connection, ConnectionPool> SINGLE_CONNECTION_POOLS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Connection shared;
+    private final ConnectionFactory factory;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final ReentrantReadWriteLock sharedUse = new ReentrantReadWriteLock(true);
+    private final ThreadLocal<Transaction> current = new ThreadLocal<>();
+    private final Connection pooledConnection;
+
+    /**
+     * Constructs a ConnectionPool.
+     *
+     * @param shared  the connection used by the statements outside a transaction.
+     * @param factory opens the connections of the transactions, or null to run them on the shared connection.
+     */
+    public ConnectionPool(Connection shared, ConnectionFactory factory) {
+        this.shared = shared;
+        this.factory = factory;
+        this.pooledConnection = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class, Pooled.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "ConnectionPool(" + shared + ")";
+                    case "pool" -> this;
+                    case "close" -> {
+                        close();
+                        yield null;
+                    }
+                    default -> invokeOnCurrent(method, args);
+                });
+    }
+
+    /**
+     * Gets the pool of a connection: the pool itself for a connection returned by {@link #getConnection()}, or
+     * the single-connection pool of any other connection, so that every repository built on it shares one pool.
+     *
+     * @param connection the connection.
+     * @return the pool of the connection.
+     */
+    public static ConnectionPool of(Connection connection) {
+        if (connection instanceof Pooled pooled) {
+            return pooled.pool();
+        }
+        return SINGLE_CONNECTION_POOLS.computeIfAbsent(connection, key -> new ConnectionPool(key, null));
+    }
+
+    /**
+     * Gets the connection the repositories use. Its statements run in the transaction of the current thread, if
+     * one is open, and on the shared connection otherwise.
+     *
+     * @return the pooled connection.
+     */
+    public Connection getConnection() {
+        return pooledConnection;
+    }
+
+    /**
+     * Checks whether a transaction is bound to the current thread.
+     *
+     * @return true inside a transaction started with {@link #begin()} on this thread.
+     */
+    public boolean inTransaction() {
+        return current.get() != null;
+    }
+
+    /**
+     * Starts a transaction bound to the current thread.
+     *
+     * @return the transaction, to be committed or rolled back and then closed.
+     * @throws DatabaseException if no connection could be opened.
+     */
+    public Transaction begin() throws DatabaseException {
+        if (inTransaction()) {
+            throw new IllegalStateException("A transaction is already open on this thread.");
+        }
+        Transaction transaction = new Transaction(acquire(), true);
+        current.set(transaction);
+        return transaction;
+    }
+
+    /**
+     * Starts a transaction that is not bound to the current thread, such as the transaction of a cursor,
+     * which only the statements prepared on its own connection run in.
+     *
+     * @return the transaction, to be committed or rolled back and then closed.
+     * @throws DatabaseException if no connection could be opened.
+     */
+    public Transaction beginDetached() throws DatabaseException {
+        return new Transaction(acquire(), false);
+    }
+
+    /**
+     * Closes the shared connection and the idle connections.
+     *
+     * @throws SQLException if the shared connection cannot be closed.
+     */
+    @Override
+    public void close() throws SQLException {
+        synchronized (idle) {
+            for (Connection connection : idle) {
+                closeQuietly(connection);
+            }
+            idle.clear();
+        }
+        shared.close();
+    }
+
+    /**
+     * Checks whether the shared connection is closed.
+     *
+     * @return true if the pool can no longer be used.
+     * @throws SQLException if the state of the connection cannot be read.
+     */
+    public boolean isClosed() throws SQLException {
+        return shared.isClosed();
+    }
+
+    private Connection acquire() throws DatabaseException {
+        try {
+            Connection connection;
+            if (factory == null) {
+                sharedUse.writeLock().lock();
+                connection = shared;
+            } else {
+                connection = pollIdle();
+                if (connection == null) {
+                    connection = factory.open();
+                }
+            }
+            try {
+                connection.setAutoCommit(false);
+            } catch (SQLException e) {
+                release(connection, false);
+                throw e;
+            }
+            return connection;
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    private Connection pollIdle() throws SQLException {
+        while (true) {
+            Connection connection;
+            synchronized (idle) {
+                connection = idle.pollFirst();
+            }
+            if (connection == null || !connection.isClosed()) {
+                return connection;
+            }
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        if (factory == null) {
+            sharedUse.writeLock().unlock();
+            return;
+        }
+        synchronized (idle) {
+            if (reusable && idle.size() < MAX_IDLE) {
+                idle.addFirst(connection);
+                return;
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // The connection is dropped either way
+        }
+    }
+
+    private Object invokeOnCurrent(Method method, Object[] args) throws Throwable {
+        Transaction transaction = current.get();
+        if (transaction != null) {
+            return invoke(method, transaction.connection, args);
+        }
+        Object result = invoke(method, shared, args);
+        if (factory == null && result instanceof Statement statement) {
+            return serialized(statement, method.getReturnType());
+        }
+        return result;
+    }
+
+    /**
+     * Wraps a statement of the shared connection of a single-connection pool so that it only runs while no
+     * other thread has a transaction open on the connection.
+     */
+    private Object serialized(Statement statement, Class<?> type) {
+        return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute") || sharedUse.isWriteLockedByCurrentThread()) {
+                return invoke(method, statement, args);
+            }
+            sharedUse.readLock().lock();
+            try {
+                return invoke(method, statement, args);
+            } finally {
+                sharedUse.readLock().unlock();
+            }
+        });
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Lets {@link #of(Connection)} find the pool of a pooled connection.
+     */
+    private interface Pooled {
+        ConnectionPool pool();
+    }
+
+    /**
+     * A transaction on a connection of the pool. Closing it gives the connection back, rolling back whatever
+     * was neither committed nor rolled back.
+     */
+    public final class Transaction implements AutoCloseable {
+
+        private final Connection connection;
+        private final boolean bound;
+        private boolean ended;
+        private boolean closed;
+
+        private Transaction(Connection connection, boolean bound) {
+            this.connection = connection;
+            this.bound = bound;
+        }
+
+        /**
+         * Gets the connection of the transaction.
+         *
+         * @return the connection.
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Commits the transaction. The reads the current thread makes next stay on the primary as they would
+         * after any other write, see {@link ReadRouting}.
+         *
+         * @throws SQLException if the commit fails.
+         */
+        public void commit() throws SQLException {
+            connection.commit();
+            ended = true;
+            ReadRouting.recordWrite();
+        }
+
+        /**
+         * Rolls the transaction back.
+         *
+         * @throws SQLException if the rollback fails.
+         */
+        public void rollback() throws SQLException {
+            ended = true;
+            connection.rollback();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (bound) {
+                current.remove();
+            }
+            boolean reusable = true;
+            try {
+                if (!ended) {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                reusable = false;
+            }
+            release(connection, reusable);
+        }
+    }
+}
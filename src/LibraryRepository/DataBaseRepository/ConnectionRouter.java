@@ -0,0 +1,353 @@
+package LibraryRepository.DataBaseRepository;
+
+import LibraryRepository.ReadRouting;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes the statements of the database repositories between a primary database and its read replicas.
+ * <p>
+ * {@link #getConnection()} returns a connection that the repositories use like any other. Plain SELECT
+ * statements are sent to a replica, chosen round-robin or by the lowest measured query latency. Everything
+ * else stays on the primary: writes, SELECT ... FOR UPDATE/SHARE, statements run while auto-commit is off,
+ * and the reads of a thread that is pinned to the primary or that wrote within the read-your-writes window,
+ * as kept by {@link ReadRouting}. Transactions of a {@link ConnectionPool} run on connections of their own to
+ * the primary and do not go through the router at all.
+ * <p>
+ * A replica that fails to prepare or to run a read is left out for a while and the read is run again on the
+ * primary, with the same parameters; only an error of the primary reaches the caller, with the error of the
+ * replica attached. With a maximum lag, a replica whose replay lags further behind the primary is left out
+ * until it catches up.
+ */
+public class ConnectionRouter {
+
+    /**
+     * How a replica is chosen for a read.
+     */
+    public enum Selection {
+        /** The replicas are used in turn. */
+        ROUND_ROBIN,
+        /** The replica with the lowest average query latency is used; replicas that were never used are tried first. */
+        LEAST_LATENCY
+    }
+
+    /**
+     * The weight of the latest query in the average latency of a replica.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * How long a replica that failed is left out before it is tried again.
+     */
+    public static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    /**
+     * How often the lag of a replica is measured.
+     */
+    public static final Duration LAG_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    /**
+     * Measures how far, in seconds, a PostgreSQL standby lags behind its primary: 0 once it has replayed all it
+     * received, and also on a server that is not a standby.
+     */
+    static final String REPLICA_LAG_QUERY = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+            "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final Connection primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final Selection selection;
+    private final long readYourWritesNanos;
+    private final Duration maxReplicaLag;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Connection routedConnection;
+
+    /**
+     * Constructs a ConnectionRouter that does not check how far the replicas lag behind.
+     *
+     * @param primary               the connection to the primary database.
+     * @param replicas              the connections to the read replicas.
+     * @param selection             how a replica is chosen for a read.
+     * @param readYourWritesWindow  how long the reads of a thread stay on the primary after it wrote.
+     */
+    public ConnectionRouter(Connection primary, List<Connection> replicas, Selection selection, Duration readYourWritesWindow) {
+        this(primary, replicas, selection, readYourWritesWindow, null);
+    }
+
+    /**
+     * Constructs a ConnectionRouter.
+     *
+     * @param primary               the connection to the primary database.
+     * @param replicas              the connections to the read replicas.
+     * @param selection             how a replica is chosen for a read.
+     * @param readYourWritesWindow  how long the reads of a thread stay on the primary after it wrote.
+     * @param maxReplicaLag         how far a replica may lag behind the primary and still be read, or null not to check.
+     */
+    public ConnectionRouter(Connection primary, List<Connection> replicas, Selection selection, Duration readYourWritesWindow, Duration maxReplicaLag) {
+        this.primary = primary;
+        for (Connection replica : replicas) {
+            this.replicas.add(new Replica(replica));
+        }
+        this.selection = selection;
+        this.readYourWritesNanos = readYourWritesWindow.toNanos();
+        this.maxReplicaLag = maxReplicaLag;
+        this.routedConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new RoutingHandler());
+    }
+
+    /**
+     * Gets the connection that routes the statements between the primary and the replicas.
+     *
+     * @return the routed connection.
+     */
+    public Connection getConnection() {
+        return routedConnection;
+    }
+
+    /**
+     * Gets the average query latency measured on a replica.
+     *
+     * @param index the index of the replica, in the order given to the constructor.
+     * @return the average latency in nanoseconds, or 0 if the replica was not used yet.
+     */
+    public long getAverageLatencyNanos(int index) {
+        return replicas.get(index).averageLatencyNanos.get();
+    }
+
+    /**
+     * Checks whether a replica is read from, that is whether it has not failed recently and does not lag too far behind.
+     *
+     * @param index the index of the replica, in the order given to the constructor.
+     * @return true if reads can be sent to the replica.
+     */
+    public boolean isReplicaAvailable(int index) {
+        return replicas.get(index).isAvailable(System.nanoTime());
+    }
+
+    private boolean canReadFromReplica() throws SQLException {
+        return !replicas.isEmpty() && !ReadRouting.isPinnedToPrimary() && !ReadRouting.wroteWithin(readYourWritesNanos)
+                && primary.getAutoCommit();
+    }
+
+    /**
+     * Chooses a replica among those that are available, or returns null if there is none.
+     */
+    private Replica selectReplica() {
+        long now = System.nanoTime();
+        if (selection == Selection.ROUND_ROBIN) {
+            int first = nextReplica.getAndIncrement();
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get(Math.floorMod(first + i, replicas.size()));
+                if (replica.isUsable(now)) {
+                    return replica;
+                }
+            }
+            return null;
+        }
+        Replica fastest = null;
+        for (Replica replica : replicas) {
+            if ((fastest == null || replica.averageLatencyNanos.get() < fastest.averageLatencyNanos.get()) && replica.isUsable(now)) {
+                fastest = replica;
+            }
+        }
+        return fastest;
+    }
+
+    private static boolean isRead(String sql) {
+        String statement = sql.stripLeading().toUpperCase(Locale.ROOT);
+        return statement.startsWith("SELECT") && !statement.contains(" FOR UPDATE") && !statement.contains(" FOR SHARE");
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Sends each call on the routed connection to the primary or to a replica.
+     */
+    private class RoutingHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConnectionRouter(" + primary + ", " + replicas.size() + " replicas)";
+                case "close":
+                    for (Replica replica : replicas) {
+                        replica.connection.close();
+                    }
+                    primary.close();
+                    return null;
+                case "prepareStatement":
+                    String sql = (String) args[0];
+                    if (isRead(sql)) {
+                        Replica replica = canReadFromReplica() ? selectReplica() : null;
+                        if (replica != null) {
+                            try {
+                                PreparedStatement statement = (PreparedStatement) ConnectionRouter.invoke(method, replica.connection, args);
+                                return new ReplicaStatement(replica, statement, method, args).proxy();
+                            } catch (SQLException e) {
+                                replica.failed();
+                            }
+                        }
+                        return ConnectionRouter.invoke(method, primary, args);
+                    }
+                    ReadRouting.recordWrite();
+                    return ConnectionRouter.invoke(method, primary, args);
+                case "createStatement":
+                case "prepareCall":
+                    ReadRouting.recordWrite();
+                    return ConnectionRouter.invoke(method, primary, args);
+                default:
+                    return ConnectionRouter.invoke(method, primary, args);
+            }
+        }
+    }
+
+    /**
+     * A read prepared on a replica. Its queries are timed, and the parameters set on it are kept so that, if the
+     * replica fails to run it, the read can be prepared on the primary and run there instead.
+     */
+    private class ReplicaStatement implements InvocationHandler {
+
+        private final Replica replica;
+        private final Method prepare;
+        private final Object[] prepareArgs;
+        private final List<Object[]> settings = new ArrayList<>();
+        private final List<Method> settingMethods = new ArrayList<>();
+        private PreparedStatement statement;
+        private boolean onPrimary;
+
+        ReplicaStatement(Replica replica, PreparedStatement statement, Method prepare, Object[] prepareArgs) {
+            this.replica = replica;
+            this.statement = statement;
+            this.prepare = prepare;
+            this.prepareArgs = prepareArgs;
+        }
+
+        PreparedStatement proxy() {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (onPrimary || !name.startsWith("execute")) {
+                if (!onPrimary && (name.startsWith("set") || name.equals("clearParameters"))) {
+                    settingMethods.add(method);
+                    settings.add(args);
+                }
+                return ConnectionRouter.invoke(method, statement, args);
+            }
+            long start = System.nanoTime();
+            try {
+                Object result = ConnectionRouter.invoke(method, statement, args);
+                replica.record(System.nanoTime() - start);
+                return result;
+            } catch (SQLException replicaError) {
+                replica.failed();
+                try {
+                    return ConnectionRouter.invoke(method, moveToPrimary(), args);
+                } catch (SQLException primaryError) {
+                    primaryError.addSuppressed(replicaError);
+                    throw primaryError;
+                }
+            }
+        }
+
+        /**
+         * Prepares the read on the primary with the parameters set so far, and sends every later call there.
+         */
+        private PreparedStatement moveToPrimary() throws Throwable {
+            PreparedStatement replicaStatement = statement;
+            statement = (PreparedStatement) ConnectionRouter.invoke(prepare, primary, prepareArgs);
+            onPrimary = true;
+            try {
+                replicaStatement.close();
+            } catch (SQLException ignored) {
+                // The replica is left out either way
+            }
+            for (int i = 0; i < settings.size(); i++) {
+                ConnectionRouter.invoke(settingMethods.get(i), statement, settings.get(i));
+            }
+            return statement;
+        }
+    }
+
+    /**
+     * A replica connection, the average latency of the queries run on it and whether it can be read from.
+     */
+    private class Replica {
+
+        private final Connection connection;
+        private final AtomicLong averageLatencyNanos = new AtomicLong();
+        private final AtomicLong unavailableUntil;
+        private final AtomicLong nextLagCheck;
+        private volatile boolean lagging;
+
+        Replica(Connection connection) {
+            this.connection = connection;
+            long now = System.nanoTime();
+            this.unavailableUntil = new AtomicLong(now);
+            this.nextLagCheck = new AtomicLong(now);
+        }
+
+        boolean isAvailable(long now) {
+            return !lagging && now - unavailableUntil.get() >= 0;
+        }
+
+        /**
+         * Checks whether the replica can be read from, measuring its lag first when the last measure is too old.
+         */
+        boolean isUsable(long now) {
+            if (now - unavailableUntil.get() < 0) {
+                return false;
+            }
+            long nextCheck = nextLagCheck.get();
+            if (maxReplicaLag != null && now - nextCheck >= 0 && nextLagCheck.compareAndSet(nextCheck, now + LAG_CHECK_INTERVAL.toNanos())) {
+                checkLag();
+            }
+            return isAvailable(now);
+        }
+
+        private void checkLag() {
+            try (PreparedStatement statement = connection.prepareStatement(REPLICA_LAG_QUERY);
+                 ResultSet resultSet = Objects.requireNonNull(statement.executeQuery(), "No lag reported.")) {
+                lagging = resultSet.next() && resultSet.getDouble(1) * 1_000_000_000L > maxReplicaLag.toNanos();
+            } catch (SQLException | RuntimeException e) {
+                failed();
+            }
+        }
+
+        void failed() {
+            unavailableUntil.set(System.nanoTime() + RETRY_AFTER.toNanos());
+        }
+
+        void record(long latencyNanos) {
+            averageLatencyNanos.updateAndGet(average -> average == 0 ? latencyNanos
+                    : (long) (average * (1 - LATENCY_WEIGHT) + latencyNanos * LATENCY_WEIGHT));
+        }
+    }
+}
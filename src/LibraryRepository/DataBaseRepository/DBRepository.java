@@ -1,12 +1,28 @@
 package LibraryRepository.DataBaseRepository;
 
 import Exceptions.DatabaseException;
+import Exceptions.UncheckedDatabaseException;
 import LibraryModel.HasID;
 import LibraryRepository.IRepository;
+import LibraryRepository.IRepositoryListener;
+import LibraryRepository.ReadRouting;
+import LibraryRepository.RepositoryListeners;
+import LibraryRepository.UnitOfWork;
 
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Abstract base class for database repositories, implementing common CRUD operations.
@@ -15,10 +31,22 @@ import java.util.List;
  */
 public abstract class DBRepository<T extends HasID> implements IRepository<T>, AutoCloseable {
 
+    /**
+     * The default number of rows fetched from the database at a time when streaming.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    private static final RowSetFactory ROW_SETS = createRowSetFactory();
+
     protected Connection connection;
+    private final ConnectionPool pool;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private EntityCache<CachedRowSet> cache;
+    private final RepositoryListeners<T> listeners = new RepositoryListeners<>();
 
     /**
      * Constructs a DBRepository and establishes a connection to the database.
+     * Transactions and streams open connections of their own with the same URL and credentials.
      *
      * @param DBUrl      the database URL.
      * @param DBUser     the database username.
@@ -27,19 +55,133 @@ public abstract class DBRepository<T extends HasID> implements IRepository<T>, A
      */
     public DBRepository(String DBUrl, String DBUser, String DBPassword) throws DatabaseException {
         try {
-            this.connection = DriverManager.getConnection(DBUrl, DBUser, DBPassword);
+            this.pool = new ConnectionPool(DriverManager.getConnection(DBUrl, DBUser, DBPassword),
+                    () -> DriverManager.getConnection(DBUrl, DBUser, DBPassword));
+            this.connection = pool.getConnection();
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Constructs a DBRepository that works on an already opened connection: the connection of a
+     * {@link ConnectionPool}, or a single connection that every repository built on it shares.
+     * Repositories created with the same connection share its pool and the transactions of its units of work.
+     *
+     * @param connection the connection to the database.
+     */
+    public DBRepository(Connection connection) {
+        this.pool = ConnectionPool.of(connection);
+        this.connection = pool.getConnection();
+    }
+
+    /**
+     * Gets the connection used by this repository.
+     *
+     * @return the database connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets the pool of the connections used by this repository.
+     *
+     * @return the connection pool.
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the number of rows fetched from the database at a time by {@link #streamAll()}.
+     *
+     * @return the fetch size.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the number of rows fetched from the database at a time by {@link #streamAll()}.
+     *
+     * @param fetchSize the fetch size, must be positive.
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive.");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Caches the rows read by {@link #get(int)}, dropping them when the given bus reports that they have changed.
+     * <p>
+     * The cache holds a disconnected copy of each row, read from the primary database, and every call maps a new
+     * entity from it, so callers never share or change a cached entity. Reads inside a transaction bypass the
+     * cache, so it only holds committed rows, and reads pinned to the primary read the row again.
+     *
+     * @param bus the bus that reports the changes made by every instance of the application.
+     */
+    public void enableCache(IInvalidationBus bus) {
+        this.cache = EntityCache.subscribe(getTableName(), bus);
+    }
+
+    /**
+     * Gets the cache of this repository.
+     *
+     * @return the cache, or null if caching is not enabled.
+     */
+    public EntityCache<?> getCache() {
+        return cache;
+    }
+
+    /**
+     * Drops an entity from the cache of this repository, if caching is enabled.
+     * Subclasses call this after writing the row of an entity outside {@link #add} and {@link #update}.
+     *
+     * @param id the ID of the entity.
+     */
+    protected void evict(int id) {
+        if (cache != null) {
+            cache.evict(id);
+            // A row written by a unit of work changes for other readers when it commits: drop what they cached meanwhile
+            UnitOfWork.afterCommit(() -> cache.evict(id));
+        }
+    }
+
+    /**
+     * Tells the listeners that an entity was added. Subclasses call this at the end of {@link #add}.
+     *
+     * @param obj the added entity.
+     */
+    protected void added(T obj) {
+        listeners.fireAdded(obj);
+    }
+
+    /**
+     * Drops an entity from the cache and tells the listeners that it was updated.
+     * Subclasses call this at the end of {@link #update}.
+     *
+     * @param obj the updated entity.
+     */
+    protected void updated(T obj) {
+        evict(obj.getID());
+        listeners.fireUpdated(obj);
+    }
+
+    @Override
+    public void addListener(IRepositoryListener<T> listener) {
+        listeners.add(listener);
+    }
+
     /**
      * Closes the database connection.
      *
-     * @throws Exception if an error occurs while closing the connection.
+     * @throws SQLException if an error occurs while closing the connection.
      */
     @Override
-    public void close() throws Exception {
+    public void close() throws SQLException {
         connection.close();
     }
 
@@ -71,6 +213,43 @@ public abstract class DBRepository<T extends HasID> implements IRepository<T>, A
      */
     @Override
     public T get(int id) throws DatabaseException {
+        if (cache == null || inTransaction()) {
+            return load(id);
+        }
+        CachedRowSet row = ReadRouting.isPinnedToPrimary() ? cache.reload(id, this::loadRow) : cache.get(id, this::loadRow);
+        if (row == null) {
+            return null;
+        }
+        try {
+            ResultSet copy = row.createShared();
+            copy.next();
+            return mapResultSetToEntity(copy);
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a row from the primary into a disconnected copy for the cache.
+     */
+    private CachedRowSet loadRow(int id) throws DatabaseException {
+        String SQL = "SELECT * FROM " + getTableName() + " WHERE ID = ?";
+        ReadRouting.pinToPrimary();
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            statement.setInt(1, id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                CachedRowSet row = ROW_SETS.createCachedRowSet();
+                row.populate(resultSet);
+                return row.size() > 0 ? row : null;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        } finally {
+            ReadRouting.unpinFromPrimary();
+        }
+    }
+
+    private T load(int id) throws DatabaseException {
         String SQL = "SELECT * FROM " + getTableName() + " WHERE ID = ?";
         try (PreparedStatement statement = connection.prepareStatement(SQL)) {
             statement.setInt(1, id);
@@ -85,6 +264,65 @@ public abstract class DBRepository<T extends HasID> implements IRepository<T>, A
         }
     }
 
+    /**
+     * Retrieves the first entity that matches a condition with one text parameter.
+     *
+     * @param condition the SQL condition, with one parameter.
+     * @param value     the value of the parameter.
+     * @return the first matching entity, or null if no entity matches.
+     * @throws DatabaseException if a database error occurs.
+     */
+    protected T getFirstWhere(String condition, String value) throws DatabaseException {
+        String SQL = "SELECT * FROM " + getTableName() + " WHERE " + condition + " LIMIT 1";
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            statement.setString(1, value);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? mapResultSetToEntity(resultSet) : null;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retrieves all entities that match a condition with one text parameter.
+     *
+     * @param condition the SQL condition, with one parameter.
+     * @param value     the value of the parameter.
+     * @return the matching entities ordered by ID.
+     * @throws DatabaseException if a database error occurs.
+     */
+    protected List<T> getAllWhere(String condition, String value) throws DatabaseException {
+        String SQL = "SELECT * FROM " + getTableName() + " WHERE " + condition + " ORDER BY ID";
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            statement.setString(1, value);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<T> objects = new ArrayList<>();
+                while (resultSet.next()) {
+                    objects.add(mapResultSetToEntity(resultSet));
+                }
+                return objects;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    private static RowSetFactory createRowSetFactory() {
+        try {
+            return RowSetProvider.newFactory();
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Checks whether the current thread is writing a unit of work, whose uncommitted rows must not be cached.
+     */
+    private boolean inTransaction() {
+        return pool.inTransaction();
+    }
+
     /**
      * Retrieves all entities from the database.
      *
@@ -106,6 +344,110 @@ public abstract class DBRepository<T extends HasID> implements IRepository<T>, A
         }
     }
 
+    /**
+     * Retrieves the entities that belong to any of the given parents, grouped by parent, with one query.
+     * Used by {@link BatchLoader}s to load the lazy collections of many entities at once.
+     *
+     * @param parentColumn the column that holds the ID of the parent.
+     * @param parentIDs    the IDs of the parents.
+     * @return the entities of each parent ordered by ID, by parent ID; parents without entities are left out.
+     * @throws DatabaseException if a database error occurs.
+     */
+    public Map<Integer, List<T>> getAllByParent(String parentColumn, Collection<Integer> parentIDs) throws DatabaseException {
+        String SQL = "SELECT * FROM " + getTableName() + " WHERE " + parentColumn + " = ANY (?) ORDER BY ID";
+        try (PreparedStatement statement = connection.prepareStatement(SQL)) {
+            statement.setArray(1, connection.createArrayOf("integer", parentIDs.toArray()));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                Map<Integer, List<T>> objects = new HashMap<>();
+                while (resultSet.next()) {
+                    objects.computeIfAbsent(resultSet.getInt(parentColumn), id -> new ArrayList<>())
+                            .add(mapResultSetToEntity(resultSet));
+                }
+                return objects;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Streams all entities from the database through a forward-only, read-only cursor.
+     * Rows are fetched {@link #getFetchSize()} at a time and mapped only when the stream reaches them,
+     * so a full table can be read in constant memory. The PostgreSQL driver only uses a cursor inside
+     * a transaction, so the stream reads in a transaction of its own on a connection of the pool, which
+     * is given back when the stream is closed; inside a unit of work it reads in the transaction of the unit of work.
+     * The stream must be closed once it is consumed.
+     *
+     * @return a lazily populated stream of all entities in the table.
+     * @throws DatabaseException if the query cannot be started.
+     */
+    @Override
+    public Stream<T> streamAll() throws DatabaseException {
+        String SQL = "SELECT * FROM " + getTableName();
+        ConnectionPool.Transaction cursorTransaction = pool.inTransaction() ? null : pool.beginDetached();
+        Connection cursorConnection = cursorTransaction == null ? connection : cursorTransaction.getConnection();
+        PreparedStatement statement = null;
+        try {
+            statement = cursorConnection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            ResultSet resultSet = statement.executeQuery();
+            PreparedStatement openStatement = statement;
+            return StreamSupport.stream(new ResultSetSpliterator(resultSet), false)
+                    .onClose(() -> closeCursor(openStatement, cursorTransaction));
+        } catch (SQLException e) {
+            closeCursor(statement, cursorTransaction);
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Closes the statement of a stream and ends the transaction it was read in, if the stream started it.
+     */
+    private void closeCursor(PreparedStatement statement, ConnectionPool.Transaction cursorTransaction) {
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+            if (cursorTransaction != null) {
+                cursorTransaction.commit();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error closing cursor: " + e.getMessage());
+        } finally {
+            if (cursorTransaction != null) {
+                cursorTransaction.close();
+            }
+        }
+    }
+
+    /**
+     * Maps the rows of a result set to entities one at a time, as they are consumed.
+     */
+    private class ResultSetSpliterator extends Spliterators.AbstractSpliterator<T> {
+
+        private final ResultSet resultSet;
+
+        ResultSetSpliterator(ResultSet resultSet) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            try {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                action.accept(mapResultSetToEntity(resultSet));
+                return true;
+            } catch (SQLException e) {
+                throw new UncheckedDatabaseException(new DatabaseException("Database error occurred: " + e.getMessage(), e));
+            } catch (DatabaseException e) {
+                throw new UncheckedDatabaseException(e);
+            }
+        }
+    }
+
     /**
      * Deletes an entity by its ID.
      *
@@ -121,5 +463,7 @@ public abstract class DBRepository<T extends HasID> implements IRepository<T>, A
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        evict(id);
+        listeners.fireDeleted(id);
     }
 }
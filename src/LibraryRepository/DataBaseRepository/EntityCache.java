@@ -0,0 +1,128 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps what a repository read for the rows of one table, by ID, and drops it when an invalidation bus
+ * reports that the row has changed.
+ * <p>
+ * Every caller gets the same cached value, so values must not be changed once they are cached: a repository
+ * caches an immutable snapshot of the row and builds a new entity from it for each caller.
+ * Only rows are cached, never the absence of one, so rows inserted elsewhere are seen at once.
+ * A row read while an eviction happens is not stored, because it may be older than the eviction.
+ * Rows are evicted by their own change only: a cached book keeps the author ID it was read with until
+ * the book itself changes.
+ *
+ * @param <V> the type of the cached values.
+ */
+public class EntityCache<V> implements IInvalidationBus.InvalidationListener {
+
+    private final String table;
+    private final Map<Integer, V> entries = new ConcurrentHashMap<>();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private EntityCache(String table) {
+        this.table = table.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates an EntityCache subscribed to the given bus.
+     *
+     * @param table the name of the table the rows are read from.
+     * @param bus   the bus that reports changes to the table.
+     * @return the cache.
+     */
+    public static <V> EntityCache<V> subscribe(String table, IInvalidationBus bus) {
+        EntityCache<V> cache = new EntityCache<>(table);
+        bus.subscribe(cache);
+        return cache;
+    }
+
+    /**
+     * Gets a value from the cache, reading and storing it if it is not cached.
+     *
+     * @param id     the ID of the row.
+     * @param loader reads the value when it is not cached.
+     * @return the value, or null if the loader found none.
+     * @throws DatabaseException if the loader fails.
+     */
+    public V get(int id, Loader<V> loader) throws DatabaseException {
+        V value = entries.get(id);
+        if (value != null) {
+            return value;
+        }
+        return reload(id, loader);
+    }
+
+    /**
+     * Reads a value again, whether it is cached or not, and stores it in place of the cached one.
+     *
+     * @param id     the ID of the row.
+     * @param loader reads the value.
+     * @return the value, or null if the loader found none.
+     * @throws DatabaseException if the loader fails.
+     */
+    public V reload(int id, Loader<V> loader) throws DatabaseException {
+        long evictionsBefore = evictions.get();
+        V value = loader.load(id);
+        if (value != null && evictions.get() == evictionsBefore) {
+            entries.put(id, value);
+        }
+        return value;
+    }
+
+    /**
+     * Drops a value from the cache.
+     *
+     * @param id the ID of the row.
+     */
+    public void evict(int id) {
+        evictions.incrementAndGet();
+        entries.remove(id);
+    }
+
+    /**
+     * Gets the number of cached rows.
+     *
+     * @return the size of the cache.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void invalidate(String table, int id) {
+        if (this.table.equals(table)) {
+            evict(id);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        evictions.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Reads a value that is not cached.
+     *
+     * @param <V> the type of the value.
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+
+        /**
+         * Reads a value.
+         *
+         * @param id the ID of the row.
+         * @return the value, or null if there is no such row.
+         * @throws DatabaseException if a database error occurs.
+         */
+        V load(int id) throws DatabaseException;
+    }
+}
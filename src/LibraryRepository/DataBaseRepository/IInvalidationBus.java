@@ -0,0 +1,50 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+
+/**
+ * Carries notices that rows of the database have changed, so that every instance of the application
+ * can drop the copies of those rows it keeps in its caches.
+ * <p>
+ * A notice names a table and the ID of the changed row. Notices may arrive more than once and after
+ * the change is committed, so listeners must only evict, never reload eagerly.
+ */
+public interface IInvalidationBus {
+
+    /**
+     * Announces that a row has changed.
+     *
+     * @param table the name of the table, in any case.
+     * @param id    the ID of the changed row.
+     * @throws DatabaseException if the notice cannot be sent.
+     */
+    void publish(String table, int id) throws DatabaseException;
+
+    /**
+     * Registers a listener that is told about every change announced on the bus, including those
+     * announced by this instance.
+     *
+     * @param listener the listener to register.
+     */
+    void subscribe(InvalidationListener listener);
+
+    /**
+     * Receives the notices of an invalidation bus.
+     */
+    interface InvalidationListener {
+
+        /**
+         * Called when a row has changed.
+         *
+         * @param table the name of the table, in lower case.
+         * @param id    the ID of the changed row.
+         */
+        void invalidate(String table, int id);
+
+        /**
+         * Called when notices may have been lost, for example after the bus reconnected to the database.
+         * Everything the listener keeps must be treated as stale.
+         */
+        void invalidateAll();
+    }
+}
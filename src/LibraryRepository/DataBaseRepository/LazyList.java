@@ -0,0 +1,90 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+import Exceptions.UncheckedDatabaseException;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A list of the children of an entity that is read from the database the first time it is used.
+ * <p>
+ * Lists are created by a {@link BatchLoader}, which loads the lists of many parents with one query.
+ * Once loaded, the list behaves like an ordinary in-memory list: changes to it are not written to the database.
+ * If loading fails, the error is thrown as an UncheckedDatabaseException and the list stays unloaded.
+ *
+ * @param <T> the type of the children.
+ */
+public class LazyList<T> extends AbstractList<T> {
+
+    private final BatchLoader<T> loader;
+    private final int parentID;
+    private volatile List<T> elements;
+
+    LazyList(BatchLoader<T> loader, int parentID) {
+        this.loader = loader;
+        this.parentID = parentID;
+    }
+
+    /**
+     * Gets the ID of the entity the children belong to.
+     *
+     * @return the ID of the parent.
+     */
+    public int getParentID() {
+        return parentID;
+    }
+
+    /**
+     * Checks whether the children have been read from the database.
+     *
+     * @return true if the list is loaded, false otherwise.
+     */
+    public boolean isLoaded() {
+        return elements != null;
+    }
+
+    synchronized void fill(List<T> elements) {
+        if (this.elements == null) {
+            this.elements = elements;
+        }
+    }
+
+    private List<T> elements() {
+        if (elements == null) {
+            try {
+                loader.load(this);
+            } catch (DatabaseException e) {
+                throw new UncheckedDatabaseException(e);
+            }
+        }
+        return elements;
+    }
+
+    @Override
+    public T get(int index) {
+        return elements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return elements().size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return elements().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        elements().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        modCount++;
+        return elements().remove(index);
+    }
+}
@@ -0,0 +1,27 @@
+package LibraryRepository.DataBaseRepository;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An invalidation bus that delivers notices within one JVM, synchronously, to every subscribed listener.
+ * It stands in for {@link PostgresInvalidationBus} when all instances share a process, as in tests.
+ */
+public class LocalInvalidationBus implements IInvalidationBus {
+
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String table, int id) {
+        String tableName = table.toLowerCase(Locale.ROOT);
+        for (InvalidationListener listener : listeners) {
+            listener.invalidate(tableName, id);
+        }
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+}
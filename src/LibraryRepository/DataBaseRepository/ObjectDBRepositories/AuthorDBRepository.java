@@ -4,6 +4,8 @@ import java.sql.*;
 
 import Exceptions.DatabaseException;
 import LibraryModel.Author;
+import LibraryModel.Book;
+import LibraryRepository.DataBaseRepository.BatchLoader;
 import LibraryRepository.DataBaseRepository.DBRepository;
 
 /**
@@ -11,6 +13,11 @@ import LibraryRepository.DataBaseRepository.DBRepository;
  */
 public class AuthorDBRepository extends DBRepository<Author> {
 
+    private final BatchLoader<Book> booksLoader = new BatchLoader<>(
+            authorIDs -> bookDBRepository().getAllByParent("ID_author", authorIDs));
+    private BookDBRepository bookDBRepository;
+
+
     /**
      * Constructs an AuthorDBRepository and establishes a database connection.
      *
@@ -23,6 +30,15 @@ public class AuthorDBRepository extends DBRepository<Author> {
         super(databaseUrl, username, password);
     }
 
+    /**
+     * Constructs an AuthorDBRepository that uses the given database connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public AuthorDBRepository(Connection connection) {
+        super(connection);
+    }
+
     /**
      * Maps a row from the ResultSet to an Author object.
      *
@@ -33,12 +49,14 @@ public class AuthorDBRepository extends DBRepository<Author> {
     @Override
     protected Author mapResultSetToEntity(ResultSet resultSet) throws DatabaseException {
         try {
-            return new Author(
+            Author author = new Author(
                     resultSet.getInt("ID"),
                     resultSet.getString("Name"),
                     resultSet.getString("Email"),
                     resultSet.getString("Phone_number")
             );
+            author.setBooks(booksLoader.lazyList(author.getID()));
+            return author;
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
@@ -62,6 +80,7 @@ public class AuthorDBRepository extends DBRepository<Author> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(author);
     }
 
     /**
@@ -82,6 +101,7 @@ public class AuthorDBRepository extends DBRepository<Author> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(author);
 
         AuthorBooksDBRepository authorBooksDBRepository = new AuthorBooksDBRepository(connection);
         authorBooksDBRepository.updateAuthorBooks(author.getBooks(), author.getID());
@@ -96,4 +116,15 @@ public class AuthorDBRepository extends DBRepository<Author> {
     protected String getTableName() {
         return "Author";
     }
+
+    /**
+     * Gets the repository that loads the books of the authors, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized BookDBRepository bookDBRepository() {
+        if (bookDBRepository == null) {
+            bookDBRepository = new BookDBRepository(connection);
+        }
+        return bookDBRepository;
+    }
 }
@@ -1,23 +1,44 @@
 package LibraryRepository.DataBaseRepository.ObjectDBRepositories;
 
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.List;
 
 import Exceptions.DatabaseException;
 import LibraryModel.Book;
+import LibraryModel.BookSummary;
 import LibraryModel.Author;
 import LibraryModel.Category;
 import LibraryModel.Publisher;
+import LibraryModel.RatingStats;
+import LibraryModel.Review;
+import LibraryRepository.DataBaseRepository.BatchLoader;
 import LibraryRepository.DataBaseRepository.DBRepository;
+import LibraryRepository.IBookSummaryRepository;
+import LibraryRepository.IInventoryRepository;
+import LibraryRepository.ITitleSearchRepository;
 
 /**
  * Repository class for managing books in the database.
  */
-public class BookDBRepository extends DBRepository<Book> {
+public class BookDBRepository extends DBRepository<Book> implements IInventoryRepository, IBookSummaryRepository, ITitleSearchRepository {
+
+
+    private static final String SUMMARY_QUERY = "SELECT b.ID, b.Title, a.Name AS Author_name, p.Name AS Publisher_name, " +
+            "c.Name AS Category_name, b.Is_available, b.Copies_available, " +
+            "CASE WHEN b.Rating_count = 0 THEN 0 ELSE b.Rating_sum::FLOAT8 / b.Rating_count END AS Average_rating " +
+            "FROM Book b " +
+            "LEFT JOIN Author a ON a.ID = b.ID_author " +
+            "LEFT JOIN Publisher p ON p.ID = b.ID_publisher " +
+            "LEFT JOIN Category c ON c.ID = b.ID_category ";
+    private static final String SUMMARY_ORDER_BY = "ORDER BY b.ID";
 
     private final CategoryDBRepository categoryDBRepository;
     private final PublisherDBRepository publisherDBRepository;
     private final AuthorDBRepository authorDBRepository;
+    private final BatchLoader<Review> reviewsLoader = new BatchLoader<>(
+            bookIDs -> reviewDBRepository().getAllByParent("ID_book", bookIDs));
+    private ReviewDBRepository reviewDBRepository;
 
     /**
      * Constructs a BookDBRepository and establishes connections to related repositories.
@@ -29,9 +50,22 @@ public class BookDBRepository extends DBRepository<Book> {
      */
     public BookDBRepository(String databaseUrl, String username, String password) throws DatabaseException {
         super(databaseUrl, username, password);
-        this.categoryDBRepository = new CategoryDBRepository(databaseUrl, username, password);
-        this.publisherDBRepository = new PublisherDBRepository(databaseUrl, username, password);
-        this.authorDBRepository = new AuthorDBRepository(databaseUrl, username, password);
+        this.categoryDBRepository = new CategoryDBRepository(connection);
+        this.publisherDBRepository = new PublisherDBRepository(connection);
+        this.authorDBRepository = new AuthorDBRepository(connection);
+    }
+
+    /**
+     * Constructs a BookDBRepository that uses the given database connection.
+     * The related repositories share the same connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public BookDBRepository(Connection connection) {
+        super(connection);
+        this.categoryDBRepository = new CategoryDBRepository(connection);
+        this.publisherDBRepository = new PublisherDBRepository(connection);
+        this.authorDBRepository = new AuthorDBRepository(connection);
     }
 
     /**
@@ -51,7 +85,7 @@ public class BookDBRepository extends DBRepository<Book> {
             Publisher publisher = publisherDBRepository.get(publisherID);
             Author author = authorDBRepository.get(authorID);
 
-            return new Book(
+            Book book = new Book(
                     resultSet.getInt("ID"),
                     resultSet.getString("Title"),
                     author,
@@ -60,6 +94,13 @@ public class BookDBRepository extends DBRepository<Book> {
                     publisher,
                     resultSet.getInt("Copies_available")
             );
+            book.setReviews(reviewsLoader.lazyList(book.getID()));
+            int[] histogram = new int[RatingStats.MAX_RATING - RatingStats.MIN_RATING + 1];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = resultSet.getInt("Rating_" + (RatingStats.MIN_RATING + i));
+            }
+            book.setRatings(new RatingStats(histogram));
+            return book;
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
@@ -86,6 +127,7 @@ public class BookDBRepository extends DBRepository<Book> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(book);
     }
 
     /**
@@ -99,28 +141,176 @@ public class BookDBRepository extends DBRepository<Book> {
     }
 
     /**
-     * Updates an existing book in the database.
+     * Updates an existing book in the database. The copies and the availability of the book are not written:
+     * they only change through {@link #takeCopy(int)}, {@link #returnCopy(int)} and {@link #setCopies(int, int, boolean)},
+     * so writing back a book read earlier can never undo a checkout or a return made since.
      *
      * @param book the book to update.
      * @throws DatabaseException if a database error occurs during the operation.
      */
     @Override
     public void update(Book book) throws DatabaseException {
-        String query = "UPDATE Book SET Title = ?, ID_author = ?, Is_available = ?, ID_category = ?, ID_publisher = ?, Copies_available = ? WHERE ID = ?";
+        String query = "UPDATE Book SET Title = ?, ID_author = ?, ID_category = ?, ID_publisher = ? WHERE ID = ?";
         try (PreparedStatement statement = connection.prepareStatement(query)) {
             statement.setString(1, book.getBookName());
             statement.setInt(2, book.getAuthor().getID());
-            statement.setBoolean(3, book.isAvailable());
-            statement.setInt(4, book.getCategory().getID());
-            statement.setInt(5, book.getPublisher().getID());
-            statement.setInt(6, book.getCopiesAvailable());
-            statement.setInt(7, book.getID());
+            statement.setInt(3, book.getCategory().getID());
+            statement.setInt(4, book.getPublisher().getID());
+            statement.setInt(5, book.getID());
             statement.executeUpdate();
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(book);
 
         AuthorBooksDBRepository authorBooksDBRepository = new AuthorBooksDBRepository(connection);
         authorBooksDBRepository.updateAuthorBooks(List.of(book), book.getAuthor().getID());
     }
+
+    /**
+     * Takes one copy of a book with a conditional update, so the check and the decrement
+     * happen atomically in the database and concurrent checkouts cannot overdraw the copies.
+     *
+     * @param bookID the ID of the book.
+     * @return the number of copies left, or -1 if the book is not available or has no copy left.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public int takeCopy(int bookID) throws DatabaseException {
+        String query = "UPDATE Book SET Copies_available = Copies_available - 1, Is_available = Copies_available > 1 " +
+                "WHERE ID = ? AND Is_available AND Copies_available > 0 RETURNING Copies_available";
+        return updateCopies(query, bookID);
+    }
+
+    /**
+     * Puts one copy of a book back and marks the book as available.
+     *
+     * @param bookID the ID of the book.
+     * @return the number of copies available after the return, or -1 if the book does not exist.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public int returnCopy(int bookID) throws DatabaseException {
+        String query = "UPDATE Book SET Copies_available = Copies_available + 1, Is_available = TRUE " +
+                "WHERE ID = ? RETURNING Copies_available";
+        return updateCopies(query, bookID);
+    }
+
+    /**
+     * Sets the availability of a book and, unless the number of copies is negative, its copies.
+     *
+     * @param bookID    the ID of the book.
+     * @param copies    the number of copies available, or -1 to keep the current number.
+     * @param available whether the book can be borrowed.
+     * @return the number of copies available, or -1 if the book does not exist.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public int setCopies(int bookID, int copies, boolean available) throws DatabaseException {
+        String query = "UPDATE Book SET Copies_available = CASE WHEN ? < 0 THEN Copies_available ELSE ? END, Is_available = ? " +
+                "WHERE ID = ? RETURNING Copies_available";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setInt(1, copies);
+            statement.setInt(2, copies);
+            statement.setBoolean(3, available);
+            statement.setInt(4, bookID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        } finally {
+            evict(bookID);
+        }
+    }
+
+    private int updateCopies(String query, int bookID) throws DatabaseException {
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setInt(1, bookID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        } finally {
+            evict(bookID);
+        }
+    }
+
+    /**
+     * Retrieves the summaries of all books with one query that joins the names of the
+     * author, publisher and category and reads the average rating from the rating aggregates of the book.
+     *
+     * @return a list of book summaries ordered by ID.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public List<BookSummary> getBookSummaries() throws DatabaseException {
+        try (PreparedStatement statement = connection.prepareStatement(SUMMARY_QUERY + SUMMARY_ORDER_BY)) {
+            return mapSummaries(statement);
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Retrieves the summaries of the books written by an author with one query.
+     *
+     * @param authorID the ID of the author.
+     * @return a list of book summaries ordered by ID.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public List<BookSummary> getBookSummariesByAuthor(int authorID) throws DatabaseException {
+        try (PreparedStatement statement = connection.prepareStatement(SUMMARY_QUERY + "WHERE b.ID_author = ? " + SUMMARY_ORDER_BY)) {
+            statement.setInt(1, authorID);
+            return mapSummaries(statement);
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Finds the books whose titles contain the search term, ignoring case, through the trigram index on the titles.
+     * The wildcards of the term are escaped so that they match themselves.
+     *
+     * @param term the search term.
+     * @return a list of the matching books ordered by ID.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public List<Book> searchByTitle(String term) throws DatabaseException {
+        String pattern = term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return getAllWhere("Title ILIKE ?", "%" + pattern + "%");
+    }
+
+    private List<BookSummary> mapSummaries(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            List<BookSummary> summaries = new ArrayList<>();
+            while (resultSet.next()) {
+                summaries.add(new BookSummary(
+                        resultSet.getInt("ID"),
+                        resultSet.getString("Title"),
+                        resultSet.getString("Author_name"),
+                        resultSet.getString("Publisher_name"),
+                        resultSet.getString("Category_name"),
+                        resultSet.getBoolean("Is_available"),
+                        resultSet.getInt("Copies_available"),
+                        resultSet.getDouble("Average_rating")
+                ));
+            }
+            return summaries;
+        }
+    }
+
+    /**
+     * Gets the repository that loads the reviews of the books, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized ReviewDBRepository reviewDBRepository() {
+        if (reviewDBRepository == null) {
+            reviewDBRepository = new ReviewDBRepository(connection);
+        }
+        return reviewDBRepository;
+    }
 }
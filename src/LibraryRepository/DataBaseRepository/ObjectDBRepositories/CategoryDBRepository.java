@@ -3,7 +3,9 @@ package LibraryRepository.DataBaseRepository.ObjectDBRepositories;
 import java.sql.*;
 
 import Exceptions.DatabaseException;
+import LibraryModel.Book;
 import LibraryModel.Category;
+import LibraryRepository.DataBaseRepository.BatchLoader;
 import LibraryRepository.DataBaseRepository.DBRepository;
 
 /**
@@ -11,6 +13,11 @@ import LibraryRepository.DataBaseRepository.DBRepository;
  */
 public class CategoryDBRepository extends DBRepository<Category> {
 
+    private final BatchLoader<Book> booksLoader = new BatchLoader<>(
+            categoryIDs -> bookDBRepository().getAllByParent("ID_category", categoryIDs));
+    private BookDBRepository bookDBRepository;
+
+
     /**
      * Constructs a CategoryDBRepository with the given database connection details.
      *
@@ -23,6 +30,15 @@ public class CategoryDBRepository extends DBRepository<Category> {
         super(databaseUrl, username, password);
     }
 
+    /**
+     * Constructs a CategoryDBRepository that uses the given database connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public CategoryDBRepository(Connection connection) {
+        super(connection);
+    }
+
     /**
      * Returns the name of the table associated with this repository.
      *
@@ -43,11 +59,13 @@ public class CategoryDBRepository extends DBRepository<Category> {
     @Override
     protected Category mapResultSetToEntity(ResultSet resultSet) throws DatabaseException {
         try {
-            return new Category(
+            Category category = new Category(
                     resultSet.getInt("ID"),
                     resultSet.getString("Name"),
                     resultSet.getString("Description")
             );
+            category.setBooks(booksLoader.lazyList(category.getID()));
+            return category;
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
@@ -70,6 +88,7 @@ public class CategoryDBRepository extends DBRepository<Category> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(category);
     }
 
     /**
@@ -89,5 +108,17 @@ public class CategoryDBRepository extends DBRepository<Category> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(category);
+    }
+
+    /**
+     * Gets the repository that loads the books of the categories, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized BookDBRepository bookDBRepository() {
+        if (bookDBRepository == null) {
+            bookDBRepository = new BookDBRepository(connection);
+        }
+        return bookDBRepository;
     }
 }
@@ -1,17 +1,21 @@
 package LibraryRepository.DataBaseRepository.ObjectDBRepositories;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import Exceptions.DatabaseException;
 import LibraryModel.Book;
 import LibraryModel.Loan;
+import LibraryModel.LoanSummary;
 import LibraryModel.Member;
 import LibraryRepository.DataBaseRepository.DBRepository;
+import LibraryRepository.ILoanSummaryRepository;
 
 /**
  * Repository class for managing loans in the database.
  */
-public class LoanDBRepository extends DBRepository<Loan> {
+public class LoanDBRepository extends DBRepository<Loan> implements ILoanSummaryRepository {
 
     private final MemberDBRepository memberDBRepository;
     private final BookDBRepository bookDBRepository;
@@ -26,8 +30,20 @@ public class LoanDBRepository extends DBRepository<Loan> {
      */
     public LoanDBRepository(String databaseUrl, String username, String password) throws DatabaseException {
         super(databaseUrl, username, password);
-        this.memberDBRepository = new MemberDBRepository(databaseUrl, username, password);
-        this.bookDBRepository = new BookDBRepository(databaseUrl, username, password);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
+    }
+
+    /**
+     * Constructs a LoanDBRepository that uses the given database connection.
+     * The related repositories share the same connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public LoanDBRepository(Connection connection) {
+        super(connection);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
     }
 
     /**
@@ -88,6 +104,7 @@ public class LoanDBRepository extends DBRepository<Loan> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(loan);
     }
 
     /**
@@ -111,5 +128,44 @@ public class LoanDBRepository extends DBRepository<Loan> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(loan);
+    }
+
+    /**
+     * Retrieves the summaries of the active loans of a member with one query
+     * that joins the title and the author name of each borrowed book.
+     *
+     * @param memberID the ID of the member.
+     * @return a list of loan summaries ordered by ID.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public List<LoanSummary> getActiveLoanSummaries(int memberID) throws DatabaseException {
+        String query = "SELECT l.ID, l.Loan_date, l.Due_date, l.Return_date, l.Status, b.Title, a.Name AS Author_name " +
+                "FROM Loan l " +
+                "JOIN Book b ON b.ID = l.ID_book " +
+                "LEFT JOIN Author a ON a.ID = b.ID_author " +
+                "WHERE l.ID_member = ? AND l.Status IN ('ACTIVE', 'OVERDUE') ORDER BY l.ID";
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setInt(1, memberID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                List<LoanSummary> summaries = new ArrayList<>();
+                while (resultSet.next()) {
+                    Date returnDate = resultSet.getDate("Return_date");
+                    summaries.add(new LoanSummary(
+                            resultSet.getInt("ID"),
+                            resultSet.getDate("Loan_date").toLocalDate(),
+                            resultSet.getDate("Due_date").toLocalDate(),
+                            returnDate != null ? returnDate.toLocalDate() : null,
+                            resultSet.getString("Status"),
+                            resultSet.getString("Title"),
+                            resultSet.getString("Author_name")
+                    ));
+                }
+                return summaries;
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
     }
 }
@@ -1,15 +1,34 @@
 package LibraryRepository.DataBaseRepository.ObjectDBRepositories;
 
 import java.sql.*;
+import java.util.List;
+import java.util.Map;
 
 import Exceptions.DatabaseException;
+import LibraryModel.Loan;
 import LibraryModel.Member;
+import LibraryModel.Reservation;
+import LibraryRepository.DataBaseRepository.BatchLoader;
 import LibraryRepository.DataBaseRepository.DBRepository;
+import LibraryRepository.IEmailRepository;
 
 /**
  * Repository class for managing members in the database.
  */
-public class MemberDBRepository extends DBRepository<Member> {
+public class MemberDBRepository extends DBRepository<Member> implements IEmailRepository<Member> {
+
+    private final BatchLoader<Loan> activeLoansLoader = new BatchLoader<>(memberIDs -> {
+        Map<Integer, List<Loan>> loans = loanDBRepository().getAllByParent("ID_member", memberIDs);
+        loans.values().forEach(memberLoans -> memberLoans.removeIf(loan -> !loan.isActive()));
+        return loans;
+    });
+    private final BatchLoader<Loan> loanHistoryLoader = new BatchLoader<>(
+            memberIDs -> loanDBRepository().getAllByParent("ID_member", memberIDs));
+    private final BatchLoader<Reservation> reservationsLoader = new BatchLoader<>(
+            memberIDs -> reservationDBRepository().getAllByParent("ID_member", memberIDs));
+    private LoanDBRepository loanDBRepository;
+    private ReservationDBRepository reservationDBRepository;
+
 
     /**
      * Constructs a MemberDBRepository with the given database connection details.
@@ -23,6 +42,15 @@ public class MemberDBRepository extends DBRepository<Member> {
         super(databaseUrl, username, password);
     }
 
+    /**
+     * Constructs a MemberDBRepository that uses the given database connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public MemberDBRepository(Connection connection) {
+        super(connection);
+    }
+
     /**
      * Returns the name of the table associated with this repository.
      *
@@ -43,12 +71,16 @@ public class MemberDBRepository extends DBRepository<Member> {
     @Override
     protected Member mapResultSetToEntity(ResultSet resultSet) throws DatabaseException {
         try {
-            return new Member(
+            Member member = new Member(
                     resultSet.getInt("ID"),
                     resultSet.getString("Name"),
                     resultSet.getString("Email"),
                     resultSet.getString("Phone_number")
             );
+            member.setLoans(activeLoansLoader.lazyList(member.getID()));
+            member.setLoanHistory(loanHistoryLoader.lazyList(member.getID()));
+            member.setReservations(reservationsLoader.lazyList(member.getID()));
+            return member;
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
@@ -72,6 +104,7 @@ public class MemberDBRepository extends DBRepository<Member> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(member);
     }
 
     /**
@@ -92,5 +125,40 @@ public class MemberDBRepository extends DBRepository<Member> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(member);
+    }
+
+    /**
+     * Gets the repository that loads the loans of the members, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized LoanDBRepository loanDBRepository() {
+        if (loanDBRepository == null) {
+            loanDBRepository = new LoanDBRepository(connection);
+        }
+        return loanDBRepository;
+    }
+
+    /**
+     * Gets the repository that loads the reservations of the members, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized ReservationDBRepository reservationDBRepository() {
+        if (reservationDBRepository == null) {
+            reservationDBRepository = new ReservationDBRepository(connection);
+        }
+        return reservationDBRepository;
+    }
+
+    /**
+     * Finds the member with the given email address, ignoring case, through the unique index on the lower-case address.
+     *
+     * @param email the email address.
+     * @return the member with the email address, or null if there is none.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public Member findByEmail(String email) throws DatabaseException {
+        return getFirstWhere("lower(Email) = lower(?)", email);
     }
 }
@@ -3,7 +3,9 @@ package LibraryRepository.DataBaseRepository.ObjectDBRepositories;
 import java.sql.*;
 
 import Exceptions.DatabaseException;
+import LibraryModel.Book;
 import LibraryModel.Publisher;
+import LibraryRepository.DataBaseRepository.BatchLoader;
 import LibraryRepository.DataBaseRepository.DBRepository;
 
 /**
@@ -11,6 +13,11 @@ import LibraryRepository.DataBaseRepository.DBRepository;
  */
 public class PublisherDBRepository extends DBRepository<Publisher> {
 
+    private final BatchLoader<Book> booksLoader = new BatchLoader<>(
+            publisherIDs -> bookDBRepository().getAllByParent("ID_publisher", publisherIDs));
+    private BookDBRepository bookDBRepository;
+
+
     /**
      * Constructs a PublisherDBRepository with the given database connection details.
      *
@@ -23,6 +30,15 @@ public class PublisherDBRepository extends DBRepository<Publisher> {
         super(databaseUrl, username, password);
     }
 
+    /**
+     * Constructs a PublisherDBRepository that uses the given database connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public PublisherDBRepository(Connection connection) {
+        super(connection);
+    }
+
     /**
      * Returns the name of the table associated with this repository.
      *
@@ -43,12 +59,14 @@ public class PublisherDBRepository extends DBRepository<Publisher> {
     @Override
     protected Publisher mapResultSetToEntity(ResultSet resultSet) throws DatabaseException {
         try {
-            return new Publisher(
+            Publisher publisher = new Publisher(
                     resultSet.getInt("ID"),
                     resultSet.getString("Name"),
                     resultSet.getString("Email"),
                     resultSet.getString("Phone_number")
             );
+            publisher.setPublishedBooks(booksLoader.lazyList(publisher.getID()));
+            return publisher;
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
@@ -72,6 +90,7 @@ public class PublisherDBRepository extends DBRepository<Publisher> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(publisher);
     }
 
     /**
@@ -92,5 +111,17 @@ public class PublisherDBRepository extends DBRepository<Publisher> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(publisher);
+    }
+
+    /**
+     * Gets the repository that loads the books of the publishers, creating it on first use.
+     * It is not created in the constructor because it maps entities of this repository itself.
+     */
+    private synchronized BookDBRepository bookDBRepository() {
+        if (bookDBRepository == null) {
+            bookDBRepository = new BookDBRepository(connection);
+        }
+        return bookDBRepository;
     }
 }
@@ -26,8 +26,20 @@ public class ReservationDBRepository extends DBRepository<Reservation> {
      */
     public ReservationDBRepository(String databaseUrl, String username, String password) throws DatabaseException {
         super(databaseUrl, username, password);
-        this.memberDBRepository = new MemberDBRepository(databaseUrl, username, password);
-        this.bookDBRepository = new BookDBRepository(databaseUrl, username, password);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
+    }
+
+    /**
+     * Constructs a ReservationDBRepository that uses the given database connection.
+     * The related repositories share the same connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public ReservationDBRepository(Connection connection) {
+        super(connection);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
     }
 
     /**
@@ -82,6 +94,7 @@ public class ReservationDBRepository extends DBRepository<Reservation> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(reservation);
     }
 
     /**
@@ -102,5 +115,6 @@ public class ReservationDBRepository extends DBRepository<Reservation> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(reservation);
     }
 }
@@ -27,8 +27,20 @@ public class ReviewDBRepository extends DBRepository<Review> {
      */
     public ReviewDBRepository(String databaseUrl, String username, String password) throws DatabaseException {
         super(databaseUrl, username, password);
-        this.memberDBRepository = new MemberDBRepository(databaseUrl, username, password);
-        this.bookDBRepository = new BookDBRepository(databaseUrl, username, password);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
+    }
+
+    /**
+     * Constructs a ReviewDBRepository that uses the given database connection.
+     * The related repositories share the same connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public ReviewDBRepository(Connection connection) {
+        super(connection);
+        this.memberDBRepository = new MemberDBRepository(connection);
+        this.bookDBRepository = new BookDBRepository(connection);
     }
 
     /**
@@ -85,6 +97,7 @@ public class ReviewDBRepository extends DBRepository<Review> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(review);
     }
 
     /**
@@ -106,5 +119,6 @@ public class ReviewDBRepository extends DBRepository<Review> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(review);
     }
 }
@@ -5,12 +5,13 @@ import java.sql.*;
 import Exceptions.DatabaseException;
 import LibraryModel.Staff;
 import LibraryRepository.DataBaseRepository.DBRepository;
+import LibraryRepository.IEmailRepository;
 
 /**
  * Repository class for managing CRUD operations on the Staff table in the database.
  * Extends the generic DBRepository class to handle Staff entities.
  */
-public class StaffDBRepository extends DBRepository<Staff> {
+public class StaffDBRepository extends DBRepository<Staff> implements IEmailRepository<Staff> {
 
     /**
      * Constructs a new StaffDBRepository with the specified database connection details.
@@ -24,6 +25,15 @@ public class StaffDBRepository extends DBRepository<Staff> {
         super(databaseUrl, username, password);
     }
 
+    /**
+     * Constructs a StaffDBRepository that uses the given database connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public StaffDBRepository(Connection connection) {
+        super(connection);
+    }
+
     /**
      * Returns the name of the database table managed by this repository.
      *
@@ -75,6 +85,7 @@ public class StaffDBRepository extends DBRepository<Staff> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        added(staff);
     }
 
     /**
@@ -96,5 +107,18 @@ public class StaffDBRepository extends DBRepository<Staff> {
         } catch (SQLException e) {
             throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
         }
+        updated(staff);
+    }
+
+    /**
+     * Finds the staff member with the given email address, ignoring case, through the unique index on the lower-case address.
+     *
+     * @param email the email address.
+     * @return the staff member with the email address, or null if there is none.
+     * @throws DatabaseException if a database error occurs during the operation.
+     */
+    @Override
+    public Staff findByEmail(String email) throws DatabaseException {
+        return getFirstWhere("lower(Email) = lower(?)", email);
     }
-}
\ No newline at end of file
+}
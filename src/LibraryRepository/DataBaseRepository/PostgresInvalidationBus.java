@@ -0,0 +1,161 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An invalidation bus that uses PostgreSQL LISTEN/NOTIFY, so that instances of the application running
+ * in different JVMs against the same database drop the rows changed by the others.
+ * <p>
+ * The triggers created by the schema migrations send a notice on the {@link #CHANNEL} channel, with the
+ * payload {@code table:id}, for every row inserted, updated or deleted; PostgreSQL delivers it when the
+ * transaction commits, and not at all if it is rolled back. The bus listens on its own connection and
+ * polls it from a daemon thread. If that connection is lost, the bus reconnects and tells the listeners
+ * to drop everything, since the notices sent in between are lost.
+ */
+public class PostgresInvalidationBus implements IInvalidationBus, AutoCloseable {
+
+    /**
+     * The channel the change notices are sent on.
+     */
+    public static final String CHANNEL = "library_invalidation";
+
+    private static final int POLL_MILLIS = 200;
+    private static final int RECONNECT_MILLIS = 1000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread listenerThread;
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a PostgresInvalidationBus and starts listening for notices.
+     *
+     * @param url      the database URL.
+     * @param user     the database username.
+     * @param password the database password.
+     * @throws DatabaseException if the bus cannot connect to the database.
+     */
+    public PostgresInvalidationBus(String url, String user, String password) throws DatabaseException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        try {
+            this.connection = listen();
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+        this.listenerThread = new Thread(this::poll, "invalidation-listener");
+        this.listenerThread.setDaemon(true);
+        this.listenerThread.start();
+    }
+
+    /**
+     * Sends a change notice to every instance, for changes that are not made through the tables with triggers.
+     *
+     * @param table the name of the table, in any case.
+     * @param id    the ID of the changed row.
+     * @throws DatabaseException if the notice cannot be sent.
+     */
+    @Override
+    public void publish(String table, int id) throws DatabaseException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            statement.setString(1, CHANNEL);
+            statement.setString(2, table.toLowerCase(Locale.ROOT) + ":" + id);
+            statement.execute();
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops listening and closes the connection of the bus.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        listenerThread.interrupt();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing invalidation listener: " + e.getMessage());
+        }
+    }
+
+    private Connection listen() throws SQLException {
+        Connection listening = DriverManager.getConnection(url, user, password);
+        try (Statement statement = listening.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        return listening;
+    }
+
+    private void poll() {
+        while (!closed) {
+            try {
+                PGNotification[] notifications = connection.unwrap(PGConnection.class).getNotifications(POLL_MILLIS);
+                if (notifications != null) {
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!closed) {
+                    System.err.println("Invalidation listener lost its connection: " + e.getMessage());
+                    reconnect();
+                }
+            }
+        }
+    }
+
+    private void reconnect() {
+        while (!closed) {
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+                connection = listen();
+                for (InvalidationListener listener : listeners) {
+                    listener.invalidateAll();
+                }
+                return;
+            } catch (SQLException e) {
+                System.err.println("Error reconnecting invalidation listener: " + e.getMessage());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        int separator = payload.lastIndexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        try {
+            String table = payload.substring(0, separator).toLowerCase(Locale.ROOT);
+            int id = Integer.parseInt(payload.substring(separator + 1));
+            for (InvalidationListener listener : listeners) {
+                listener.invalidate(table, id);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid change notice: " + payload);
+        }
+    }
+}
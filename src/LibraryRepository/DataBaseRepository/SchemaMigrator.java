@@ -0,0 +1,231 @@
+package LibraryRepository.DataBaseRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.RatingStats;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates and upgrades the database schema used by the database repositories.
+ * <p>
+ * The schema is described by a list of numbered migrations. The version of the schema is kept in the
+ * Schema_version table, and {@link #migrate()} applies, in order and each in its own transaction,
+ * the migrations that have not been applied yet. New schema changes are added as new migrations at
+ * the end of the list; migrations that have already been released are never edited.
+ */
+public class SchemaMigrator {
+
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create tables", List.of(
+                    "CREATE TABLE IF NOT EXISTS Category (ID INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Description TEXT)",
+                    "CREATE TABLE IF NOT EXISTS Author (ID INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Email VARCHAR(255), Phone_number VARCHAR(50))",
+                    "CREATE TABLE IF NOT EXISTS Publisher (ID INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Email VARCHAR(255), Phone_number VARCHAR(50))",
+                    "CREATE TABLE IF NOT EXISTS Member (ID INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Email VARCHAR(255), Phone_number VARCHAR(50))",
+                    "CREATE TABLE IF NOT EXISTS Staff (ID INT PRIMARY KEY, Name VARCHAR(255) NOT NULL, Email VARCHAR(255), Phone_number VARCHAR(50), Position VARCHAR(100))",
+                    "CREATE TABLE IF NOT EXISTS Book (ID INT PRIMARY KEY, Title VARCHAR(255) NOT NULL, ID_author INT REFERENCES Author(ID), " +
+                            "Is_available BOOLEAN NOT NULL, ID_category INT REFERENCES Category(ID), ID_publisher INT REFERENCES Publisher(ID), " +
+                            "Copies_available INT NOT NULL CHECK (Copies_available >= 0))",
+                    "CREATE TABLE IF NOT EXISTS Loan (ID INT PRIMARY KEY, Loan_date DATE NOT NULL, Due_date DATE NOT NULL, Return_date DATE, " +
+                            "Status VARCHAR(20) NOT NULL, ID_book INT REFERENCES Book(ID), ID_member INT REFERENCES Member(ID))",
+                    "CREATE TABLE IF NOT EXISTS Reservation (ID INT PRIMARY KEY, Reservation_date DATE NOT NULL, " +
+                            "ID_book INT REFERENCES Book(ID), ID_member INT REFERENCES Member(ID))",
+                    "CREATE TABLE IF NOT EXISTS Review (ID INT PRIMARY KEY, Rating INT NOT NULL, Comments TEXT, " +
+                            "ID_book INT REFERENCES Book(ID) ON DELETE CASCADE, ID_member INT REFERENCES Member(ID))",
+                    "CREATE TABLE IF NOT EXISTS AuthorBooks (ID_book INT REFERENCES Book(ID) ON DELETE CASCADE, " +
+                            "ID_author INT REFERENCES Author(ID), PRIMARY KEY (ID_book, ID_author))"
+            )),
+            new Migration(2, "Add indexes for the access paths of the service", List.of(
+                    "CREATE INDEX IF NOT EXISTS idx_loan_member_status ON Loan (ID_member, Status)",
+                    "CREATE INDEX IF NOT EXISTS idx_loan_active_due_date ON Loan (Due_date) WHERE Status = 'ACTIVE'",
+                    "CREATE INDEX IF NOT EXISTS idx_reservation_book_date ON Reservation (ID_book, Reservation_date)",
+                    "CREATE INDEX IF NOT EXISTS idx_book_author ON Book (ID_author)",
+                    "CREATE INDEX IF NOT EXISTS idx_book_category ON Book (ID_category)",
+                    "CREATE EXTENSION IF NOT EXISTS pg_trgm",
+                    "CREATE INDEX IF NOT EXISTS idx_book_title_trgm ON Book USING GIN (Title gin_trgm_ops)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_member_email ON Member (Email)",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_staff_email ON Staff (Email)"
+            )),
+            new Migration(3, "Add indexes for the lazy collections of members, publishers and books", List.of(
+                    "CREATE INDEX IF NOT EXISTS idx_reservation_member ON Reservation (ID_member)",
+                    "CREATE INDEX IF NOT EXISTS idx_book_publisher ON Book (ID_publisher)",
+                    "CREATE INDEX IF NOT EXISTS idx_review_book ON Review (ID_book)"
+            )),
+            new Migration(4, "Notify the instances of the application about changed rows", notifyTriggers(
+                    "Category", "Author", "Publisher", "Member", "Staff", "Book", "Loan", "Reservation", "Review")),
+            new Migration(5, "Make member and staff emails unique ignoring case", List.of(
+                    "DROP INDEX IF EXISTS uq_member_email",
+                    "DROP INDEX IF EXISTS uq_staff_email",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_member_email_lower ON Member (lower(Email))",
+                    "CREATE UNIQUE INDEX IF NOT EXISTS uq_staff_email_lower ON Staff (lower(Email))"
+            )),
+            new Migration(6, "Keep rating aggregates with the books", ratingAggregates())
+    );
+
+    private final Connection connection;
+
+    /**
+     * Constructs a SchemaMigrator that works on the given connection.
+     *
+     * @param connection the connection to the database.
+     */
+    public SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Gets the version the schema will have once all migrations are applied.
+     *
+     * @return the latest schema version.
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.getLast().version();
+    }
+
+    /**
+     * Gets the version of the schema in the database.
+     *
+     * @return the current schema version, or 0 if no migration has been applied.
+     * @throws DatabaseException if a database error occurs.
+     */
+    public int getCurrentVersion() throws DatabaseException {
+        try (Statement statement = connection.createStatement()) {
+            createVersionTable(statement);
+            try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(Version), 0) FROM Schema_version")) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Applies the migrations that have not been applied yet, each in its own transaction.
+     *
+     * @return the number of migrations applied.
+     * @throws DatabaseException if a migration fails; the failed migration is rolled back.
+     */
+    public int migrate() throws DatabaseException {
+        int currentVersion = getCurrentVersion();
+        int applied = 0;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() > currentVersion) {
+                apply(migration);
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Migration migration) throws DatabaseException {
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement insertVersion = connection.prepareStatement(
+                         "INSERT INTO Schema_version (Version, Description, Applied_on) VALUES (?, ?, CURRENT_TIMESTAMP)")) {
+                for (String sql : migration.statements()) {
+                    statement.execute(sql);
+                }
+                insertVersion.setInt(1, migration.version());
+                insertVersion.setString(2, migration.description());
+                insertVersion.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new DatabaseException("Error applying migration " + migration.version() + ": " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the number of reviews, the sum of their ratings and the number of reviews per rating to the books,
+     * fills them from the existing reviews and keeps them up to date with a trigger on the reviews, so that
+     * every writer of reviews, including the bulk loader, keeps them exact. Ratings outside 1 to 5 are not
+     * counted, and new ones are rejected.
+     */
+    private static List<String> ratingAggregates() {
+        List<String> statements = new ArrayList<>();
+        StringBuilder columns = new StringBuilder("ALTER TABLE Book " +
+                "ADD COLUMN IF NOT EXISTS Rating_count INT NOT NULL DEFAULT 0, " +
+                "ADD COLUMN IF NOT EXISTS Rating_sum BIGINT NOT NULL DEFAULT 0");
+        StringBuilder backfill = new StringBuilder("UPDATE Book b SET Rating_count = r.Rating_count, Rating_sum = r.Rating_sum");
+        StringBuilder counts = new StringBuilder("SELECT ID_book, COUNT(*) AS Rating_count, SUM(Rating) AS Rating_sum");
+        StringBuilder insertDelta = new StringBuilder("UPDATE Book SET Rating_count = Rating_count + 1, Rating_sum = Rating_sum + NEW.Rating");
+        StringBuilder deleteDelta = new StringBuilder("UPDATE Book SET Rating_count = Rating_count - 1, Rating_sum = Rating_sum - OLD.Rating");
+        for (int rating = RatingStats.MIN_RATING; rating <= RatingStats.MAX_RATING; rating++) {
+            String column = "Rating_" + rating;
+            columns.append(", ADD COLUMN IF NOT EXISTS ").append(column).append(" INT NOT NULL DEFAULT 0");
+            backfill.append(", ").append(column).append(" = r.").append(column);
+            counts.append(", COUNT(*) FILTER (WHERE Rating = ").append(rating).append(") AS ").append(column);
+            insertDelta.append(", ").append(column).append(" = ").append(column).append(" + (NEW.Rating = ").append(rating).append(")::INT");
+            deleteDelta.append(", ").append(column).append(" = ").append(column).append(" - (OLD.Rating = ").append(rating).append(")::INT");
+        }
+        String validRating = " BETWEEN " + RatingStats.MIN_RATING + " AND " + RatingStats.MAX_RATING;
+        statements.add(columns.toString());
+        statements.add(backfill + " FROM (" + counts + " FROM Review WHERE Rating" + validRating + " GROUP BY ID_book) r WHERE b.ID = r.ID_book");
+        statements.add("ALTER TABLE Review ADD CONSTRAINT chk_review_rating CHECK (Rating" + validRating + ") NOT VALID");
+        statements.add("CREATE OR REPLACE FUNCTION library_count_rating() RETURNS TRIGGER AS $$ " +
+                "BEGIN " +
+                "IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.Rating" + validRating + " THEN " +
+                deleteDelta + " WHERE ID = OLD.ID_book; " +
+                "END IF; " +
+                "IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.Rating" + validRating + " THEN " +
+                insertDelta + " WHERE ID = NEW.ID_book; " +
+                "END IF; " +
+                "RETURN NULL; " +
+                "END; $$ LANGUAGE plpgsql");
+        statements.add("DROP TRIGGER IF EXISTS trg_review_rating ON Review");
+        statements.add("CREATE TRIGGER trg_review_rating AFTER INSERT OR UPDATE OF Rating, ID_book OR DELETE ON Review " +
+                "FOR EACH ROW EXECUTE FUNCTION library_count_rating()");
+        return statements;
+    }
+
+    /**
+     * Builds the statements of a trigger function that sends the table and ID of every inserted, updated or deleted
+     * row on the {@link PostgresInvalidationBus#CHANNEL} channel, and of the triggers that call it on the given tables.
+     * The notices can be turned off for one transaction with {@code SET LOCAL library.notify_changes = 'off'}.
+     */
+    private static List<String> notifyTriggers(String... tables) {
+        List<String> statements = new ArrayList<>();
+        statements.add("CREATE OR REPLACE FUNCTION library_notify_change() RETURNS TRIGGER AS $$ " +
+                "BEGIN " +
+                "IF COALESCE(current_setting('library.notify_changes', TRUE), '') <> 'off' THEN " +
+                "IF TG_OP = 'DELETE' THEN " +
+                "PERFORM pg_notify('" + PostgresInvalidationBus.CHANNEL + "', lower(TG_TABLE_NAME) || ':' || OLD.ID); " +
+                "ELSE " +
+                "PERFORM pg_notify('" + PostgresInvalidationBus.CHANNEL + "', lower(TG_TABLE_NAME) || ':' || NEW.ID); " +
+                "END IF; " +
+                "END IF; " +
+                "RETURN NULL; " +
+                "END; $$ LANGUAGE plpgsql");
+        for (String table : tables) {
+            String trigger = "trg_" + table.toLowerCase() + "_notify_change";
+            statements.add("DROP TRIGGER IF EXISTS " + trigger + " ON " + table);
+            statements.add("CREATE TRIGGER " + trigger + " AFTER INSERT OR UPDATE OR DELETE ON " + table +
+                    " FOR EACH ROW EXECUTE FUNCTION library_notify_change()");
+        }
+        return statements;
+    }
+
+    private void createVersionTable(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS Schema_version (Version INT PRIMARY KEY, " +
+                "Description VARCHAR(255) NOT NULL, Applied_on TIMESTAMP NOT NULL)");
+    }
+
+    /**
+     * A numbered change to the schema.
+     *
+     * @param version     the schema version after the migration is applied
+     * @param description a short description of the change
+     * @param statements  the SQL statements of the migration
+     */
+    private record Migration(int version, String description, List<String> statements) {
+    }
+}
@@ -0,0 +1,550 @@
+package LibraryRepository.EventRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.Book;
+import LibraryModel.CirculationEvent;
+import LibraryModel.HasID;
+import LibraryModel.Loan;
+import LibraryModel.Member;
+import LibraryModel.Reservation;
+import LibraryRepository.EventRepository.CirculationProjection.LoanState;
+import LibraryRepository.EventRepository.CirculationProjection.ReservationState;
+import LibraryRepository.IRepository;
+import LibraryRepository.IRepositoryListener;
+import LibraryRepository.RepositoryListeners;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Stores the loans and reservations of the library as an append-only log of circulation events, instead of
+ * rewriting them in place. A write appends the events that describe the change, with one sequential write per
+ * batch, and the current loans and reservations are a projection folded from the events.
+ * <p>
+ * Every few events the projection is written as a snapshot, together with the position in the log it covers,
+ * so opening the store reads the snapshot and only the events written after it. An event that was only partly
+ * written when the application stopped is dropped from the end of the log; any other event or snapshot that
+ * cannot be read stops the store from opening, rather than losing the history after it. The whole history stays in the log
+ * and can be replayed with {@link #replay(Consumer)} to build other views of it.
+ * <p>
+ * Loans and reservations are read and written through the repositories returned by {@link #loans()} and
+ * {@link #reservations()}. The store keeps the IDs of their books and members and reads the books and members
+ * from their own repositories.
+ */
+public class CirculationEventStore implements AutoCloseable {
+
+    /**
+     * The default number of events written between two snapshots.
+     */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+
+    private static final String LOG_FILE = "circulation.log";
+    private static final String SNAPSHOT_FILE = "circulation.snapshot";
+
+    private final Path logPath;
+    private final Path snapshotPath;
+    private final int snapshotInterval;
+    private final IRepository<Book> bookRepo;
+    private final IRepository<Member> memberRepo;
+    private final LoanRepository loans = new LoanRepository();
+    private final ReservationRepository reservations = new ReservationRepository();
+    private final FileChannel log;
+
+    private CirculationProjection projection = new CirculationProjection();
+    private long sequence;
+    private long logSize;
+    private long snapshotSequence;
+    private DatabaseException snapshotFailure;
+
+    /**
+     * The projection after the first events of the log.
+     *
+     * @param sequence   the number of events applied
+     * @param logSize    the number of bytes of the log the events take
+     * @param projection the projection
+     */
+    private record Snapshot(long sequence, long logSize, CirculationProjection projection) implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Opens the circulation log in a directory, with the default snapshot interval.
+     *
+     * @param directory  the directory of the log and snapshot files
+     * @param bookRepo   the repository the books of the loans and reservations are read from
+     * @param memberRepo the repository the members of the loans and reservations are read from
+     * @throws DatabaseException if the log cannot be read
+     */
+    public CirculationEventStore(Path directory, IRepository<Book> bookRepo, IRepository<Member> memberRepo) throws DatabaseException {
+        this(directory, DEFAULT_SNAPSHOT_INTERVAL, bookRepo, memberRepo);
+    }
+
+    /**
+     * Opens the circulation log in a directory, creating it if it does not exist, and rebuilds the current
+     * loans and reservations from the last snapshot and the events after it.
+     *
+     * @param directory        the directory of the log and snapshot files
+     * @param snapshotInterval the number of events written between two snapshots
+     * @param bookRepo         the repository the books of the loans and reservations are read from
+     * @param memberRepo       the repository the members of the loans and reservations are read from
+     * @throws DatabaseException if the log or the snapshot cannot be read
+     */
+    public CirculationEventStore(Path directory, int snapshotInterval, IRepository<Book> bookRepo, IRepository<Member> memberRepo) throws DatabaseException {
+        this.logPath = directory.resolve(LOG_FILE);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.snapshotInterval = snapshotInterval;
+        this.bookRepo = bookRepo;
+        this.memberRepo = memberRepo;
+        try {
+            Files.createDirectories(directory);
+            this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new DatabaseException("Error opening circulation log: " + e.getMessage(), e);
+        }
+        try {
+            recover();
+        } catch (IOException | DatabaseException e) {
+            try {
+                log.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e instanceof DatabaseException databaseException ? databaseException
+                    : new DatabaseException("Error opening circulation log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the repository of the loans.
+     *
+     * @return the repository of the loans
+     */
+    public IRepository<Loan> loans() {
+        return loans;
+    }
+
+    /**
+     * Gets the repository of the reservations.
+     *
+     * @return the repository of the reservations
+     */
+    public IRepository<Reservation> reservations() {
+        return reservations;
+    }
+
+    /**
+     * Gets the number of events in the log.
+     *
+     * @return the number of events
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Replays the whole history of the log, from the first event, for example to build a new view of it.
+     * Events appended while the history is replayed are not included.
+     *
+     * @param consumer the consumer the events are given to, in order
+     * @throws DatabaseException if the log cannot be read
+     */
+    public void replay(Consumer<CirculationEvent> consumer) throws DatabaseException {
+        long end;
+        synchronized (this) {
+            end = logSize;
+        }
+        try {
+            readEvents(0, end, consumer);
+        } catch (IOException e) {
+            throw new DatabaseException("Error reading circulation log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the current projection as a snapshot, replacing the previous one.
+     *
+     * @throws DatabaseException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws DatabaseException {
+        Path temporary = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try {
+            Files.write(temporary, serialize(new Snapshot(sequence, logSize, projection)));
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotSequence = sequence;
+            snapshotFailure = null;
+        } catch (IOException e) {
+            throw new DatabaseException("Error writing circulation snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Closes the log file.
+     *
+     * @throws DatabaseException if the log cannot be closed, or if the last snapshot due could not be written
+     */
+    @Override
+    public synchronized void close() throws DatabaseException {
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new DatabaseException("Error closing circulation log: " + e.getMessage(), e);
+        }
+        if (snapshotFailure != null) {
+            throw snapshotFailure;
+        }
+    }
+
+    /**
+     * Rebuilds the projection from the snapshot, if there is one, and the events after it.
+     */
+    private void recover() throws IOException, DatabaseException {
+        Snapshot snapshot = readSnapshot();
+        if (snapshot != null) {
+            if (snapshot.logSize() > log.size()) {
+                throw new DatabaseException("Error reading circulation snapshot: it covers " + snapshot.logSize() +
+                        " bytes of the log, which only has " + log.size() + ".");
+            }
+            projection = snapshot.projection();
+            sequence = snapshot.sequence();
+            logSize = snapshot.logSize();
+            snapshotSequence = sequence;
+        }
+        logSize = readEvents(logSize, Long.MAX_VALUE, event -> {
+            projection.apply(event);
+            sequence++;
+        });
+        if (log.size() > logSize) {
+            log.truncate(logSize);
+        }
+    }
+
+    private Snapshot readSnapshot() throws DatabaseException {
+        if (!Files.exists(snapshotPath)) {
+            return null;
+        }
+        try {
+            return (Snapshot) deserialize(Files.readAllBytes(snapshotPath));
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new DatabaseException("Error reading circulation snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the events of the log between two positions. Every event is written as its length and its serialized
+     * form; reading stops at the end position or at the first event that is not complete.
+     *
+     * @return the position after the last complete event read
+     * @throws DatabaseException if a complete event cannot be read
+     */
+    private long readEvents(long start, long end, Consumer<CirculationEvent> consumer) throws IOException, DatabaseException {
+        try (InputStream file = Files.newInputStream(logPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            in.skipNBytes(start);
+            long position = start;
+            while (position < end) {
+                byte[] bytes;
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length < 0) {
+                        throw new DatabaseException("Error reading circulation log: invalid event length " + length + " at " + position + ".");
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                } catch (EOFException e) {
+                    // Only the write of the last event can have been cut off
+                    return position;
+                }
+                CirculationEvent event;
+                try {
+                    event = (CirculationEvent) deserialize(bytes);
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    throw new DatabaseException("Error reading circulation event at " + position + ": " + e.getMessage(), e);
+                }
+                consumer.accept(event);
+                position += Integer.BYTES + length;
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Appends events to the log in one write, then applies them to the projection. If the write fails, the log
+     * is cut back to its previous end and the projection is left unchanged.
+     */
+    private void append(List<CirculationEvent> events) throws DatabaseException {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream frames = new DataOutputStream(buffer);
+            for (CirculationEvent event : events) {
+                byte[] bytes = serialize(event);
+                frames.writeInt(bytes.length);
+                frames.write(bytes);
+            }
+            ByteBuffer batch = ByteBuffer.wrap(buffer.toByteArray());
+            long position = logSize;
+            try {
+                while (batch.hasRemaining()) {
+                    position += log.write(batch, position);
+                }
+            } catch (IOException e) {
+                log.truncate(logSize);
+                throw e;
+            }
+            logSize = position;
+        } catch (IOException e) {
+            throw new DatabaseException("Error writing circulation log: " + e.getMessage(), e);
+        }
+        for (CirculationEvent event : events) {
+            projection.apply(event);
+            sequence++;
+        }
+        if (sequence - snapshotSequence >= snapshotInterval) {
+            // The events are already written, so a failed snapshot does not fail the write: it is tried again
+            // after the next write, and reported when the store is closed if it is still missing
+            try {
+                snapshot();
+            } catch (DatabaseException e) {
+                snapshotFailure = e;
+            }
+        }
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static <T extends HasID> Map<Integer, T> byID(List<T> objects) {
+        Map<Integer, T> byID = new HashMap<>();
+        for (T obj : objects) {
+            byID.put(obj.getID(), obj);
+        }
+        return byID;
+    }
+
+    /**
+     * The loans of the store. Writes are turned into events by comparing the loans with their current state.
+     */
+    private class LoanRepository implements IRepository<Loan> {
+
+        private final RepositoryListeners<Loan> listeners = new RepositoryListeners<>();
+
+        @Override
+        public void add(Loan loan) throws DatabaseException {
+            saveChanges(List.of(loan), List.of(), List.of());
+        }
+
+        @Override
+        public Loan get(int id) throws DatabaseException {
+            LoanState state;
+            synchronized (CirculationEventStore.this) {
+                state = projection.loan(id);
+            }
+            return state == null ? null : toLoan(state, bookRepo.get(state.bookID()), memberRepo.get(state.memberID()));
+        }
+
+        @Override
+        public void update(Loan loan) throws DatabaseException {
+            saveChanges(List.of(), List.of(loan), List.of());
+        }
+
+        @Override
+        public void delete(int id) throws DatabaseException {
+            saveChanges(List.of(), List.of(), List.of(id));
+        }
+
+        @Override
+        public List<Loan> getAll() throws DatabaseException {
+            List<LoanState> states;
+            synchronized (CirculationEventStore.this) {
+                states = projection.loans();
+            }
+            states.sort(Comparator.comparingInt(LoanState::loanID));
+            Map<Integer, Book> books = byID(bookRepo.getAll());
+            Map<Integer, Member> members = byID(memberRepo.getAll());
+            List<Loan> all = new ArrayList<>(states.size());
+            for (LoanState state : states) {
+                all.add(toLoan(state, books.get(state.bookID()), members.get(state.memberID())));
+            }
+            return all;
+        }
+
+        /**
+         * Appends the events of all the changes in one write of the log.
+         */
+        @Override
+        public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+            List<Loan> addedLoans = new ArrayList<>();
+            List<Loan> updatedLoans = new ArrayList<>();
+            List<Integer> deletedIDs = new ArrayList<>();
+            synchronized (CirculationEventStore.this) {
+                List<CirculationEvent> events = new ArrayList<>();
+                for (Loan loan : added) {
+                    if (projection.loan(loan.getID()) == null) {
+                        events.addAll(CirculationProjection.loanCreation(loan));
+                        addedLoans.add(loan);
+                    }
+                }
+                for (Loan loan : updated) {
+                    LoanState current = projection.loan(loan.getID());
+                    if (current != null) {
+                        events.addAll(CirculationProjection.loanChanges(current, loan));
+                        updatedLoans.add(loan);
+                    }
+                }
+                for (int id : deleted) {
+                    if (projection.loan(id) != null) {
+                        events.add(new CirculationEvent.LoanDeleted(id));
+                        deletedIDs.add(id);
+                    }
+                }
+                append(events);
+            }
+            addedLoans.forEach(listeners::fireAdded);
+            updatedLoans.forEach(listeners::fireUpdated);
+            deletedIDs.forEach(listeners::fireDeleted);
+        }
+
+        @Override
+        public void addListener(IRepositoryListener<Loan> listener) {
+            listeners.add(listener);
+        }
+
+        private Loan toLoan(LoanState state, Book book, Member member) {
+            return new Loan(state.loanID(), state.loanDate(), state.dueDate(), state.returnDate(), state.status(), book, member);
+        }
+    }
+
+    /**
+     * The reservations of the store. A deleted reservation is recorded as fulfilled by the loan the member
+     * got for the book, or as cancelled if there is no such loan.
+     */
+    private class ReservationRepository implements IRepository<Reservation> {
+
+        private final RepositoryListeners<Reservation> listeners = new RepositoryListeners<>();
+
+        @Override
+        public void add(Reservation reservation) throws DatabaseException {
+            saveChanges(List.of(reservation), List.of(), List.of());
+        }
+
+        @Override
+        public Reservation get(int id) throws DatabaseException {
+            ReservationState state;
+            synchronized (CirculationEventStore.this) {
+                state = projection.reservation(id);
+            }
+            return state == null ? null : toReservation(state, bookRepo.get(state.bookID()), memberRepo.get(state.memberID()));
+        }
+
+        @Override
+        public void update(Reservation reservation) throws DatabaseException {
+            saveChanges(List.of(), List.of(reservation), List.of());
+        }
+
+        @Override
+        public void delete(int id) throws DatabaseException {
+            saveChanges(List.of(), List.of(), List.of(id));
+        }
+
+        @Override
+        public List<Reservation> getAll() throws DatabaseException {
+            List<ReservationState> states;
+            synchronized (CirculationEventStore.this) {
+                states = projection.reservations();
+            }
+            states.sort(Comparator.comparingInt(ReservationState::reservationID));
+            Map<Integer, Book> books = byID(bookRepo.getAll());
+            Map<Integer, Member> members = byID(memberRepo.getAll());
+            List<Reservation> all = new ArrayList<>(states.size());
+            for (ReservationState state : states) {
+                all.add(toReservation(state, books.get(state.bookID()), members.get(state.memberID())));
+            }
+            return all;
+        }
+
+        /**
+         * Appends the events of all the changes in one write of the log.
+         */
+        @Override
+        public void saveChanges(List<Reservation> added, List<Reservation> updated, List<Integer> deleted) throws DatabaseException {
+            List<Reservation> addedReservations = new ArrayList<>();
+            List<Reservation> updatedReservations = new ArrayList<>();
+            List<Integer> deletedIDs = new ArrayList<>();
+            synchronized (CirculationEventStore.this) {
+                List<CirculationEvent> events = new ArrayList<>();
+                for (Reservation reservation : added) {
+                    if (projection.reservation(reservation.getID()) == null) {
+                        ReservationState state = ReservationState.of(reservation);
+                        events.add(new CirculationEvent.ReservationPlaced(state.reservationID(), state.bookID(), state.memberID(), state.reservationDate()));
+                        addedReservations.add(reservation);
+                    }
+                }
+                for (Reservation reservation : updated) {
+                    ReservationState current = projection.reservation(reservation.getID());
+                    if (current != null) {
+                        ReservationState state = ReservationState.of(reservation);
+                        if (!state.equals(current)) {
+                            events.add(new CirculationEvent.ReservationRevised(state.reservationID(), state.bookID(), state.memberID(), state.reservationDate()));
+                        }
+                        updatedReservations.add(reservation);
+                    }
+                }
+                for (int id : deleted) {
+                    ReservationState current = projection.reservation(id);
+                    if (current != null) {
+                        events.add(projection.reservationClosing(current));
+                        deletedIDs.add(id);
+                    }
+                }
+                append(events);
+            }
+            addedReservations.forEach(listeners::fireAdded);
+            updatedReservations.forEach(listeners::fireUpdated);
+            deletedIDs.forEach(listeners::fireDeleted);
+        }
+
+        @Override
+        public void addListener(IRepositoryListener<Reservation> listener) {
+            listeners.add(listener);
+        }
+
+        private Reservation toReservation(ReservationState state, Book book, Member member) {
+            return new Reservation(state.reservationID(), state.reservationDate(), book, member);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package LibraryRepository.EventRepository;
+
+import LibraryModel.CirculationEvent;
+import LibraryModel.CirculationEvent.*;
+import LibraryModel.HasID;
+import LibraryModel.Loan;
+import LibraryModel.Reservation;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The current loans and reservations, folded from the circulation events. Loans and reservations are kept
+ * as plain values with the IDs of their books and members, so the projection is small enough to be written
+ * whole as a snapshot.
+ */
+
+class CirculationProjection implements Serializable {
+
+    private static final long serialVersionUID = -6396629855665565326L;
+
+    private final HashMap<Integer, LoanState> loans = new HashMap<>();
+    private final HashMap<Integer, ReservationState> reservations = new HashMap<>();
+
+    /**
+     * The state of a loan.
+     */
+    record LoanState(int loanID, int bookID, int memberID, LocalDate loanDate, LocalDate dueDate, LocalDate returnDate,
+                     String status) implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static LoanState of(Loan loan) {
+            return new LoanState(loan.getID(), idOf(loan.getBook()), idOf(loan.getMember()), loan.getLoanDate(),
+                    loan.getDueDate(), loan.getReturnDate(), loan.getStatus());
+        }
+
+        LoanState returned(LocalDate returnDate) {
+            return new LoanState(loanID, bookID, memberID, loanDate, dueDate, returnDate, "RETURNED");
+        }
+
+        LoanState overdue() {
+            return new LoanState(loanID, bookID, memberID, loanDate, dueDate, returnDate, "OVERDUE");
+        }
+    }
+
+    /**
+     * The state of a reservation.
+     */
+    record ReservationState(int reservationID, int bookID, int memberID, LocalDate reservationDate) implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static ReservationState of(Reservation reservation) {
+            return new ReservationState(reservation.getID(), idOf(reservation.getBook()), idOf(reservation.getMember()),
+                    reservation.getReservationDate());
+        }
+    }
+
+    LoanState loan(int loanID) {
+        return loans.get(loanID);
+    }
+
+    List<LoanState> loans() {
+        return new ArrayList<>(loans.values());
+    }
+
+    ReservationState reservation(int reservationID) {
+        return reservations.get(reservationID);
+    }
+
+    List<ReservationState> reservations() {
+        return new ArrayList<>(reservations.values());
+    }
+
+    /**
+     * Applies an event to the current state.
+     *
+     * @param event the event
+     */
+    void apply(CirculationEvent event) {
+        switch (event) {
+            case LoanCreated created -> loans.put(created.loanID(), new LoanState(created.loanID(), created.bookID(),
+                    created.memberID(), created.loanDate(), created.dueDate(), null, "ACTIVE"));
+            case LoanReturned returned -> loans.computeIfPresent(returned.loanID(), (id, loan) -> loan.returned(returned.returnDate()));
+            case LoanMarkedOverdue overdue -> loans.computeIfPresent(overdue.loanID(), (id, loan) -> loan.overdue());
+            case LoanRevised revised -> loans.put(revised.loanID(), new LoanState(revised.loanID(), revised.bookID(),
+                    revised.memberID(), revised.loanDate(), revised.dueDate(), revised.returnDate(), revised.status()));
+            case LoanDeleted deleted -> loans.remove(deleted.loanID());
+            case ReservationPlaced placed -> reservations.put(placed.reservationID(), new ReservationState(placed.reservationID(),
+                    placed.bookID(), placed.memberID(), placed.reservationDate()));
+            case ReservationRevised revised -> reservations.put(revised.reservationID(), new ReservationState(revised.reservationID(),
+                    revised.bookID(), revised.memberID(), revised.reservationDate()));
+            case ReservationFulfilled fulfilled -> reservations.remove(fulfilled.reservationID());
+            case ReservationCancelled cancelled -> reservations.remove(cancelled.reservationID());
+        }
+    }
+
+    /**
+     * Gets the events that turn the current state of a loan into a new state: the most specific event
+     * that does it, or a revision with the whole new state.
+     *
+     * @param current the current state of the loan
+     * @param loan the loan with its new state
+     * @return the events, empty if the loan did not change
+     */
+    static List<CirculationEvent> loanChanges(LoanState current, Loan loan) {
+        LoanState target = LoanState.of(loan);
+        if (target.equals(current)) {
+            return List.of();
+        }
+        if (target.equals(current.returned(target.returnDate()))) {
+            return List.of(new LoanReturned(target.loanID(), target.returnDate()));
+        }
+        if (target.equals(current.overdue())) {
+            return List.of(new LoanMarkedOverdue(target.loanID()));
+        }
+        return List.of(new LoanRevised(target.loanID(), target.bookID(), target.memberID(), target.loanDate(),
+                target.dueDate(), target.returnDate(), target.status()));
+    }
+
+    /**
+     * Gets the events that record a new loan: its creation, then whatever brings it to its state if it is
+     * not a new active loan, such as a loan imported already returned.
+     *
+     * @param loan the new loan
+     * @return the events
+     */
+    static List<CirculationEvent> loanCreation(Loan loan) {
+        LoanState target = LoanState.of(loan);
+        LoanState created = new LoanState(target.loanID(), target.bookID(), target.memberID(), target.loanDate(),
+                target.dueDate(), null, "ACTIVE");
+        List<CirculationEvent> events = new ArrayList<>();
+        events.add(new LoanCreated(target.loanID(), target.bookID(), target.memberID(), target.loanDate(), target.dueDate()));
+        events.addAll(loanChanges(created, loan));
+        return events;
+    }
+
+    /**
+     * Gets the event that closes a reservation: fulfilled if the member has an active loan of the book
+     * made since the reservation, which is how the service closes reservations, cancelled otherwise.
+     *
+     * @param reservation the reservation that is closed
+     * @return the event
+     */
+    CirculationEvent reservationClosing(ReservationState reservation) {
+        int loanID = -1;
+        for (LoanState loan : loans.values()) {
+            if (loan.bookID() == reservation.bookID() && loan.memberID() == reservation.memberID()
+                    && !"RETURNED".equals(loan.status()) && !isBefore(loan.loanDate(), reservation.reservationDate())) {
+                loanID = Math.max(loanID, loan.loanID());
+            }
+        }
+        return loanID < 0 ? new ReservationCancelled(reservation.reservationID()) : new ReservationFulfilled(reservation.reservationID(), loanID);
+    }
+
+    private static boolean isBefore(LocalDate date, LocalDate other) {
+        return date != null && other != null && date.isBefore(other);
+    }
+
+    private static int idOf(HasID obj) {
+        return obj == null ? -1 : obj.getID();
+    }
+}
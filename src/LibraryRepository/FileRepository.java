@@ -1,5 +1,6 @@
 package LibraryRepository;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,6 +10,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.function.Consumer;
+import Exceptions.DatabaseException;
 import LibraryModel.HasID;
 import java.io.File;
 
@@ -21,6 +23,7 @@ import java.io.File;
 public class FileRepository<T extends HasID> implements IRepository<T> {
 
     private final String filePath;
+    private final RepositoryListeners<T> listeners = new RepositoryListeners<>();
 
     /**
      * Constructs a new FileRepository with the specified file path.
@@ -35,40 +38,82 @@ public class FileRepository<T extends HasID> implements IRepository<T> {
     }
 
     @Override
-    public void add(T obj) {
+    public void add(T obj) throws DatabaseException {
         System.out.println("Adding object with ID: " + obj.getID());
-        doInFile(data -> data.putIfAbsent(obj.getID(), obj));
+        boolean[] added = new boolean[1];
+        doInFile(data -> added[0] = data.putIfAbsent(obj.getID(), obj) == null);
+        if (added[0]) {
+            listeners.fireAdded(obj);
+        }
     }
 
     @Override
-    public T get(int id) {
+    public T get(int id) throws DatabaseException {
         return readDataFromFile().get(id);
     }
 
     @Override
-    public void update(T obj) {
+    public void update(T obj) throws DatabaseException {
         System.out.println("Updating object with ID: " + obj.getID());
-        doInFile(data -> data.replace(obj.getID(), obj));
+        boolean[] updated = new boolean[1];
+        doInFile(data -> updated[0] = data.replace(obj.getID(), obj) != null);
+        if (updated[0]) {
+            listeners.fireUpdated(obj);
+        }
     }
 
     @Override
-    public void delete(int id) {
+    public void delete(int id) throws DatabaseException {
         System.out.println("Deleting object with ID: " + id);
-        doInFile(data -> data.remove(id));
+        boolean[] deleted = new boolean[1];
+        doInFile(data -> deleted[0] = data.remove(id) != null);
+        if (deleted[0]) {
+            listeners.fireDeleted(id);
+        }
     }
 
     @Override
-    public List<T> getAll() {
+    public List<T> getAll() throws DatabaseException {
         return readDataFromFile().values().stream().toList();
     }
 
+    /**
+     * Applies all the changes with a single read and a single write of the file.
+     *
+     * @param added   the objects to be added
+     * @param updated the objects to be updated
+     * @param deleted the IDs of the objects to be deleted
+     */
+
+    @Override
+    public void saveChanges(List<T> added, List<T> updated, List<Integer> deleted) throws DatabaseException {
+        System.out.println("Saving changes: " + added.size() + " added, " + updated.size() + " updated, " + deleted.size() + " deleted");
+        List<T> addedObjects = new ArrayList<>();
+        List<T> updatedObjects = new ArrayList<>();
+        List<Integer> deletedIDs = new ArrayList<>();
+        doInFile(data -> {
+            added.stream().filter(obj -> data.putIfAbsent(obj.getID(), obj) == null).forEach(addedObjects::add);
+            updated.stream().filter(obj -> data.replace(obj.getID(), obj) != null).forEach(updatedObjects::add);
+            deleted.stream().filter(id -> data.remove(id) != null).forEach(deletedIDs::add);
+        });
+        addedObjects.forEach(listeners::fireAdded);
+        updatedObjects.forEach(listeners::fireUpdated);
+        deletedIDs.forEach(listeners::fireDeleted);
+    }
+
+    @Override
+    public void addListener(IRepositoryListener<T> listener) {
+        listeners.add(listener);
+    }
+
     /**
      * Performs an operation on the data stored in the file.
      *
      * @param function The function to apply to the data.
+     * @throws DatabaseException if the file cannot be read or written.
      */
 
-    private void doInFile(Consumer<Map<Integer, T>> function) {
+    private void doInFile(Consumer<Map<Integer, T>> function) throws DatabaseException {
         Map<Integer, T> data = readDataFromFile();
         function.accept(data);
         writeDataToFile(data);
@@ -78,23 +123,30 @@ public class FileRepository<T extends HasID> implements IRepository<T> {
      * Reads the data from the file.
      *
      * @return The data stored in the file, or an empty map if the file is empty or does not exist.
+     * @throws DatabaseException if the file exists but cannot be read, so that it is never overwritten with
+     *                           an empty map.
      */
 
-    private Map<Integer, T> readDataFromFile() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (Map<Integer, T>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+    private Map<Integer, T> readDataFromFile() throws DatabaseException {
+        File file = new File(filePath);
+        if (!file.exists() || file.length() == 0) {
             return new HashMap<>();
         }
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+            return (Map<Integer, T>) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new DatabaseException("Unable to read " + filePath + ": " + e.getMessage(), e);
+        }
     }
 
     /**
      * Writes the data to the file.
      *
      * @param data The data to write to the file.
+     * @throws DatabaseException if the file cannot be written.
      */
 
-    private void writeDataToFile(Map<Integer, T> data) {
+    private void writeDataToFile(Map<Integer, T> data) throws DatabaseException {
         try {
             // Check if the file exists, and if not, create it
             File file = new File(filePath);
@@ -106,7 +158,7 @@ public class FileRepository<T extends HasID> implements IRepository<T> {
             }
         }
         catch (IOException e) {
-            System.err.println("Error writing to file: " + e.getMessage());
+            throw new DatabaseException("Unable to write " + filePath + ": " + e.getMessage(), e);
         }
     }
 
@@ -0,0 +1,31 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.BookSummary;
+
+import java.util.List;
+
+/**
+ * An interface for repositories that can read book listings as summaries,
+ * without loading the author, category, publisher and reviews of every book.
+ */
+
+public interface IBookSummaryRepository {
+
+    /**
+     * Retrieves the summaries of all books, ordered by ID.
+     *
+     * @return a list of book summaries
+     */
+
+    List<BookSummary> getBookSummaries() throws DatabaseException;
+
+    /**
+     * Retrieves the summaries of the books written by an author, ordered by ID.
+     *
+     * @param authorID the ID of the author
+     * @return a list of book summaries
+     */
+
+    List<BookSummary> getBookSummariesByAuthor(int authorID) throws DatabaseException;
+}
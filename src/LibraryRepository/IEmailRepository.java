@@ -0,0 +1,23 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.Person;
+
+/**
+ * An interface for repositories of people that can look a person up by email address directly in the store,
+ * through a unique index on the lower-case address, without reading all the people.
+ *
+ * @param <T> the type of people managed by the repository
+ */
+
+public interface IEmailRepository<T extends Person> {
+
+    /**
+     * Finds the person with the given email address, ignoring case.
+     *
+     * @param email the email address
+     * @return the person with the email address, or null if there is none
+     */
+
+    T findByEmail(String email) throws DatabaseException;
+}
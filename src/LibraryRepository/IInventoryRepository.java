@@ -0,0 +1,41 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+
+/**
+ * An interface for repositories that can change the number of available copies of a book
+ * directly in the store, without reading and writing back the whole book.
+ */
+
+public interface IInventoryRepository {
+
+    /**
+     * Takes one copy of a book if the store still has one available.
+     * The check and the decrement are a single atomic operation in the store.
+     *
+     * @param bookID the ID of the book
+     * @return the number of copies left after taking one, or -1 if the book is not available or has no copy left
+     */
+
+    int takeCopy(int bookID) throws DatabaseException;
+
+    /**
+     * Puts one copy of a book back into the store.
+     *
+     * @param bookID the ID of the book
+     * @return the number of copies available after the return, or -1 if the book does not exist
+     */
+
+    int returnCopy(int bookID) throws DatabaseException;
+
+    /**
+     * Sets the availability of a book and, unless the number of copies is negative, the number of its copies.
+     *
+     * @param bookID the ID of the book
+     * @param copies the number of copies available, or -1 to keep the current number
+     * @param available whether the book can be borrowed
+     * @return the number of copies available, or -1 if the book does not exist
+     */
+
+    int setCopies(int bookID, int copies, boolean available) throws DatabaseException;
+}
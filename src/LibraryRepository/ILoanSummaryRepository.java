@@ -0,0 +1,23 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.LoanSummary;
+
+import java.util.List;
+
+/**
+ * An interface for repositories that can read loan listings as summaries,
+ * without loading the book and member of every loan.
+ */
+
+public interface ILoanSummaryRepository {
+
+    /**
+     * Retrieves the summaries of the active loans of a member, ordered by ID.
+     *
+     * @param memberID the ID of the member
+     * @return a list of loan summaries
+     */
+
+    List<LoanSummary> getActiveLoanSummaries(int memberID) throws DatabaseException;
+}
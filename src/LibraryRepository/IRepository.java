@@ -4,6 +4,7 @@ import Exceptions.DatabaseException;
 import LibraryModel.HasID;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * A generic interface for a repository that manages objects of type T,
@@ -54,4 +55,47 @@ public interface IRepository<T extends HasID> {
      */
 
     List<T> getAll() throws DatabaseException;
+
+    /**
+     * Registers a listener that is told about every object added, updated or deleted
+     * through this repository.
+     *
+     * @param listener the listener to register
+     */
+
+    void addListener(IRepositoryListener<T> listener);
+
+    /**
+     * Streams all objects in the repository.
+     * Implementations backed by a database may read the objects lazily, so the stream
+     * must be closed once it is consumed, preferably with try-with-resources.
+     * Errors that happen while the stream is read are thrown as UncheckedDatabaseException.
+     *
+     * @return a stream of all objects in the repository
+     */
+
+    default Stream<T> streamAll() throws DatabaseException {
+        return getAll().stream();
+    }
+
+    /**
+     * Applies a batch of changes to the repository.
+     * Implementations may override this to persist the whole batch in a single write.
+     *
+     * @param added   the objects to be added to the repository
+     * @param updated the objects to be updated in the repository
+     * @param deleted the IDs of the objects to be deleted
+     */
+
+    default void saveChanges(List<T> added, List<T> updated, List<Integer> deleted) throws DatabaseException {
+        for (T obj : added) {
+            add(obj);
+        }
+        for (T obj : updated) {
+            update(obj);
+        }
+        for (int id : deleted) {
+            delete(id);
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package LibraryRepository;
+
+import LibraryModel.HasID;
+
+/**
+ * A listener that is told about the changes written to a repository, so that indexes built
+ * from the repository can be kept up to date without reading it again.
+ * <p>
+ * Listeners are called once the unit of work that wrote the change commits, and are not called at all if
+ * it rolls back; a change written outside a unit of work is told about at once. A listener is called on the
+ * thread that commits, unless it is registered through the event bus of the service, which calls it later
+ * on the lane of the changed object, one change at a time in the order they were written.
+ *
+ * @param <T> the type of objects managed by the repository
+ */
+
+public interface IRepositoryListener<T extends HasID> {
+
+    /**
+     * Called after an object is added to the repository and the addition is committed.
+     *
+     * @param obj the added object
+     */
+
+    default void added(T obj) {
+    }
+
+    /**
+     * Called after an object is updated in the repository and the update is committed.
+     *
+     * @param obj the updated object
+     */
+
+    default void updated(T obj) {
+    }
+
+    /**
+     * Called after an object is deleted from the repository and the deletion is committed.
+     *
+     * @param id the ID of the deleted object
+     */
+
+    default void deleted(int id) {
+    }
+}
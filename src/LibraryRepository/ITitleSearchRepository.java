@@ -0,0 +1,23 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.Book;
+
+import java.util.List;
+
+/**
+ * An interface for repositories of books that can search titles directly in the store,
+ * through a trigram index on the titles, without reading all the books.
+ */
+
+public interface ITitleSearchRepository {
+
+    /**
+     * Finds the books whose titles contain the search term, ignoring case.
+     *
+     * @param term the search term
+     * @return a list of the matching books, ordered by ID
+     */
+
+    List<Book> searchByTitle(String term) throws DatabaseException;
+}
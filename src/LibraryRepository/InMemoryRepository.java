@@ -2,20 +2,24 @@ package LibraryRepository;
 
 import LibraryModel.HasID;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An in-memory implementation of the IRepository interface for managing objects
  * that implement the HasID interface.
+ * <p>
+ * The objects are kept in a concurrent map, so operations of the service on different objects can
+ * read and write the repository from several threads at once.
  *
  * @param <T> the type of objects managed by this repository, which must implement HasID
  */
 
 public class InMemoryRepository<T extends HasID> implements IRepository<T>{
 
-    private final Map<Integer, T> data = new HashMap<>();
+    private final Map<Integer, T> data = new ConcurrentHashMap<>();
+    private final RepositoryListeners<T> listeners = new RepositoryListeners<>();
 
     /**
      * Adds a new object to the repository.
@@ -27,7 +31,9 @@ public class InMemoryRepository<T extends HasID> implements IRepository<T>{
 
     @Override
     public void add(T obj) {
-        data.putIfAbsent(obj.getID(), obj);
+        if (data.putIfAbsent(obj.getID(), obj) == null) {
+            listeners.fireAdded(obj);
+        }
     }
 
     /**
@@ -40,7 +46,9 @@ public class InMemoryRepository<T extends HasID> implements IRepository<T>{
 
     @Override
     public void update(T obj) {
-        data.replace(obj.getID(), obj);
+        if (data.replace(obj.getID(), obj) != null) {
+            listeners.fireUpdated(obj);
+        }
     }
 
     /**
@@ -51,7 +59,9 @@ public class InMemoryRepository<T extends HasID> implements IRepository<T>{
 
     @Override
     public void delete(int id) {
-        data.remove(id);
+        if (data.remove(id) != null) {
+            listeners.fireDeleted(id);
+        }
     }
 
     /**
@@ -76,4 +86,15 @@ public class InMemoryRepository<T extends HasID> implements IRepository<T>{
     public List<T> getAll() {
         return data.values().stream().toList();
     }
+
+    /**
+     * Registers a listener that is told about every object added, updated or deleted.
+     *
+     * @param listener the listener to register
+     */
+
+    @Override
+    public void addListener(IRepositoryListener<T> listener) {
+        listeners.add(listener);
+    }
 }
@@ -0,0 +1,97 @@
+package LibraryRepository;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Decides, for the current thread, whether reads may be served by a read replica that can lag behind the
+ * primary database.
+ * <p>
+ * Work that acts on what it reads, such as a checkout or a return, pins its reads to the primary with
+ * {@link #pinToPrimary()} and unpins them in a finally block with {@link #unpinFromPrimary()}. Writes are recorded with {@link #recordWrite()}, so that a thread can keep reading
+ * its own writes from the primary for a while after it made them. Work that a thread hands over to another
+ * thread carries this state with it when it is wrapped with {@link #propagate(Callable)}.
+ */
+public final class ReadRouting {
+
+    private static final ThreadLocal<ReadRouting> CURRENT = ThreadLocal.withInitial(ReadRouting::new);
+
+    private int pinned;
+    private boolean written;
+    private long lastWrite;
+
+    private ReadRouting() {
+    }
+
+    /**
+     * Sends all reads of the current thread to the primary until {@link #unpinFromPrimary()} is called.
+     * Pins nest: the reads stay on the primary until every pin is undone.
+     */
+    public static void pinToPrimary() {
+        CURRENT.get().pinned++;
+    }
+
+    /**
+     * Undoes the last {@link #pinToPrimary()} of the current thread.
+     */
+    public static void unpinFromPrimary() {
+        CURRENT.get().pinned--;
+    }
+
+    /**
+     * Checks whether the reads of the current thread are pinned to the primary.
+     *
+     * @return true between {@link #pinToPrimary()} and the matching {@link #unpinFromPrimary()}
+     */
+    public static boolean isPinnedToPrimary() {
+        return CURRENT.get().pinned > 0;
+    }
+
+    /**
+     * Records that the current thread has just written to the primary.
+     */
+    public static void recordWrite() {
+        ReadRouting routing = CURRENT.get();
+        routing.written = true;
+        routing.lastWrite = System.nanoTime();
+    }
+
+    /**
+     * Checks whether the current thread wrote to the primary within the given time.
+     *
+     * @param nanos the time in nanoseconds
+     * @return true if the last write of the thread is more recent than that
+     */
+    public static boolean wroteWithin(long nanos) {
+        ReadRouting routing = CURRENT.get();
+        return routing.written && System.nanoTime() - routing.lastWrite <= nanos;
+    }
+
+    /**
+     * Wraps a task so that it reads with the routing of the current thread, whichever thread runs it.
+     *
+     * @param task the task
+     * @return the task, with the routing of the current thread
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        ReadRouting caller = CURRENT.get();
+        int pinned = caller.pinned;
+        boolean written = caller.written;
+        long lastWrite = caller.lastWrite;
+        return () -> {
+            ReadRouting routing = CURRENT.get();
+            int ownPinned = routing.pinned;
+            boolean ownWritten = routing.written;
+            long ownLastWrite = routing.lastWrite;
+            routing.pinned = pinned;
+            routing.written = written;
+            routing.lastWrite = lastWrite;
+            try {
+                return task.call();
+            } finally {
+                routing.pinned = ownPinned;
+                routing.written = ownWritten;
+                routing.lastWrite = ownLastWrite;
+            }
+        };
+    }
+}
@@ -2,9 +2,22 @@ package LibraryRepository;
 
 import Exceptions.DatabaseException;
 import LibraryModel.*;
+import LibraryRepository.DataBaseRepository.ConnectionPool;
+import LibraryRepository.DataBaseRepository.ConnectionRouter;
+import LibraryRepository.DataBaseRepository.DBRepository;
 import LibraryRepository.DataBaseRepository.ObjectDBRepositories.*;
+import LibraryRepository.DataBaseRepository.PostgresInvalidationBus;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import LibraryRepository.EventRepository.CirculationEventStore;
 
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class that represents dynamic repository selection.
@@ -16,6 +29,39 @@ public class RepositoryFactory {
     private static final String DATABASE_USER = "postgres";
     private static final String DATABASE_PASSWORD = "password";
 
+    /**
+     * System property with the comma-separated URLs of the read replicas of the database.
+     * The replicas use the same user and password as the primary. Without replicas, all statements go to the primary.
+     */
+    public static final String REPLICA_URLS_PROPERTY = "library.db.replicas";
+
+    /**
+     * System property that selects how a replica is chosen for a read: round-robin (default) or least-latency.
+     */
+    public static final String REPLICA_SELECTION_PROPERTY = "library.db.replicaSelection";
+
+    /**
+     * System property with the number of milliseconds the reads of a thread stay on the primary after it wrote (default 2000).
+     */
+    public static final String READ_YOUR_WRITES_PROPERTY = "library.db.readYourWritesMillis";
+
+    /**
+     * System property with the number of milliseconds a replica may lag behind the primary and still be read (default 5000).
+     */
+    public static final String MAX_REPLICA_LAG_PROPERTY = "library.db.maxReplicaLagMillis";
+
+    /**
+     * System property that turns on the caching of the entities read by ID (default false). The caches of every
+     * instance of the application are kept fresh through PostgreSQL LISTEN/NOTIFY.
+     */
+    public static final String CACHE_PROPERTY = "library.db.cache";
+
+    private static final Path FILE_REPOSITORY_DIRECTORY = Paths.get("src", "LibraryRepository", "FileRepositories");
+
+    private static ConnectionPool connectionPool;
+    private static PostgresInvalidationBus invalidationBus;
+    private static CirculationEventStore circulationStore;
+
     /**
      * Creates a repository based on the repositoryType that is given (in-memory, file or database)
      *
@@ -27,8 +73,10 @@ public class RepositoryFactory {
         return switch (repositoryType.toLowerCase()) {
             case "inmemory" -> new InMemoryRepository<>();
             case "file" -> {
-                String fileName = cls.getSimpleName().toLowerCase() + ".txt";
-                String filePath = Paths.get("src", "LibraryRepository", "FileRepositories", fileName).toString();
+                if (cls.equals(Loan.class) || cls.equals(Reservation.class)) {
+                    yield createCirculationRepository(cls);
+                }
+                String filePath = getFilePath(cls);
                 System.out.println("Creating FileRepository at: " + filePath); // Debugging output
                 yield new FileRepository<>(filePath);
             }
@@ -37,38 +85,148 @@ public class RepositoryFactory {
         };
     }
 
+    private static String getFilePath(Class<?> cls) {
+        return FILE_REPOSITORY_DIRECTORY.resolve(cls.getSimpleName().toLowerCase() + ".txt").toString();
+    }
+
+    /**
+     * Creates the file repository of the loans or of the reservations. Loans and reservations are not rewritten
+     * in their own files; both repositories append to one circulation event log.
+     *
+     * @param cls Loan or Reservation
+     * @return the repository of the class, backed by the circulation event log
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends HasID> IRepository<T> createCirculationRepository(Class<T> cls) {
+        CirculationEventStore store = getCirculationStore();
+        return (IRepository<T>) (cls.equals(Loan.class) ? store.loans() : store.reservations());
+    }
+
+    /**
+     * Gets the circulation event log shared by the file repositories of the loans and reservations, opening it
+     * on first use. A new log starts with the loans and reservations of the files used before the log existed.
+     *
+     * @return the circulation event log
+     */
+    private static synchronized CirculationEventStore getCirculationStore() {
+        if (circulationStore == null) {
+            try {
+                circulationStore = new CirculationEventStore(FILE_REPOSITORY_DIRECTORY,
+                        createRepository(Book.class, "file"), createRepository(Member.class, "file"));
+                if (circulationStore.getSequence() == 0) {
+                    circulationStore.loans().saveChanges(new FileRepository<Loan>(getFilePath(Loan.class)).getAll(), List.of(), List.of());
+                    circulationStore.reservations().saveChanges(new FileRepository<Reservation>(getFilePath(Reservation.class)).getAll(), List.of(), List.of());
+                }
+            } catch (DatabaseException e) {
+                throw new IllegalStateException("Unable to open the circulation log: " + e.getMessage(), e);
+            }
+        }
+        return circulationStore;
+    }
+
     /**
      * Creates a database repository for the specified class.
+     * All database repositories share one connection pool, so a unit of work can write them in a single transaction.
+     * If caching is turned on, the repository caches the entities it reads by ID.
      *
      * @param cls the Class that the repository is created for
      * @return a database repository for the specified class
      */
-    @SuppressWarnings("unchecked")
     private static <T extends HasID> IRepository<T> createDatabaseRepository(Class<T> cls) {
         try {
-            if (cls.equals(Author.class)) {
-                return (IRepository<T>) new AuthorDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Book.class)) {
-                return (IRepository<T>) new BookDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Category.class)) {
-                return (IRepository<T>) new CategoryDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Member.class)) {
-                return (IRepository<T>) new MemberDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Publisher.class)) {
-                return (IRepository<T>) new PublisherDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Staff.class)) {
-                return (IRepository<T>) new StaffDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Loan.class)) {
-                return (IRepository<T>) new LoanDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Reservation.class)) {
-                return (IRepository<T>) new ReservationDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
-            } else if (cls.equals(Review.class)) {
-                return (IRepository<T>) new ReviewDBRepository(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
+            DBRepository<T> repository = newDatabaseRepository(cls, getConnectionPool().getConnection());
+            if (Boolean.getBoolean(CACHE_PROPERTY)) {
+                repository.enableCache(getInvalidationBus());
             }
+            return repository;
         } catch (DatabaseException e) {
             System.err.println("Error creating database repository: " + e.getMessage());
         }
         throw new IllegalArgumentException("No database repository found for class: " + cls.getSimpleName());
     }
 
+    @SuppressWarnings("unchecked")
+    private static <T extends HasID> DBRepository<T> newDatabaseRepository(Class<T> cls, Connection connection) {
+        if (cls.equals(Author.class)) {
+            return (DBRepository<T>) new AuthorDBRepository(connection);
+        } else if (cls.equals(Book.class)) {
+            return (DBRepository<T>) new BookDBRepository(connection);
+        } else if (cls.equals(Category.class)) {
+            return (DBRepository<T>) new CategoryDBRepository(connection);
+        } else if (cls.equals(Member.class)) {
+            return (DBRepository<T>) new MemberDBRepository(connection);
+        } else if (cls.equals(Publisher.class)) {
+            return (DBRepository<T>) new PublisherDBRepository(connection);
+        } else if (cls.equals(Staff.class)) {
+            return (DBRepository<T>) new StaffDBRepository(connection);
+        } else if (cls.equals(Loan.class)) {
+            return (DBRepository<T>) new LoanDBRepository(connection);
+        } else if (cls.equals(Reservation.class)) {
+            return (DBRepository<T>) new ReservationDBRepository(connection);
+        } else if (cls.equals(Review.class)) {
+            return (DBRepository<T>) new ReviewDBRepository(connection);
+        }
+        throw new IllegalArgumentException("No database repository found for class: " + cls.getSimpleName());
+    }
+
+    /**
+     * Gets the connection pool shared by the database repositories, opening it on first use.
+     * When the pool is opened, the schema is brought up to date. If read replicas are configured,
+     * the shared connection of the pool routes reads to them and keeps writes on the primary;
+     * transactions always run on connections of their own to the primary.
+     *
+     * @return the shared connection pool
+     * @throws DatabaseException if a database connection error occurs
+     */
+    private static synchronized ConnectionPool getConnectionPool() throws DatabaseException {
+        try {
+            if (connectionPool == null || connectionPool.isClosed()) {
+                Connection primary = DriverManager.getConnection(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
+                new SchemaMigrator(primary).migrate();
+                connectionPool = new ConnectionPool(routeToReplicas(primary),
+                        () -> DriverManager.getConnection(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD));
+            }
+            return connectionPool;
+        } catch (SQLException e) {
+            throw new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the invalidation bus shared by the caches of the database repositories, connecting it on first use.
+     *
+     * @return the shared invalidation bus
+     * @throws DatabaseException if the bus cannot connect to the database
+     */
+    private static synchronized PostgresInvalidationBus getInvalidationBus() throws DatabaseException {
+        if (invalidationBus == null) {
+            invalidationBus = new PostgresInvalidationBus(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
+        }
+        return invalidationBus;
+    }
+
+    /**
+     * Wraps the primary connection in a ConnectionRouter if read replicas are configured.
+     *
+     * @param primary the connection to the primary database
+     * @return the connection the repositories should use
+     * @throws SQLException if a replica cannot be connected to
+     */
+    private static Connection routeToReplicas(Connection primary) throws SQLException {
+        String replicaUrls = System.getProperty(REPLICA_URLS_PROPERTY, "").trim();
+        if (replicaUrls.isEmpty()) {
+            return primary;
+        }
+
+        List<Connection> replicas = new ArrayList<>();
+        for (String replicaUrl : replicaUrls.split(",")) {
+            replicas.add(DriverManager.getConnection(replicaUrl.trim(), DATABASE_USER, DATABASE_PASSWORD));
+        }
+        ConnectionRouter.Selection selection = System.getProperty(REPLICA_SELECTION_PROPERTY, "round-robin").equalsIgnoreCase("least-latency")
+                ? ConnectionRouter.Selection.LEAST_LATENCY : ConnectionRouter.Selection.ROUND_ROBIN;
+        Duration readYourWritesWindow = Duration.ofMillis(Long.getLong(READ_YOUR_WRITES_PROPERTY, 2000));
+        Duration maxReplicaLag = Duration.ofMillis(Long.getLong(MAX_REPLICA_LAG_PROPERTY, 5000));
+        return new ConnectionRouter(primary, replicas, selection, readYourWritesWindow, maxReplicaLag).getConnection();
+    }
+
 }
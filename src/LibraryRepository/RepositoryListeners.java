@@ -0,0 +1,71 @@
+package LibraryRepository;
+
+import LibraryModel.HasID;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The listeners registered on a repository, which the repository tells about the changes it writes.
+ * Changes written by a unit of work are only told once it commits, see {@link UnitOfWork#afterCommit(Runnable)},
+ * so the listeners never hear of changes that are rolled back.
+ *
+ * @param <T> the type of objects managed by the repository
+ */
+
+public class RepositoryListeners<T extends HasID> {
+
+    private final List<IRepositoryListener<T>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a listener.
+     *
+     * @param listener the listener to register
+     */
+
+    public void add(IRepositoryListener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Tells the listeners that an object was added.
+     *
+     * @param obj the added object
+     */
+
+    public void fireAdded(T obj) {
+        UnitOfWork.afterCommit(() -> {
+            for (IRepositoryListener<T> listener : listeners) {
+                listener.added(obj);
+            }
+        });
+    }
+
+    /**
+     * Tells the listeners that an object was updated.
+     *
+     * @param obj the updated object
+     */
+
+    public void fireUpdated(T obj) {
+        UnitOfWork.afterCommit(() -> {
+            for (IRepositoryListener<T> listener : listeners) {
+                listener.updated(obj);
+            }
+        });
+    }
+
+    /**
+     * Tells the listeners that an object was deleted.
+     *
+     * @param id the ID of the deleted object
+     */
+
+    public void fireDeleted(int id) {
+        UnitOfWork.afterCommit(() -> {
+            for (IRepositoryListener<T> listener : listeners) {
+                listener.deleted(id);
+            }
+        });
+    }
+}
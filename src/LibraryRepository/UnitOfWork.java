@@ -0,0 +1,316 @@
+package LibraryRepository;
+
+import Exceptions.DatabaseException;
+import LibraryModel.HasID;
+import LibraryRepository.DataBaseRepository.ConnectionPool;
+import LibraryRepository.DataBaseRepository.DBRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the changes made to entities during a service operation and writes them
+ * to the repositories in one flush when the operation commits.
+ * <p>
+ * Several registrations of the same entity are collapsed into one write: an entity that is
+ * added and then updated is only added (with its final state), an entity that is updated
+ * several times is updated once, and an entity that is added and then deleted is never written.
+ * Database repositories are flushed inside a single transaction on a connection owned by the unit of work;
+ * file repositories are written once.
+ * <p>
+ * Writes whose result the operation needs before it goes on (such as taking a copy of a book in the store)
+ * run at once through {@link #write(IRepository, Write)}, in the same transaction the flush later commits, so they
+ * are undone with the rest of the changes if the unit of work fails or is never committed.
+ * Changes to objects held in memory can register a rollback action that undoes them in that case.
+ * Work that must only happen once the changes are written (such as publishing events about them) can
+ * register a commit action instead.
+ * <p>
+ * Units of work are bound to the current thread. Calling {@link #begin()} while another unit of work
+ * is open joins it, so nested service calls are flushed together by the outermost one.
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final Map<IRepository<?>, Map<Integer, Change<?>>> changes = new LinkedHashMap<>();
+    private final List<RollbackAction> rollbackActions = new ArrayList<>();
+    private final List<Runnable> commitActions = new ArrayList<>();
+    private final Map<ConnectionPool, ConnectionPool.Transaction> transactions = new LinkedHashMap<>();
+    private int depth;
+    private boolean committed;
+
+    private UnitOfWork() {
+    }
+
+    /**
+     * Starts a unit of work on the current thread, or joins the one that is already open.
+     *
+     * @return the unit of work of the current thread
+     */
+    public static UnitOfWork begin() {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            unitOfWork = new UnitOfWork();
+            CURRENT.set(unitOfWork);
+        }
+        unitOfWork.depth++;
+        return unitOfWork;
+    }
+
+    /**
+     * Registers a new object that has to be added to the repository.
+     *
+     * @param repository the repository the object belongs to
+     * @param obj        the new object
+     */
+    public <T extends HasID> void registerNew(IRepository<T> repository, T obj) {
+        Map<Integer, Change<?>> repositoryChanges = changesOf(repository);
+        Change<?> previous = repositoryChanges.get(obj.getID());
+        ChangeType type = previous != null && previous.type == ChangeType.DELETED ? ChangeType.DIRTY : ChangeType.NEW;
+        repositoryChanges.put(obj.getID(), new Change<>(type, obj));
+    }
+
+    /**
+     * Registers an object whose state has changed and has to be updated in the repository.
+     *
+     * @param repository the repository the object belongs to
+     * @param obj        the changed object
+     */
+    public <T extends HasID> void registerDirty(IRepository<T> repository, T obj) {
+        Map<Integer, Change<?>> repositoryChanges = changesOf(repository);
+        Change<?> previous = repositoryChanges.get(obj.getID());
+        ChangeType type = previous != null && previous.type == ChangeType.NEW ? ChangeType.NEW : ChangeType.DIRTY;
+        repositoryChanges.put(obj.getID(), new Change<>(type, obj));
+    }
+
+    /**
+     * Registers an object that has to be deleted from the repository.
+     *
+     * @param repository the repository the object belongs to
+     * @param id         the ID of the object to delete
+     */
+    public <T extends HasID> void registerDeleted(IRepository<T> repository, int id) {
+        Map<Integer, Change<?>> repositoryChanges = changesOf(repository);
+        Change<?> previous = repositoryChanges.get(id);
+        if (previous != null && previous.type == ChangeType.NEW) {
+            repositoryChanges.remove(id);
+        } else {
+            repositoryChanges.put(id, new Change<>(ChangeType.DELETED, null));
+        }
+    }
+
+    /**
+     * Starts the transaction of a database repository right away instead of at the flush, so that everything the
+     * current thread reads from and writes to the repository from then on runs on the connection of the unit of
+     * work rather than on the shared connection. The transaction is committed by the flush, or rolled back when
+     * the unit of work is closed without committing. Other repositories are left as they are.
+     *
+     * @param repository the repository
+     * @throws DatabaseException if the transaction cannot be started
+     */
+    public void enlist(IRepository<?> repository) throws DatabaseException {
+        if (repository instanceof DBRepository<?> dbRepository) {
+            transactionOf(dbRepository.getConnectionPool());
+        }
+    }
+
+    /**
+     * Runs a write right away in the transaction of the unit of work instead of at the flush. The transaction
+     * of a database repository is started by the first such write and stays open until the flush commits it
+     * with the recorded changes, or until the unit of work is closed without committing, which rolls it back.
+     * Writes to other repositories simply run.
+     *
+     * @param repository the repository written to
+     * @param write      the write
+     * @return the result of the write
+     * @throws DatabaseException if the write fails
+     */
+    public <R> R write(IRepository<?> repository, Write<R> write) throws DatabaseException {
+        enlist(repository);
+        return write.run();
+    }
+
+    /**
+     * Registers an action that undoes a change made in memory outside the flush.
+     * The action runs if the outermost unit of work fails to commit or is closed without committing.
+     *
+     * @param action the action to run on rollback
+     */
+    public void onRollback(RollbackAction action) {
+        rollbackActions.add(action);
+    }
+
+    /**
+     * Registers an action to run after the changes are written.
+     * The action runs once the outermost unit of work has committed, and never if it fails or is not committed.
+     *
+     * @param action the action to run on commit
+     */
+    public void onCommit(Runnable action) {
+        commitActions.add(action);
+    }
+
+    /**
+     * Runs an action once the unit of work open on the current thread has committed, or at once if none is open.
+     * Repositories tell their listeners about the changes they write this way.
+     *
+     * @param action the action to run after the commit
+     */
+    public static void afterCommit(Runnable action) {
+        UnitOfWork unitOfWork = CURRENT.get();
+        if (unitOfWork == null) {
+            action.run();
+        } else {
+            unitOfWork.onCommit(action);
+        }
+    }
+
+    /**
+     * Flushes the recorded changes if this is the outermost unit of work, then runs the commit actions.
+     * Nested units of work leave the flush to the one that started them.
+     *
+     * @throws DatabaseException if the changes could not be written; database changes are rolled back
+     */
+    public void commit() throws DatabaseException {
+        if (depth > 1) {
+            return;
+        }
+        try {
+            flush();
+            committed = true;
+        } finally {
+            changes.clear();
+        }
+        // Commit actions may register more of them, which run in turn
+        for (int i = 0; i < commitActions.size(); i++) {
+            commitActions.get(i).run();
+        }
+        commitActions.clear();
+    }
+
+    /**
+     * Leaves the unit of work. When the outermost unit of work is closed without being committed,
+     * the recorded changes are discarded.
+     */
+    @Override
+    public void close() {
+        depth--;
+        if (depth == 0) {
+            if (!committed) {
+                rollback();
+            }
+            closeTransactions();
+            changes.clear();
+            rollbackActions.clear();
+            commitActions.clear();
+            CURRENT.remove();
+        }
+    }
+
+    private void rollback() {
+        for (int i = rollbackActions.size() - 1; i >= 0; i--) {
+            try {
+                rollbackActions.get(i).run();
+            } catch (DatabaseException e) {
+                System.err.println("Error rolling back: " + e.getMessage());
+            }
+        }
+    }
+
+    private Map<Integer, Change<?>> changesOf(IRepository<?> repository) {
+        return changes.computeIfAbsent(repository, key -> new LinkedHashMap<>());
+    }
+
+    private ConnectionPool.Transaction transactionOf(ConnectionPool pool) throws DatabaseException {
+        ConnectionPool.Transaction transaction = transactions.get(pool);
+        if (transaction == null) {
+            transaction = pool.begin();
+            transactions.put(pool, transaction);
+        }
+        return transaction;
+    }
+
+    private void closeTransactions() {
+        List<ConnectionPool.Transaction> open = new ArrayList<>(transactions.values());
+        transactions.clear();
+        for (int i = open.size() - 1; i >= 0; i--) {
+            open.get(i).close();
+        }
+    }
+
+    /**
+     * Writes the changes of every repository, wrapping the database writes in one transaction per connection pool,
+     * together with the writes already made through {@link #write(IRepository, Write)}.
+     * Each transaction runs on a connection of its own, bound to this thread, so the writes of other threads
+     * are never part of it.
+     */
+    private void flush() throws DatabaseException {
+        try {
+            for (IRepository<?> repository : changes.keySet()) {
+                if (repository instanceof DBRepository<?> dbRepository) {
+                    transactionOf(dbRepository.getConnectionPool());
+                }
+            }
+            for (Map.Entry<IRepository<?>, Map<Integer, Change<?>>> entry : changes.entrySet()) {
+                saveChanges(entry.getKey(), entry.getValue());
+            }
+            for (ConnectionPool.Transaction transaction : transactions.values()) {
+                transaction.commit();
+            }
+        } catch (SQLException | DatabaseException e) {
+            for (ConnectionPool.Transaction transaction : transactions.values()) {
+                try {
+                    transaction.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+            }
+            throw e instanceof DatabaseException databaseException ? databaseException
+                    : new DatabaseException("Database error occurred: " + e.getMessage(), e);
+        } finally {
+            closeTransactions();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends HasID> void saveChanges(IRepository<T> repository, Map<Integer, Change<?>> repositoryChanges) throws DatabaseException {
+        List<T> added = new ArrayList<>();
+        List<T> updated = new ArrayList<>();
+        List<Integer> deleted = new ArrayList<>();
+        for (Map.Entry<Integer, Change<?>> entry : repositoryChanges.entrySet()) {
+            Change<T> change = (Change<T>) entry.getValue();
+            switch (change.type) {
+                case NEW -> added.add(change.obj);
+                case DIRTY -> updated.add(change.obj);
+                case DELETED -> deleted.add(entry.getKey());
+            }
+        }
+        repository.saveChanges(added, updated, deleted);
+    }
+
+    /**
+     * A write run in the transaction of a unit of work before the flush.
+     *
+     * @param <R> the type of the result of the write
+     */
+    @FunctionalInterface
+    public interface Write<R> {
+        R run() throws DatabaseException;
+    }
+
+    /**
+     * An action that undoes a change made in memory outside the flush of a unit of work.
+     */
+    @FunctionalInterface
+    public interface RollbackAction {
+        void run() throws DatabaseException;
+    }
+
+    private enum ChangeType { NEW, DIRTY, DELETED }
+
+    private record Change<T>(ChangeType type, T obj) {
+    }
+}
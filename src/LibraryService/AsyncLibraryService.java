@@ -0,0 +1,138 @@
+package LibraryService;
+
+import LibraryModel.Book;
+import LibraryModel.Loan;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AsyncLibraryService runs the read-heavy operations of a {@link LibraryService} in the background
+ * and returns their results as CompletableFutures, so that many callers (such as a web front end or
+ * several terminals) can wait on the repositories at the same time.
+ * <p>
+ * By default every call runs on its own virtual thread, so a call that blocks on the database or a file
+ * does not hold a platform thread. When a call fails, the future completes exceptionally with the
+ * exception thrown by the service (for example an EntityNotFoundException or a DatabaseException).
+ */
+
+public class AsyncLibraryService implements AutoCloseable {
+
+    private final LibraryService libraryService;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Constructs an AsyncLibraryService that runs every call on a new virtual thread.
+     *
+     * @param libraryService the service that performs the operations
+     */
+
+    public AsyncLibraryService(LibraryService libraryService) {
+        this(libraryService, Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * Constructs an AsyncLibraryService that runs the calls on the given executor.
+     * The executor is not shut down when the AsyncLibraryService is closed.
+     *
+     * @param libraryService the service that performs the operations
+     * @param executor the executor that runs the calls
+     */
+
+    public AsyncLibraryService(LibraryService libraryService, ExecutorService executor) {
+        this(libraryService, executor, false);
+    }
+
+    private AsyncLibraryService(LibraryService libraryService, ExecutorService executor, boolean ownsExecutor) {
+        this.libraryService = libraryService;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Retrieves all books in the library.
+     *
+     * @return a future of the list of all books
+     */
+
+    public CompletableFuture<List<Book>> getAllBooks() {
+        return supply(libraryService::getAllBooks);
+    }
+
+    /**
+     * Searches for books whose title contains the given term.
+     *
+     * @param title the title or part of the title of the book to search for
+     * @return a future of the list of books found
+     */
+
+    public CompletableFuture<List<Book>> searchBook(String title) {
+        return supply(() -> libraryService.searchBook(title));
+    }
+
+    /**
+     * Retrieves the loan history for a specific member.
+     *
+     * @param memberID the ID of the member
+     * @return a future of the list of loans of the member
+     */
+
+    public CompletableFuture<List<Loan>> getLoanHistoryForMember(int memberID) {
+        return supply(() -> libraryService.getLoanHistoryForMember(memberID));
+    }
+
+    /**
+     * Recommends books for a member based on the categories of the books they have borrowed.
+     *
+     * @param memberID the ID of the member
+     * @return a future of the list of recommended books
+     */
+
+    public CompletableFuture<List<Book>> recommendBooksForMember(int memberID) {
+        return supply(() -> libraryService.recommendBooksForMember(memberID));
+    }
+
+    /**
+     * Sorts the books by their average rating, from highest to lowest.
+     *
+     * @return a future of the sorted list of books
+     */
+
+    public CompletableFuture<List<Book>> sortBooksByAvgRating() {
+        return supply(libraryService::sortBooksByAvgRating);
+    }
+
+    /**
+     * Shuts down the executor if it was created by this AsyncLibraryService.
+     * Calls that are already running are allowed to finish.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(ServiceCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * A call to the service that may throw the service's checked exceptions.
+     */
+    @FunctionalInterface
+    private interface ServiceCall<T> {
+        T call() throws Exception;
+    }
+}
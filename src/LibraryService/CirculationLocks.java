@@ -0,0 +1,116 @@
+package LibraryService;
+
+import LibraryRepository.ReadRouting;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks the books and members of a circulation operation, so that checkouts and returns of unrelated books
+ * by unrelated members run in parallel while two operations on the same book or the same member run one
+ * after the other. The indexes the service keeps for circulation are updated per member and per book, so
+ * they do not serialize unrelated operations either.
+ * <p>
+ * IDs are mapped onto a fixed number of stripes, one lock per stripe, so the memory used does not grow with
+ * the catalog; two IDs on the same stripe only wait for each other. The stripes of an operation are always
+ * acquired in the same order, every book stripe before every member stripe and each kind by stripe number,
+ * so two operations can never wait for each other's locks. The locks are reentrant: nested service calls
+ * lock the books and members already locked by the outer call without waiting. A nested call must not lock
+ * a book or a member the outer call did not lock, which is why operations that can reach other members,
+ * like a return that fulfils a reservation, lock them up front.
+ * <p>
+ * While the locks are held, the reads of the thread are pinned to the primary database, see {@link ReadRouting}:
+ * an operation that decides on what it reads under the locks must not read from a replica that lags behind.
+ */
+
+class CirculationLocks {
+
+    /**
+     * The number of stripes for each kind of ID.
+     */
+    static final int STRIPES = 256;
+
+    private final ReentrantLock[] locks = new ReentrantLock[2 * STRIPES];
+
+    /**
+     * The locks taken by one operation, released together in a finally block when it ends.
+     */
+    static final class Held {
+
+        private final List<ReentrantLock> locks = new ArrayList<>();
+
+        private Held() {
+        }
+
+        /**
+         * Releases the locks, in the reverse order they were taken, and unpins the reads of the thread.
+         */
+        void release() {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+            ReadRouting.unpinFromPrimary();
+        }
+    }
+
+    CirculationLocks() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks books and members, waiting for the operations that hold any of them, and pins the reads of the
+     * thread to the primary until the locks are released.
+     *
+     * @param bookIDs the IDs of the books
+     * @param memberIDs the IDs of the members
+     * @return the locks taken, to be released when the operation ends
+     */
+
+    Held lock(Collection<Integer> bookIDs, Collection<Integer> memberIDs) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (int bookID : bookIDs) {
+            stripes.add(stripe(bookID));
+        }
+        for (int memberID : memberIDs) {
+            stripes.add(STRIPES + stripe(memberID));
+        }
+        Held held = new Held();
+        for (int stripe : stripes) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            held.locks.add(lock);
+        }
+        ReadRouting.pinToPrimary();
+        return held;
+    }
+
+    /**
+     * Locks more members for an operation that already holds its books, such as a return that finds out
+     * under the lock of the book which member a reservation goes to. Member stripes come after every book
+     * stripe, so the order of the stripes is kept. The locks are released with the others.
+     *
+     * @param held the locks of the operation
+     * @param memberIDs the IDs of the members
+     */
+
+    void lockMembers(Held held, Collection<Integer> memberIDs) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (int memberID : memberIDs) {
+            stripes.add(STRIPES + stripe(memberID));
+        }
+        for (int stripe : stripes) {
+            ReentrantLock lock = locks[stripe];
+            lock.lock();
+            held.locks.add(lock);
+        }
+    }
+
+    private static int stripe(int id) {
+        return Math.floorMod(id, STRIPES);
+    }
+}
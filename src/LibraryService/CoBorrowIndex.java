@@ -0,0 +1,264 @@
+package LibraryService;
+
+import LibraryModel.Loan;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A sparse item-to-item matrix of the books borrowed by the same members: for every two books, the number
+ * of members who borrowed both. Recommendations for a member add up the similarities of the neighbours of
+ * the books the member borrowed, so their cost depends on the history of the member and the number of
+ * neighbours of its books, not on the size of the catalog.
+ * <p>
+ * The matrix is kept up to date as a listener of the loan repository: the first loan of a book by a member
+ * pairs the book with the other books of the member, and deleting the last one unpairs it. It is built in
+ * parallel by {@link #rebuild()}, which the service runs once it has read the loans; writes made while a
+ * rebuild runs are recorded and applied to the rebuilt matrix, so none is lost.
+ */
+
+class CoBorrowIndex implements IRepositoryListener<Loan> {
+
+    private static final int REBUILD_THRESHOLD = 256;
+
+    private final Map<Integer, BorrowedBook> loans = new HashMap<>();
+    private final Map<Integer, Map<Integer, Integer>> memberBooks = new HashMap<>();
+    private final Map<Integer, Integer> bookMembers = new HashMap<>();
+    private Map<Integer, Map<Integer, Integer>> pairs = new HashMap<>();
+    private boolean built;
+    private List<PairChange> changesDuringRebuild;
+
+    /**
+     * The member and book of a loan, as they were when the loan was indexed.
+     */
+    private record BorrowedBook(int memberID, int bookID) {
+    }
+
+    /**
+     * A change of the number of members who borrowed two books.
+     */
+    private record PairChange(int firstBookID, int secondBookID, int delta) {
+    }
+
+    /**
+     * A book and how much it is recommended.
+     */
+    private record Scored(int bookID, double score) {
+    }
+
+    /**
+     * Recommends the books borrowed by the members who borrowed the same books as a member. Each candidate
+     * is scored with the sum of its cosine similarities to the books of the member, where the similarity of
+     * two books is the number of members who borrowed both over the square root of the product of the
+     * numbers of members who borrowed each.
+     *
+     * @param memberID the ID of the member
+     * @param limit the largest number of books to return
+     * @return the IDs of the recommended books, from the most recommended; books the member borrowed are left out
+     */
+
+    synchronized List<Integer> recommend(int memberID, int limit) {
+        Map<Integer, Integer> history = memberBooks.getOrDefault(memberID, Map.of());
+        Map<Integer, Double> scores = new HashMap<>();
+        for (int bookID : history.keySet()) {
+            for (Map.Entry<Integer, Integer> neighbour : pairs.getOrDefault(bookID, Map.of()).entrySet()) {
+                if (!history.containsKey(neighbour.getKey())) {
+                    double similarity = neighbour.getValue()
+                            / Math.sqrt((double) bookMembers.get(bookID) * bookMembers.get(neighbour.getKey()));
+                    scores.merge(neighbour.getKey(), similarity, Double::sum);
+                }
+            }
+        }
+        return scores.entrySet().stream()
+                .map(entry -> new Scored(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingDouble(Scored::score).reversed().thenComparingInt(Scored::bookID))
+                .limit(limit)
+                .map(Scored::bookID)
+                .toList();
+    }
+
+    /**
+     * Gets the books a member borrowed at least once.
+     *
+     * @param memberID the ID of the member
+     * @return the IDs of the books
+     */
+
+    synchronized List<Integer> borrowedBooks(int memberID) {
+        return new ArrayList<>(memberBooks.getOrDefault(memberID, Map.of()).keySet());
+    }
+
+    /**
+     * Rebuilds the whole matrix from the books borrowed by every member, splitting the members between the
+     * threads of the common fork/join pool. The index stays usable while the matrix is rebuilt.
+     */
+
+    void rebuild() {
+        List<int[]> histories = new ArrayList<>();
+        synchronized (this) {
+            if (changesDuringRebuild != null) {
+                return;
+            }
+            changesDuringRebuild = new ArrayList<>();
+            for (Map<Integer, Integer> books : memberBooks.values()) {
+                histories.add(books.keySet().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        Map<Integer, Map<Integer, Integer>> rebuilt;
+        try {
+            rebuilt = ForkJoinPool.commonPool().invoke(new PairCount(histories, 0, histories.size()));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                changesDuringRebuild = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            for (PairChange change : changesDuringRebuild) {
+                adjust(rebuilt, change.firstBookID(), change.secondBookID(), change.delta());
+            }
+            pairs = rebuilt;
+            built = true;
+            changesDuringRebuild = null;
+        }
+    }
+
+    @Override
+    public synchronized void added(Loan loan) {
+        index(loan);
+    }
+
+    @Override
+    public synchronized void updated(Loan loan) {
+        BorrowedBook borrowed = loans.get(loan.getID());
+        if (borrowed != null && loan.getMember() != null && loan.getBook() != null
+                && borrowed.memberID() == loan.getMember().getID() && borrowed.bookID() == loan.getBook().getID()) {
+            return;
+        }
+        unindex(loan.getID());
+        index(loan);
+    }
+
+    @Override
+    public synchronized void deleted(int id) {
+        unindex(id);
+    }
+
+    private void index(Loan loan) {
+        if (loan.getMember() == null || loan.getBook() == null || loans.containsKey(loan.getID())) {
+            return;
+        }
+        BorrowedBook borrowed = new BorrowedBook(loan.getMember().getID(), loan.getBook().getID());
+        loans.put(loan.getID(), borrowed);
+        Map<Integer, Integer> books = memberBooks.computeIfAbsent(borrowed.memberID(), id -> new HashMap<>());
+        if (books.merge(borrowed.bookID(), 1, Integer::sum) == 1) {
+            bookMembers.merge(borrowed.bookID(), 1, Integer::sum);
+            pair(books, borrowed.bookID(), 1);
+        }
+    }
+
+    private void unindex(int loanID) {
+        BorrowedBook borrowed = loans.remove(loanID);
+        if (borrowed == null) {
+            return;
+        }
+        Map<Integer, Integer> books = memberBooks.get(borrowed.memberID());
+        if (books.merge(borrowed.bookID(), -1, Integer::sum) == 0) {
+            books.remove(borrowed.bookID());
+            bookMembers.computeIfPresent(borrowed.bookID(), (id, count) -> count > 1 ? count - 1 : null);
+            pair(books, borrowed.bookID(), -1);
+            if (books.isEmpty()) {
+                memberBooks.remove(borrowed.memberID());
+            }
+        }
+    }
+
+    /**
+     * Changes the number of members who borrowed a book and each of the other books of a member.
+     */
+    private void pair(Map<Integer, Integer> books, int bookID, int delta) {
+        for (int otherBookID : books.keySet()) {
+            if (otherBookID == bookID) {
+                continue;
+            }
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new PairChange(bookID, otherBookID, delta));
+            }
+            if (built) {
+                adjust(pairs, bookID, otherBookID, delta);
+            }
+        }
+    }
+
+    private static void adjust(Map<Integer, Map<Integer, Integer>> pairs, int firstBookID, int secondBookID, int delta) {
+        adjustOne(pairs, firstBookID, secondBookID, delta);
+        adjustOne(pairs, secondBookID, firstBookID, delta);
+    }
+
+    private static void adjustOne(Map<Integer, Map<Integer, Integer>> pairs, int bookID, int neighbourID, int delta) {
+        Map<Integer, Integer> neighbours = pairs.computeIfAbsent(bookID, id -> new HashMap<>());
+        if (neighbours.merge(neighbourID, delta, Integer::sum) == 0) {
+            neighbours.remove(neighbourID);
+            if (neighbours.isEmpty()) {
+                pairs.remove(bookID);
+            }
+        }
+    }
+
+    /**
+     * Counts the pairs of books borrowed by a range of members, splitting the range in halves
+     * until it is small enough to be counted directly, then merging the counts of the halves.
+     * Like every fork/join task it is serializable, but it is never serialized.
+     */
+    private static class PairCount extends RecursiveTask<Map<Integer, Map<Integer, Integer>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<int[]> histories;
+        private final int from;
+        private final int to;
+
+        PairCount(List<int[]> histories, int from, int to) {
+            this.histories = histories;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<Integer, Map<Integer, Integer>> compute() {
+            if (to - from <= REBUILD_THRESHOLD) {
+                Map<Integer, Map<Integer, Integer>> pairs = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    int[] books = histories.get(i);
+                    for (int j = 0; j < books.length; j++) {
+                        for (int k = j + 1; k < books.length; k++) {
+                            adjust(pairs, books[j], books[k], 1);
+                        }
+                    }
+                }
+                return pairs;
+            }
+            int middle = (from + to) >>> 1;
+            PairCount left = new PairCount(histories, from, middle);
+            left.fork();
+            Map<Integer, Map<Integer, Integer>> pairs = new PairCount(histories, middle, to).compute();
+            Map<Integer, Map<Integer, Integer>> leftPairs = left.join();
+            if (leftPairs.size() > pairs.size()) {
+                Map<Integer, Map<Integer, Integer>> smaller = pairs;
+                pairs = leftPairs;
+                leftPairs = smaller;
+            }
+            for (Map.Entry<Integer, Map<Integer, Integer>> row : leftPairs.entrySet()) {
+                Map<Integer, Integer> neighbours = pairs.computeIfAbsent(row.getKey(), id -> new HashMap<>());
+                row.getValue().forEach((neighbourID, count) -> neighbours.merge(neighbourID, count, Integer::sum));
+            }
+            return pairs;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package LibraryService;
+
+import Exceptions.DatabaseException;
+import Exceptions.UncheckedDatabaseException;
+import LibraryModel.DomainEvent;
+import LibraryModel.HasID;
+import LibraryRepository.IRepository;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Delivers the domain events of a service to their subscribers in the background, so that the data derived
+ * from a change is brought up to date after the operation that made the change has returned.
+ * <p>
+ * Work is queued on a fixed number of lanes by the ID of the aggregate it is about. A lane runs its work one
+ * item at a time in the order it was queued, on a virtual thread that only exists while the lane has work,
+ * so the work about one aggregate is always done in order while the lanes run at the same time. Changes
+ * written to a repository can be delivered the same way by registering a listener through
+ * {@link #deferred(IRepository, IRepositoryListener)}.
+ * <p>
+ * Work that fails does not stop the lane, and its change is not lost. A subscriber that fails is called
+ * again, up to {@value #DELIVERY_ATTEMPTS} times in all, before the event is reported and the lane goes on
+ * with its next item, so subscribers must be safe to call twice for one event. A listener that fails on a
+ * change leaves the changed object stale until {@link #repairStale()} gives the listener the current
+ * state of the object, read again from its repository. A reader sees its own changes by waiting with {@link #awaitOwnDelivered()} for the work its thread
+ * queued, without waiting for the work of other threads. Readers that must see every change made so far
+ * wait for the lanes with {@link #awaitDelivered()}.
+ */
+
+class DomainEventBus {
+
+    /**
+     * The number of lanes.
+     */
+    static final int LANES = 16;
+
+    /**
+     * The number of times a subscriber is called for an event before its failure is reported.
+     */
+    static final int DELIVERY_ATTEMPTS = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 50;
+
+    private static final ExecutorService DELIVERY_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final ThreadLocal<Boolean> DELIVERING = ThreadLocal.withInitial(() -> false);
+
+    private final ThreadLocal<long[]> ownQueued = ThreadLocal.withInitial(() -> new long[LANES]);
+
+    private final Lane[] lanes = new Lane[LANES];
+    private final Map<Class<? extends DomainEvent>, List<Subscriber<?>>> subscribers = new ConcurrentHashMap<>();
+    private final Queue<StaleObject> staleObjects = new ConcurrentLinkedQueue<>();
+
+    /**
+     * An object whose change a deferred listener failed on, and the work that brings the listener up to date.
+     *
+     * @param id the ID of the object
+     * @param repair gives the listener the current state of the object
+     */
+    private record StaleObject(int id, Runnable repair) {
+    }
+
+    /**
+     * Handles the events of one type.
+     *
+     * @param <E> the type of the events
+     */
+    @FunctionalInterface
+    interface Subscriber<E extends DomainEvent> {
+        void handle(E event) throws DatabaseException;
+    }
+
+    DomainEventBus() {
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Subscribes to the events of a type.
+     *
+     * @param type the type of the events
+     * @param subscriber the subscriber, called on the lane of the aggregate of each event
+     */
+
+    <E extends DomainEvent> void subscribe(Class<E> type, Subscriber<? super E> subscriber) {
+        subscribers.computeIfAbsent(type, key -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    /**
+     * Queues an event for its subscribers on the lane of its aggregate.
+     *
+     * @param event the event
+     */
+
+    @SuppressWarnings("unchecked")
+    void publish(DomainEvent event) {
+        List<Subscriber<?>> eventSubscribers = subscribers.getOrDefault(event.getClass(), List.of());
+        if (eventSubscribers.isEmpty()) {
+            return;
+        }
+        enqueue(event.aggregateID(), () -> {
+            for (Subscriber<?> subscriber : eventSubscribers) {
+                handle((Subscriber<DomainEvent>) subscriber, event);
+            }
+        });
+    }
+
+    /**
+     * Calls a subscriber for an event, calling it again after a short pause when it fails.
+     */
+    private static void handle(Subscriber<DomainEvent> subscriber, DomainEvent event) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                subscriber.handle(event);
+                return;
+            } catch (DatabaseException | RuntimeException e) {
+                if (attempt == DELIVERY_ATTEMPTS) {
+                    System.err.println("Error delivering " + event + " after " + attempt + " attempts: " + e.getMessage());
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted while delivering " + event);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wraps a repository listener so that it is told about the changes on the lane of the changed object
+     * instead of on the thread that writes them. A change the listener fails on leaves the object stale until
+     * {@link #repairStale()} is called.
+     *
+     * @param repository the repository the listener is registered on, which stale objects are read again from
+     * @param listener the listener
+     * @return the listener to register on the repository
+     */
+
+    <T extends HasID> IRepositoryListener<T> deferred(IRepository<T> repository, IRepositoryListener<T> listener) {
+        return new IRepositoryListener<>() {
+            @Override
+            public void added(T obj) {
+                deliver(obj.getID(), () -> listener.added(obj), repository, listener);
+            }
+
+            @Override
+            public void updated(T obj) {
+                deliver(obj.getID(), () -> listener.updated(obj), repository, listener);
+            }
+
+            @Override
+            public void deleted(int id) {
+                deliver(id, () -> listener.deleted(id), repository, listener);
+            }
+        };
+    }
+
+    private <T extends HasID> void deliver(int id, Runnable change, IRepository<T> repository, IRepositoryListener<T> listener) {
+        enqueue(id, () -> {
+            try {
+                change.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error delivering change " + id + ": " + e.getMessage());
+                staleObjects.add(new StaleObject(id, () -> resync(repository, listener, id)));
+            }
+        });
+    }
+
+    /**
+     * Gives a listener the current state of an object: the object is taken out of it, then given to it
+     * again as read from the repository, unless it was deleted.
+     */
+    private static <T extends HasID> void resync(IRepository<T> repository, IRepositoryListener<T> listener, int id) {
+        T current;
+        try {
+            current = repository.get(id);
+        } catch (DatabaseException e) {
+            throw new UncheckedDatabaseException(e);
+        }
+        listener.deleted(id);
+        if (current != null) {
+            listener.added(current);
+        }
+    }
+
+    /**
+     * Queues the repair of the objects left stale by a deferred listener that failed on their changes.
+     * Each one is read again from its repository on its lane, after the changes already queued for it,
+     * so a reader that then waits with {@link #awaitOwnDelivered()} reads repaired data. An object whose
+     * repair fails too stays stale until the next call.
+     */
+
+    void repairStale() {
+        StaleObject stale;
+        while ((stale = staleObjects.poll()) != null) {
+            StaleObject repair = stale;
+            enqueue(repair.id(), () -> {
+                try {
+                    repair.repair().run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error repairing change " + repair.id() + ": " + e.getMessage());
+                    staleObjects.add(repair);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until everything the current thread queued has been delivered, so that the thread reads its own
+     * changes. Work queued by other threads is only waited for where it is ahead of it on the same lane.
+     * Returns at once when called from a lane, or when the thread has nothing left to wait for.
+     */
+
+    void awaitOwnDelivered() {
+        if (DELIVERING.get()) {
+            return;
+        }
+        long[] own = ownQueued.get();
+        try {
+            for (int i = 0; i < LANES; i++) {
+                if (own[i] > 0) {
+                    lanes[i].awaitDelivered(own[i]);
+                    own[i] = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until everything queued before the call has been delivered. Returns at once when called from a
+     * lane, which would otherwise wait for itself.
+     */
+
+    void awaitDelivered() {
+        if (DELIVERING.get()) {
+            return;
+        }
+        long[] queued = new long[LANES];
+        for (int i = 0; i < LANES; i++) {
+            queued[i] = lanes[i].queued();
+        }
+        try {
+            for (int i = 0; i < LANES; i++) {
+                lanes[i].awaitDelivered(queued[i]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(int id, Runnable item) {
+        int lane = Math.floorMod(id, LANES);
+        ownQueued.get()[lane] = lanes[lane].enqueue(item);
+    }
+
+    /**
+     * The work queued on one lane and the number of items queued and delivered so far.
+     */
+    private static final class Lane {
+
+        private final Queue<Runnable> work = new ArrayDeque<>();
+        private boolean draining;
+        private long queued;
+        private long delivered;
+
+        /**
+         * Queues an item.
+         *
+         * @return the number of items queued so far, which the lane has delivered once the item is done
+         */
+        long enqueue(Runnable item) {
+            long position;
+            synchronized (this) {
+                work.add(item);
+                position = ++queued;
+                if (draining) {
+                    return position;
+                }
+                draining = true;
+            }
+            DELIVERY_EXECUTOR.execute(this::drain);
+            return position;
+        }
+
+        private void drain() {
+            DELIVERING.set(true);
+            while (true) {
+                Runnable item;
+                synchronized (this) {
+                    item = work.poll();
+                    if (item == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                item.run();
+                synchronized (this) {
+                    delivered++;
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized long queued() {
+            return queued;
+        }
+
+        synchronized void awaitDelivered(long count) throws InterruptedException {
+            while (delivered < count) {
+                wait();
+            }
+        }
+    }
+}
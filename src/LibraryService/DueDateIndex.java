@@ -0,0 +1,101 @@
+package LibraryService;
+
+import LibraryModel.Loan;
+import LibraryRepository.IRepositoryListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps the loans that are active and not yet marked overdue, ordered by due date, so that the loans
+ * that became overdue can be found without reading the loans that are not due.
+ * <p>
+ * Like the other indexes of the service, it listens to the loan repository and is filled once from
+ * the repository when the service is created. It is built on concurrent collections, so loans of different
+ * members are indexed at the same time without waiting for each other.
+ */
+
+class DueDateIndex implements IRepositoryListener<Loan> {
+
+    private static final Comparator<DueLoan> ORDER = Comparator
+            .comparing(DueLoan::dueDate)
+            .thenComparingInt(DueLoan::loanID);
+
+    private final NavigableSet<DueLoan> dueLoans = new ConcurrentSkipListSet<>(ORDER);
+    private final Map<Integer, DueLoan> loans = new ConcurrentHashMap<>();
+
+    /**
+     * An active loan and its due date, as it was when the loan was indexed.
+     */
+    private record DueLoan(LocalDate dueDate, int loanID) {
+    }
+
+    /**
+     * Gets the loans that are due before the given date. The loans stay in the index until they are
+     * updated with another status or deleted. The cost depends on the number of loans returned,
+     * not on the size of the index.
+     *
+     * @param date the date the loans must be due before
+     * @return the IDs of the loans, from the earliest due
+     */
+
+    List<Integer> dueBefore(LocalDate date) {
+        List<Integer> due = new ArrayList<>();
+        for (DueLoan dueLoan : dueLoans) {
+            if (!dueLoan.dueDate().isBefore(date)) {
+                break;
+            }
+            due.add(dueLoan.loanID());
+        }
+        return due;
+    }
+
+    /**
+     * Gets the number of loans in the index.
+     *
+     * @return the number of active loans not marked overdue
+     */
+
+    int size() {
+        return loans.size();
+    }
+
+    @Override
+    public void added(Loan loan) {
+        index(loan);
+    }
+
+    @Override
+    public void updated(Loan loan) {
+        unindex(loan.getID());
+        index(loan);
+    }
+
+    @Override
+    public void deleted(int id) {
+        unindex(id);
+    }
+
+    private void index(Loan loan) {
+        if (!"ACTIVE".equals(loan.getStatus()) || loan.getDueDate() == null) {
+            return;
+        }
+        DueLoan dueLoan = new DueLoan(loan.getDueDate(), loan.getID());
+        if (loans.putIfAbsent(dueLoan.loanID(), dueLoan) == null) {
+            dueLoans.add(dueLoan);
+        }
+    }
+
+    private void unindex(int loanID) {
+        DueLoan dueLoan = loans.remove(loanID);
+        if (dueLoan != null) {
+            dueLoans.remove(dueLoan);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package LibraryService;
+
+import LibraryModel.Person;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the lower-case email addresses of the people in a repository to their IDs, for repositories
+ * that cannot look people up by email themselves. An address belongs to the first person indexed with it.
+ * <p>
+ * Like the other indexes of the service, it listens to the repository and is filled once from
+ * the repository when the service is created.
+ *
+ * @param <T> the type of people in the repository
+ */
+
+class EmailIndex<T extends Person> implements IRepositoryListener<T> {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Integer, String> emails = new HashMap<>();
+
+    /**
+     * Normalizes an email address for lookups: surrounding spaces are removed and the address is lower-cased.
+     *
+     * @param email the email address
+     * @return the normalized address, or null if the address is null
+     */
+
+    static String normalize(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the ID of the person with the given email address, ignoring case.
+     *
+     * @param email the email address
+     * @return the ID of the person, or -1 if no person has the address
+     */
+
+    synchronized int getID(String email) {
+        return ids.getOrDefault(normalize(email), -1);
+    }
+
+    @Override
+    public synchronized void added(T person) {
+        index(person);
+    }
+
+    @Override
+    public synchronized void updated(T person) {
+        unindex(person.getID());
+        index(person);
+    }
+
+    @Override
+    public synchronized void deleted(int id) {
+        unindex(id);
+    }
+
+    private void index(T person) {
+        String email = normalize(person.getEmail());
+        if (email == null || emails.containsKey(person.getID()) || ids.putIfAbsent(email, person.getID()) != null) {
+            return;
+        }
+        emails.put(person.getID(), email);
+    }
+
+    private void unindex(int id) {
+        String email = emails.remove(id);
+        if (email != null) {
+            ids.remove(email);
+        }
+    }
+}
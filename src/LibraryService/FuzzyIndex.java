@@ -0,0 +1,199 @@
+package LibraryService;
+
+import LibraryModel.Book;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A dictionary of the words in the titles and author names of the books, kept in a BK-tree ordered by
+ * Levenshtein distance, so that the words within a few edits of a mistyped word can be found without
+ * comparing it with every word of the catalog.
+ * <p>
+ * The tree only grows: a word that no book uses anymore stays in the tree with no books, and is found
+ * again if a book uses it later. The author names are taken from the books as they are written, so
+ * renaming an author is seen once the books of the author are written again.
+ * <p>
+ * Like the other indexes of the service, it listens to the book repository and is filled once from
+ * the repository when the service is created.
+ */
+
+class FuzzyIndex implements IRepositoryListener<Book> {
+
+    private Word root;
+    private final Map<String, Word> words = new HashMap<>();
+    private final Map<Integer, Set<String>> bookWords = new HashMap<>();
+
+    /**
+     * A word of the dictionary, the books that use it and its children in the tree, by distance.
+     */
+    private static class Word {
+        private final String text;
+        private final Set<Integer> bookIDs = new HashSet<>();
+        private final Map<Integer, Word> children = new HashMap<>();
+
+        private Word(String text) {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Gets the books that match every word of the search term with one of the words of their title or
+     * author name, allowing up to the given number of inserted, deleted or substituted characters per word.
+     *
+     * @param term the search term
+     * @param maxDistance the number of edits allowed per word
+     * @return the IDs of the matching books, in ascending order
+     */
+
+    synchronized List<Integer> search(String term, int maxDistance) {
+        Set<Integer> matches = null;
+        for (String word : split(term)) {
+            Set<Integer> bookIDs = new HashSet<>();
+            for (Word match : near(word, maxDistance)) {
+                bookIDs.addAll(match.bookIDs);
+            }
+            if (matches == null) {
+                matches = bookIDs;
+            } else {
+                matches.retainAll(bookIDs);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        List<Integer> ids = matches == null ? new ArrayList<>() : new ArrayList<>(matches);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Override
+    public synchronized void added(Book book) {
+        index(book);
+    }
+
+    @Override
+    public synchronized void updated(Book book) {
+        unindex(book.getID());
+        index(book);
+    }
+
+    @Override
+    public synchronized void deleted(int id) {
+        unindex(id);
+    }
+
+    private List<Word> near(String text, int maxDistance) {
+        List<Word> near = new ArrayList<>();
+        if (root == null) {
+            return near;
+        }
+        Deque<Word> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Word word = pending.pop();
+            int distance = distance(text, word.text);
+            if (distance <= maxDistance && !word.bookIDs.isEmpty()) {
+                near.add(word);
+            }
+            for (Map.Entry<Integer, Word> child : word.children.entrySet()) {
+                if (Math.abs(child.getKey() - distance) <= maxDistance) {
+                    pending.push(child.getValue());
+                }
+            }
+        }
+        return near;
+    }
+
+    private void index(Book book) {
+        if (bookWords.containsKey(book.getID())) {
+            return;
+        }
+        Set<String> texts = new LinkedHashSet<>(split(book.getBookName()));
+        if (book.getAuthor() != null) {
+            texts.addAll(split(book.getAuthor().getName()));
+        }
+        for (String text : texts) {
+            word(text).bookIDs.add(book.getID());
+        }
+        bookWords.put(book.getID(), texts);
+    }
+
+    private void unindex(int bookID) {
+        Set<String> texts = bookWords.remove(bookID);
+        if (texts == null) {
+            return;
+        }
+        for (String text : texts) {
+            words.get(text).bookIDs.remove(bookID);
+        }
+    }
+
+    private Word word(String text) {
+        Word word = words.get(text);
+        if (word != null) {
+            return word;
+        }
+        word = new Word(text);
+        words.put(text, word);
+        if (root == null) {
+            root = word;
+            return word;
+        }
+        Word parent = root;
+        while (true) {
+            int distance = distance(text, parent.text);
+            Word child = parent.children.get(distance);
+            if (child == null) {
+                parent.children.put(distance, word);
+                return word;
+            }
+            parent = child;
+        }
+    }
+
+    private static List<String> split(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Computes the Levenshtein distance between two words, keeping only two rows of the table.
+     */
+    private static int distance(String first, String second) {
+        int[] previous = new int[second.length() + 1];
+        int[] current = new int[second.length() + 1];
+        for (int j = 0; j <= second.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= first.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= second.length(); j++) {
+                int substitution = previous[j - 1] + (first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[second.length()];
+    }
+}
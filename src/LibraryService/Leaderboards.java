@@ -0,0 +1,229 @@
+package LibraryService;
+
+import LibraryModel.Book;
+import LibraryModel.Loan;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Keeps the books ranked by average rating and by number of loans, over the whole catalog and within
+ * each category, so that the top books are read from the head of a ranking instead of sorting the catalog.
+ * <p>
+ * Each ranking is a sorted set indexed by book, so a new review, a deleted review or a new loan moves one
+ * book in its rankings, and the top K books cost K steps. Unlike a bounded heap, the rankings stay exact
+ * when a score goes down. Books without reviews are not ranked by rating, and books never borrowed are not
+ * ranked by loans.
+ * <p>
+ * Like the other indexes of the service, the leaderboards listen to the book and loan repositories and are
+ * filled once from the repositories when the service is created. The ratings come from the rating
+ * aggregates of the books, which are written with the books when a review is added or deleted.
+ */
+
+class Leaderboards {
+
+    /**
+     * The category used for the books that have no category.
+     */
+    static final int NO_CATEGORY = -1;
+
+    private final Ranking topRated = new Ranking();
+    private final Ranking mostBorrowed = new Ranking();
+    private final Map<Integer, Integer> categories = new HashMap<>();
+    private final Map<Integer, Integer> loanCounts = new HashMap<>();
+    private final Map<Integer, Integer> loanBooks = new HashMap<>();
+
+    private final IRepositoryListener<Book> bookListener = new IRepositoryListener<>() {
+        @Override
+        public void added(Book book) {
+            bookWritten(book);
+        }
+
+        @Override
+        public void updated(Book book) {
+            bookWritten(book);
+        }
+
+        @Override
+        public void deleted(int id) {
+            bookDeleted(id);
+        }
+    };
+
+    private final IRepositoryListener<Loan> loanListener = new IRepositoryListener<>() {
+        @Override
+        public void added(Loan loan) {
+            loanWritten(loan);
+        }
+
+        @Override
+        public void updated(Loan loan) {
+            loanWritten(loan);
+        }
+
+        @Override
+        public void deleted(int id) {
+            loanDeleted(id);
+        }
+    };
+
+    /**
+     * Gets the listener that ranks the books as they are written to the book repository.
+     *
+     * @return the listener of the book repository
+     */
+
+    IRepositoryListener<Book> books() {
+        return bookListener;
+    }
+
+    /**
+     * Gets the listener that counts the loans of the books as they are written to the loan repository.
+     *
+     * @return the listener of the loan repository
+     */
+
+    IRepositoryListener<Loan> loans() {
+        return loanListener;
+    }
+
+    /**
+     * Gets the best rated books, by average rating and then by number of reviews.
+     *
+     * @param categoryID the ID of the category, or null for the whole catalog
+     * @param limit the largest number of books to return
+     * @return the IDs of the books, from the best rated
+     */
+
+    synchronized List<Integer> topRated(Integer categoryID, int limit) {
+        return topRated.top(categoryID, limit);
+    }
+
+    /**
+     * Gets the most borrowed books, by number of loans.
+     *
+     * @param categoryID the ID of the category, or null for the whole catalog
+     * @param limit the largest number of books to return
+     * @return the IDs of the books, from the most borrowed
+     */
+
+    synchronized List<Integer> mostBorrowed(Integer categoryID, int limit) {
+        return mostBorrowed.top(categoryID, limit);
+    }
+
+    private synchronized void bookWritten(Book book) {
+        int categoryID = book.getCategory() == null ? NO_CATEGORY : book.getCategory().getID();
+        categories.put(book.getID(), categoryID);
+        if (book.getRatings().getCount() > 0) {
+            topRated.put(book.getID(), categoryID, book.getRatings().getAverage(), book.getRatings().getCount());
+        } else {
+            topRated.remove(book.getID());
+        }
+        rankLoans(book.getID());
+    }
+
+    private synchronized void bookDeleted(int bookID) {
+        categories.remove(bookID);
+        topRated.remove(bookID);
+        mostBorrowed.remove(bookID);
+    }
+
+    private synchronized void loanWritten(Loan loan) {
+        Integer bookID = loan.getBook() == null ? null : loan.getBook().getID();
+        if (Objects.equals(loanBooks.get(loan.getID()), bookID)) {
+            return;
+        }
+        loanDeleted(loan.getID());
+        if (bookID == null) {
+            return;
+        }
+        loanBooks.put(loan.getID(), bookID);
+        loanCounts.merge(bookID, 1, Integer::sum);
+        rankLoans(bookID);
+    }
+
+    private synchronized void loanDeleted(int loanID) {
+        Integer bookID = loanBooks.remove(loanID);
+        if (bookID == null) {
+            return;
+        }
+        loanCounts.computeIfPresent(bookID, (id, count) -> count > 1 ? count - 1 : null);
+        rankLoans(bookID);
+    }
+
+    /**
+     * Moves a book in the loan rankings to its current number of loans, once the category of the book is known.
+     */
+    private void rankLoans(int bookID) {
+        Integer categoryID = categories.get(bookID);
+        Integer count = loanCounts.get(bookID);
+        if (categoryID == null || count == null) {
+            mostBorrowed.remove(bookID);
+        } else {
+            mostBorrowed.put(bookID, categoryID, count, 0);
+        }
+    }
+
+    /**
+     * The books ranked by one score, over the whole catalog and within each category.
+     * Ties are broken by a second score and then by ID.
+     */
+    private static class Ranking {
+
+        private static final Comparator<Ranked> ORDER = Comparator
+                .comparingDouble(Ranked::score).reversed()
+                .thenComparing(Comparator.comparingInt(Ranked::tieBreaker).reversed())
+                .thenComparingInt(Ranked::bookID);
+
+        private final TreeSet<Ranked> all = new TreeSet<>(ORDER);
+        private final Map<Integer, TreeSet<Ranked>> byCategory = new HashMap<>();
+        private final Map<Integer, Ranked> books = new HashMap<>();
+
+        /**
+         * The score of a book in a ranking, as it was when the book was ranked.
+         */
+        private record Ranked(int bookID, int categoryID, double score, int tieBreaker) {
+        }
+
+        void put(int bookID, int categoryID, double score, int tieBreaker) {
+            remove(bookID);
+            Ranked ranked = new Ranked(bookID, categoryID, score, tieBreaker);
+            books.put(bookID, ranked);
+            all.add(ranked);
+            byCategory.computeIfAbsent(categoryID, id -> new TreeSet<>(ORDER)).add(ranked);
+        }
+
+        void remove(int bookID) {
+            Ranked ranked = books.remove(bookID);
+            if (ranked == null) {
+                return;
+            }
+            all.remove(ranked);
+            TreeSet<Ranked> category = byCategory.get(ranked.categoryID());
+            category.remove(ranked);
+            if (category.isEmpty()) {
+                byCategory.remove(ranked.categoryID());
+            }
+        }
+
+        List<Integer> top(Integer categoryID, int limit) {
+            TreeSet<Ranked> ranking = categoryID == null ? all : byCategory.get(categoryID);
+            List<Integer> ids = new ArrayList<>();
+            if (ranking == null) {
+                return ids;
+            }
+            Iterator<Ranked> iterator = ranking.iterator();
+            while (ids.size() < limit && iterator.hasNext()) {
+                ids.add(iterator.next().bookID());
+            }
+            return ids;
+        }
+    }
+}
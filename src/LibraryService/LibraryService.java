@@ -3,12 +3,29 @@ package LibraryService;
 import Exceptions.BusinessLogicException;
 import Exceptions.DatabaseException;
 import Exceptions.EntityNotFoundException;
+import Exceptions.UncheckedDatabaseException;
 import LibraryModel.*;
+import LibraryRepository.IBookSummaryRepository;
+import LibraryRepository.IEmailRepository;
+import LibraryRepository.ITitleSearchRepository;
+import LibraryRepository.IInventoryRepository;
+import LibraryRepository.ILoanSummaryRepository;
 import LibraryRepository.IRepository;
+import LibraryRepository.IRepositoryListener;
+import LibraryRepository.ReadRouting;
+import LibraryRepository.UnitOfWork;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * LibraryService provides various operations for managing the library system,
@@ -19,6 +36,22 @@ import java.util.stream.Collectors;
 
 public class LibraryService {
 
+    /**
+     * Runs independent repository lookups of one operation at the same time. Lookups block on I/O in the
+     * database and file repositories, so each one gets its own virtual thread instead of a pooled platform thread.
+     */
+    private static final ExecutorService LOOKUP_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * The number of books recommended to a member when no limit is given.
+     */
+    public static final int RECOMMENDATION_LIMIT = 10;
+
+    /**
+     * The largest number of active loans a member can have.
+     */
+    public static final int LOAN_LIMIT = 3;
+
     private final IRepository<Book> bookRepo;
     private final IRepository<Loan> loanRepo;
     private final IRepository<Reservation> reservationRepo;
@@ -29,15 +62,30 @@ public class LibraryService {
     private final IRepository<Publisher> publisherRepo;
     private final IRepository<Staff> staffRepo;
 
-    private int newBookID;
-    private int newMemberID;
-    private int newLoanID;
-    private int newReviewID;
-    private int newAuthorID;
-    private int newCategoryID;
-    private int newPublisherID;
-    private int newReservationID;
-    private int newStaffID;
+    private final MemberLoanIndex memberLoanIndex = new MemberLoanIndex();
+    private final ReservationQueues reservationQueues = new ReservationQueues();
+    private final DueDateIndex dueDateIndex = new DueDateIndex();
+    private final EmailIndex<Member> memberEmailIndex = new EmailIndex<>();
+    private final EmailIndex<Staff> staffEmailIndex = new EmailIndex<>();
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final FuzzyIndex fuzzyIndex = new FuzzyIndex();
+    private final SortedTitleIndex sortedTitleIndex = new SortedTitleIndex();
+    private final Leaderboards leaderboards = new Leaderboards();
+    private final CoBorrowIndex coBorrowIndex = new CoBorrowIndex();
+    private final RecommendationCache recommendationCache = new RecommendationCache(this::loadRecommendations);
+    private final CirculationLocks circulationLocks = new CirculationLocks();
+    private final DomainEventBus eventBus = new DomainEventBus();
+    private final ReentrantLock catalogLinkLock = new ReentrantLock();
+
+    private final AtomicInteger newBookID;
+    private final AtomicInteger newMemberID;
+    private final AtomicInteger newLoanID;
+    private final AtomicInteger newReviewID;
+    private final AtomicInteger newAuthorID;
+    private final AtomicInteger newCategoryID;
+    private final AtomicInteger newPublisherID;
+    private final AtomicInteger newReservationID;
+    private final AtomicInteger newStaffID;
 
     /**
      * Constructs a LibraryService with the specified repositories for managing
@@ -69,28 +117,177 @@ public class LibraryService {
         this.publisherRepo = publisherRepo;
         this.staffRepo = staffRepo;
 
-        this.newBookID = getMaxId(bookRepo);
-        this.newMemberID = getMaxId(memberRepo);
-        this.newLoanID = getMaxId(loanRepo);
-        this.newReviewID = getMaxId(reviewRepo);
-        this.newAuthorID = getMaxId(authorRepo);
-        this.newCategoryID = getMaxId(categoryRepo);
-        this.newPublisherID = getMaxId(publisherRepo);
-        this.newReservationID = getMaxId(reservationRepo);
-        this.newStaffID = getMaxId(staffRepo);
+        this.newBookID = new AtomicInteger(getMaxId(bookRepo));
+        this.newMemberID = new AtomicInteger(getMaxId(memberRepo));
+        this.newLoanID = new AtomicInteger(getMaxId(loanRepo));
+        this.newReviewID = new AtomicInteger(getMaxId(reviewRepo));
+        this.newAuthorID = new AtomicInteger(getMaxId(authorRepo));
+        this.newCategoryID = new AtomicInteger(getMaxId(categoryRepo));
+        this.newPublisherID = new AtomicInteger(getMaxId(publisherRepo));
+        this.newReservationID = new AtomicInteger(getMaxId(reservationRepo));
+        this.newStaffID = new AtomicInteger(getMaxId(staffRepo));
+
+        index(loanRepo, memberLoanIndex);
+        index(reservationRepo, reservationQueues);
+        index(loanRepo, dueDateIndex);
+        deferredIndex(bookRepo, fuzzyIndex);
+        deferredIndex(bookRepo, sortedTitleIndex);
+        deferredIndex(bookRepo, leaderboards.books());
+        deferredIndex(loanRepo, leaderboards.loans());
+        deferredIndex(loanRepo, coBorrowIndex);
+        coBorrowIndex.rebuild();
+        // Invalidations are queued behind the index updates of the same object, so a stale entry is always dropped
+        index(bookRepo, eventBus.deferred(bookRepo, recommendationCache.books()), recommendationCache.books());
+        loanRepo.addListener(eventBus.deferred(loanRepo, recommendationCache.loans()));
+        eventBus.subscribe(DomainEvent.BookAdded.class, this::linkBook);
+        if (!(bookRepo instanceof ITitleSearchRepository)) {
+            deferredIndex(bookRepo, titleIndex);
+        }
+        if (!(memberRepo instanceof IEmailRepository)) {
+            index(memberRepo, memberEmailIndex);
+        }
+        if (!(staffRepo instanceof IEmailRepository)) {
+            index(staffRepo, staffEmailIndex);
+        }
     }
 
     private <T extends HasID> int getMaxId(IRepository<T> repository) {
-        try {
-            return repository.getAll().stream()
+        try (Stream<T> objects = repository.streamAll()) {
+            return objects
                     .mapToInt(HasID::getID)
                     .max()
                     .orElse(1);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new RuntimeException("Unable to get ID", e);
         }
     }
 
+    /**
+     * Registers an index on a repository and fills it from the objects already in the repository.
+     * The index listens to the repository before it is filled, so no object written in between is missed.
+     *
+     * @param repository the repository the index is built from
+     * @param index the index
+     */
+    private <T extends HasID> void index(IRepository<T> repository, IRepositoryListener<T> index) {
+        index(repository, index, index);
+    }
+
+    /**
+     * Registers an index on a repository that is kept up to date off the request path: the changes written
+     * to the repository are delivered to the index on the lanes of the event bus. The index is filled from the
+     * objects already in the repository before the constructor returns. Reads of the index wait only for the
+     * changes the calling thread wrote itself, so a caller reads its own writes; the changes of other threads
+     * may show up a moment later, and {@link #awaitPendingEvents()} waits for them as well. An object whose
+     * change the index fails to take is read again from the repository into the index before the next read.
+     *
+     * @param repository the repository the index is built from
+     * @param index the index
+     */
+    private <T extends HasID> void deferredIndex(IRepository<T> repository, IRepositoryListener<T> index) {
+        index(repository, eventBus.deferred(repository, index), index);
+    }
+
+    private <T extends HasID> void index(IRepository<T> repository, IRepositoryListener<T> listener, IRepositoryListener<T> index) {
+        repository.addListener(listener);
+        try (Stream<T> objects = repository.streamAll()) {
+            objects.forEach(index::added);
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new RuntimeException("Unable to build index", e);
+        }
+    }
+
+    /**
+     * Finds a person by email address, ignoring case: directly in the store if the repository supports it,
+     * through the email index of the service otherwise.
+     *
+     * @param repository the repository of the people
+     * @param emailIndex the email index of the repository, used if the repository cannot look up emails
+     * @param email the email address
+     * @return the person with the email address, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Person> T findByEmail(IRepository<T> repository, EmailIndex<T> emailIndex, String email) throws DatabaseException {
+        if (repository instanceof IEmailRepository<?> emailRepository) {
+            return (T) emailRepository.findByEmail(email);
+        }
+        int id = emailIndex.getID(email);
+        return id < 0 ? null : repository.get(id);
+    }
+
+    /**
+     * Reads the books with the given IDs, in the same order, skipping the books that no longer exist.
+     *
+     * @param ids the IDs of the books, as returned by an index of the service
+     * @return the books
+     */
+    private List<Book> getBooks(List<Integer> ids) throws DatabaseException {
+        List<Book> books = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            Book book = bookRepo.get(id);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Starts looking up an object by its ID on a virtual thread, which reads from the primary or a replica
+     * as the calling thread would.
+     *
+     * @param repository the repository that holds the object
+     * @param id the ID of the object
+     * @return the pending result of the lookup
+     */
+    private <T extends HasID> Future<T> lookup(IRepository<T> repository, int id) {
+        return LOOKUP_EXECUTOR.submit(ReadRouting.propagate(() -> repository.get(id)));
+    }
+
+    /**
+     * Waits for a lookup started with {@link #lookup(IRepository, int)}.
+     *
+     * @param lookup the pending lookup
+     * @return the object that was found, or null if it does not exist
+     * @throws DatabaseException if the lookup failed
+     */
+    private <T> T await(Future<T> lookup) throws DatabaseException {
+        try {
+            return lookup.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DatabaseException databaseException) {
+                throw databaseException;
+            }
+            throw new DatabaseException("Lookup failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Lookup interrupted.", e);
+        }
+    }
+
+    /**
+     * Reads several objects at the same time, each with its own lookup.
+     *
+     * @param repository the repository of the objects
+     * @param ids the IDs of the objects; repeated IDs are read once
+     * @return the objects that were found, by ID
+     * @throws DatabaseException if a lookup failed
+     */
+    private <T extends HasID> Map<Integer, T> lookupAll(IRepository<T> repository, Collection<Integer> ids) throws DatabaseException {
+        Map<Integer, Future<T>> lookups = new LinkedHashMap<>();
+        for (int id : ids) {
+            lookups.computeIfAbsent(id, key -> lookup(repository, key));
+        }
+        Map<Integer, T> objects = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Future<T>> lookup : lookups.entrySet()) {
+            T obj = await(lookup.getValue());
+            if (obj != null) {
+                objects.put(lookup.getKey(), obj);
+            }
+        }
+        return objects;
+    }
+
     /**
      * Adds a review to a specific book if the member has borrowed it.
      *
@@ -101,7 +298,7 @@ public class LibraryService {
      */
 
     public void addReviewToBook(int memberID, int bookID, int rating, String reviewText) throws EntityNotFoundException, BusinessLogicException, DatabaseException {
-        try {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             Member member = memberRepo.get(memberID);
             Book book = bookRepo.get(bookID);
 
@@ -116,12 +313,21 @@ public class LibraryService {
             if (!hasBorrowed) {
                 throw new BusinessLogicException("Member must borrow the book before adding a review.");
             }
+            if (!RatingStats.isValid(rating)) {
+                throw new BusinessLogicException("Rating must be between " + RatingStats.MIN_RATING + " and " + RatingStats.MAX_RATING + ".");
+            }
 
-            Review review = new Review(++newReviewID, rating, reviewText, book, member);
+            Review review = new Review(newReviewID.incrementAndGet(), rating, reviewText, book, member);
             book.getReviews().add(review);
-            reviewRepo.add(review);
-            bookRepo.update(book);
-        } catch (DatabaseException e) {
+            book.getRatings().add(rating);
+            unitOfWork.onRollback(() -> {
+                book.getReviews().remove(review);
+                book.getRatings().remove(rating);
+            });
+            unitOfWork.registerNew(reviewRepo, review);
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding review to book.");
         }
     }
@@ -146,7 +352,7 @@ public class LibraryService {
                 books.add(loan.getBook());
             }
             return books;
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting member borrowed books.");
         }
     }
@@ -158,7 +364,7 @@ public class LibraryService {
      */
 
     public void deleteReviewFromBook(int reviewID) throws EntityNotFoundException, DatabaseException {
-        try {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             Review reviewToDelete = reviewRepo.get(reviewID);
             if (reviewToDelete == null) {
                 throw new EntityNotFoundException("Review not found.");
@@ -170,9 +376,14 @@ public class LibraryService {
 //            boolean memberHasBorrowedBook = memberLoans.stream()
 //                    .anyMatch(loan -> loan.getBook().getID() == book.getID());
             book.getReviews().remove(reviewToDelete);
-            bookRepo.update(book);
-            reviewRepo.delete(reviewID);
-        } catch (DatabaseException e) {
+            if (RatingStats.isValid(reviewToDelete.getRating())) {
+                book.getRatings().remove(reviewToDelete.getRating());
+                unitOfWork.onRollback(() -> book.getRatings().add(reviewToDelete.getRating()));
+            }
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.registerDeleted(reviewRepo, reviewID);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error deleting review from book.");
         }
     }
@@ -193,7 +404,7 @@ public class LibraryService {
             }
 
             return book.getReviews();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting reviews from book.");
         }
     }
@@ -207,7 +418,8 @@ public class LibraryService {
      */
 
     public void borrowBook(int memberID, int bookID) throws EntityNotFoundException, BusinessLogicException, DatabaseException {
-        try {
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(bookID), List.of(memberID));
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             Book book = bookRepo.get(bookID);
             Member member = memberRepo.get(memberID);
 
@@ -217,22 +429,87 @@ public class LibraryService {
             if (member == null) {
                 throw new EntityNotFoundException("Member not found.");
             }
-            if (checkMemberHasOverdueLoans(memberID)) {
+            if (memberLoanIndex.hasOverdueLoans(memberID, LocalDate.now())) {
                 throw new BusinessLogicException("Cannot borrow books with overdue loans.");
             }
 
-            int activeLoans = getActiveLoansForMember(memberID).size();
-            if (activeLoans >= 3) {
+            int activeLoans = memberLoanIndex.getActiveLoanCount(memberID);
+            if (activeLoans >= LOAN_LIMIT) {
                 throw new BusinessLogicException("Loan limit reached. Return books before borrowing more.");
             }
 
-            if (book.isAvailable()) {
-                createLoan(book, member);
+            if (takeCopy(unitOfWork, book)) {
+                addLoan(unitOfWork, book, member);
             } else {
-                createReservation(book, member);
+                addReservation(unitOfWork, book, member);
             }
-        } catch (DatabaseException e) {
+            unitOfWork.registerDirty(memberRepo, member);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error borrowing book.");
+        } finally {
+            locks.release();
+        }
+    }
+
+    /**
+     * Borrows several books for a member at once, as at a self-service kiosk. The member is checked once
+     * for overdue loans and for the loan limit, the books are read together and locked together, and all
+     * the loans and reservations are written in one unit of work, which writes the member once.
+     * <p>
+     * Every book gets its own outcome: borrowed, reserved if it has no available copy, or failed for the
+     * reasons {@link #borrowBook(int, int)} would fail for it alone. A book that fails does not stop the others;
+     * once the loan limit is reached, the remaining books fail.
+     *
+     * @param memberID the ID of the member borrowing the books
+     * @param bookIDs the IDs of the books to be borrowed
+     * @return the outcome of every book, in the order of the IDs
+     */
+
+    public List<CirculationOutcome> borrowBooks(int memberID, List<Integer> bookIDs) throws EntityNotFoundException, DatabaseException {
+        CirculationLocks.Held locks = circulationLocks.lock(bookIDs, List.of(memberID));
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Member member = memberRepo.get(memberID);
+
+            if (member == null) {
+                throw new EntityNotFoundException("Member not found.");
+            }
+
+            Map<Integer, Book> books = lookupAll(bookRepo, bookIDs);
+            String memberError = null;
+            if (memberLoanIndex.hasOverdueLoans(memberID, LocalDate.now())) {
+                memberError = "Cannot borrow books with overdue loans.";
+            }
+            int loansLeft = LOAN_LIMIT - memberLoanIndex.getActiveLoanCount(memberID);
+
+            List<CirculationOutcome> outcomes = new ArrayList<>(bookIDs.size());
+            Set<Integer> seen = new HashSet<>();
+            for (int bookID : bookIDs) {
+                Book book = books.get(bookID);
+                if (!seen.add(bookID)) {
+                    outcomes.add(CirculationOutcome.failed(bookID, "Book is already in this checkout."));
+                } else if (book == null) {
+                    outcomes.add(CirculationOutcome.failed(bookID, "Book not found."));
+                } else if (memberError != null) {
+                    outcomes.add(CirculationOutcome.failed(bookID, memberError));
+                } else if (loansLeft <= 0) {
+                    outcomes.add(CirculationOutcome.failed(bookID, "Loan limit reached. Return books before borrowing more."));
+                } else if (takeCopy(unitOfWork, book)) {
+                    addLoan(unitOfWork, book, member);
+                    loansLeft--;
+                    outcomes.add(CirculationOutcome.of(bookID, CirculationOutcome.Result.BORROWED));
+                } else {
+                    addReservation(unitOfWork, book, member);
+                    outcomes.add(CirculationOutcome.of(bookID, CirculationOutcome.Result.RESERVED));
+                }
+            }
+            unitOfWork.registerDirty(memberRepo, member);
+            unitOfWork.commit();
+            return outcomes;
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error borrowing books.");
+        } finally {
+            locks.release();
         }
     }
 
@@ -243,26 +520,110 @@ public class LibraryService {
      * @param member the member that borrows the book
      */
     public void createLoan(Book book, Member member) throws DatabaseException {
-        if (!book.isAvailable() || book.getCopiesAvailable() < 1) {
-            throw new DatabaseException("Book is not available for loan.");
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(book.getID()), List.of(member.getID()));
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            if (!takeCopy(unitOfWork, book)) {
+                throw new DatabaseException("Book is not available for loan.");
+            }
+            addLoan(unitOfWork, book, member);
+            unitOfWork.registerDirty(memberRepo, member);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error creating loan.");
+        } finally {
+            locks.release();
         }
+    }
 
-        try {
-            Loan loan = new Loan(++newLoanID, LocalDate.now(), calculateDueDate(), null, "ACTIVE", book, member);
-            loanRepo.add(loan);
-            book.setCopiesAvailable(book.getCopiesAvailable() - 1);
-            if (book.getCopiesAvailable() < 1) {
-                book.setAvailable(false);
-            }
-            member.getLoans().add(loan);
-            member.getLoanHistory().add(loan);
-            //member = loan.getMember();
-            bookRepo.update(book);
-            memberRepo.update(member);
-            loanRepo.update(loan);
-        } catch (DatabaseException e) {
-            throw new DatabaseException("Error creating loan.");
+    /**
+     * Creates the loan of a copy already taken and adds it to the member. The member is not registered
+     * as changed, so that callers writing several loans of one member write the member once.
+     * The loan is taken off the member again if the unit of work does not commit.
+     */
+    private void addLoan(UnitOfWork unitOfWork, Book book, Member member) {
+        Loan loan = new Loan(newLoanID.incrementAndGet(), LocalDate.now(), calculateDueDate(), null, "ACTIVE", book, member);
+        member.getLoans().add(loan);
+        member.getLoanHistory().add(loan);
+        unitOfWork.onRollback(() -> {
+            member.getLoans().remove(loan);
+            member.getLoanHistory().remove(loan);
+        });
+        unitOfWork.registerNew(loanRepo, loan);
+    }
+
+    /**
+     * Takes one copy of a book for a new loan. The check and the decrement are a single atomic step,
+     * in the store when the book repository supports it and on the book otherwise, so two concurrent
+     * checkouts can never both take the last copy. In the store the copy is taken in the transaction of
+     * the unit of work, so it is only gone once the loan is written and comes back if the loan is not.
+     *
+     * @param unitOfWork the unit of work of the loan
+     * @param book the book to take a copy of
+     * @return true if a copy was taken, false if the book is not available or has no copy left
+     */
+    private boolean takeCopy(UnitOfWork unitOfWork, Book book) throws DatabaseException {
+        if (bookRepo instanceof IInventoryRepository inventory) {
+            int remaining = unitOfWork.write(bookRepo, () -> inventory.takeCopy(book.getID()));
+            if (remaining < 0) {
+                return false;
+            }
+            setCopies(unitOfWork, book, remaining, remaining > 0);
+            return true;
+        }
+
+        if (!book.isAvailable() || !book.tryTakeCopy()) {
+            return false;
+        }
+        if (book.getCopiesAvailable() < 1) {
+            book.setAvailable(false);
         }
+        unitOfWork.registerDirty(bookRepo, book);
+        unitOfWork.onRollback(() -> {
+            book.returnCopy();
+            book.setAvailable(true);
+        });
+        return true;
+    }
+
+    /**
+     * Puts one copy of a book back when a loan ends, in the transaction of the unit of work when the store
+     * keeps the copies, and on the book otherwise. The copy is taken again if the unit of work does not commit.
+     *
+     * @param unitOfWork the unit of work of the return
+     * @param book the book to return a copy of
+     */
+    private void returnCopy(UnitOfWork unitOfWork, Book book) throws DatabaseException {
+        if (bookRepo instanceof IInventoryRepository inventory) {
+            int copies = unitOfWork.write(bookRepo, () -> inventory.returnCopy(book.getID()));
+            if (copies < 0) {
+                throw new DatabaseException("Book not found.");
+            }
+            setCopies(unitOfWork, book, copies, true);
+            return;
+        }
+
+        book.returnCopy();
+        book.setAvailable(true);
+        unitOfWork.registerDirty(bookRepo, book);
+        unitOfWork.onRollback(() -> {
+            book.tryTakeCopy();
+            book.setAvailable(book.getCopiesAvailable() > 0);
+        });
+    }
+
+    /**
+     * Brings the copies of a book read before a write to the store in line with the store,
+     * and back to what they were if the unit of work does not commit.
+     */
+    private void setCopies(UnitOfWork unitOfWork, Book book, int copies, boolean available) {
+        int previousCopies = book.getCopiesAvailable();
+        boolean previouslyAvailable = book.isAvailable();
+        book.setCopiesAvailable(copies);
+        book.setAvailable(available);
+        unitOfWork.onRollback(() -> {
+            book.setCopiesAvailable(previousCopies);
+            book.setAvailable(previouslyAvailable);
+        });
     }
 
     /**
@@ -276,17 +637,29 @@ public class LibraryService {
             throw new EntityNotFoundException("Book not found.");
         }
 
-        try {
-            Reservation reservation = new Reservation(++newReservationID, LocalDate.now(), book, member);
-            reservationRepo.add(reservation);
-            member.getReservations().add(reservation);
-            memberRepo.update(member);
-            reservationRepo.update(reservation);
-        } catch (DatabaseException e) {
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(book.getID()), List.of(member.getID()));
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            addReservation(unitOfWork, book, member);
+            unitOfWork.registerDirty(memberRepo, member);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error creating reservation.");
+        } finally {
+            locks.release();
         }
     }
 
+    /**
+     * Creates a reservation and adds it to the member, without registering the member as changed.
+     * The reservation is taken off the member again if the unit of work does not commit.
+     */
+    private void addReservation(UnitOfWork unitOfWork, Book book, Member member) {
+        Reservation reservation = new Reservation(newReservationID.incrementAndGet(), LocalDate.now(), book, member);
+        member.getReservations().add(reservation);
+        unitOfWork.onRollback(() -> member.getReservations().remove(reservation));
+        unitOfWork.registerNew(reservationRepo, reservation);
+    }
+
     /**
      * Checks if a member has any overdue loans.
      *
@@ -311,11 +684,64 @@ public class LibraryService {
                 }
             }
             return false;
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error checking member has overdue loans.");
         }
     }
 
+    /**
+     * Marks the active loans that are past their due date as OVERDUE. The loans are taken from the
+     * due-date index, which drops them once they are marked, so only the loans that became overdue
+     * since the last call are read, from the primary database.
+     * The books and members of the loans are locked as a return locks them, and the loans are read again
+     * under the locks, so a loan returned while the loans are marked is never marked overdue.
+     * The members of these loans cannot borrow until the loans are returned.
+     *
+     * @return the loans marked overdue
+     */
+
+    public List<Loan> markOverdueLoans() throws DatabaseException {
+        LocalDate today = LocalDate.now();
+        List<Loan> overdueLoans = new ArrayList<>();
+        ReadRouting.pinToPrimary();
+        try {
+            List<Integer> loanIDs = dueDateIndex.dueBefore(today);
+            Set<Integer> bookIDs = new HashSet<>();
+            Set<Integer> memberIDs = new HashSet<>();
+            for (Loan loan : lookupAll(loanRepo, loanIDs).values()) {
+                bookIDs.add(loan.getBook().getID());
+                memberIDs.add(loan.getMember().getID());
+            }
+
+            CirculationLocks.Held locks = circulationLocks.lock(bookIDs, memberIDs);
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                Map<Integer, Loan> lockedLoans = lookupAll(loanRepo, loanIDs);
+                for (int loanID : loanIDs) {
+                    Loan loan = lockedLoans.get(loanID);
+                    if (loan == null || !"ACTIVE".equals(loan.getStatus()) || !loan.getDueDate().isBefore(today)) {
+                        dueDateIndex.deleted(loanID);
+                        continue;
+                    }
+                    loan.setStatus("OVERDUE");
+                    unitOfWork.registerDirty(loanRepo, loan);
+                    unitOfWork.onRollback(() -> {
+                        loan.setStatus("ACTIVE");
+                        dueDateIndex.added(loan);
+                    });
+                    overdueLoans.add(loan);
+                }
+                unitOfWork.commit();
+            } finally {
+                locks.release();
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error marking overdue loans.");
+        } finally {
+            ReadRouting.unpinFromPrimary();
+        }
+        return overdueLoans;
+    }
+
     /**
      * Returns a borrowed book for a member and checks if there are any reservations
      * for that book. If there are, it fulfills the reservation.
@@ -331,43 +757,185 @@ public class LibraryService {
                 throw new EntityNotFoundException("Loan not found.");
             }
 
-            Book book = loan.getBook();
-            if (!"ACTIVE".equals(loan.getStatus()))
-                throw new BusinessLogicException("Loan is not active and cannot be returned.");
+            CirculationLocks.Held locks = circulationLocks.lock(List.of(loan.getBook().getID()), List.of());
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                circulationLocks.lockMembers(locks, returnMembers(loan));
+                // Read again under the locks, so a loan returned by another operation in the meantime is not returned twice
+                loan = loanRepo.get(loanID);
+                if (loan == null) {
+                    throw new EntityNotFoundException("Loan not found.");
+                }
+
+                Book book = loan.getBook();
+                if (!loan.isActive())
+                    throw new BusinessLogicException("Loan is not active and cannot be returned.");
 
-            removeLoan(loan);
-            nextReservation(book);
-        } catch (DatabaseException e) {
+                removeLoan(loan);
+                nextReservation(book);
+                unitOfWork.commit();
+            } finally {
+                locks.release();
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error returning book.");
         }
     }
 
+    /**
+     * Gets the members a return can write to: the member of the loan and the member whose reservation
+     * the returned copy goes to. Called with the book locked, so the reservation queue of the book cannot change.
+     *
+     * @param loan the loan that is returned
+     * @return the IDs of the members
+     */
+    private List<Integer> returnMembers(Loan loan) throws DatabaseException {
+        Reservation reservation = peekNextReservation(loan.getBook());
+        return reservation == null
+                ? List.of(loan.getMember().getID())
+                : List.of(loan.getMember().getID(), reservation.getMember().getID());
+    }
+
+    /**
+     * Returns several loans at once, as when the books of a book drop are processed. The loans are read
+     * together, their books and members are locked together, and everything is written in one unit of work,
+     * which writes each member once. The reservations of a book are then handed off once for the book,
+     * one per copy returned, instead of once per loan.
+     * <p>
+     * Every loan gets its own outcome: returned, or failed for the reasons {@link #returnBook(int)} would
+     * fail for it alone. A loan that fails does not stop the others.
+     *
+     * @param loanIDs the IDs of the loans to be returned
+     * @return the outcome of every loan, in the order of the IDs
+     */
+
+    public List<CirculationOutcome> returnBooks(List<Integer> loanIDs) throws DatabaseException {
+        try {
+            Collection<Loan> loans = lookupAll(loanRepo, loanIDs).values();
+            Set<Integer> bookIDs = new HashSet<>();
+            for (Loan loan : loans) {
+                bookIDs.add(loan.getBook().getID());
+            }
+
+            CirculationLocks.Held locks = circulationLocks.lock(bookIDs, List.of());
+            try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+                circulationLocks.lockMembers(locks, returnMembers(loans));
+                // Read again under the locks, so loans returned by another operation in the meantime are not returned twice
+                Map<Integer, Loan> lockedLoans = lookupAll(loanRepo, loanIDs);
+                Map<Integer, Book> books = new LinkedHashMap<>();
+                Map<Integer, Member> members = new HashMap<>();
+                Map<Integer, Integer> returnedCopies = new HashMap<>();
+
+                List<CirculationOutcome> outcomes = new ArrayList<>(loanIDs.size());
+                Set<Integer> seen = new HashSet<>();
+                for (int loanID : loanIDs) {
+                    Loan loan = lockedLoans.get(loanID);
+                    if (!seen.add(loanID)) {
+                        outcomes.add(CirculationOutcome.failed(loanID, "Loan is already in this return."));
+                    } else if (loan == null) {
+                        outcomes.add(CirculationOutcome.failed(loanID, "Loan not found."));
+                    } else if (!loan.isActive()) {
+                        outcomes.add(CirculationOutcome.failed(loanID, "Loan is not active and cannot be returned."));
+                    } else {
+                        // Loans of the same book or member share one instance of it, which is written once
+                        Book book = books.computeIfAbsent(loan.getBook().getID(), id -> loan.getBook());
+                        Member member = members.computeIfAbsent(loan.getMember().getID(), id -> loan.getMember());
+                        loan.setStatus("RETURNED");
+                        loan.setReturnDate(LocalDate.now());
+                        returnCopy(unitOfWork, book);
+                        member.getLoans().removeIf(active -> active.getID() == loanID);
+                        unitOfWork.registerDirty(loanRepo, loan);
+                        returnedCopies.merge(book.getID(), 1, Integer::sum);
+                        outcomes.add(CirculationOutcome.of(loanID, CirculationOutcome.Result.RETURNED));
+                    }
+                }
+
+                for (Book book : books.values()) {
+                    handOffReservations(unitOfWork, book, returnedCopies.get(book.getID()), members);
+                }
+                for (Member member : members.values()) {
+                    unitOfWork.registerDirty(memberRepo, member);
+                }
+                unitOfWork.commit();
+                return outcomes;
+            } finally {
+                locks.release();
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error returning books.");
+        }
+    }
+
+    /**
+     * Gets the members a bulk return can write to: the members of the loans and, for every book, the
+     * members of as many reservations as the copies returned. Called with the books locked.
+     *
+     * @param loans the loans that are returned
+     * @return the IDs of the members
+     */
+    private Set<Integer> returnMembers(Collection<Loan> loans) throws DatabaseException {
+        Set<Integer> memberIDs = new HashSet<>();
+        Map<Integer, Integer> copies = new HashMap<>();
+        Map<Integer, Book> books = new HashMap<>();
+        for (Loan loan : loans) {
+            memberIDs.add(loan.getMember().getID());
+            copies.merge(loan.getBook().getID(), 1, Integer::sum);
+            books.putIfAbsent(loan.getBook().getID(), loan.getBook());
+        }
+        for (Book book : books.values()) {
+            for (Reservation reservation : peekReservations(book, copies.get(book.getID()))) {
+                memberIDs.add(reservation.getMember().getID());
+            }
+        }
+        return memberIDs;
+    }
+
+    /**
+     * Turns the oldest reservations of a book into loans, one for each copy returned, while copies are
+     * available. The members of the reservations are added to the members the caller writes.
+     *
+     * @param unitOfWork the unit of work of the return
+     * @param book the returned book
+     * @param copies the number of copies returned
+     * @param members the members written by the return, by ID
+     */
+    private void handOffReservations(UnitOfWork unitOfWork, Book book, int copies, Map<Integer, Member> members) throws DatabaseException {
+        for (int i = 0; i < copies; i++) {
+            Reservation reservation = peekNextReservation(book);
+            if (reservation == null || !takeCopy(unitOfWork, book)) {
+                return;
+            }
+            takeNextReservation(unitOfWork, book);
+            Member member = members.computeIfAbsent(reservation.getMember().getID(), id -> reservation.getMember());
+            addLoan(unitOfWork, book, member);
+            member.getReservations().removeIf(memberReservation -> memberReservation.getID() == reservation.getID());
+            unitOfWork.registerDeleted(reservationRepo, reservation.getID());
+        }
+    }
+
     /**
      * Removes an active loan for a member and updates the attributes for the book
      *
      * @param loan the loan of the book
      */
     public void removeLoan(Loan loan) throws DatabaseException {
-        try {
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(loan.getBook().getID()), List.of(loan.getMember().getID()));
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             loan.setStatus("RETURNED");
             loan.setReturnDate(LocalDate.now());
             Book book = loan.getBook();
-
-            book.setCopiesAvailable(book.getCopiesAvailable() + 1);
-            if (book.getCopiesAvailable() > 0) {
-                book.setAvailable(true);
-            }
+            returnCopy(unitOfWork, book);
 
             Member member = loan.getMember();
             member.getLoans().remove(loan);
 
-            memberRepo.update(member);
-            bookRepo.update(book);
-            loanRepo.update(loan);
-
+            unitOfWork.registerDirty(memberRepo, member);
+            unitOfWork.registerDirty(loanRepo, loan);
+            unitOfWork.commit();
         }
-        catch (DatabaseException e) {
+        catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error removing loan.");
+        } finally {
+            locks.release();
         }
     }
 
@@ -380,25 +948,94 @@ public class LibraryService {
         if (book == null) {
             throw new EntityNotFoundException("Book not found.");
         }
-        try {
-            Optional<Reservation> nextReservation = reservationRepo.getAll().stream()
-                    .filter(reservation -> reservation.getBook().equals(book))
-                    .findFirst();
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(book.getID()), List.of());
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            circulationLocks.lockMembers(locks, reservationMembers(book));
+            Reservation reservation = takeNextReservation(unitOfWork, book);
 
-            if (nextReservation.isPresent()) {
-                Reservation reservation = nextReservation.get();
+            if (reservation != null) {
                 Member memberRes = reservation.getMember();
 
                 createLoan(book, memberRes);
-                memberRes.getReservations().remove(reservation);
-                reservationRepo.delete(reservation.getID()); // Remove the reservation
-                memberRepo.update(memberRes);
+                memberRes.getReservations().removeIf(memberReservation -> memberReservation.getID() == reservation.getID());
+                unitOfWork.registerDeleted(reservationRepo, reservation.getID()); // Remove the reservation
+                unitOfWork.registerDirty(memberRepo, memberRes);
             }
-        } catch (DatabaseException e) {
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error making next reservation.");
+        } finally {
+            locks.release();
+        }
+    }
+
+
+    /**
+     * Takes the oldest reservation of a book off its queue. The reservation goes back to the head of
+     * the queue if the unit of work does not commit.
+     *
+     * @param unitOfWork the unit of work that fulfils the reservation
+     * @param book the book that was returned
+     * @return the oldest reservation of the book, or null if the book has no reservations
+     */
+    private Reservation takeNextReservation(UnitOfWork unitOfWork, Book book) throws DatabaseException {
+        Reservation reservation = peekNextReservation(book);
+        if (reservation != null) {
+            reservationQueues.remove(reservation.getID());
+            unitOfWork.onRollback(() -> reservationQueues.added(reservation));
         }
+        return reservation;
     }
 
+    /**
+     * Gets the oldest reservation of a book without taking it off its queue. Reservations that were deleted
+     * from the repository without the queue being told are dropped from the queue.
+     *
+     * @param book the book
+     * @return the oldest reservation of the book, or null if the book has no reservations
+     */
+    private Reservation peekNextReservation(Book book) throws DatabaseException {
+        List<Reservation> reservations = peekReservations(book, 1);
+        return reservations.isEmpty() ? null : reservations.getFirst();
+    }
+
+    /**
+     * Gets the oldest reservations of a book without taking them off its queue. Reservations that were deleted
+     * from the repository without the queue being told are dropped from the queue.
+     *
+     * @param book the book
+     * @param count the largest number of reservations to return
+     * @return the oldest reservations of the book, from the oldest
+     */
+    private List<Reservation> peekReservations(Book book, int count) throws DatabaseException {
+        while (true) {
+            List<Reservation> reservations = new ArrayList<>();
+            boolean stale = false;
+            for (int reservationID : reservationQueues.peek(book.getID(), count)) {
+                Reservation reservation = reservationRepo.get(reservationID);
+                if (reservation == null) {
+                    reservationQueues.remove(reservationID);
+                    stale = true;
+                } else {
+                    reservations.add(reservation);
+                }
+            }
+            if (!stale) {
+                return reservations;
+            }
+        }
+    }
+
+    /**
+     * Gets the member whose reservation a returned copy of a book goes to. Called with the book locked.
+     *
+     * @param book the book
+     * @return the ID of the member, or no ID if the book has no reservations
+     */
+    private List<Integer> reservationMembers(Book book) throws DatabaseException {
+        Reservation reservation = peekNextReservation(book);
+        return reservation == null ? List.of() : List.of(reservation.getMember().getID());
+    }
 
     /**
      * Retrieves active loans for a specific member, sorted from oldest to newest.
@@ -414,14 +1051,39 @@ public class LibraryService {
             if (member == null) {
                 throw new EntityNotFoundException("Member not found.");
             }
-            return loanRepo.getAll().stream()
-                    .filter(loan -> loan.getMember().getID() == memberID && loan.getStatus().equals("ACTIVE"))
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            try (Stream<Loan> loans = loanRepo.streamAll()) {
+                return loans
+                        .filter(loan -> loan.getMember().getID() == memberID && loan.isActive())
+                        .collect(Collectors.toList());
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting active loans.");
         }
     }
 
+    /**
+     * Retrieves the summaries of the active loans of a specific member, with the columns shown in loan listings.
+     *
+     * @param memberID the ID of the member
+     * @return a list of the summaries of the active loans of the specified member
+     */
+
+    public List<LoanSummary> getActiveLoanSummariesForMember(int memberID) throws EntityNotFoundException, DatabaseException, BusinessLogicException {
+        if (loanRepo instanceof ILoanSummaryRepository summaries) {
+            try {
+                if (memberRepo.get(memberID) == null) {
+                    throw new EntityNotFoundException("Member not found.");
+                }
+                return summaries.getActiveLoanSummaries(memberID);
+            } catch (DatabaseException | UncheckedDatabaseException e) {
+                throw new DatabaseException("Error getting active loans.");
+            }
+        }
+        return getActiveLoansForMember(memberID).stream()
+                .map(LoanSummary::of)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Calculates the due date for a new loan, which is 14 days from the current date.
      *
@@ -435,7 +1097,8 @@ public class LibraryService {
     }
 
     /**
-     * Adds a new book to the library.
+     * Adds a new book to the library. The book is added to the books of its author, category and publisher
+     * in the background, once it is written.
      *
      * @param bookName the name of the book
      * @param authorID the ID of the author of the book
@@ -445,28 +1108,31 @@ public class LibraryService {
      */
 
     public void addBook(String bookName, int authorID, int categoryID, int publisherID, int copiesAvailable) throws EntityNotFoundException, DatabaseException {
-        try {
-            Author author = authorRepo.get(authorID);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Future<Author> authorLookup = lookup(authorRepo, authorID);
+            Future<Publisher> publisherLookup = lookup(publisherRepo, publisherID);
+            Future<Category> categoryLookup = lookup(categoryRepo, categoryID);
+
+            Author author = await(authorLookup);
             if(author == null) {
                 throw new EntityNotFoundException("Author not found.");
             }
 
-            Publisher publisher = publisherRepo.get(publisherID);
+            Publisher publisher = await(publisherLookup);
             if(publisher == null) {
                 throw new EntityNotFoundException("Publisher not found.");
             }
 
-            Category category = categoryRepo.get(categoryID);
+            Category category = await(categoryLookup);
             if(category == null) {
                 throw new EntityNotFoundException("Category not found.");
             }
 
-            Book book = new Book(++newBookID, bookName, author, true, category, publisher, copiesAvailable);
-            bookRepo.add(book);
-            addBookToAuthor(book, authorID);
-            addBookToCategory(book, categoryID);
-            addBookToPublisher(book, publisherID);
-        } catch (DatabaseException e) {
+            Book book = new Book(newBookID.incrementAndGet(), bookName, author, true, category, publisher, copiesAvailable);
+            unitOfWork.registerNew(bookRepo, book);
+            unitOfWork.onCommit(() -> eventBus.publish(new DomainEvent.BookAdded(book.getID(), authorID, categoryID, publisherID)));
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error creating book.");
         }
     }
@@ -484,10 +1150,13 @@ public class LibraryService {
         if (name == null || name.trim().isEmpty()) {
             throw new DatabaseException("Invalid name provided.");
         }
+        if (findByEmail(staffRepo, staffEmailIndex, email) != null) {
+            throw new DatabaseException("Email already in use.");
+        }
         try {
-            Staff staff = new Staff(++newStaffID, name, email, phoneNumber, position);
+            Staff staff = new Staff(newStaffID.incrementAndGet(), name, email, phoneNumber, position);
             staffRepo.add(staff);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error creating staff.");
         }
     }
@@ -501,14 +1170,8 @@ public class LibraryService {
 
     public boolean isStaff(String email) throws DatabaseException {
         try {
-            List<Staff> staffs = staffRepo.getAll();
-            for (Staff staff : staffs) {
-                if (staff.getEmail().equals(email)) {
-                    return true;
-                }
-            }
-            return false;
-        } catch (DatabaseException e) {
+            return findByEmail(staffRepo, staffEmailIndex, email) != null;
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error verifying staff.");
         }
     }
@@ -525,26 +1188,32 @@ public class LibraryService {
      */
 
     public void updateBook(int bookID, String newBookName, int newAuthorID, boolean newIsAvailable, int newCategoryID, int newPublisherID, int newCopies) throws EntityNotFoundException, DatabaseException {
-        try {
-            Book book = bookRepo.get(bookID);
+        CirculationLocks.Held locks = circulationLocks.lock(List.of(bookID), List.of());
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            Future<Book> bookLookup = lookup(bookRepo, bookID);
+            Future<Author> authorLookup = lookup(authorRepo, newAuthorID);
+            Future<Category> categoryLookup = lookup(categoryRepo, newCategoryID);
+            Future<Publisher> publisherLookup = lookup(publisherRepo, newPublisherID);
+
+            Book book = await(bookLookup);
 
             if (book == null) {
                 throw new EntityNotFoundException("Book not found.");
             }
 
-            Author author = authorRepo.get(newAuthorID);
+            Author author = await(authorLookup);
 
             if (author == null) {
                 throw new EntityNotFoundException("Author not found.");
             }
 
-            Category category = categoryRepo.get(newCategoryID);
+            Category category = await(categoryLookup);
 
             if (category == null) {
                 throw new EntityNotFoundException("Category not found.");
             }
 
-            Publisher publisher = publisherRepo.get(newPublisherID);
+            Publisher publisher = await(publisherLookup);
 
             if (publisher == null) {
                 throw new EntityNotFoundException("Publisher not found.");
@@ -554,15 +1223,23 @@ public class LibraryService {
                 book.setBookName(newBookName);
             }
             book.setAuthor(author);
-            book.setAvailable(newIsAvailable);
             book.setCategory(category);
             book.setPublisher(publisher);
-            if (newCopies != -1) {
-                book.setCopiesAvailable(newCopies);
+            if (bookRepo instanceof IInventoryRepository inventory) {
+                int copies = unitOfWork.write(bookRepo, () -> inventory.setCopies(bookID, newCopies, newIsAvailable));
+                setCopies(unitOfWork, book, copies, newIsAvailable);
+            } else {
+                book.setAvailable(newIsAvailable);
+                if (newCopies != -1) {
+                    book.setCopiesAvailable(newCopies);
+                }
             }
-            bookRepo.update(book);
-        } catch (DatabaseException e) {
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error updating book.");
+        } finally {
+            locks.release();
         }
     }
 
@@ -581,7 +1258,7 @@ public class LibraryService {
             }
 
             bookRepo.delete(bookID);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error deleting book.");
         }
     }
@@ -599,10 +1276,12 @@ public class LibraryService {
             if (publisher == null) {
                 throw new EntityNotFoundException("Publisher not found.");
             }
-            return bookRepo.getAll().stream()
-                    .filter(book -> book.getPublisher().getID() == publisherID)
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            try (Stream<Book> books = bookRepo.streamAll()) {
+                return books
+                        .filter(book -> book.getPublisher().getID() == publisherID)
+                        .collect(Collectors.toList());
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting books by publisher.");
         }
     }
@@ -620,14 +1299,43 @@ public class LibraryService {
             if (author == null) {
                 throw new EntityNotFoundException("Author not found.");
             }
-            return bookRepo.getAll().stream()
-                    .filter(book -> book.getAuthor().getID() == authorID)
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            try (Stream<Book> books = bookRepo.streamAll()) {
+                return books
+                        .filter(book -> book.getAuthor().getID() == authorID)
+                        .collect(Collectors.toList());
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting books by author.");
         }
     }
 
+    /**
+     * Retrieves the summaries of the books written by a specific author.
+     *
+     * @param authorID the ID of the author
+     * @return a list of the summaries of the books written by the specified author
+     */
+
+    public List<BookSummary> getBookSummariesByAuthor(int authorID) throws EntityNotFoundException, DatabaseException {
+        if (bookRepo instanceof IBookSummaryRepository summaries) {
+            try {
+                if (authorRepo.get(authorID) == null) {
+                    throw new EntityNotFoundException("Author not found.");
+                }
+                return summaries.getBookSummariesByAuthor(authorID);
+            } catch (DatabaseException | UncheckedDatabaseException e) {
+                throw new DatabaseException("Error getting books by author.");
+            }
+        }
+        return summarize(getBooksByAuthor(authorID));
+    }
+
+    private List<BookSummary> summarize(List<Book> books) {
+        return books.stream()
+                .map(book -> BookSummary.of(book, book.getRatings().getAverage()))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Retrieves all active reservations for a specific member.
      *
@@ -642,10 +1350,12 @@ public class LibraryService {
             if (member == null) {
                 throw new EntityNotFoundException("Member not found.");
             }
-            return reservationRepo.getAll().stream()
-                    .filter(reservation -> reservation.getMember().getID() == memberID)
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            try (Stream<Reservation> reservations = reservationRepo.streamAll()) {
+                return reservations
+                        .filter(reservation -> reservation.getMember().getID() == memberID)
+                        .collect(Collectors.toList());
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting active reservations.");
         }
     }
@@ -665,10 +1375,12 @@ public class LibraryService {
                 throw new EntityNotFoundException("Member not found.");
             }
 
-            return loanRepo.getAll().stream()
-                    .filter(loan -> loan.getMember().getID() == memberID)
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            try (Stream<Loan> loans = loanRepo.streamAll()) {
+                return loans
+                        .filter(loan -> loan.getMember().getID() == memberID)
+                        .collect(Collectors.toList());
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting loan history.");
         }
     }
@@ -681,7 +1393,7 @@ public class LibraryService {
      */
 
     public void addBookToCategory(Book book, int categoryID) throws EntityNotFoundException, DatabaseException {
-        try {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             //Book book = bookRepo.get(bookID);
             Category category = categoryRepo.get(categoryID);
 
@@ -694,15 +1406,16 @@ public class LibraryService {
 
             book.setCategory(category);
             category.getBooks().add(book);
-            bookRepo.update(book);
-            categoryRepo.update(category);
-        } catch (DatabaseException e) {
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.registerDirty(categoryRepo, category);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding book to category.");
         }
     }
 
     public void addBookToAuthor(Book book, int authorID) throws EntityNotFoundException, DatabaseException {
-        try {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             //Book book = bookRepo.get(bookID);
             Author author = authorRepo.get(authorID);
 
@@ -716,15 +1429,16 @@ public class LibraryService {
             book.setAuthor(author);
             author.getBooks().add(book);
 
-            bookRepo.update(book);
-            authorRepo.update(author);
-        } catch (DatabaseException e) {
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.registerDirty(authorRepo, author);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding book to author.");
         }
     }
 
     public void addBookToPublisher(Book book, int publisherID) throws EntityNotFoundException, DatabaseException {
-        try {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
             //Book book = bookRepo.get(bookID);
             Publisher publisher = publisherRepo.get(publisherID);
 
@@ -738,13 +1452,86 @@ public class LibraryService {
             book.setPublisher(publisher);
             publisher.getPublishedBooks().add(book);
 
-            bookRepo.update(book);
-            publisherRepo.update(publisher);
-        } catch (DatabaseException e) {
+            unitOfWork.registerDirty(bookRepo, book);
+            unitOfWork.registerDirty(publisherRepo, publisher);
+            unitOfWork.commit();
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding book to publisher.");
         }
     }
 
+    /**
+     * Adds a new book to the books of its author, category and publisher, writing each of them once.
+     * Runs on the event bus after the book is written; links are made one book at a time, so two books of the
+     * same author added at the same time cannot overwrite each other's link. The handler runs beside the
+     * request threads, so it reads and writes only in the transaction of its own unit of work.
+     *
+     * @param event the event of the new book
+     */
+    private void linkBook(DomainEvent.BookAdded event) throws DatabaseException {
+        catalogLinkLock.lock();
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            for (IRepository<?> repository : List.of(bookRepo, authorRepo, categoryRepo, publisherRepo)) {
+                unitOfWork.enlist(repository);
+            }
+
+            Book book = bookRepo.get(event.bookID());
+            if (book == null) {
+                // Deleted before it was linked
+                return;
+            }
+            Author author = authorRepo.get(event.authorID());
+            if (author != null) {
+                addLink(unitOfWork, authorRepo, author, author.getBooks(), book);
+            }
+            Category category = categoryRepo.get(event.categoryID());
+            if (category != null) {
+                addLink(unitOfWork, categoryRepo, category, category.getBooks(), book);
+            }
+            Publisher publisher = publisherRepo.get(event.publisherID());
+            if (publisher != null) {
+                addLink(unitOfWork, publisherRepo, publisher, publisher.getPublishedBooks(), book);
+            }
+            unitOfWork.commit();
+        } catch (UncheckedDatabaseException e) {
+            throw new DatabaseException("Error linking book " + event.bookID() + ".");
+        } finally {
+            catalogLinkLock.unlock();
+        }
+    }
+
+    private <T extends HasID> void addLink(UnitOfWork unitOfWork, IRepository<T> repository, T owner, List<Book> books, Book book) {
+        synchronized (owner) {
+            if (books.stream().noneMatch(linked -> linked.getID() == book.getID())) {
+                books.add(book);
+            }
+        }
+        unitOfWork.registerDirty(repository, owner);
+    }
+
+    /**
+     * Waits until the events published so far have been handled and the indexes kept off the request path
+     * have seen every change written so far, by any thread. Reads that use these indexes wait only for the
+     * changes of the calling thread, so a caller that must see the changes of other threads waits here
+     * first. Must not be called while a transaction is open,
+     * since the event handlers may wait for it.
+     */
+
+    public void awaitPendingEvents() {
+        eventBus.repairStale();
+        eventBus.awaitDelivered();
+    }
+
+    /**
+     * Makes the indexes kept off the request path ready for a read of the calling thread: the objects an
+     * index failed to take a change of are read again into it, and the changes the thread wrote itself
+     * are waited for.
+     */
+    private void awaitIndexes() {
+        eventBus.repairStale();
+        eventBus.awaitOwnDelivered();
+    }
+
 
     /**
      * Retrieves all books that belong to a specific category.
@@ -764,7 +1551,7 @@ public class LibraryService {
             return bookRepo.getAll().stream()
                     .filter(book -> book.getCategory().getID() == categoryID)
                     .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all books in category.");
         }
     }
@@ -778,7 +1565,7 @@ public class LibraryService {
     public List<Publisher> getAllPublishers() throws DatabaseException {
         try {
             return publisherRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all publishers.");
         }
     }
@@ -792,7 +1579,7 @@ public class LibraryService {
     public List<Author> getAllAuthors() throws DatabaseException {
         try {
             return authorRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all authors.");
         }
     }
@@ -806,7 +1593,7 @@ public class LibraryService {
     public List<Category> getAllCategories() throws DatabaseException {
         try {
             return categoryRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all categories.");
         }
     }
@@ -820,7 +1607,7 @@ public class LibraryService {
     public List<Reservation> getAllReservations() throws DatabaseException {
         try {
             return reservationRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all reservations.");
         }
     }
@@ -834,7 +1621,7 @@ public class LibraryService {
     public List<Loan> getAllLoans() throws DatabaseException {
         try {
             return loanRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all loans.");
         }
     }
@@ -848,7 +1635,7 @@ public class LibraryService {
     public List<Member> getAllMembers() throws DatabaseException {
         try {
             return memberRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all members.");
         }
     }
@@ -862,7 +1649,7 @@ public class LibraryService {
     public List<Review> getAllReviews() throws DatabaseException {
         try {
             return reviewRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all reviews.");
         }
     }
@@ -876,7 +1663,25 @@ public class LibraryService {
     public List<Book> getAllBooks() throws DatabaseException {
         try {
             return bookRepo.getAll();
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error getting all books.");
+        }
+    }
+
+    /**
+     * Retrieves the summaries of all books in the library, with the columns shown in book listings.
+     * Repositories that support it read them with a single query instead of loading every book.
+     *
+     * @return a list of the summaries of all books
+     */
+
+    public List<BookSummary> getAllBookSummaries() throws DatabaseException {
+        try {
+            if (bookRepo instanceof IBookSummaryRepository summaries) {
+                return summaries.getBookSummaries();
+            }
+            return summarize(bookRepo.getAll());
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all books.");
         }
     }
@@ -890,10 +1695,13 @@ public class LibraryService {
      */
 
     public void addMember(String name, String email, String phoneNumber) throws DatabaseException {
+        if (findByEmail(memberRepo, memberEmailIndex, email) != null) {
+            throw new DatabaseException("Email already in use.");
+        }
         try {
-            Member member = new Member(++newMemberID, name, email, phoneNumber);
+            Member member = new Member(newMemberID.incrementAndGet(), name, email, phoneNumber);
             memberRepo.add(member);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding member.");
         }
     }
@@ -914,9 +1722,9 @@ public class LibraryService {
             throw new DatabaseException("Invalid name provided.");
         }
         try {
-            Author author = new Author(++newAuthorID, name, email, phoneNumber);
+            Author author = new Author(newAuthorID.incrementAndGet(), name, email, phoneNumber);
             authorRepo.add(author);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding author.");
         }
     }
@@ -937,9 +1745,9 @@ public class LibraryService {
             throw new DatabaseException("Invalid name provided.");
         }
         try {
-            Publisher publisher = new Publisher(++newPublisherID, name, email, phoneNumber);
+            Publisher publisher = new Publisher(newPublisherID.incrementAndGet(), name, email, phoneNumber);
             publisherRepo.add(publisher);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding publisher.");
         }
     }
@@ -953,28 +1761,23 @@ public class LibraryService {
 
     public int getIDbyEmail(String email) throws EntityNotFoundException, DatabaseException {
         try {
-            List<Member> members = memberRepo.getAll();
-            List<Staff> staffs = staffRepo.getAll();
-
-            for (Member member : members) {
-                if (member.getEmail().equals(email)) {
-                    return member.getID();
-                }
+            Member member = findByEmail(memberRepo, memberEmailIndex, email);
+            if (member != null) {
+                return member.getID();
             }
-            for (Staff staff : staffs) {
-                if (staff.getEmail().equals(email)) {
-                    return staff.getID();
-                }
+            Staff staff = findByEmail(staffRepo, staffEmailIndex, email);
+            if (staff != null) {
+                return staff.getID();
             }
 
             throw new EntityNotFoundException("No entity found with the provided email.");
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting ID by email.");
         }
     }
 
     /**
-     * Searches for books in the library by their title.
+     * Searches for books in the library by their title, ignoring case, through the trigram index on the titles.
      * If the search term is empty, retrieves all books sorted by their title.
      *
      * @param title the title or part of the title of the book to search for
@@ -983,42 +1786,138 @@ public class LibraryService {
      */
 
     public List<Book> searchBook(String title) throws DatabaseException {
+        awaitIndexes();
         try {
             if (title == null || title.trim().isEmpty()) {
                 return getAllBooksSortedByTitle();
+            } else if (bookRepo instanceof ITitleSearchRepository titleSearch) {
+                return titleSearch.searchByTitle(title);
             } else {
-                return bookRepo.getAll().stream()
-                        .filter(book -> book.getBookName().toLowerCase().contains(title.toLowerCase()))
-                        .collect(Collectors.toList());
+                return getBooks(titleIndex.search(title));
             }
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error searching book.");
         }
     }
 
     /**
-     * Retrieves all books in the library sorted by their title.
+     * Searches for books in the library by the words of their title and author name, tolerating typos:
+     * every word of the search term must be within the given number of edits of a word of the book.
+     * If the search term is empty, retrieves all books sorted by their title.
+     *
+     * @param term the words to search for
+     * @param maxDistance the number of inserted, deleted or substituted characters allowed per word
+     * @return a list of the matching books ordered by ID;
+     *         returns a sorted list of all books if the search term is empty
+     */
+
+    public List<Book> fuzzySearchBook(String term, int maxDistance) throws DatabaseException {
+        if (maxDistance < 0) {
+            throw new DatabaseException("Invalid edit distance provided.");
+        }
+        awaitIndexes();
+        try {
+            if (term == null || term.trim().isEmpty()) {
+                return getAllBooksSortedByTitle();
+            }
+            return getBooks(fuzzyIndex.search(term, maxDistance));
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error searching book.");
+        }
+    }
+
+    /**
+     * Retrieves all books in the library sorted by their title, in the order of the sorted title index,
+     * without sorting them. The few books the index does not hold yet, such as books another thread has
+     * just added, are sorted in the same order and merged in, so that no book is left out.
      *
      * @return a list of all books sorted by title
      */
 
     public List<Book> getAllBooksSortedByTitle() throws DatabaseException {
+        awaitIndexes();
         try {
-            return bookRepo.getAll().stream()
-                    .sorted(Comparator.comparing(Book::getBookName))
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
+            Map<Integer, Book> books = new HashMap<>();
+            for (Book book : bookRepo.getAll()) {
+                books.put(book.getID(), book);
+            }
+            List<Book> indexedBooks = new ArrayList<>(books.size());
+            for (int id : sortedTitleIndex.all()) {
+                Book book = books.remove(id);
+                if (book != null) {
+                    indexedBooks.add(book);
+                }
+            }
+            if (books.isEmpty()) {
+                return indexedBooks;
+            }
+            Comparator<Book> order = sortedTitleIndex.order();
+            List<Book> missingBooks = new ArrayList<>(books.values());
+            missingBooks.sort(order);
+            List<Book> sortedBooks = new ArrayList<>(indexedBooks.size() + missingBooks.size());
+            int indexed = 0;
+            int missing = 0;
+            while (indexed < indexedBooks.size() || missing < missingBooks.size()) {
+                if (missing == missingBooks.size()
+                        || indexed < indexedBooks.size() && order.compare(indexedBooks.get(indexed), missingBooks.get(missing)) <= 0) {
+                    sortedBooks.add(indexedBooks.get(indexed++));
+                } else {
+                    sortedBooks.add(missingBooks.get(missing++));
+                }
+            }
+            return sortedBooks;
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error getting all books sorted by title.");
         }
     }
 
     /**
-     * Recommends books for a member based on the categories of the books he has previously borrowed
+     * Retrieves, sorted by title, the first books whose titles start with a prefix, ignoring case.
+     * Only the books returned are read, so browsing the catalog page by page does not read or sort all books.
+     *
+     * @param prefix the start of the titles; an empty prefix browses all books
+     * @param limit the largest number of books to return
+     * @return a list of at most limit books sorted by title
+     */
+
+    public List<Book> browseBooksByTitle(String prefix, int limit) throws DatabaseException {
+        if (limit < 0) {
+            throw new DatabaseException("Invalid limit provided.");
+        }
+        awaitIndexes();
+        try {
+            return getBooks(sortedTitleIndex.startingWith(prefix == null ? "" : prefix, limit));
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error browsing books by title.");
+        }
+    }
+
+    /**
+     * Recommends books for a member, at most {@value #RECOMMENDATION_LIMIT} of them.
      *
      * @param memberID the ID of the member
-     * @return a list of all recommended books for that member
+     * @return a list of the recommended books for that member, from the most recommended
+     * @see #recommendBooksForMember(int, int)
      */
     public List<Book> recommendBooksForMember(int memberID) throws EntityNotFoundException, DatabaseException {
+        return recommendBooksForMember(memberID, RECOMMENDATION_LIMIT);
+    }
+
+    /**
+     * Recommends books for a member from the books borrowed by the members who borrowed the same books,
+     * read from the co-borrow matrix of the service. Members whose books were never borrowed together with
+     * other books get the available books of the categories they borrowed from instead.
+     * Books the member already borrowed and books without available copies are left out.
+     * <p>
+     * Up to {@value #RECOMMENDATION_LIMIT} books, the recommendations come from the recommendation cache
+     * of the service, which computes them again in the background when they become stale.
+     *
+     * @param memberID the ID of the member
+     * @param limit the largest number of books to return
+     * @return a list of the recommended books for that member, from the most recommended
+     */
+    public List<Book> recommendBooksForMember(int memberID, int limit) throws EntityNotFoundException, DatabaseException {
+        awaitIndexes();
         try {
             Member member = memberRepo.get(memberID);
 
@@ -1026,41 +1925,169 @@ public class LibraryService {
                 throw new EntityNotFoundException("Member not found.");
             }
 
-            Set<Category> borrowedCategories = member.getLoanHistory().stream()
-                    .map(Loan::getBook)
-                    .map(Book::getCategory)
-                    .collect(Collectors.toSet());
+            List<Integer> bookIDs = limit <= RECOMMENDATION_LIMIT
+                    ? recommendationCache.get(memberID)
+                    : loadRecommendations(memberID, limit).bookIDs();
+            List<Book> recommendedBooks = new ArrayList<>();
+            for (Book book : getBooks(bookIDs)) {
+                if (recommendedBooks.size() >= limit) {
+                    break;
+                }
+                if (book.getCopiesAvailable() > 0) {
+                    recommendedBooks.add(book);
+                }
+            }
+            return recommendedBooks;
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error recommending books for member");
+        }
+    }
+
+    /**
+     * Starts computing the recommendations of a member in the background, if they are not cached,
+     * so that they are ready when the member asks for them.
+     *
+     * @param memberID the ID of the member
+     */
+    public void prefetchRecommendations(int memberID) {
+        recommendationCache.refresh(memberID);
+    }
+
+    private RecommendationCache.Recommendations loadRecommendations(int memberID) throws DatabaseException {
+        return loadRecommendations(memberID, RECOMMENDATION_LIMIT);
+    }
 
-            if (borrowedCategories.isEmpty()) {
-                return Collections.emptyList();
+    private RecommendationCache.Recommendations loadRecommendations(int memberID, int limit) throws DatabaseException {
+        Set<Integer> borrowedBooks = new HashSet<>(coBorrowIndex.borrowedBooks(memberID));
+        Set<Category> borrowedCategories = new HashSet<>();
+        for (Book book : getBooks(new ArrayList<>(borrowedBooks))) {
+            if (book.getCategory() != null) {
+                borrowedCategories.add(book.getCategory());
             }
+        }
+        Set<Integer> categoryIDs = borrowedCategories.stream().map(Category::getID).collect(Collectors.toSet());
 
-            return bookRepo.getAll().stream()
-                    .filter(book -> borrowedCategories.contains(book.getCategory()))
-                    .filter(book -> book.getCopiesAvailable() > 0)
-                    .filter(book -> member.getLoanHistory().stream()
-                            .noneMatch(loan -> loan.getBook().getID() == book.getID()))
-                    .collect(Collectors.toList());
-        } catch (DatabaseException e) {
-            throw new DatabaseException("Error recommending books for member");
+        List<Integer> recommendedBooks = new ArrayList<>();
+        for (int bookID : coBorrowIndex.recommend(memberID, Integer.MAX_VALUE)) {
+            Book book = bookRepo.get(bookID);
+            if (book != null && book.getCopiesAvailable() > 0) {
+                recommendedBooks.add(bookID);
+                if (recommendedBooks.size() >= limit) {
+                    break;
+                }
+            }
         }
+        if (recommendedBooks.isEmpty() && !borrowedCategories.isEmpty()) {
+            try (Stream<Book> books = bookRepo.streamAll()) {
+                books.filter(book -> borrowedCategories.contains(book.getCategory()))
+                        .filter(book -> book.getCopiesAvailable() > 0)
+                        .filter(book -> !borrowedBooks.contains(book.getID()))
+                        .limit(limit)
+                        .forEach(book -> recommendedBooks.add(book.getID()));
+            }
+        }
+        return new RecommendationCache.Recommendations(List.copyOf(recommendedBooks), categoryIDs);
+    }
+
+    /**
+     * Rebuilds the co-borrow matrix used for the recommendations from the books borrowed by every member,
+     * in parallel on the common fork/join pool. The service builds the matrix this way when it is created;
+     * afterwards the matrix is kept up to date as loans are written. The cached recommendations are dropped.
+     */
+    public void rebuildRecommendations() {
+        coBorrowIndex.rebuild();
+        recommendationCache.clear();
     }
 
     /**
-     * Sorts the books by their average rating
+     * Sorts the books by their average rating, read from the rating aggregates of the books
      *
      * @return list of sorted books
      */
     public List<Book> sortBooksByAvgRating() throws DatabaseException {
         try {
             List<Book> books = new ArrayList<>(bookRepo.getAll());
-            books.sort((b1, b2) -> Double.compare(calculateAverageRating(b2), calculateAverageRating(b1)));
+            books.sort(Comparator.comparingDouble((Book book) -> book.getRatings().getAverage()).reversed());
             return books;
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error sorting books by average rating.");
         }
     }
 
+    /**
+     * Retrieves the best rated books of the library, by average rating and then by number of reviews,
+     * from the leaderboards of the service. Books without reviews are left out.
+     *
+     * @param limit the largest number of books to return
+     * @return a list of at most limit books, from the best rated
+     */
+
+    public List<Book> getTopRatedBooks(int limit) throws DatabaseException {
+        return getLeaderboard(() -> leaderboards.topRated(null, limit), limit, "Error getting top rated books.");
+    }
+
+    /**
+     * Retrieves the best rated books of a category, by average rating and then by number of reviews,
+     * from the leaderboards of the service. Books without reviews are left out.
+     *
+     * @param categoryID the ID of the category
+     * @param limit the largest number of books to return
+     * @return a list of at most limit books, from the best rated
+     */
+
+    public List<Book> getTopRatedBooksInCategory(int categoryID, int limit) throws EntityNotFoundException, DatabaseException {
+        checkCategoryExists(categoryID);
+        return getLeaderboard(() -> leaderboards.topRated(categoryID, limit), limit, "Error getting top rated books.");
+    }
+
+    /**
+     * Retrieves the most borrowed books of the library, by number of loans, from the leaderboards of the service.
+     * Books that were never borrowed are left out.
+     *
+     * @param limit the largest number of books to return
+     * @return a list of at most limit books, from the most borrowed
+     */
+
+    public List<Book> getMostBorrowedBooks(int limit) throws DatabaseException {
+        return getLeaderboard(() -> leaderboards.mostBorrowed(null, limit), limit, "Error getting most borrowed books.");
+    }
+
+    /**
+     * Retrieves the most borrowed books of a category, by number of loans, from the leaderboards of the service.
+     * Books that were never borrowed are left out.
+     *
+     * @param categoryID the ID of the category
+     * @param limit the largest number of books to return
+     * @return a list of at most limit books, from the most borrowed
+     */
+
+    public List<Book> getMostBorrowedBooksInCategory(int categoryID, int limit) throws EntityNotFoundException, DatabaseException {
+        checkCategoryExists(categoryID);
+        return getLeaderboard(() -> leaderboards.mostBorrowed(categoryID, limit), limit, "Error getting most borrowed books.");
+    }
+
+    private void checkCategoryExists(int categoryID) throws EntityNotFoundException, DatabaseException {
+        try {
+            if (categoryRepo.get(categoryID) == null) {
+                throw new EntityNotFoundException("Category not found.");
+            }
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException("Error getting category.");
+        }
+    }
+
+    private List<Book> getLeaderboard(Supplier<List<Integer>> leaderboard, int limit, String error) throws DatabaseException {
+        if (limit < 0) {
+            throw new DatabaseException("Invalid limit provided.");
+        }
+        awaitIndexes();
+        try {
+            return getBooks(leaderboard.get());
+        } catch (DatabaseException | UncheckedDatabaseException e) {
+            throw new DatabaseException(error);
+        }
+    }
+
     /**
      * Calculates the average rating for a specific book
      * @param book the book
@@ -1084,9 +2111,9 @@ public class LibraryService {
      */
     public void addCategory(String name, String description) throws DatabaseException {
         try {
-            Category category = new Category(++newCategoryID, name, description);
+            Category category = new Category(newCategoryID.incrementAndGet(), name, description);
             categoryRepo.add(category);
-        } catch (DatabaseException e) {
+        } catch (DatabaseException | UncheckedDatabaseException e) {
             throw new DatabaseException("Error adding category.");
         }
     }
@@ -0,0 +1,127 @@
+package LibraryService;
+
+import LibraryModel.Loan;
+import LibraryRepository.IRepositoryListener;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps, for every member, the number of active loans, their due dates and how many of them were marked
+ * overdue, so that the checks made before a checkout do not have to read all the loans of the library.
+ * <p>
+ * The index listens to the loan repository: loans written by createLoan and removeLoan, or by anyone
+ * else through the same repository, update it as they are written. It is filled once from the
+ * repository when the service is created.
+ * <p>
+ * The loans of each member are kept as an immutable value replaced atomically per member, so checkouts of
+ * different members update and read the index at the same time without waiting for each other.
+ */
+
+class MemberLoanIndex implements IRepositoryListener<Loan> {
+
+    private final Map<Integer, ActiveLoan> activeLoans = new ConcurrentHashMap<>();
+    private final Map<Integer, MemberLoans> members = new ConcurrentHashMap<>();
+
+    /**
+     * The member, due date and overdue mark of an active loan, as they were when the loan was indexed.
+     */
+    private record ActiveLoan(int memberID, LocalDate dueDate, boolean overdue) {
+    }
+
+    /**
+     * The active loans of one member, counted by due date. A new value is made for every change.
+     */
+    private record MemberLoans(int count, int overdue, NavigableMap<LocalDate, Integer> dueDates) {
+
+        static MemberLoans with(MemberLoans loans, ActiveLoan loan) {
+            TreeMap<LocalDate, Integer> dueDates = loans == null ? new TreeMap<>() : new TreeMap<>(loans.dueDates());
+            dueDates.merge(loan.dueDate(), 1, Integer::sum);
+            return new MemberLoans((loans == null ? 0 : loans.count()) + 1,
+                    (loans == null ? 0 : loans.overdue()) + (loan.overdue() ? 1 : 0), dueDates);
+        }
+
+        static MemberLoans without(MemberLoans loans, ActiveLoan loan) {
+            if (loans == null || loans.count() <= 1) {
+                return null;
+            }
+            TreeMap<LocalDate, Integer> dueDates = new TreeMap<>(loans.dueDates());
+            dueDates.computeIfPresent(loan.dueDate(), (dueDate, count) -> count > 1 ? count - 1 : null);
+            return new MemberLoans(loans.count() - 1, loans.overdue() - (loan.overdue() ? 1 : 0), dueDates);
+        }
+    }
+
+    /**
+     * Gets the number of active loans of a member.
+     *
+     * @param memberID the ID of the member
+     * @return the number of active loans
+     */
+
+    int getActiveLoanCount(int memberID) {
+        MemberLoans loans = members.get(memberID);
+        return loans == null ? 0 : loans.count();
+    }
+
+    /**
+     * Gets the earliest due date of the active loans of a member.
+     *
+     * @param memberID the ID of the member
+     * @return the earliest due date, or null if the member has no active loans
+     */
+
+    LocalDate getEarliestDueDate(int memberID) {
+        MemberLoans loans = members.get(memberID);
+        return loans == null ? null : loans.dueDates().firstKey();
+    }
+
+    /**
+     * Checks whether a member has an active loan that is marked overdue or is past its due date.
+     * Such a member is not eligible to borrow.
+     *
+     * @param memberID the ID of the member
+     * @param today the current date
+     * @return true if an active loan of the member is overdue, false otherwise
+     */
+
+    boolean hasOverdueLoans(int memberID, LocalDate today) {
+        MemberLoans loans = members.get(memberID);
+        return loans != null && (loans.overdue() > 0 || loans.dueDates().firstKey().isBefore(today));
+    }
+
+    @Override
+    public void added(Loan loan) {
+        index(loan);
+    }
+
+    @Override
+    public void updated(Loan loan) {
+        unindex(loan.getID());
+        index(loan);
+    }
+
+    @Override
+    public void deleted(int id) {
+        unindex(id);
+    }
+
+    private void index(Loan loan) {
+        if (!loan.isActive() || loan.getMember() == null) {
+            return;
+        }
+        ActiveLoan activeLoan = new ActiveLoan(loan.getMember().getID(), loan.getDueDate(), "OVERDUE".equals(loan.getStatus()));
+        if (activeLoans.putIfAbsent(loan.getID(), activeLoan) == null) {
+            members.compute(activeLoan.memberID(), (id, loans) -> MemberLoans.with(loans, activeLoan));
+        }
+    }
+
+    private void unindex(int loanID) {
+        ActiveLoan activeLoan = activeLoans.remove(loanID);
+        if (activeLoan != null) {
+            members.compute(activeLoan.memberID(), (id, loans) -> MemberLoans.without(loans, activeLoan));
+        }
+    }
+}
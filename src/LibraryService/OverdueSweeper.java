@@ -0,0 +1,111 @@
+package LibraryService;
+
+import Exceptions.DatabaseException;
+import LibraryModel.Loan;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically marks the loans that are past their due date as OVERDUE and tells its listeners about them.
+ * <p>
+ * Each sweep takes the newly overdue loans from the due-date index of the service, so its cost depends on
+ * the number of loans that became overdue since the last sweep, not on the number of loans in the library.
+ * Members with an overdue loan cannot borrow until it is returned.
+ */
+
+public class OverdueSweeper implements AutoCloseable {
+
+    private final LibraryService libraryService;
+    private final List<OverdueListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "overdue-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs an OverdueSweeper for the given service. Sweeps only run once {@link #start(Duration)} is called.
+     *
+     * @param libraryService the service whose loans are swept
+     */
+
+    public OverdueSweeper(LibraryService libraryService) {
+        this.libraryService = libraryService;
+    }
+
+    /**
+     * Registers a listener that is told about every loan marked overdue.
+     *
+     * @param listener the listener to register
+     */
+
+    public void addListener(OverdueListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts sweeping now and then at a fixed period, on a background thread. A sweep that fails, or whose
+     * listener fails, is reported and does not stop the next sweeps.
+     *
+     * @param period the time between two sweeps
+     */
+
+    public void start(Duration period) {
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                sweep();
+            } catch (DatabaseException e) {
+                System.err.println("Database error: " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Error sweeping overdue loans: " + e.getMessage());
+            }
+        }, 0, period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the loans that became overdue and tells the listeners about them.
+     *
+     * @return the loans marked overdue by this sweep
+     * @throws DatabaseException if the loans cannot be marked
+     */
+
+    public List<Loan> sweep() throws DatabaseException {
+        List<Loan> overdueLoans = libraryService.markOverdueLoans();
+        for (Loan loan : overdueLoans) {
+            for (OverdueListener listener : listeners) {
+                listener.loanOverdue(loan);
+            }
+        }
+        return overdueLoans;
+    }
+
+    /**
+     * Stops the sweeps.
+     */
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A listener that is told about the loans marked overdue.
+     */
+
+    @FunctionalInterface
+    public interface OverdueListener {
+
+        /**
+         * Called after a loan is marked overdue.
+         *
+         * @param loan the overdue loan
+         */
+
+        void loanOverdue(Loan loan);
+    }
+}
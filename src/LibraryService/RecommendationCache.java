@@ -0,0 +1,282 @@
+package LibraryService;
+
+import Exceptions.DatabaseException;
+import LibraryModel.Book;
+import LibraryModel.Loan;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the recommendations of the members, with the categories they were computed from, and drops
+ * exactly the entries a change makes stale:
+ * <ul>
+ *     <li>the entry of a member who borrows or returns a book;</li>
+ *     <li>the entries that recommend a book whose last copy is taken, a book moved to another category, or a book that is deleted;</li>
+ *     <li>the entries of the members who borrowed from the category of a new book, or of a book moved to another category.</li>
+ * </ul>
+ * A dropped entry is computed again on a background thread, as is the entry of a member who is expected to
+ * ask soon, so that reading the recommendations usually does not wait for them to be computed.
+ * <p>
+ * Like the other indexes of the service, the cache listens to the book and loan repositories and is filled
+ * from the book repository when the service is created, so that it knows the category of every book and can
+ * tell a book moved to another category from a book written again in the same one. It keeps one category per
+ * book and forgets a book when it is deleted. The entries start empty: they are computed when they are first
+ * read or refreshed.
+ */
+
+class RecommendationCache {
+
+    private final Loader loader;
+    private final ExecutorService refresher = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Integer, Recommendations> entries = new HashMap<>();
+    private final Map<Integer, Long> versions = new HashMap<>();
+    private long generation;
+    private final Set<Integer> refreshing = new HashSet<>();
+    private final Map<Integer, Set<Integer>> bookMembers = new HashMap<>();
+    private final Map<Integer, Set<Integer>> categoryMembers = new HashMap<>();
+    private final Map<Integer, Integer> bookCategories = new HashMap<>();
+
+    /**
+     * The recommended books of a member and the categories of the books the member borrowed.
+     *
+     * @param bookIDs the IDs of the recommended books, from the most recommended
+     * @param categoryIDs the IDs of the categories the member borrowed from
+     */
+    record Recommendations(List<Integer> bookIDs, Set<Integer> categoryIDs) {
+    }
+
+    /**
+     * Computes the recommendations of a member.
+     */
+    @FunctionalInterface
+    interface Loader {
+
+        /**
+         * Computes the recommendations of a member.
+         *
+         * @param memberID the ID of the member
+         * @return the recommendations of the member
+         * @throws DatabaseException if the books of the member cannot be read
+         */
+
+        Recommendations load(int memberID) throws DatabaseException;
+    }
+
+    private final IRepositoryListener<Book> bookListener = new IRepositoryListener<>() {
+        @Override
+        public void added(Book book) {
+            bookWritten(book, true);
+        }
+
+        @Override
+        public void updated(Book book) {
+            bookWritten(book, false);
+        }
+
+        @Override
+        public void deleted(int id) {
+            bookDeleted(id);
+        }
+    };
+
+    private final IRepositoryListener<Loan> loanListener = new IRepositoryListener<>() {
+        @Override
+        public void added(Loan loan) {
+            loanWritten(loan, true);
+        }
+
+        @Override
+        public void updated(Loan loan) {
+            loanWritten(loan, "RETURNED".equals(loan.getStatus()));
+        }
+    };
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param loader computes the recommendations of a member that are not in the cache
+     */
+
+    RecommendationCache(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the listener that drops the entries made stale by the books written to the book repository.
+     *
+     * @return the listener of the book repository
+     */
+
+    IRepositoryListener<Book> books() {
+        return bookListener;
+    }
+
+    /**
+     * Gets the listener that drops the entries of the members who borrow or return books.
+     *
+     * @return the listener of the loan repository
+     */
+
+    IRepositoryListener<Loan> loans() {
+        return loanListener;
+    }
+
+    /**
+     * Gets the recommendations of a member, computing them on the calling thread if they are not cached.
+     *
+     * @param memberID the ID of the member
+     * @return the IDs of the recommended books, from the most recommended
+     * @throws DatabaseException if the recommendations have to be computed and cannot be
+     */
+
+    List<Integer> get(int memberID) throws DatabaseException {
+        long version;
+        synchronized (this) {
+            Recommendations cached = entries.get(memberID);
+            if (cached != null) {
+                return cached.bookIDs();
+            }
+            version = version(memberID);
+        }
+        Recommendations recommendations = loader.load(memberID);
+        store(memberID, version, recommendations);
+        return recommendations.bookIDs();
+    }
+
+    /**
+     * Computes the recommendations of a member on a background thread, unless they are cached or already being computed.
+     *
+     * @param memberID the ID of the member
+     */
+
+    synchronized void refresh(int memberID) {
+        if (entries.containsKey(memberID) || !refreshing.add(memberID)) {
+            return;
+        }
+        long version = version(memberID);
+        refresher.submit(() -> {
+            try {
+                store(memberID, version, loader.load(memberID));
+            } catch (DatabaseException | RuntimeException e) {
+                // The entry stays out of the cache and is computed by the next read instead.
+            } finally {
+                synchronized (this) {
+                    refreshing.remove(memberID);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all entries, for a change that can affect the recommendations of every member.
+     */
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        bookMembers.clear();
+        categoryMembers.clear();
+    }
+
+    /**
+     * Checks whether the recommendations of a member are cached.
+     *
+     * @param memberID the ID of the member
+     * @return true if the recommendations are cached
+     */
+
+    synchronized boolean isCached(int memberID) {
+        return entries.containsKey(memberID);
+    }
+
+    /**
+     * Caches the recommendations of a member, unless the entry was dropped after they started to be computed.
+     */
+    private synchronized void store(int memberID, long version, Recommendations recommendations) {
+        if (version(memberID) != version || entries.containsKey(memberID)) {
+            return;
+        }
+        entries.put(memberID, recommendations);
+        for (int bookID : recommendations.bookIDs()) {
+            bookMembers.computeIfAbsent(bookID, id -> new HashSet<>()).add(memberID);
+        }
+        for (int categoryID : recommendations.categoryIDs()) {
+            categoryMembers.computeIfAbsent(categoryID, id -> new HashSet<>()).add(memberID);
+        }
+    }
+
+    /**
+     * Gets the version of the entry of a member, which changes every time the entry is dropped.
+     */
+    private long version(int memberID) {
+        return generation + versions.getOrDefault(memberID, 0L);
+    }
+
+    private synchronized void bookWritten(Book book, boolean added) {
+        Integer categoryID = book.getCategory() == null ? null : book.getCategory().getID();
+        boolean known = bookCategories.containsKey(book.getID());
+        Integer previousCategoryID = bookCategories.put(book.getID(), categoryID);
+        // A new book joins its category; an updated book the cache never saw is taken to have stayed where it was
+        boolean moved = added ? !known : known && !Objects.equals(categoryID, previousCategoryID);
+        if (categoryID != null && moved) {
+            invalidateAll(categoryMembers.get(categoryID));
+        }
+        if (moved || book.getCopiesAvailable() < 1) {
+            invalidateAll(bookMembers.get(book.getID()));
+        }
+    }
+
+    private synchronized void bookDeleted(int bookID) {
+        bookCategories.remove(bookID);
+        invalidateAll(bookMembers.get(bookID));
+    }
+
+    private synchronized void loanWritten(Loan loan, boolean borrowedOrReturned) {
+        if (loan.getBook() != null && loan.getBook().getCopiesAvailable() < 1) {
+            invalidateAll(bookMembers.get(loan.getBook().getID()));
+        }
+        if (borrowedOrReturned && loan.getMember() != null) {
+            invalidate(loan.getMember().getID());
+            refresh(loan.getMember().getID());
+        }
+    }
+
+    private void invalidateAll(Set<Integer> memberIDs) {
+        if (memberIDs == null) {
+            return;
+        }
+        for (int memberID : Set.copyOf(memberIDs)) {
+            invalidate(memberID);
+            refresh(memberID);
+        }
+    }
+
+    private void invalidate(int memberID) {
+        versions.merge(memberID, 1L, Long::sum);
+        Recommendations dropped = entries.remove(memberID);
+        if (dropped == null) {
+            return;
+        }
+        for (int bookID : dropped.bookIDs()) {
+            unlink(bookMembers, bookID, memberID);
+        }
+        for (int categoryID : dropped.categoryIDs()) {
+            unlink(categoryMembers, categoryID, memberID);
+        }
+    }
+
+    private static void unlink(Map<Integer, Set<Integer>> index, int key, int memberID) {
+        Set<Integer> memberIDs = index.get(key);
+        if (memberIDs != null && memberIDs.remove(memberID) && memberIDs.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
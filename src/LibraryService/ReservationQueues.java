@@ -0,0 +1,122 @@
+package LibraryService;
+
+import LibraryModel.Reservation;
+import LibraryRepository.IRepositoryListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps the reservations of every book in a queue ordered by reservation date and then by ID,
+ * so that a returned copy goes to the member who reserved it first without reading all reservations.
+ * <p>
+ * The queues listen to the reservation repository: reservations added by createReservation and deleted
+ * when they are fulfilled, or written by anyone else through the same repository, update them as they
+ * are written. They are filled once from the repository when the service is created.
+ * <p>
+ * Each queue is changed atomically for its book alone, so reservations of different books are queued and
+ * handed off at the same time without waiting for each other.
+ */
+
+class ReservationQueues implements IRepositoryListener<Reservation> {
+
+    private static final Comparator<QueuedReservation> ORDER = Comparator
+            .comparing(QueuedReservation::reservationDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparingInt(QueuedReservation::reservationID);
+
+    private final Map<Integer, NavigableSet<QueuedReservation>> queues = new ConcurrentHashMap<>();
+    private final Map<Integer, QueuedReservation> reservations = new ConcurrentHashMap<>();
+
+    /**
+     * A reservation in the queue of a book, as it was when it was queued.
+     */
+    private record QueuedReservation(int reservationID, int bookID, LocalDate reservationDate) {
+    }
+
+    /**
+     * Gets the reservations at the head of the queue of a book, from the oldest.
+     *
+     * @param bookID the ID of the book
+     * @param count the largest number of reservations to return
+     * @return the IDs of the oldest reservations of the book
+     */
+
+    List<Integer> peek(int bookID, int count) {
+        NavigableSet<QueuedReservation> queue = queues.get(bookID);
+        List<Integer> ids = new ArrayList<>();
+        if (queue != null) {
+            for (QueuedReservation queued : queue) {
+                if (ids.size() >= count) {
+                    break;
+                }
+                ids.add(queued.reservationID());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the number of reservations waiting for a book.
+     *
+     * @param bookID the ID of the book
+     * @return the length of the queue of the book
+     */
+
+    int size(int bookID) {
+        NavigableSet<QueuedReservation> queue = queues.get(bookID);
+        return queue == null ? 0 : queue.size();
+    }
+
+    @Override
+    public void added(Reservation reservation) {
+        enqueue(reservation);
+    }
+
+    @Override
+    public void updated(Reservation reservation) {
+        remove(reservation.getID());
+        enqueue(reservation);
+    }
+
+    @Override
+    public void deleted(int id) {
+        remove(id);
+    }
+
+    /**
+     * Drops a reservation from its queue, for a reservation that no longer exists in the repository.
+     *
+     * @param reservationID the ID of the reservation
+     */
+
+    void remove(int reservationID) {
+        QueuedReservation queued = reservations.remove(reservationID);
+        if (queued == null) {
+            return;
+        }
+        queues.computeIfPresent(queued.bookID(), (bookID, queue) -> {
+            queue.remove(queued);
+            return queue.isEmpty() ? null : queue;
+        });
+    }
+
+    private void enqueue(Reservation reservation) {
+        if (reservation.getBook() == null) {
+            return;
+        }
+        QueuedReservation queued = new QueuedReservation(reservation.getID(), reservation.getBook().getID(), reservation.getReservationDate());
+        if (reservations.putIfAbsent(queued.reservationID(), queued) == null) {
+            queues.compute(queued.bookID(), (bookID, queue) -> {
+                NavigableSet<QueuedReservation> bookQueue = queue == null ? new ConcurrentSkipListSet<>(ORDER) : queue;
+                bookQueue.add(queued);
+                return bookQueue;
+            });
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package LibraryService;
+
+import LibraryModel.Book;
+import LibraryRepository.IRepositoryListener;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the books ordered by title, in the order of a collator, so that sorted listings do not sort the
+ * catalog on every call and the first results of a listing or of a title prefix cost as much as the
+ * number of results.
+ * <p>
+ * The titles are kept as precomputed collation keys, ties broken by ID, in a skip list that readers
+ * iterate without locking while the repository writes are applied. Like the other indexes of the service,
+ * it listens to the book repository and is filled once from the repository when the service is created.
+ */
+
+class SortedTitleIndex implements IRepositoryListener<Book> {
+
+    private final Collator collator = Collator.getInstance(Locale.ROOT);
+    private final Collator primaryCollator = Collator.getInstance(Locale.ROOT);
+    private final ConcurrentSkipListMap<TitleKey, String> titles = new ConcurrentSkipListMap<>();
+    private final Map<Integer, TitleKey> keys = new HashMap<>();
+
+    /**
+     * A position in the index: the collation key of a title and the ID of the book.
+     */
+    private record TitleKey(CollationKey title, int bookID) implements Comparable<TitleKey> {
+
+        @Override
+        public int compareTo(TitleKey other) {
+            int order = title.compareTo(other.title);
+            return order != 0 ? order : Integer.compare(bookID, other.bookID);
+        }
+    }
+
+    SortedTitleIndex() {
+        primaryCollator.setStrength(Collator.PRIMARY);
+    }
+
+    /**
+     * Gets all the books ordered by title.
+     *
+     * @return the IDs of the books, in title order
+     */
+
+    List<Integer> all() {
+        List<Integer> ids = new ArrayList<>(titles.size());
+        for (TitleKey key : titles.keySet()) {
+            ids.add(key.bookID());
+        }
+        return ids;
+    }
+
+    /**
+     * Gets, in title order, the first books whose titles start with a prefix, ignoring case.
+     * The iteration starts at the lower-case prefix, which the collator sorts before the same letters in
+     * upper case, and only visits the books returned and the books around them with the same letters
+     * with other accents.
+     *
+     * @param prefix the start of the titles, or an empty string for all titles
+     * @param limit the largest number of books to return
+     * @return the IDs of the books, in title order
+     */
+
+    List<Integer> startingWith(String prefix, int limit) {
+        String normalizedPrefix = prefix.toLowerCase(Locale.ROOT);
+        ConcurrentNavigableMap<TitleKey, String> tail = titles.tailMap(new TitleKey(key(normalizedPrefix), Integer.MIN_VALUE));
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<TitleKey, String> entry : tail.entrySet()) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            String title = entry.getValue();
+            if (title.startsWith(normalizedPrefix)) {
+                ids.add(entry.getKey().bookID());
+            } else if (pastPrefix(title, normalizedPrefix)) {
+                break;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Orders books the way the index does, so that books it does not hold yet can be merged into its listings:
+     * by title in the order of the collator, ties broken by ID, and books without a title last.
+     *
+     * @return the order of the index
+     */
+
+    Comparator<Book> order() {
+        return Comparator.comparing(
+                (Book book) -> book.getBookName() == null ? null : new TitleKey(key(book.getBookName()), book.getID()),
+                Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparingInt(Book::getID);
+    }
+
+    @Override
+    public synchronized void added(Book book) {
+        index(book);
+    }
+
+    @Override
+    public synchronized void updated(Book book) {
+        unindex(book.getID());
+        index(book);
+    }
+
+    @Override
+    public synchronized void deleted(int id) {
+        unindex(id);
+    }
+
+    private void index(Book book) {
+        if (book.getBookName() == null || keys.containsKey(book.getID())) {
+            return;
+        }
+        TitleKey key = new TitleKey(key(book.getBookName()), book.getID());
+        keys.put(book.getID(), key);
+        titles.put(key, book.getBookName().toLowerCase(Locale.ROOT));
+    }
+
+    private void unindex(int bookID) {
+        TitleKey key = keys.remove(bookID);
+        if (key != null) {
+            titles.remove(key);
+        }
+    }
+
+    private CollationKey key(String title) {
+        synchronized (collator) {
+            return collator.getCollationKey(title);
+        }
+    }
+
+    /**
+     * Checks whether a title sorts after every title that starts with the prefix, comparing only
+     * the letters themselves, so that the iteration can stop.
+     */
+    private boolean pastPrefix(String title, String prefix) {
+        String start = title.substring(0, Math.min(title.length(), prefix.length()));
+        synchronized (primaryCollator) {
+            return primaryCollator.compare(start, prefix) > 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package LibraryService;
+
+import LibraryModel.Book;
+import LibraryRepository.IRepositoryListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from the trigrams of the lower-case book titles to the IDs of the books, for title
+ * searches in repositories that cannot search titles themselves.
+ * <p>
+ * A search intersects the posting lists of the trigrams of the search term, starting from the shortest,
+ * and only compares the titles of the books left, so its cost depends on how rare the term is, not on
+ * the number of books. Terms shorter than a trigram have no postings and are compared with every title.
+ * <p>
+ * Like the other indexes of the service, it listens to the book repository and is filled once from
+ * the repository when the service is created.
+ */
+
+class TitleIndex implements IRepositoryListener<Book> {
+
+    private static final int GRAM = 3;
+
+    private final Map<String, Set<Integer>> postings = new HashMap<>();
+    private final Map<Integer, String> titles = new HashMap<>();
+
+    /**
+     * Gets the books whose titles contain the search term, ignoring case.
+     *
+     * @param term the search term
+     * @return the IDs of the matching books, in ascending order
+     */
+
+    synchronized List<Integer> search(String term) {
+        String normalized = normalize(term);
+        List<Integer> ids = new ArrayList<>();
+        for (int id : candidates(normalized)) {
+            if (titles.get(id).contains(normalized)) {
+                ids.add(id);
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Override
+    public synchronized void added(Book book) {
+        index(book);
+    }
+
+    @Override
+    public synchronized void updated(Book book) {
+        unindex(book.getID());
+        index(book);
+    }
+
+    @Override
+    public synchronized void deleted(int id) {
+        unindex(id);
+    }
+
+    private Set<Integer> candidates(String term) {
+        if (term.length() < GRAM) {
+            return titles.keySet();
+        }
+        List<Set<Integer>> lists = new ArrayList<>();
+        for (String gram : grams(term)) {
+            Set<Integer> ids = postings.get(gram);
+            if (ids == null) {
+                return Set.of();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        Set<Integer> candidates = new HashSet<>(lists.getFirst());
+        for (int i = 1; i < lists.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(lists.get(i));
+        }
+        return candidates;
+    }
+
+    private void index(Book book) {
+        if (book.getBookName() == null || titles.containsKey(book.getID())) {
+            return;
+        }
+        String title = normalize(book.getBookName());
+        titles.put(book.getID(), title);
+        for (String gram : grams(title)) {
+            postings.computeIfAbsent(gram, g -> new HashSet<>()).add(book.getID());
+        }
+    }
+
+    private void unindex(int id) {
+        String title = titles.remove(id);
+        if (title == null) {
+            return;
+        }
+        for (String gram : grams(title)) {
+            Set<Integer> ids = postings.get(gram);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+}
@@ -2,15 +2,42 @@ package LibraryTests;
 import Exceptions.BusinessLogicException;
 import Exceptions.DatabaseException;
 import Exceptions.EntityNotFoundException;
+import Exceptions.UncheckedDatabaseException;
 import LibraryModel.*;
+import LibraryRepository.FileRepository;
 import LibraryRepository.IRepository;
+import LibraryRepository.IRepositoryListener;
 import LibraryRepository.InMemoryRepository;
+import LibraryRepository.ReadRouting;
+import LibraryRepository.UnitOfWork;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import LibraryService.AsyncLibraryService;
 import LibraryService.LibraryService;
+import LibraryService.OverdueSweeper;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -1009,6 +1036,22 @@ class ApplicationTests {
         assertEquals("B Book", sortedBooks.get(1).getBookName());
     }
 
+    @Test
+    public void testGetAllBooksSortedByTitle_BooksMissingFromIndexAreMergedIn() throws DatabaseException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        bookRepo.add(new Book(1, "B Book", author, true, category, publisher, 5));
+        // A book without a title is never indexed
+        bookRepo.add(new Book(2, null, author, true, category, publisher, 5));
+        bookRepo.add(new Book(3, "A Book", author, true, category, publisher, 5));
+
+        List<Integer> expected = List.of(3, 1, 2);
+        assertEquals(expected, libraryService.getAllBooksSortedByTitle().stream().map(Book::getID).toList());
+        assertEquals(expected, libraryService.searchBook("").stream().map(Book::getID).toList());
+        assertEquals(expected, libraryService.fuzzySearchBook("", 1).stream().map(Book::getID).toList());
+    }
+
     @Test
     public void testCalculateAverageRating_Success() throws DatabaseException {
         Author author = new Author(1, "Author", "author@example.com", "1234567890");
@@ -1045,8 +1088,1275 @@ class ApplicationTests {
         });
     }
 
+    @Test
+    public void testUnitOfWork_CollapsesAddAndUpdate() throws DatabaseException {
+        List<String> writes = new ArrayList<>();
+        IRepository<Member> countingRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Member> added, List<Member> updated, List<Integer> deleted) throws DatabaseException {
+                writes.add(added.size() + "/" + updated.size() + "/" + deleted.size());
+                super.saveChanges(added, updated, deleted);
+            }
+        };
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            unitOfWork.registerNew(countingRepo, member);
+            unitOfWork.registerDirty(countingRepo, member);
+            unitOfWork.registerDirty(countingRepo, member);
+            unitOfWork.commit();
+        }
+
+        assertEquals(List.of("1/0/0"), writes);
+        assertEquals(member, countingRepo.get(1));
+    }
+
+    @Test
+    public void testUnitOfWork_AddThenDeleteWritesNothing() throws DatabaseException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            unitOfWork.registerNew(memberRepo, member);
+            unitOfWork.registerDeleted(memberRepo, member.getID());
+            unitOfWork.commit();
+        }
+
+        assertTrue(memberRepo.getAll().isEmpty());
+    }
+
+    @Test
+    public void testUnitOfWork_DiscardedWithoutCommit() throws DatabaseException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            unitOfWork.registerNew(memberRepo, member);
+        }
+
+        assertTrue(memberRepo.getAll().isEmpty());
+    }
+
+    @Test
+    public void testUnitOfWork_ListenersHearOnlyOfCommittedChanges() throws DatabaseException {
+        List<String> heard = new ArrayList<>();
+        memberRepo.addListener(new IRepositoryListener<>() {
+            @Override
+            public void added(Member obj) {
+                heard.add("added " + obj.getID());
+            }
+        });
+        IRepository<Loan> failingRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+                throw new DatabaseException("Disk full.");
+            }
+        };
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            unitOfWork.registerNew(memberRepo, member);
+            unitOfWork.registerNew(failingRepo, new Loan(1, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", null, member));
+            assertThrows(DatabaseException.class, unitOfWork::commit);
+        }
+        assertEquals(List.of(), heard);
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin()) {
+            unitOfWork.registerNew(memberRepo, new Member(2, "Jane Doe", "jane@example.com", "1234567890"));
+            unitOfWork.commit();
+        }
+        assertEquals(List.of("added 2"), heard);
+    }
+
+    @Test
+    public void testReturnBook_FlushesEachRepositoryOnce() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        List<String> loanWrites = new ArrayList<>();
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+                loanWrites.add(added.size() + "/" + updated.size() + "/" + deleted.size());
+                super.saveChanges(added, updated, deleted);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Member member1 = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member1);
+        Member member2 = new Member(2, "Jane Doe", "jane@example.com", "0987654321");
+        memberRepo.add(member2);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+
+        libraryService.borrowBook(member1.getID(), book.getID());
+        libraryService.borrowBook(member2.getID(), book.getID());
+        libraryService.returnBook(loanRepo.getAll().getFirst().getID());
+
+        assertEquals(List.of("1/0/0", "1/1/0"), loanWrites);
+        assertEquals(0, reservationRepo.getAll().size());
+        assertEquals(2, loanRepo.getAll().size());
+    }
+
+    @Test
+    public void testBookTryTakeCopy_ConcurrentCheckoutsNeverOverdraw() throws InterruptedException {
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 5);
+        AtomicInteger taken = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 10; j++) {
+                    if (book.tryTakeCopy()) {
+                        taken.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(5, taken.get());
+        assertEquals(0, book.getCopiesAvailable());
+    }
+
+    @Test
+    public void testCreateLoan_FailedCommitPutsCopyBack() throws DatabaseException {
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+                throw new DatabaseException("Disk full.");
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+
+        assertThrows(DatabaseException.class, () -> libraryService.createLoan(book, member));
+        assertEquals(1, book.getCopiesAvailable());
+        assertTrue(book.isAvailable());
+        assertTrue(member.getLoans().isEmpty());
+        assertTrue(member.getLoanHistory().isEmpty());
+    }
+
+    @Test
+    public void testBorrowBooks_FailedCommitTakesReservationOffMember() throws DatabaseException {
+        reservationRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Reservation> added, List<Reservation> updated, List<Integer> deleted) throws DatabaseException {
+                throw new DatabaseException("Disk full.");
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), false, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 0);
+        bookRepo.add(book);
+
+        assertThrows(DatabaseException.class, () -> libraryService.borrowBooks(member.getID(), List.of(book.getID())));
+        assertTrue(member.getReservations().isEmpty());
+    }
+
+    @Test
+    public void testGetBooksByAuthor_ErrorWhileStreamingIsReportedAsDatabaseException() throws DatabaseException {
+        AtomicBoolean connectionLost = new AtomicBoolean(false);
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public Stream<Book> streamAll() throws DatabaseException {
+                if (!connectionLost.get()) {
+                    return super.streamAll();
+                }
+                return Stream.generate(() -> {
+                    throw new UncheckedDatabaseException(new DatabaseException("Connection lost."));
+                });
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        authorRepo.add(new Author(1, "Author", "author@example.com", "1234567890"));
+        connectionLost.set(true);
+
+        assertThrows(DatabaseException.class, () -> libraryService.getBooksByAuthor(1));
+    }
+
+    @Test
+    public void testReturnBook_UncheckedReadErrorIsReportedAsDatabaseException() {
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public Loan get(int id) {
+                throw new UncheckedDatabaseException(new DatabaseException("Connection lost."));
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        assertThrows(DatabaseException.class, () -> libraryService.returnBook(1));
+    }
+
+    @Test
+    public void testGetBookSummariesByAuthor() throws DatabaseException, EntityNotFoundException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        authorRepo.add(author);
+        Book book = new Book(1, "Test Book", author, true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 2);
+        book.getReviews().add(new Review(1, 4, "Good", book, null));
+        book.getReviews().add(new Review(2, 5, "Great", book, null));
+        book.setRatings(RatingStats.of(book.getReviews()));
+        bookRepo.add(book);
+        bookRepo.add(new Book(2, "Other Book", new Author(2, "Other", "other@example.com", "1234567890"), true, null, null, 1));
+
+        List<BookSummary> summaries = libraryService.getBookSummariesByAuthor(author.getID());
+
+        assertEquals(List.of(new BookSummary(1, "Test Book", "Author", "Publisher", "Fiction", true, 2, 4.5)), summaries);
+        assertThrows(EntityNotFoundException.class, () -> libraryService.getBookSummariesByAuthor(99));
+    }
+
+    @Test
+    public void testGetActiveLoanSummariesForMember() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+        loanRepo.add(new Loan(1, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), LocalDate.now(), "RETURNED", book, member));
+        loanRepo.add(new Loan(2, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", book, member));
+
+        List<LoanSummary> summaries = libraryService.getActiveLoanSummariesForMember(member.getID());
+
+        assertEquals(List.of(new LoanSummary(2, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", "Test Book", "Author")), summaries);
+    }
+
+    @Test
+    public void testAsyncLibraryService_RunsCallsOnVirtualThreads() throws Exception {
+        List<Boolean> virtualThreads = Collections.synchronizedList(new ArrayList<>());
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public Book get(int id) {
+                virtualThreads.add(Thread.currentThread().isVirtual());
+                return super.get(id);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+        virtualThreads.clear();
+
+        try (AsyncLibraryService asyncService = new AsyncLibraryService(libraryService)) {
+            List<CompletableFuture<List<Book>>> searches = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                searches.add(asyncService.searchBook("test"));
+            }
+            for (CompletableFuture<List<Book>> search : searches) {
+                assertEquals(List.of(book), search.get());
+            }
+        }
+        assertEquals(100, virtualThreads.size());
+        assertTrue(virtualThreads.stream().allMatch(Boolean::booleanValue));
+    }
+
+    @Test
+    public void testAsyncLibraryService_FailedCallCompletesExceptionally() {
+        try (AsyncLibraryService asyncService = new AsyncLibraryService(libraryService)) {
+            ExecutionException exception = assertThrows(ExecutionException.class, () -> asyncService.getLoanHistoryForMember(99).get());
+            assertInstanceOf(EntityNotFoundException.class, exception.getCause());
+        }
+    }
+
+    @Test
+    public void testAddBook_LooksUpAuthorPublisherAndCategoryConcurrently() throws DatabaseException, EntityNotFoundException {
+        CountDownLatch allLookupsStarted = new CountDownLatch(3);
+        class BlockingRepository<T extends HasID> extends InMemoryRepository<T> {
+            @Override
+            public T get(int id) {
+                allLookupsStarted.countDown();
+                try {
+                    assertTrue(allLookupsStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.get(id);
+            }
+        }
+        authorRepo = new BlockingRepository<>();
+        publisherRepo = new BlockingRepository<>();
+        categoryRepo = new BlockingRepository<>();
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        authorRepo.add(new Author(1, "Author", "author@example.com", "1234567890"));
+        publisherRepo.add(new Publisher(1, "Publisher", "publisher@example.com", "0987654321"));
+        categoryRepo.add(new Category(1, "Fiction", "Fictional books"));
+
+        libraryService.addBook("Test Book", 1, 1, 1, 1);
+
+        assertEquals(1, bookRepo.getAll().size());
+    }
+
+    @Test
+    public void testAddBook_LinksAuthorCategoryAndPublisherInBackground() throws Exception {
+        CountDownLatch releaseAuthorWrite = new CountDownLatch(1);
+        AtomicInteger authorWrites = new AtomicInteger();
+        authorRepo = new InMemoryRepository<>() {
+            @Override
+            public void update(Author author) {
+                try {
+                    assertTrue(releaseAuthorWrite.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.update(author);
+                authorWrites.incrementAndGet();
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        authorRepo.add(author);
+        Category category = new Category(1, "Fiction", "Fictional books");
+        categoryRepo.add(category);
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        publisherRepo.add(publisher);
+
+        // Returns while the author is still waiting to be written
+        libraryService.addBook("Test Book", 1, 1, 1, 1);
+        assertEquals(1, bookRepo.getAll().size());
+        assertEquals(0, authorWrites.get());
+        // Other threads read the indexes without waiting for the handler
+        FutureTask<List<Book>> otherReader = new FutureTask<>(() -> libraryService.searchBook("Other Book"));
+        Thread.ofVirtual().start(otherReader);
+        assertTrue(otherReader.get(1, TimeUnit.SECONDS).isEmpty());
+        assertEquals(0, authorWrites.get());
+
+        releaseAuthorWrite.countDown();
+        libraryService.awaitPendingEvents();
+
+        Book book = bookRepo.getAll().getFirst();
+        assertEquals(1, authorWrites.get());
+        assertEquals(List.of(book), author.getBooks());
+        assertEquals(List.of(book), category.getBooks());
+        assertEquals(List.of(book), publisher.getPublishedBooks());
+        assertEquals(List.of(book), libraryService.fuzzySearchBook("Test Book", 0));
+    }
+
+    @Test
+    public void testAddBook_FailedLinkIsRetried() throws DatabaseException, EntityNotFoundException {
+        AtomicInteger authorWrites = new AtomicInteger();
+        authorRepo = new InMemoryRepository<>() {
+            @Override
+            public void update(Author author) {
+                if (authorWrites.incrementAndGet() == 1) {
+                    throw new UncheckedDatabaseException(new DatabaseException("Connection lost."));
+                }
+                super.update(author);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        authorRepo.add(author);
+        categoryRepo.add(new Category(1, "Fiction", "Fictional books"));
+        publisherRepo.add(new Publisher(1, "Publisher", "publisher@example.com", "0987654321"));
+
+        libraryService.addBook("Test Book", 1, 1, 1, 1);
+        libraryService.awaitPendingEvents();
+
+        assertEquals(2, authorWrites.get());
+        assertEquals(bookRepo.getAll(), authorRepo.get(1).getBooks());
+    }
+
+    @Test
+    public void testFuzzySearchBook_IndexThatFailedOnChangeIsRepairedBeforeNextRead() throws DatabaseException {
+        AtomicBoolean authorUnreadable = new AtomicBoolean(true);
+        Author author = new Author(1, "Tolkien", "author@example.com", "1234567890") {
+            @Override
+            public String getName() {
+                if (authorUnreadable.get()) {
+                    throw new UncheckedDatabaseException(new DatabaseException("Connection lost."));
+                }
+                return super.getName();
+            }
+        };
+        Book book = new Book(1, "The Hobbit", author, true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+        libraryService.awaitPendingEvents();
+
+        authorUnreadable.set(false);
+        assertEquals(List.of(book), libraryService.fuzzySearchBook("Tolkien", 0));
+    }
+
+    @Test
+    public void testBorrowBook_LoanLimitIsCheckedWithoutScanningLoans() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        AtomicInteger loanScans = new AtomicInteger();
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Loan> getAll() {
+                loanScans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        loanScans.set(0);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        for (int id = 1; id <= 4; id++) {
+            bookRepo.add(new Book(id, "Book " + id, new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1));
+        }
+
+        libraryService.borrowBook(member.getID(), 1);
+        libraryService.borrowBook(member.getID(), 2);
+        libraryService.borrowBook(member.getID(), 3);
+
+        assertThrows(BusinessLogicException.class, () -> libraryService.borrowBook(member.getID(), 4));
+        assertEquals(0, loanScans.get());
+    }
+
+    @Test
+    public void testBorrowBook_IndexFollowsLoansWrittenToRepository() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 2);
+        bookRepo.add(book);
+        Loan overdueLoan = new Loan(1, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member);
+        loanRepo.add(overdueLoan);
+        member.getLoans().add(overdueLoan);
+
+        assertThrows(BusinessLogicException.class, () -> libraryService.borrowBook(member.getID(), book.getID()));
+
+        libraryService.returnBook(overdueLoan.getID());
+        libraryService.borrowBook(member.getID(), book.getID());
+
+        assertEquals(1, libraryService.getActiveLoansForMember(member.getID()).size());
+    }
+
+    @Test
+    public void testReturnBook_GoesToOldestReservationWithoutScanningReservations() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        AtomicInteger reservationScans = new AtomicInteger();
+        reservationRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Reservation> getAll() {
+                reservationScans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        reservationScans.set(0);
+        Member borrower = new Member(1, "John Doe", "john@example.com", "1234567890");
+        Member lateMember = new Member(2, "Jane Doe", "jane@example.com", "1234567891");
+        Member earlyMember = new Member(3, "Jim Doe", "jim@example.com", "1234567892");
+        memberRepo.add(borrower);
+        memberRepo.add(lateMember);
+        memberRepo.add(earlyMember);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+        libraryService.borrowBook(borrower.getID(), book.getID());
+        reservationRepo.add(new Reservation(1, LocalDate.now().minusDays(1), book, lateMember));
+        reservationRepo.add(new Reservation(2, LocalDate.now().minusDays(3), book, earlyMember));
+
+        libraryService.returnBook(loanRepo.getAll().getFirst().getID());
+
+        assertEquals(0, reservationScans.get());
+        assertEquals(1, libraryService.getActiveLoansForMember(earlyMember.getID()).size());
+        assertEquals(0, libraryService.getActiveLoansForMember(lateMember.getID()).size());
+        assertEquals(List.of(1), reservationRepo.getAll().stream().map(Reservation::getID).toList());
+    }
+
+    @Test
+    public void testOverdueSweeper_MarksOnlyNewlyOverdueLoans() throws DatabaseException {
+        AtomicInteger loanReads = new AtomicInteger();
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public Loan get(int id) {
+                loanReads.incrementAndGet();
+                return super.get(id);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 200);
+        bookRepo.add(book);
+        for (int id = 1; id <= 100; id++) {
+            loanRepo.add(new Loan(id, LocalDate.now(), LocalDate.now().plusDays(id), null, "ACTIVE", book, member));
+        }
+        loanRepo.add(new Loan(101, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member));
+        loanRepo.add(new Loan(102, LocalDate.now().minusDays(20), LocalDate.now().minusDays(1), null, "ACTIVE", book, member));
+        loanRepo.add(new Loan(103, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), LocalDate.now(), "RETURNED", book, member));
+        List<Integer> events = new ArrayList<>();
+
+        try (OverdueSweeper sweeper = new OverdueSweeper(libraryService)) {
+            sweeper.addListener(loan -> events.add(loan.getID()));
+            loanReads.set(0);
+
+            assertEquals(List.of(101, 102), sweeper.sweep().stream().map(Loan::getID).toList());
+            // Each loan is read to find what to lock, then again under the locks
+            assertEquals(4, loanReads.get());
+            assertEquals(List.of(101, 102), events);
+            assertEquals("OVERDUE", loanRepo.get(101).getStatus());
+            assertEquals("ACTIVE", loanRepo.get(1).getStatus());
+
+            loanReads.set(0);
+            assertTrue(sweeper.sweep().isEmpty());
+            assertEquals(0, loanReads.get());
+        }
+    }
+
+    @Test
+    public void testOverdueSweeper_FailedListenerDoesNotStopTheSweeps() throws DatabaseException, InterruptedException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 10);
+        bookRepo.add(book);
+        loanRepo.add(new Loan(1, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member));
+        CountDownLatch firstSweep = new CountDownLatch(1);
+        CountDownLatch laterSweep = new CountDownLatch(1);
+
+        try (OverdueSweeper sweeper = new OverdueSweeper(libraryService)) {
+            sweeper.addListener(loan -> {
+                if (loan.getID() == 1) {
+                    firstSweep.countDown();
+                    throw new IllegalStateException("Notification failed.");
+                }
+                laterSweep.countDown();
+            });
+            sweeper.start(Duration.ofMillis(10));
+            assertTrue(firstSweep.await(5, TimeUnit.SECONDS));
+
+            loanRepo.add(new Loan(2, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member));
+            assertTrue(laterSweep.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testMarkOverdueLoans_WaitsForReturnInProgress() throws Exception {
+        CountDownLatch returning = new CountDownLatch(1);
+        CountDownLatch finishReturn = new CountDownLatch(1);
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+                if (updated.stream().anyMatch(loan -> "RETURNED".equals(loan.getStatus()))) {
+                    returning.countDown();
+                    try {
+                        finishReturn.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.saveChanges(added, updated, deleted);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 1);
+        bookRepo.add(book);
+        Loan loan = new Loan(1, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member);
+        loanRepo.add(loan);
+        member.getLoans().add(loan);
+
+        CompletableFuture<Void> returned = CompletableFuture.runAsync(() -> {
+            try {
+                libraryService.returnBook(loan.getID());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(returning.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<Loan>> overdue = CompletableFuture.supplyAsync(() -> {
+            try {
+                return libraryService.markOverdueLoans();
+            } catch (DatabaseException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // The return still holds the book and the member
+        assertThrows(TimeoutException.class, () -> overdue.get(200, TimeUnit.MILLISECONDS));
+        finishReturn.countDown();
+        returned.get(5, TimeUnit.SECONDS);
+
+        assertTrue(overdue.get(5, TimeUnit.SECONDS).isEmpty());
+        assertEquals("RETURNED", loanRepo.get(loan.getID()).getStatus());
+    }
+
+    @Test
+    public void testOverdueLoan_BlocksBorrowingUntilReturned() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        Book book = new Book(1, "Test Book", new Author(1, "Author", "author@example.com", "1234567890"), true, new Category(1, "Fiction", "Fictional books"), new Publisher(1, "Publisher", "publisher@example.com", "0987654321"), 2);
+        bookRepo.add(book);
+        Loan loan = new Loan(1, LocalDate.now().minusDays(20), LocalDate.now().minusDays(6), null, "ACTIVE", book, member);
+        loanRepo.add(loan);
+        member.getLoans().add(loan);
+
+        libraryService.markOverdueLoans();
+
+        assertEquals(List.of(loan), libraryService.getActiveLoansForMember(member.getID()));
+        assertThrows(BusinessLogicException.class, () -> libraryService.borrowBook(member.getID(), book.getID()));
+
+        libraryService.returnBook(loan.getID());
+
+        assertEquals("RETURNED", loan.getStatus());
+        libraryService.borrowBook(member.getID(), book.getID());
+        assertEquals(1, libraryService.getActiveLoansForMember(member.getID()).size());
+    }
+
+    @Test
+    public void testGetIDbyEmail_IgnoresCaseWithoutScanningPeople() throws DatabaseException, EntityNotFoundException {
+        AtomicInteger scans = new AtomicInteger();
+        memberRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Member> getAll() {
+                scans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        staffRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Staff> getAll() {
+                scans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        memberRepo.add(new Member(1, "John Doe", "John@Example.com", "1234567890"));
+        staffRepo.add(new Staff(2, "Jane Doe", "jane@example.com", "0987654321", "Librarian"));
+        scans.set(0);
+
+        assertEquals(1, libraryService.getIDbyEmail("john@example.com"));
+        assertEquals(2, libraryService.getIDbyEmail(" JANE@example.com "));
+        assertTrue(libraryService.isStaff("Jane@Example.com"));
+        assertFalse(libraryService.isStaff("john@example.com"));
+        assertThrows(EntityNotFoundException.class, () -> libraryService.getIDbyEmail("nobody@example.com"));
+        assertEquals(0, scans.get());
 
+        memberRepo.update(new Member(1, "John Doe", "johnny@example.com", "1234567890"));
 
+        assertEquals(1, libraryService.getIDbyEmail("Johnny@example.com"));
+        assertThrows(EntityNotFoundException.class, () -> libraryService.getIDbyEmail("john@example.com"));
+    }
+
+    @Test
+    public void testAddMember_DuplicateEmailIgnoringCase() throws DatabaseException {
+        libraryService.addMember("John Doe", "john@example.com", "1234567890");
+        libraryService.addStaff("Jane Doe", "jane@example.com", "0987654321", "Librarian");
+
+        assertThrows(DatabaseException.class, () -> libraryService.addMember("Johnny Doe", "JOHN@example.com", "1234567891"));
+        assertThrows(DatabaseException.class, () -> libraryService.addStaff("Janet Doe", "Jane@Example.com", "0987654322", "Librarian"));
+        assertEquals(1, memberRepo.getAll().size());
+        assertEquals(1, staffRepo.getAll().size());
+    }
+
+    @Test
+    public void testSearchBook_UsesTitleIndexWithoutScanningBooks() throws DatabaseException {
+        AtomicInteger scans = new AtomicInteger();
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Book> getAll() {
+                scans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Author author = new Author(1, "Frank Herbert", "frank@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        bookRepo.add(new Book(1, "Dune", author, true, category, publisher, 1));
+        bookRepo.add(new Book(2, "Dune Messiah", author, true, category, publisher, 1));
+        bookRepo.add(new Book(3, "Children of Dune", author, true, category, publisher, 1));
+        bookRepo.add(new Book(4, "The Dosadi Experiment", author, true, category, publisher, 1));
+        scans.set(0);
+
+        assertEquals(List.of(1, 2, 3), libraryService.searchBook("DUNE").stream().map(Book::getID).toList());
+        assertEquals(List.of(2), libraryService.searchBook("e mes").stream().map(Book::getID).toList());
+        assertEquals(List.of(3, 4), libraryService.searchBook("en").stream().map(Book::getID).toList());
+        assertTrue(libraryService.searchBook("dunes").isEmpty());
+        assertEquals(0, scans.get());
+
+        bookRepo.update(new Book(2, "God Emperor of Dune", author, true, category, publisher, 1));
+        bookRepo.delete(3);
+
+        assertEquals(List.of(1, 2), libraryService.searchBook("dune").stream().map(Book::getID).toList());
+        assertTrue(libraryService.searchBook("messiah").isEmpty());
+        assertTrue(libraryService.searchBook("children").isEmpty());
+    }
+
+    @Test
+    public void testFuzzySearchBook_ToleratesTyposInTitlesAndAuthors() throws DatabaseException {
+        Author herbert = new Author(1, "Frank Herbert", "frank@example.com", "1234567890");
+        Author austen = new Author(2, "Jane Austen", "jane@example.com", "1234567891");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        bookRepo.add(new Book(1, "Dune", herbert, true, category, publisher, 1));
+        bookRepo.add(new Book(2, "Dune Messiah", herbert, true, category, publisher, 1));
+        bookRepo.add(new Book(3, "Emma", austen, true, category, publisher, 1));
+        bookRepo.add(new Book(4, "Persuasion", austen, true, category, publisher, 1));
+
+        assertEquals(List.of(2), libraryService.fuzzySearchBook("Dnue Mesiah", 2).stream().map(Book::getID).toList());
+        assertEquals(List.of(1, 2), libraryService.fuzzySearchBook("herbret", 2).stream().map(Book::getID).toList());
+        assertEquals(List.of(4), libraryService.fuzzySearchBook("persuation austin", 1).stream().map(Book::getID).toList());
+        assertTrue(libraryService.fuzzySearchBook("Dnue", 0).isEmpty());
+        assertThrows(DatabaseException.class, () -> libraryService.fuzzySearchBook("Dune", -1));
+
+        bookRepo.update(new Book(2, "Children of Dune", herbert, true, category, publisher, 1));
+        bookRepo.delete(3);
+
+        assertTrue(libraryService.fuzzySearchBook("messiah", 2).isEmpty());
+        assertEquals(List.of(2), libraryService.fuzzySearchBook("childern", 2).stream().map(Book::getID).toList());
+        assertTrue(libraryService.fuzzySearchBook("emma", 1).isEmpty());
+    }
+
+    @Test
+    public void testBrowseBooksByTitle_ReadsOnlyTheBooksReturned() throws DatabaseException {
+        AtomicInteger scans = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Book> getAll() {
+                scans.incrementAndGet();
+                return super.getAll();
+            }
+
+            @Override
+            public Book get(int id) {
+                reads.incrementAndGet();
+                return super.get(id);
+            }
+        };
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        bookRepo.add(new Book(1, "emma", author, true, category, publisher, 1));
+        bookRepo.add(new Book(2, "Dune Messiah", author, true, category, publisher, 1));
+        bookRepo.add(new Book(3, "Dune", author, true, category, publisher, 1));
+        bookRepo.add(new Book(4, "dracula", author, true, category, publisher, 1));
+        bookRepo.add(new Book(5, "Anna Karenina", author, true, category, publisher, 1));
+        scans.set(0);
+        reads.set(0);
+
+        assertEquals(List.of(3, 2), libraryService.browseBooksByTitle("du", 10).stream().map(Book::getID).toList());
+        assertEquals(List.of(5, 4), libraryService.browseBooksByTitle("", 2).stream().map(Book::getID).toList());
+        assertEquals(0, scans.get());
+        assertEquals(4, reads.get());
+
+        bookRepo.update(new Book(2, "Anna Karenina", author, true, category, publisher, 1));
+        bookRepo.delete(4);
+
+        assertEquals(List.of(2, 5, 3, 1), libraryService.getAllBooksSortedByTitle().stream().map(Book::getID).toList());
+        assertEquals(List.of(3), libraryService.browseBooksByTitle("DUNE", 10).stream().map(Book::getID).toList());
+    }
+
+    @Test
+    public void testReviews_KeepRatingAggregatesUsedForRanking() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book book1 = new Book(1, "Book 1", author, true, category, publisher, 5);
+        Book book2 = new Book(2, "Book 2", author, true, category, publisher, 5);
+        bookRepo.add(book1);
+        bookRepo.add(book2);
+        Member member = new Member(1, "John Doe", "john@example.com", "1234567890");
+        memberRepo.add(member);
+        libraryService.borrowBook(member.getID(), book1.getID());
+        libraryService.borrowBook(member.getID(), book2.getID());
+
+        libraryService.addReviewToBook(member.getID(), book1.getID(), 5, "Excellent!");
+        libraryService.addReviewToBook(member.getID(), book1.getID(), 2, "Not for me.");
+        libraryService.addReviewToBook(member.getID(), book2.getID(), 4, "Good.");
+        assertThrows(BusinessLogicException.class, () -> libraryService.addReviewToBook(member.getID(), book2.getID(), 6, "Too good."));
 
+        assertEquals(2, book1.getRatings().getCount());
+        assertEquals(7, book1.getRatings().getSum());
+        assertEquals(1, book1.getRatings().getCount(2));
+        assertEquals(3.5, book1.getRatings().getAverage(), 0.001);
+        assertEquals(List.of(book2, book1), libraryService.sortBooksByAvgRating());
+
+        int lowReviewID = book1.getReviews().stream().filter(review -> review.getRating() == 2).findFirst().orElseThrow().getID();
+        libraryService.deleteReviewFromBook(lowReviewID);
+
+        assertEquals(1, book1.getRatings().getCount());
+        assertEquals(0, book1.getRatings().getCount(2));
+        assertEquals(5.0, book1.getRatings().getAverage(), 0.001);
+        assertEquals(List.of(book1, book2), libraryService.sortBooksByAvgRating());
+    }
+
+    @Test
+    public void testLeaderboards_RankBooksOverallAndPerCategory() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category fiction = new Category(1, "Fiction", "Fictional books");
+        Category science = new Category(2, "Science", "Science books");
+        categoryRepo.add(fiction);
+        categoryRepo.add(science);
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book dune = new Book(1, "Dune", author, true, fiction, publisher, 5);
+        Book emma = new Book(2, "Emma", author, true, fiction, publisher, 5);
+        Book cosmos = new Book(3, "Cosmos", author, true, science, publisher, 5);
+        Book unread = new Book(4, "Unread", author, true, science, publisher, 5);
+        bookRepo.add(dune);
+        bookRepo.add(emma);
+        bookRepo.add(cosmos);
+        bookRepo.add(unread);
+        Member john = new Member(1, "John Doe", "john@example.com", "1234567890");
+        Member jane = new Member(2, "Jane Doe", "jane@example.com", "1234567891");
+        memberRepo.add(john);
+        memberRepo.add(jane);
+
+        libraryService.borrowBook(john.getID(), dune.getID());
+        libraryService.borrowBook(jane.getID(), dune.getID());
+        libraryService.borrowBook(john.getID(), emma.getID());
+        libraryService.borrowBook(jane.getID(), cosmos.getID());
+        libraryService.addReviewToBook(john.getID(), dune.getID(), 3, "Long.");
+        libraryService.addReviewToBook(john.getID(), emma.getID(), 5, "Lovely.");
+        libraryService.addReviewToBook(jane.getID(), cosmos.getID(), 4, "Vast.");
+
+        assertEquals(List.of(emma, cosmos, dune), libraryService.getTopRatedBooks(10));
+        assertEquals(List.of(emma), libraryService.getTopRatedBooks(1));
+        assertEquals(List.of(cosmos), libraryService.getTopRatedBooksInCategory(science.getID(), 10));
+        assertEquals(List.of(dune, emma, cosmos), libraryService.getMostBorrowedBooks(10));
+        assertEquals(List.of(dune, emma), libraryService.getMostBorrowedBooksInCategory(fiction.getID(), 10));
+        assertThrows(EntityNotFoundException.class, () -> libraryService.getTopRatedBooksInCategory(99, 10));
+
+        int emmaReviewID = emma.getReviews().getFirst().getID();
+        libraryService.deleteReviewFromBook(emmaReviewID);
+        emma.setCategory(science);
+        bookRepo.update(emma);
+
+        assertEquals(List.of(cosmos, dune), libraryService.getTopRatedBooks(10));
+        assertEquals(List.of(dune), libraryService.getMostBorrowedBooksInCategory(fiction.getID(), 10));
+        assertEquals(List.of(emma, cosmos), libraryService.getMostBorrowedBooksInCategory(science.getID(), 10));
+    }
+
+    @Test
+    public void testRecommendBooksForMember_FromBooksBorrowedTogether() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        AtomicInteger scans = new AtomicInteger();
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public List<Book> getAll() {
+                scans.incrementAndGet();
+                return super.getAll();
+            }
+        };
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            Book book = new Book(i, "Book " + i, author, true, category, publisher, 5);
+            bookRepo.add(book);
+            books.add(book);
+        }
+        List<Member> members = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Member member = new Member(i, "Member " + i, "member" + i + "@example.com", "123456789" + i);
+            memberRepo.add(member);
+            members.add(member);
+        }
+        int[][] borrowed = {{1, 2, 3}, {1, 2}, {1, 4}, {1}};
+        int loanID = 0;
+        for (int i = 0; i < borrowed.length; i++) {
+            for (int bookID : borrowed[i]) {
+                loanRepo.add(new Loan(++loanID, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", books.get(bookID - 1), members.get(i)));
+            }
+        }
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        scans.set(0);
+
+        assertEquals(List.of(books.get(1), books.get(2), books.get(3)), libraryService.recommendBooksForMember(4));
+        assertEquals(List.of(books.get(1)), libraryService.recommendBooksForMember(4, 1));
+        assertEquals(List.of(books.get(3)), libraryService.recommendBooksForMember(1));
+        assertEquals(0, scans.get());
+
+        loanRepo.add(new Loan(++loanID, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", books.get(3), members.get(1)));
+        loanRepo.add(new Loan(++loanID, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", books.get(4), members.get(2)));
+        loanRepo.delete(2);
+        libraryService.rebuildRecommendations();
+
+        assertEquals(List.of(books.get(3), books.get(1), books.get(2), books.get(4)), libraryService.recommendBooksForMember(4));
+    }
+
+    @Test
+    public void testRebuildRecommendations_MatchesIncrementalUpdates() throws DatabaseException, EntityNotFoundException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        for (int i = 1; i <= 40; i++) {
+            bookRepo.add(new Book(i, "Book " + i, author, true, category, publisher, 5));
+        }
+        Random random = new Random(42);
+        int loanID = 0;
+        for (int i = 1; i <= 1000; i++) {
+            Member member = new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890");
+            memberRepo.add(member);
+            for (int j = 0; j < 4; j++) {
+                Book book = bookRepo.get(1 + random.nextInt(40));
+                loanRepo.add(new Loan(++loanID, LocalDate.now(), LocalDate.now().plusDays(14), null, "RETURNED", book, member));
+            }
+        }
+
+        LibraryService rebuiltService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        for (int memberID = 1; memberID <= 1000; memberID += 37) {
+            assertEquals(libraryService.recommendBooksForMember(memberID, 5), rebuiltService.recommendBooksForMember(memberID, 5));
+        }
+    }
+
+    @Test
+    public void testRecommendBooksForMember_CachedUntilInvalidated() throws DatabaseException, EntityNotFoundException {
+        AtomicInteger reads = new AtomicInteger();
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public Book get(int id) {
+                reads.incrementAndGet();
+                return super.get(id);
+            }
+        };
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category fiction = new Category(1, "Fiction", "Fictional books");
+        Category science = new Category(2, "Science", "Science books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Book book = new Book(i, "Book " + i, author, true, fiction, publisher, 1);
+            bookRepo.add(book);
+            books.add(book);
+        }
+        Member reader = new Member(1, "Reader", "reader@example.com", "1234567890");
+        Member other = new Member(2, "Other", "other@example.com", "1234567891");
+        memberRepo.add(reader);
+        memberRepo.add(other);
+        loanRepo.add(new Loan(1, LocalDate.now(), LocalDate.now().plusDays(14), null, "RETURNED", books.get(0), other));
+        loanRepo.add(new Loan(2, LocalDate.now(), LocalDate.now().plusDays(14), null, "RETURNED", books.get(1), other));
+        loanRepo.add(new Loan(3, LocalDate.now(), LocalDate.now().plusDays(14), null, "RETURNED", books.get(0), reader));
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        assertEquals(List.of(books.get(1)), libraryService.recommendBooksForMember(1));
+        reads.set(0);
+        assertEquals(List.of(books.get(1)), libraryService.recommendBooksForMember(1));
+        assertEquals(1, reads.get());
+
+        // A book that was there before the service is written again in the same category
+        books.get(1).setBookName("Book 2, second edition");
+        bookRepo.update(books.get(1));
+        reads.set(0);
+        assertEquals(List.of(books.get(1)), libraryService.recommendBooksForMember(1));
+        assertEquals(1, reads.get());
+
+        // The last copy of a recommended book is taken
+        books.get(1).setCopiesAvailable(0);
+        bookRepo.update(books.get(1));
+        assertEquals(List.of(books.get(2), books.get(3)), libraryService.recommendBooksForMember(1));
+
+        // A new book in a category the member borrowed from
+        Book newBook = new Book(5, "Book 5", author, true, fiction, publisher, 1);
+        bookRepo.add(newBook);
+        assertEquals(List.of(books.get(2), books.get(3), newBook), libraryService.recommendBooksForMember(1));
+
+        // A book moved out of that category
+        books.get(3).setCategory(science);
+        bookRepo.update(books.get(3));
+        assertEquals(List.of(books.get(2), newBook), libraryService.recommendBooksForMember(1));
+
+        // The member borrows one of the recommended books
+        loanRepo.add(new Loan(4, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", books.get(2), reader));
+        assertEquals(List.of(newBook), libraryService.recommendBooksForMember(1));
+    }
+
+    @Test
+    public void testCirculation_ContentionBenchmark() throws Exception {
+        int threads = 64;
+        int cycles = 200;
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book sharedBook = new Book(1, "Shared Book", author, true, category, publisher, threads);
+        bookRepo.add(sharedBook);
+        for (int i = 1; i <= threads; i++) {
+            bookRepo.add(new Book(1 + i, "Book " + i, author, true, category, publisher, 1));
+            memberRepo.add(new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890"));
+        }
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        // After a warm-up round, every member borrows and returns their own book, then everyone borrows and returns the same book
+        runCirculation(threads, cycles, memberID -> 1 + memberID);
+        double unrelatedPerSecond = runCirculation(threads, cycles, memberID -> 1 + memberID);
+        double sharedPerSecond = runCirculation(threads, cycles, memberID -> 1);
+        System.out.printf("Circulation with %d threads: %.0f checkouts/s on separate books, %.0f checkouts/s on one book%n",
+                threads, unrelatedPerSecond, sharedPerSecond);
+        // Checkouts of separate books by separate members share no lock, so with cores to spare they outrun
+        // checkouts that all queue on the lock of one book
+        if (Runtime.getRuntime().availableProcessors() >= 4) {
+            assertTrue(unrelatedPerSecond > sharedPerSecond,
+                    "Checkouts of separate books should run in parallel: " + unrelatedPerSecond + " vs " + sharedPerSecond + " per second");
+        }
+
+        List<Loan> loans = loanRepo.getAll();
+        assertEquals(3 * threads * cycles, loans.size());
+        assertEquals(loans.size(), loans.stream().map(Loan::getID).distinct().count());
+        assertTrue(loans.stream().allMatch(loan -> "RETURNED".equals(loan.getStatus())));
+        assertEquals(threads, bookRepo.get(1).getCopiesAvailable());
+        for (int i = 1; i <= threads; i++) {
+            assertEquals(1, bookRepo.get(1 + i).getCopiesAvailable());
+            assertTrue(memberRepo.get(i).getLoans().isEmpty());
+        }
+    }
+
+    /**
+     * Runs borrow and return cycles of one member per thread, all threads starting together.
+     *
+     * @return the number of checkouts per second
+     */
+    private double runCirculation(int threads, int cycles, IntUnaryOperator bookOfMember) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int memberID = 1; memberID <= threads; memberID++) {
+                int member = memberID;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < cycles; i++) {
+                        libraryService.borrowBook(member, bookOfMember.applyAsInt(member));
+                        libraryService.returnBook(memberRepo.get(member).getLoans().getFirst().getID());
+                    }
+                    return null;
+                }));
+            }
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+            double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+            return threads * cycles / seconds;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBorrowBook_LastCopyUnderContention() throws Exception {
+        int threads = 64;
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book book = new Book(1, "Last Copy", author, true, category, publisher, 1);
+        bookRepo.add(book);
+        for (int i = 1; i <= threads; i++) {
+            memberRepo.add(new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890"));
+        }
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> results = new ArrayList<>();
+            for (int memberID = 1; memberID <= threads; memberID++) {
+                int member = memberID;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    libraryService.borrowBook(member, 1);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, loanRepo.getAll().size());
+        assertEquals(threads - 1, reservationRepo.getAll().size());
+        assertEquals(0, book.getCopiesAvailable());
+
+        Loan loan = loanRepo.getAll().getFirst();
+        int firstReservation = reservationRepo.getAll().stream().mapToInt(Reservation::getID).min().orElseThrow();
+        Member nextMember = reservationRepo.get(firstReservation).getMember();
+        libraryService.returnBook(loan.getID());
+
+        assertEquals(1, nextMember.getLoans().size());
+        assertEquals(threads - 2, reservationRepo.getAll().size());
+        assertEquals(0, book.getCopiesAvailable());
+    }
+
+    @Test
+    public void testBorrowBooks_ReportsOutcomePerBook() throws DatabaseException, EntityNotFoundException {
+        AtomicInteger memberWrites = new AtomicInteger();
+        memberRepo = new InMemoryRepository<>() {
+            @Override
+            public void update(Member obj) {
+                memberWrites.incrementAndGet();
+                super.update(obj);
+            }
+        };
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book first = new Book(1, "First", author, true, category, publisher, 1);
+        Book second = new Book(2, "Second", author, true, category, publisher, 2);
+        Book unavailable = new Book(3, "Unavailable", author, false, category, publisher, 0);
+        Book fourth = new Book(4, "Fourth", author, true, category, publisher, 1);
+        Book fifth = new Book(5, "Fifth", author, true, category, publisher, 1);
+        for (Book book : List.of(first, second, unavailable, fourth, fifth)) {
+            bookRepo.add(book);
+        }
+        Member member = new Member(1, "Member", "member@example.com", "1234567890");
+        memberRepo.add(member);
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        List<CirculationOutcome> outcomes = libraryService.borrowBooks(1, List.of(1, 2, 1, 99, 3, 4, 5));
+
+        assertEquals(List.of(
+                CirculationOutcome.of(1, CirculationOutcome.Result.BORROWED),
+                CirculationOutcome.of(2, CirculationOutcome.Result.BORROWED),
+                CirculationOutcome.failed(1, "Book is already in this checkout."),
+                CirculationOutcome.failed(99, "Book not found."),
+                CirculationOutcome.of(3, CirculationOutcome.Result.RESERVED),
+                CirculationOutcome.of(4, CirculationOutcome.Result.BORROWED),
+                CirculationOutcome.failed(5, "Loan limit reached. Return books before borrowing more.")), outcomes);
+        assertEquals(3, member.getLoans().size());
+        assertEquals(1, member.getReservations().size());
+        assertEquals(0, first.getCopiesAvailable());
+        assertEquals(1, second.getCopiesAvailable());
+        assertEquals(1, fifth.getCopiesAvailable());
+        assertEquals(1, memberWrites.get());
+
+        assertThrows(EntityNotFoundException.class, () -> libraryService.borrowBooks(99, List.of(1)));
+    }
+
+    @Test
+    public void testBorrowBooks_ReadsBooksFromPrimaryOnEveryLookupThread() throws DatabaseException, EntityNotFoundException {
+        List<Boolean> pinnedReads = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean committed = new AtomicBoolean();
+        bookRepo = new InMemoryRepository<>() {
+            @Override
+            public Book get(int id) {
+                if (!committed.get()) {
+                    pinnedReads.add(ReadRouting.isPinnedToPrimary());
+                }
+                return super.get(id);
+            }
+        };
+        // The recommendations refreshed in the background after the commit are read without pinning
+        loanRepo = new InMemoryRepository<>() {
+            @Override
+            public void add(Loan loan) {
+                committed.set(true);
+                super.add(loan);
+            }
+        };
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        bookRepo.add(new Book(1, "First", author, true, category, publisher, 1));
+        bookRepo.add(new Book(2, "Second", author, true, category, publisher, 1));
+        memberRepo.add(new Member(1, "Member", "member@example.com", "1234567890"));
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        libraryService.borrowBooks(1, List.of(1, 2));
+
+        assertFalse(pinnedReads.isEmpty());
+        assertTrue(pinnedReads.stream().allMatch(pinned -> pinned));
+        assertFalse(ReadRouting.isPinnedToPrimary());
+    }
+
+    @Test
+    public void testReturnBooks_HandsOffReservationsOncePerBook() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        AtomicInteger memberWrites = new AtomicInteger();
+        memberRepo = new InMemoryRepository<>() {
+            @Override
+            public void update(Member obj) {
+                memberWrites.incrementAndGet();
+                super.update(obj);
+            }
+        };
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        Book popular = new Book(1, "Popular", author, true, category, publisher, 2);
+        Book other = new Book(2, "Other", author, true, category, publisher, 1);
+        bookRepo.add(popular);
+        bookRepo.add(other);
+        List<Member> members = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            Member member = new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890");
+            memberRepo.add(member);
+            members.add(member);
+        }
+        libraryService = new LibraryService(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        libraryService.borrowBooks(1, List.of(1, 2));
+        libraryService.borrowBook(2, 1);
+        libraryService.borrowBook(3, 1);
+        libraryService.borrowBook(4, 1);
+        List<Integer> loanIDs = new ArrayList<>();
+        for (Loan loan : loanRepo.getAll()) {
+            loanIDs.add(loan.getID());
+        }
+        Collections.sort(loanIDs);
+        memberWrites.set(0);
+
+        List<CirculationOutcome> outcomes = libraryService.returnBooks(List.of(loanIDs.get(0), loanIDs.get(1), loanIDs.get(2), 99, loanIDs.get(0)));
+
+        assertEquals(List.of(
+                CirculationOutcome.of(loanIDs.get(0), CirculationOutcome.Result.RETURNED),
+                CirculationOutcome.of(loanIDs.get(1), CirculationOutcome.Result.RETURNED),
+                CirculationOutcome.of(loanIDs.get(2), CirculationOutcome.Result.RETURNED),
+                CirculationOutcome.failed(99, "Loan not found."),
+                CirculationOutcome.failed(loanIDs.get(0), "Loan is already in this return.")), outcomes);
+        // Both returned copies of the popular book go to the two oldest reservations
+        assertTrue(members.get(0).getLoans().isEmpty());
+        assertTrue(members.get(1).getLoans().isEmpty());
+        assertEquals(1, members.get(2).getLoans().size());
+        assertEquals(1, members.get(3).getLoans().size());
+        assertTrue(members.get(2).getReservations().isEmpty());
+        assertTrue(reservationRepo.getAll().isEmpty());
+        assertEquals(0, popular.getCopiesAvailable());
+        assertEquals(1, other.getCopiesAvailable());
+        assertEquals(4, memberWrites.get());
+
+        assertEquals(List.of(CirculationOutcome.failed(loanIDs.get(0), "Loan is not active and cannot be returned.")),
+                libraryService.returnBooks(List.of(loanIDs.get(0))));
+    }
+
+    /**
+     * A file of books written before the number of copies became atomic and the rating aggregates were added:
+     * one book, "Dune", with 3 copies and one review of 4 stars.
+     */
+    private static final String OLD_BOOK_FILE = 
+            "rO0ABXNyABFqYXZhLnV0aWwuSGFzaE1hcAUH2sHDFmDRAwACRgAKbG9hZEZhY3RvckkACXRocmVzaG9sZHhwP0AAAAAAAAx3CAAA"
+            + "ABAAAAABc3IAEWphdmEubGFuZy5JbnRlZ2VyEuKgpPeBhzgCAAFJAAV2YWx1ZXhyABBqYXZhLmxhbmcuTnVtYmVyhqyVHQuU4IsC"
+            + "AAB4cAAAAAFzcgARTGlicmFyeU1vZGVsLkJvb2u8i4TFPMk2cQIACEkABmJvb2tJREkAD2NvcGllc0F2YWlsYWJsZVoAC2lzQXZh"
+            + "aWxhYmxlTAAGYXV0aG9ydAAVTExpYnJhcnlNb2RlbC9BdXRob3I7TAAIYm9va05hbWV0ABJMamF2YS9sYW5nL1N0cmluZztMAAhj"
+            + "YXRlZ29yeXQAF0xMaWJyYXJ5TW9kZWwvQ2F0ZWdvcnk7TAAJcHVibGlzaGVydAAYTExpYnJhcnlNb2RlbC9QdWJsaXNoZXI7TAAH"
+            + "cmV2aWV3c3QAEExqYXZhL3V0aWwvTGlzdDt4cAAAAAEAAAADAXNyABNMaWJyYXJ5TW9kZWwuQXV0aG9yZUp7Tjp3fIECAAFMAAVi"
+            + "b29rc3EAfgAKeHIAE0xpYnJhcnlNb2RlbC5QZXJzb26GgdFM+L8QxAIABEkAAklETAAFZW1haWxxAH4AB0wABG5hbWVxAH4AB0wA"
+            + "C3Bob25lTnVtYmVycQB+AAd4cAAAAAF0ABFmcmFua0BleGFtcGxlLmNvbXQADUZyYW5rIEhlcmJlcnR0AAExc3IAE2phdmEudXRp"
+            + "bC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAB3BAAAAAB4dAAERHVuZXNyABVMaWJyYXJ5TW9kZWwuQ2F0ZWdvcnlL"
+            + "yo+7pBbqbgIABEkACmNhdGVnb3J5SURMAAVib29rc3EAfgAKTAAMY2F0ZWdvcnlOYW1lcQB+AAdMAAtkZXNjcmlwdGlvbnEAfgAH"
+            + "eHAAAAABc3EAfgASAAAAAHcEAAAAAHh0AAdGaWN0aW9udAAGTm92ZWxzc3IAFkxpYnJhcnlNb2RlbC5QdWJsaXNoZXI6ETjed41T"
+            + "QwIAAUwADnB1Ymxpc2hlZEJvb2tzcQB+AAp4cQB+AA0AAAABdAATY2hpbHRvbkBleGFtcGxlLmNvbXQAB0NoaWx0b250AAEyc3EA"
+            + "fgASAAAAAHcEAAAAAHhzcQB+ABIAAAABdwQAAAABc3IAE0xpYnJhcnlNb2RlbC5SZXZpZXeQ++Mr7FS2bQIABUkABnJhdGluZ0kA"
+            + "CHJldmlld0lETAAEYm9va3QAE0xMaWJyYXJ5TW9kZWwvQm9vaztMAAhjb21tZW50c3EAfgAHTAAGbWVtYmVydAAVTExpYnJhcnlN"
+            + "b2RlbC9NZW1iZXI7eHAAAAAEAAAAAXB0AARHb29kcHh4";
+
+    @Test
+    public void testFileRepository_ReadsBooksWrittenInTheOldForm() throws Exception {
+        Path file = Files.createTempFile("books", ".dat");
+        Files.write(file, Base64.getDecoder().decode(OLD_BOOK_FILE));
+        FileRepository<Book> books = new FileRepository<>(file.toString());
+
+        Book book = books.get(1);
+        assertEquals("Dune", book.getBookName());
+        assertEquals(3, book.getCopiesAvailable());
+        assertTrue(book.tryTakeCopy());
+        assertEquals(1, book.getRatings().getCount());
+        assertEquals(4.0, book.getRatings().getAverage());
+
+        // Written back and read again in the current form
+        books.update(book);
+        assertEquals(2, books.get(1).getCopiesAvailable());
+        assertEquals(1, books.get(1).getRatings().getCount());
+    }
+
+    @Test
+    public void testFileRepository_UnreadableFileIsNotOverwritten() throws Exception {
+        Path file = Files.createTempFile("books", ".dat");
+        Files.write(file, new byte[]{1, 2, 3});
+        FileRepository<Book> books = new FileRepository<>(file.toString());
+
+        assertThrows(DatabaseException.class, () -> books.add(new Book(1, "Dune", null, true, null, null, 1)));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+    }
 
 }
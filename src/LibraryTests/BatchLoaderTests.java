@@ -0,0 +1,97 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import Exceptions.UncheckedDatabaseException;
+import LibraryRepository.DataBaseRepository.BatchLoader;
+import LibraryRepository.DataBaseRepository.LazyList;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchLoaderTests {
+
+    @Test
+    public void testLazyList_NothingIsReadUntilFirstUse() {
+        List<Set<Integer>> queries = new ArrayList<>();
+        BatchLoader<String> loader = new BatchLoader<>(parentIDs -> {
+            queries.add(Set.copyOf(parentIDs));
+            return Map.of();
+        });
+
+        LazyList<String> list = loader.lazyList(1);
+
+        assertFalse(list.isLoaded());
+        assertTrue(queries.isEmpty());
+        assertTrue(list.isEmpty());
+        assertTrue(list.isLoaded());
+        assertEquals(List.of(Set.of(1)), queries);
+    }
+
+    @Test
+    public void testLazyList_WaitingListsAreLoadedInBatches() {
+        List<Set<Integer>> queries = new ArrayList<>();
+        BatchLoader<String> loader = new BatchLoader<>(parentIDs -> {
+            queries.add(Set.copyOf(parentIDs));
+            Map<Integer, List<String>> children = new HashMap<>();
+            for (int parentID : parentIDs) {
+                children.put(parentID, List.of("child of " + parentID));
+            }
+            return children;
+        });
+        List<LazyList<String>> lists = new ArrayList<>();
+        for (int parentID = 1; parentID <= 250; parentID++) {
+            lists.add(loader.lazyList(parentID));
+        }
+
+        for (LazyList<String> list : lists) {
+            assertEquals(List.of("child of " + list.getParentID()), list);
+        }
+
+        assertEquals(3, queries.size());
+        assertEquals(BatchLoader.DEFAULT_BATCH_SIZE, queries.get(0).size());
+        assertEquals(BatchLoader.DEFAULT_BATCH_SIZE, queries.get(1).size());
+        assertEquals(50, queries.get(2).size());
+    }
+
+    @Test
+    public void testLazyList_CollectedListsStopWaiting() throws InterruptedException {
+        BatchLoader<String> loader = new BatchLoader<>(parentIDs -> Map.of());
+        for (int parentID = 1; parentID <= 1000; parentID++) {
+            loader.lazyList(parentID);
+        }
+        LazyList<String> kept = loader.lazyList(1001);
+
+        for (int attempt = 0; attempt < 50 && loader.getPendingCount() > 1; attempt++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, loader.getPendingCount());
+        assertTrue(kept.isEmpty());
+        assertEquals(0, loader.getPendingCount());
+    }
+
+    @Test
+    public void testLazyList_ChangesStayInTheList() {
+        BatchLoader<String> loader = new BatchLoader<>(parentIDs -> Map.of(1, List.of("a")));
+        LazyList<String> list = loader.lazyList(1);
+
+        list.add("b");
+        list.remove("a");
+
+        assertEquals(List.of("b"), list);
+    }
+
+    @Test
+    public void testLazyList_LoadErrorIsThrownUnchecked() {
+        BatchLoader<String> loader = new BatchLoader<>(parentIDs -> {
+            throw new DatabaseException("Database error occurred: connection lost");
+        });
+        LazyList<String> list = loader.lazyList(1);
+
+        UncheckedDatabaseException exception = assertThrows(UncheckedDatabaseException.class, list::size);
+        assertEquals("Database error occurred: connection lost", exception.getCause().getMessage());
+        assertFalse(list.isLoaded());
+    }
+}
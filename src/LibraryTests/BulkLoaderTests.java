@@ -0,0 +1,134 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import LibraryModel.*;
+import LibraryRepository.DataBaseRepository.BulkLoader;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import LibraryRepository.IRepository;
+import LibraryRepository.InMemoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the bulk loader against the PostgreSQL database given by the LIBRARY_TEST_DB_URL,
+ * LIBRARY_TEST_DB_USER and LIBRARY_TEST_DB_PASSWORD environment variables, in a schema that is
+ * dropped afterwards. The tests are skipped when no database is configured.
+ */
+class BulkLoaderTests {
+    private static final String SCHEMA = "bulk_loader_test";
+
+    private Connection connection;
+    private IRepository<Book> bookRepo;
+    private IRepository<Member> memberRepo;
+    private IRepository<Loan> loanRepo;
+    private IRepository<Reservation> reservationRepo;
+    private IRepository<Author> authorRepo;
+    private IRepository<Publisher> publisherRepo;
+    private IRepository<Category> categoryRepo;
+    private IRepository<Review> reviewRepo;
+    private IRepository<Staff> staffRepo;
+
+    @BeforeEach
+    public void setUp() throws SQLException, DatabaseException {
+        connection = DriverManager.getConnection(TestDatabase.url(), TestDatabase.user(), TestDatabase.password());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            statement.execute("CREATE SCHEMA " + SCHEMA);
+            statement.execute("SET search_path TO " + SCHEMA + ", public");
+        }
+        new SchemaMigrator(connection).migrate();
+
+        bookRepo = new InMemoryRepository<>();
+        memberRepo = new InMemoryRepository<>();
+        loanRepo = new InMemoryRepository<>();
+        reservationRepo = new InMemoryRepository<>();
+        authorRepo = new InMemoryRepository<>();
+        publisherRepo = new InMemoryRepository<>();
+        categoryRepo = new InMemoryRepository<>();
+        reviewRepo = new InMemoryRepository<>();
+        staffRepo = new InMemoryRepository<>();
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testLoad_CopiesAllTablesInForeignKeyOrder() throws DatabaseException, SQLException {
+        Author author = new Author(1, "Author, \"Quoted\"", "author@example.com", null);
+        authorRepo.add(author);
+        Category category = new Category(1, "Fiction", "Line one\nline two");
+        categoryRepo.add(category);
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        publisherRepo.add(publisher);
+        Book book = new Book(1, "Test Book", author, true, category, publisher, 3);
+        bookRepo.add(book);
+        staffRepo.add(new Staff(1, "Staff", "staff@example.com", "1234567890", "Librarian"));
+        for (int i = 1; i <= 2500; i++) {
+            Member member = new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890");
+            memberRepo.add(member);
+            loanRepo.add(new Loan(i, LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 15), LocalDate.of(2020, 1, 10), "RETURNED", book, member));
+        }
+        reservationRepo.add(new Reservation(1, LocalDate.of(2020, 2, 1), book, memberRepo.get(1)));
+        reviewRepo.add(new Review(1, 5, "", book, memberRepo.get(1)));
+
+        List<String> finishedTables = new ArrayList<>();
+        BulkLoader loader = new BulkLoader(connection, (table, rows, rowsPerSecond, done) -> {
+            if (done) {
+                finishedTables.add(table);
+            }
+        });
+        long rows = loader.load(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+
+        assertEquals(5008, rows);
+        assertEquals(List.of("Category", "Author", "Publisher", "Book", "AuthorBooks", "Member", "Staff", "Loan", "Reservation", "Review"), finishedTables);
+        assertEquals(2500, count("Loan"));
+        assertEquals("Author, \"Quoted\"", queryString("SELECT Name FROM Author WHERE ID = 1"));
+        assertNull(queryString("SELECT Phone_number FROM Author WHERE ID = 1"));
+        assertEquals("Line one\nline two", queryString("SELECT Description FROM Category WHERE ID = 1"));
+        assertEquals("", queryString("SELECT Comments FROM Review WHERE ID = 1"));
+    }
+
+    @Test
+    public void testLoad_FailedTableRollsBackTheWholeLoad() throws DatabaseException, SQLException {
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        authorRepo.add(author);
+        Book book = new Book(1, "Test Book", author, true, null, null, 3);
+        loanRepo.add(new Loan(1, LocalDate.of(2020, 1, 1), LocalDate.of(2020, 1, 15), null, "ACTIVE", book, new Member(1, "Member", "member@example.com", "1234567890")));
+
+        BulkLoader loader = new BulkLoader(connection, (table, rows, rowsPerSecond, done) -> { });
+
+        assertThrows(DatabaseException.class, () -> loader.load(bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo));
+        assertEquals(0, count("Author"));
+        assertTrue(connection.getAutoCommit());
+    }
+
+    private int count(String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private String queryString(String query) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+}
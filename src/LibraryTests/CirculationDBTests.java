@@ -0,0 +1,140 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import LibraryModel.Book;
+import LibraryModel.Loan;
+import LibraryRepository.DataBaseRepository.LocalInvalidationBus;
+import LibraryRepository.DataBaseRepository.ObjectDBRepositories.*;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import LibraryService.LibraryService;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs circulation against the PostgreSQL database given by the LIBRARY_TEST_DB_URL, LIBRARY_TEST_DB_USER and
+ * LIBRARY_TEST_DB_PASSWORD environment variables, in a schema that is dropped afterwards. The schema holds one
+ * book with one copy and two members.
+ */
+class CirculationDBTests {
+
+    private static final String SCHEMA = "circulation_test";
+
+    @FunctionalInterface
+    private interface SchemaTest {
+        void run(Connection connection) throws Exception;
+    }
+
+    @Test
+    public void testBorrowBook_ReservesWhenAnotherInstanceTookTheLastCopy() throws Exception {
+        inSchema(connection -> {
+            BookDBRepository books = new BookDBRepository(connection);
+            books.enableCache(new LocalInvalidationBus());
+            LibraryService libraryService = service(connection, books, new LoanDBRepository(connection));
+            assertTrue(books.get(1).isAvailable());
+
+            // Another instance takes the copy; the cached book still says it is available
+            try (Connection otherInstance = connect()) {
+                assertEquals(0, new BookDBRepository(otherInstance).takeCopy(1));
+            }
+
+            libraryService.borrowBook(1, 1);
+
+            assertEquals(0, count(connection, "Loan"));
+            assertEquals(1, count(connection, "Reservation"));
+            assertEquals(0, copies(connection));
+        });
+    }
+
+    @Test
+    public void testBorrowBook_FailedFlushLeavesTheCopyInTheStore() throws Exception {
+        inSchema(connection -> {
+            LoanDBRepository failingLoans = new LoanDBRepository(connection) {
+                @Override
+                public void saveChanges(List<Loan> added, List<Loan> updated, List<Integer> deleted) throws DatabaseException {
+                    throw new DatabaseException("Disk full.");
+                }
+            };
+            LibraryService libraryService = service(connection, new BookDBRepository(connection), failingLoans);
+
+            assertThrows(DatabaseException.class, () -> libraryService.borrowBook(1, 1));
+
+            assertEquals(1, copies(connection));
+            assertEquals(0, count(connection, "Loan"));
+        });
+    }
+
+    @Test
+    public void testUpdateBook_WritingBackAnOldReadKeepsTheCopies() throws Exception {
+        inSchema(connection -> {
+            BookDBRepository books = new BookDBRepository(connection);
+            Book book = books.get(1);
+            assertEquals(0, books.takeCopy(1));
+
+            book.setBookName("Dune Messiah");
+            books.update(book);
+
+            assertEquals(0, copies(connection));
+            assertEquals("Dune Messiah", books.get(1).getBookName());
+        });
+    }
+
+    private LibraryService service(Connection connection, BookDBRepository books, LoanDBRepository loans) {
+        return new LibraryService(books, loans, new ReservationDBRepository(connection), new CategoryDBRepository(connection),
+                new MemberDBRepository(connection), new ReviewDBRepository(connection), new AuthorDBRepository(connection),
+                new PublisherDBRepository(connection), new StaffDBRepository(connection));
+    }
+
+    private void inSchema(SchemaTest test) throws Exception {
+        try (Connection connection = connect()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+                statement.execute("CREATE SCHEMA " + SCHEMA);
+                statement.execute("SET search_path TO " + SCHEMA + ", public");
+            }
+            try {
+                new SchemaMigrator(connection).migrate();
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("INSERT INTO Category (ID, Name, Description) VALUES (1, 'Fiction', 'Novels')");
+                    statement.execute("INSERT INTO Author (ID, Name, Email, Phone_number) VALUES (1, 'Frank Herbert', 'frank@example.com', '1')");
+                    statement.execute("INSERT INTO Publisher (ID, Name, Email, Phone_number) VALUES (1, 'Chilton', 'chilton@example.com', '2')");
+                    statement.execute("INSERT INTO Book (ID, Title, ID_author, Is_available, ID_category, ID_publisher, Copies_available) " +
+                            "VALUES (1, 'Dune', 1, TRUE, 1, 1, 1)");
+                    statement.execute("INSERT INTO Member (ID, Name, Email, Phone_number) VALUES (1, 'Paul', 'paul@example.com', '3')");
+                    statement.execute("INSERT INTO Member (ID, Name, Email, Phone_number) VALUES (2, 'Jessica', 'jessica@example.com', '4')");
+                }
+                test.run(connection);
+            } finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+                }
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(TestDatabase.url(), TestDatabase.user(), TestDatabase.password());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET search_path TO " + SCHEMA + ", public");
+        }
+        return connection;
+    }
+
+    private int copies(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT Copies_available FROM Book WHERE ID = 1")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private int count(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package LibraryTests;
+
+import Exceptions.BusinessLogicException;
+import Exceptions.DatabaseException;
+import Exceptions.EntityNotFoundException;
+import LibraryModel.*;
+import LibraryModel.CirculationEvent.*;
+import LibraryRepository.EventRepository.CirculationEventStore;
+import LibraryRepository.IRepository;
+import LibraryRepository.InMemoryRepository;
+import LibraryService.LibraryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CirculationEventStoreTests {
+
+    private Path directory;
+    private IRepository<Book> bookRepo;
+    private IRepository<Member> memberRepo;
+    private Book book;
+
+    @BeforeEach
+    public void setUp() throws IOException, DatabaseException {
+        directory = Files.createTempDirectory("circulation");
+        bookRepo = new InMemoryRepository<>();
+        memberRepo = new InMemoryRepository<>();
+        Author author = new Author(1, "Author", "author@example.com", "1234567890");
+        Category category = new Category(1, "Fiction", "Fictional books");
+        Publisher publisher = new Publisher(1, "Publisher", "publisher@example.com", "0987654321");
+        book = new Book(1, "Book", author, true, category, publisher, 1);
+        bookRepo.add(book);
+        for (int i = 1; i <= 3; i++) {
+            memberRepo.add(new Member(i, "Member " + i, "member" + i + "@example.com", "1234567890"));
+        }
+    }
+
+    private LibraryService service(CirculationEventStore store) {
+        return new LibraryService(bookRepo, store.loans(), store.reservations(), new InMemoryRepository<>(), memberRepo,
+                new InMemoryRepository<>(), new InMemoryRepository<>(), new InMemoryRepository<>(), new InMemoryRepository<>());
+    }
+
+    private List<CirculationEvent> history(CirculationEventStore store) throws DatabaseException {
+        List<CirculationEvent> events = new ArrayList<>();
+        store.replay(events::add);
+        return events;
+    }
+
+    @Test
+    public void testCirculation_RecordedAsEvents() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, bookRepo, memberRepo)) {
+            LibraryService libraryService = service(store);
+
+            libraryService.borrowBook(1, 1);
+            libraryService.borrowBook(2, 1);
+            int loanID = store.loans().getAll().getFirst().getID();
+            libraryService.returnBook(loanID);
+
+            List<CirculationEvent> events = history(store);
+            LocalDate today = LocalDate.now();
+            int reservationID = ((ReservationPlaced) events.get(1)).reservationID();
+            int handOffID = ((LoanCreated) events.get(2)).loanID();
+            // The return is one batch: its new loans are written before its changed loans
+            assertEquals(List.of(
+                    new LoanCreated(loanID, 1, 1, today, libraryService.calculateDueDate()),
+                    new ReservationPlaced(reservationID, 1, 2, today),
+                    new LoanCreated(handOffID, 1, 2, today, libraryService.calculateDueDate()),
+                    new LoanReturned(loanID, today),
+                    new ReservationFulfilled(reservationID, handOffID)), events);
+            assertEquals(5, store.getSequence());
+
+            Loan handOff = store.loans().get(handOffID);
+            assertEquals("ACTIVE", handOff.getStatus());
+            assertSame(book, handOff.getBook());
+            assertEquals(2, handOff.getMember().getID());
+            assertTrue(store.reservations().getAll().isEmpty());
+            assertEquals("RETURNED", store.loans().get(loanID).getStatus());
+        }
+    }
+
+    @Test
+    public void testUpdate_WritesOnlyTheChange() throws DatabaseException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, bookRepo, memberRepo)) {
+            LocalDate loanDate = LocalDate.now().minusDays(20);
+            Loan loan = new Loan(1, loanDate, loanDate.plusDays(14), null, "ACTIVE", book, memberRepo.get(1));
+            store.loans().add(loan);
+
+            store.loans().update(loan);
+            loan.setStatus("OVERDUE");
+            store.loans().update(loan);
+            loan.setDueDate(LocalDate.now().plusDays(7));
+            store.loans().update(loan);
+            store.loans().delete(1);
+
+            assertEquals(List.of(
+                    new LoanCreated(1, 1, 1, loanDate, loanDate.plusDays(14)),
+                    new LoanMarkedOverdue(1),
+                    new LoanRevised(1, 1, 1, loanDate, LocalDate.now().plusDays(7), null, "OVERDUE"),
+                    new LoanDeleted(1)), history(store));
+            assertNull(store.loans().get(1));
+        }
+    }
+
+    @Test
+    public void testRecovery_FromSnapshotAndLogTail() throws DatabaseException, IOException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, 3, bookRepo, memberRepo)) {
+            for (int i = 1; i <= 5; i++) {
+                store.loans().add(new Loan(i, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", book, memberRepo.get(1 + i % 3)));
+            }
+            store.reservations().add(new Reservation(1, LocalDate.now(), book, memberRepo.get(3)));
+            Loan returned = store.loans().get(2);
+            returned.setStatus("RETURNED");
+            returned.setReturnDate(LocalDate.now());
+            store.loans().update(returned);
+        }
+        assertTrue(Files.exists(directory.resolve("circulation.snapshot")));
+
+        // An event cut off in the middle of its write is dropped
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve("circulation.log").toFile(), "rw")) {
+            log.seek(log.length());
+            log.writeInt(1000);
+            log.write(new byte[10]);
+        }
+
+        try (CirculationEventStore store = new CirculationEventStore(directory, 3, bookRepo, memberRepo)) {
+            assertEquals(7, store.getSequence());
+            assertEquals(5, store.loans().getAll().size());
+            assertEquals("RETURNED", store.loans().get(2).getStatus());
+            assertEquals(3, store.reservations().get(1).getMember().getID());
+
+            store.loans().delete(5);
+        }
+        try (CirculationEventStore store = new CirculationEventStore(directory, 3, bookRepo, memberRepo)) {
+            assertEquals(8, store.getSequence());
+            assertEquals(List.of(1, 2, 3, 4), store.loans().getAll().stream().map(Loan::getID).toList());
+        }
+    }
+
+    @Test
+    public void testRecovery_CorruptEventIsNotTreatedAsTornTail() throws DatabaseException, IOException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, bookRepo, memberRepo)) {
+            for (int i = 1; i <= 3; i++) {
+                store.loans().add(new Loan(i, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", book, memberRepo.get(i)));
+            }
+        }
+        Path logPath = directory.resolve("circulation.log");
+        long logLength = Files.size(logPath);
+
+        // The first event is complete but its serialized form is damaged
+        try (RandomAccessFile log = new RandomAccessFile(logPath.toFile(), "rw")) {
+            log.seek(Integer.BYTES);
+            log.writeShort(0);
+        }
+
+        assertThrows(DatabaseException.class, () -> new CirculationEventStore(directory, bookRepo, memberRepo));
+        assertEquals(logLength, Files.size(logPath));
+    }
+
+    @Test
+    public void testRecovery_UnreadableSnapshotIsReported() throws DatabaseException, IOException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, bookRepo, memberRepo)) {
+            store.loans().add(new Loan(1, LocalDate.now(), LocalDate.now().plusDays(14), null, "ACTIVE", book, memberRepo.get(1)));
+            store.snapshot();
+        }
+        Files.write(directory.resolve("circulation.snapshot"), new byte[]{1, 2, 3});
+
+        assertThrows(DatabaseException.class, () -> new CirculationEventStore(directory, bookRepo, memberRepo));
+    }
+
+    @Test
+    public void testReplay_BuildsNewReadModel() throws DatabaseException, EntityNotFoundException, BusinessLogicException {
+        try (CirculationEventStore store = new CirculationEventStore(directory, bookRepo, memberRepo)) {
+            LibraryService libraryService = service(store);
+            for (int i = 0; i < 3; i++) {
+                libraryService.borrowBook(1, 1);
+                libraryService.returnBook(store.loans().getAll().getLast().getID());
+            }
+            libraryService.borrowBook(2, 1);
+
+            // Loans per member, folded from the history rather than read from the current state
+            Map<Integer, Integer> loansPerMember = new HashMap<>();
+            store.replay(event -> {
+                if (event instanceof LoanCreated created) {
+                    loansPerMember.merge(created.memberID(), 1, Integer::sum);
+                }
+            });
+
+            assertEquals(Map.of(1, 3, 2, 1), loansPerMember);
+        }
+    }
+}
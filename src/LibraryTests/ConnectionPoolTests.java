@@ -0,0 +1,194 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import LibraryModel.Category;
+import LibraryRepository.DataBaseRepository.ConnectionPool;
+import LibraryRepository.DataBaseRepository.ObjectDBRepositories.CategoryDBRepository;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTests {
+
+    /**
+     * A fake database connection that records what is done on it.
+     */
+    private static class FakeConnection {
+        private final String name;
+        private final List<String> log;
+        private boolean autoCommit = true;
+        private final Connection connection;
+
+        FakeConnection(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+            this.connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "prepareStatement" -> statement((String) args[0]);
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                case "commit", "rollback" -> {
+                    log.add(name + ": " + method.getName());
+                    yield null;
+                }
+                case "isClosed" -> false;
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                default -> null;
+            });
+        }
+
+        private PreparedStatement statement(String sql) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                if (method.getName().startsWith("execute")) {
+                    log.add(name + ": " + sql);
+                }
+                return method.getName().equals("executeUpdate") ? 1 : null;
+            });
+        }
+    }
+
+    @Test
+    public void testPool_EachTransactionHasItsOwnConnection() throws Exception {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        FakeConnection shared = new FakeConnection("shared", log);
+        List<FakeConnection> opened = new ArrayList<>();
+        ConnectionPool pool = new ConnectionPool(shared.connection, () -> {
+            FakeConnection connection = new FakeConnection("tx" + (opened.size() + 1), log);
+            opened.add(connection);
+            return connection.connection;
+        });
+        Connection connection = pool.getConnection();
+
+        try (ConnectionPool.Transaction transaction = pool.begin()) {
+            assertTrue(pool.inTransaction());
+            connection.prepareStatement("UPDATE Book SET Title = 'a'").executeUpdate();
+            // Another thread is not part of the transaction: its statement runs on the shared connection
+            CompletableFuture.runAsync(() -> {
+                try {
+                    assertFalse(pool.inTransaction());
+                    connection.prepareStatement("UPDATE Book SET Title = 'b'").executeUpdate();
+                    try (ConnectionPool.Transaction other = pool.begin()) {
+                        connection.prepareStatement("UPDATE Book SET Title = 'c'").executeUpdate();
+                        other.rollback();
+                    }
+                } catch (SQLException | DatabaseException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).get(5, TimeUnit.SECONDS);
+            transaction.commit();
+        }
+        assertFalse(pool.inTransaction());
+        assertTrue(shared.autoCommit);
+
+        try (ConnectionPool.Transaction transaction = pool.begin()) {
+            connection.prepareStatement("UPDATE Book SET Title = 'd'").executeUpdate();
+            transaction.commit();
+        }
+
+        assertEquals(List.of(
+                "tx1: UPDATE Book SET Title = 'a'",
+                "shared: UPDATE Book SET Title = 'b'",
+                "tx2: UPDATE Book SET Title = 'c'",
+                "tx2: rollback",
+                "tx1: commit",
+                "tx1: UPDATE Book SET Title = 'd'",
+                "tx1: commit"), log);
+        assertEquals(2, opened.size());
+        assertTrue(opened.stream().allMatch(fake -> fake.autoCommit));
+    }
+
+    @Test
+    public void testPool_SingleConnectionMakesOtherThreadsWait() throws Exception {
+        List<String> log = Collections.synchronizedList(new ArrayList<>());
+        FakeConnection shared = new FakeConnection("shared", log);
+        ConnectionPool pool = ConnectionPool.of(shared.connection);
+        Connection connection = pool.getConnection();
+        assertSame(pool, ConnectionPool.of(connection));
+
+        CompletableFuture<Void> otherWrite;
+        try (ConnectionPool.Transaction transaction = pool.begin()) {
+            connection.prepareStatement("UPDATE Book SET Title = 'a'").executeUpdate();
+            otherWrite = CompletableFuture.runAsync(() -> {
+                try {
+                    connection.prepareStatement("UPDATE Book SET Title = 'b'").executeUpdate();
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> otherWrite.get(200, TimeUnit.MILLISECONDS));
+            transaction.rollback();
+        }
+        otherWrite.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("shared: UPDATE Book SET Title = 'a'", "shared: rollback", "shared: UPDATE Book SET Title = 'b'"), log);
+        assertTrue(shared.autoCommit);
+    }
+
+    /**
+     * Streams a table of the PostgreSQL database given by the LIBRARY_TEST_DB_URL, LIBRARY_TEST_DB_USER and
+     * LIBRARY_TEST_DB_PASSWORD environment variables, in a schema that is dropped afterwards. Writes made while
+     * the stream is open must be committed at once, not when the stream is closed.
+     */
+    @Test
+    public void testPool_OpenStreamDoesNotHoldBackWrites() throws Exception {
+        String url = TestDatabase.url();
+        String user = TestDatabase.user();
+        String password = TestDatabase.password();
+        String schema = "connection_pool_test";
+
+        try (Connection observer = DriverManager.getConnection(url, user, password)) {
+            try (Statement statement = observer.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+                statement.execute("CREATE SCHEMA " + schema);
+                statement.execute("SET search_path TO " + schema + ", public");
+            }
+            try {
+                new SchemaMigrator(observer).migrate();
+                ConnectionPool.ConnectionFactory factory = () -> {
+                    Connection connection = DriverManager.getConnection(url, user, password);
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET search_path TO " + schema + ", public");
+                    }
+                    return connection;
+                };
+                try (ConnectionPool pool = new ConnectionPool(factory.open(), factory)) {
+                    CategoryDBRepository categories = new CategoryDBRepository(pool.getConnection());
+                    categories.setFetchSize(1);
+                    categories.add(new Category(1, "Fiction", "Novels"));
+                    categories.add(new Category(2, "Poetry", "Poems"));
+
+                    try (Stream<Category> stream = categories.streamAll()) {
+                        assertTrue(stream.iterator().hasNext());
+                        categories.add(new Category(3, "Drama", "Plays"));
+                        assertEquals(3, count(observer));
+                    }
+                }
+            } finally {
+                try (Statement statement = observer.createStatement()) {
+                    statement.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+                }
+            }
+        }
+    }
+
+    private int count(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM Category")) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package LibraryTests;
+import LibraryRepository.DataBaseRepository.ConnectionRouter;
+import LibraryRepository.ReadRouting;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionRouterTests {
+
+    /**
+     * A fake database connection that records the statements prepared on it and the parameters set on them.
+     */
+    private static class FakeDatabase {
+        private final List<String> statements = new ArrayList<>();
+        private final List<Object> parameters = new ArrayList<>();
+        private final long queryMillis;
+        private final boolean available;
+        private boolean failQueries;
+        private double lagSeconds;
+        private boolean autoCommit = true;
+        private final Connection connection;
+
+        FakeDatabase(long queryMillis, boolean available) {
+            this.queryMillis = queryMillis;
+            this.available = available;
+            this.connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "prepareStatement" -> {
+                    if (!this.available) {
+                        throw new SQLException("Connection refused.");
+                    }
+                    String sql = (String) args[0];
+                    if (sql.contains("pg_last_wal_replay_lsn")) {
+                        yield lagStatement();
+                    }
+                    statements.add(sql);
+                    yield statement();
+                }
+                case "getAutoCommit" -> autoCommit;
+                case "setAutoCommit" -> {
+                    autoCommit = (Boolean) args[0];
+                    yield null;
+                }
+                default -> null;
+            });
+        }
+
+        FakeDatabase() {
+            this(0, true);
+        }
+
+        private PreparedStatement statement() {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                if (method.getName().equals("executeQuery")) {
+                    if (failQueries) {
+                        throw new SQLException("Connection reset.");
+                    }
+                    Thread.sleep(queryMillis);
+                }
+                if (method.getName().equals("setInt")) {
+                    parameters.add(args[1]);
+                }
+                return null;
+            });
+        }
+
+        private PreparedStatement lagStatement() {
+            ResultSet lag = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "next" -> true;
+                case "getDouble" -> lagSeconds;
+                default -> null;
+            });
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> method.getName().equals("executeQuery") ? lag : null);
+        }
+    }
+
+    @Test
+    public void testRouter_RoundRobinReadsAndPrimaryWrites() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase replica1 = new FakeDatabase();
+        FakeDatabase replica2 = new FakeDatabase();
+        Connection connection = new ConnectionRouter(primary.connection, List.of(replica1.connection, replica2.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ZERO).getConnection();
+
+        connection.prepareStatement("SELECT * FROM Book WHERE ID = ?");
+        connection.prepareStatement("SELECT * FROM Book");
+        connection.prepareStatement("  select * from Loan");
+        connection.prepareStatement("SELECT * FROM Book WHERE ID = ? FOR UPDATE");
+
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = ?", "  select * from Loan"), replica1.statements);
+        assertEquals(List.of("SELECT * FROM Book"), replica2.statements);
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = ? FOR UPDATE"), primary.statements);
+    }
+
+    @Test
+    public void testRouter_ReadYourWritesKeepsReadsOnPrimary() throws Exception {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase replica = new FakeDatabase();
+        Connection connection = new ConnectionRouter(primary.connection, List.of(replica.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ofMinutes(1)).getConnection();
+
+        // A thread that has not written yet
+        onNewThread(() -> {
+            connection.prepareStatement("SELECT * FROM Book");
+            connection.prepareStatement("UPDATE Book SET Title = ? WHERE ID = ?");
+            connection.prepareStatement("SELECT * FROM Book WHERE ID = ?");
+            // Work handed over by the thread that wrote reads its writes too
+            ReadRouting.propagate(() -> connection.prepareStatement("SELECT * FROM Loan")).call();
+            return null;
+        });
+
+        assertEquals(List.of("SELECT * FROM Book"), replica.statements);
+        assertEquals(List.of("UPDATE Book SET Title = ? WHERE ID = ?", "SELECT * FROM Book WHERE ID = ?", "SELECT * FROM Loan"), primary.statements);
+    }
+
+    @Test
+    public void testRouter_TransactionsAndPinnedSessionsStayOnPrimary() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase replica = new FakeDatabase();
+        ConnectionRouter router = new ConnectionRouter(primary.connection, List.of(replica.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ZERO);
+        Connection connection = router.getConnection();
+
+        connection.setAutoCommit(false);
+        connection.prepareStatement("SELECT * FROM Book WHERE ID = 1");
+        connection.setAutoCommit(true);
+        ReadRouting.pinToPrimary();
+        try {
+            connection.prepareStatement("SELECT * FROM Book WHERE ID = 2");
+        } finally {
+            ReadRouting.unpinFromPrimary();
+        }
+        connection.prepareStatement("SELECT * FROM Book WHERE ID = 3");
+
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = 1", "SELECT * FROM Book WHERE ID = 2"), primary.statements);
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = 3"), replica.statements);
+    }
+
+    @Test
+    public void testRouter_LeastLatencyPrefersFasterReplica() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase slowReplica = new FakeDatabase(20, true);
+        FakeDatabase fastReplica = new FakeDatabase(0, true);
+        ConnectionRouter router = new ConnectionRouter(primary.connection, List.of(slowReplica.connection, fastReplica.connection),
+                ConnectionRouter.Selection.LEAST_LATENCY, Duration.ZERO);
+        Connection connection = router.getConnection();
+
+        for (int i = 0; i < 10; i++) {
+            connection.prepareStatement("SELECT * FROM Book").executeQuery();
+        }
+
+        assertEquals(1, slowReplica.statements.size());
+        assertEquals(9, fastReplica.statements.size());
+        assertTrue(router.getAverageLatencyNanos(0) > router.getAverageLatencyNanos(1));
+    }
+
+    @Test
+    public void testRouter_UnavailableReplicaFallsBackToPrimary() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase replica = new FakeDatabase(0, false);
+        Connection connection = new ConnectionRouter(primary.connection, List.of(replica.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ZERO).getConnection();
+
+        connection.prepareStatement("SELECT * FROM Book");
+
+        assertEquals(List.of("SELECT * FROM Book"), primary.statements);
+    }
+
+    @Test
+    public void testRouter_ReplicaFailingToRunReadFallsBackToPrimary() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase replica = new FakeDatabase();
+        replica.failQueries = true;
+        ConnectionRouter router = new ConnectionRouter(primary.connection, List.of(replica.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ZERO);
+        Connection connection = router.getConnection();
+
+        PreparedStatement statement = connection.prepareStatement("SELECT * FROM Book WHERE ID = ?");
+        statement.setInt(1, 7);
+        statement.executeQuery();
+        connection.prepareStatement("SELECT * FROM Loan");
+
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = ?"), replica.statements);
+        assertEquals(List.of("SELECT * FROM Book WHERE ID = ?", "SELECT * FROM Loan"), primary.statements);
+        assertEquals(List.of(7), primary.parameters);
+        assertFalse(router.isReplicaAvailable(0));
+    }
+
+    @Test
+    public void testRouter_LaggingReplicaIsLeftOut() throws SQLException {
+        FakeDatabase primary = new FakeDatabase();
+        FakeDatabase laggingReplica = new FakeDatabase();
+        FakeDatabase currentReplica = new FakeDatabase();
+        laggingReplica.lagSeconds = 30;
+        ConnectionRouter router = new ConnectionRouter(primary.connection, List.of(laggingReplica.connection, currentReplica.connection),
+                ConnectionRouter.Selection.ROUND_ROBIN, Duration.ZERO, Duration.ofSeconds(5));
+        Connection connection = router.getConnection();
+
+        for (int i = 0; i < 4; i++) {
+            connection.prepareStatement("SELECT * FROM Book");
+        }
+
+        assertEquals(List.of(), laggingReplica.statements);
+        assertEquals(4, currentReplica.statements.size());
+        assertFalse(router.isReplicaAvailable(0));
+        assertTrue(router.isReplicaAvailable(1));
+    }
+
+    /**
+     * Routes between two real databases given by the LIBRARY_TEST_DB_URL and LIBRARY_TEST_REPLICA_URL environment
+     * variables (with LIBRARY_TEST_DB_USER and LIBRARY_TEST_DB_PASSWORD). The two databases are independent,
+     * so a row written through the router is only visible while reads stay on the primary.
+     */
+    @Test
+    public void testRouter_TwoDatabaseInstances() throws SQLException {
+        String primaryUrl = TestDatabase.url();
+        String replicaUrl = TestDatabase.replicaUrl();
+        String user = TestDatabase.user();
+        String password = TestDatabase.password();
+
+        try (Connection primary = DriverManager.getConnection(primaryUrl, user, password);
+             Connection replica = DriverManager.getConnection(replicaUrl, user, password)) {
+            for (Connection database : List.of(primary, replica)) {
+                try (Statement statement = database.createStatement()) {
+                    statement.execute("CREATE TEMPORARY TABLE Router_test (ID INT PRIMARY KEY)");
+                }
+            }
+            ConnectionRouter router = new ConnectionRouter(primary, List.of(replica), ConnectionRouter.Selection.ROUND_ROBIN, Duration.ofMillis(200));
+            Connection connection = router.getConnection();
+
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Router_test (ID) VALUES (1)")) {
+                insert.executeUpdate();
+            }
+            assertEquals(1, count(connection));
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertEquals(0, count(connection));
+        }
+    }
+
+    private void onNewThread(Callable<Void> test) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(test).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private int count(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM Router_test");
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import LibraryModel.Book;
+import LibraryModel.Category;
+import LibraryRepository.DataBaseRepository.EntityCache;
+import LibraryRepository.DataBaseRepository.LocalInvalidationBus;
+import LibraryRepository.DataBaseRepository.ObjectDBRepositories.BookDBRepository;
+import LibraryRepository.DataBaseRepository.PostgresInvalidationBus;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvalidationBusTests {
+
+    @Test
+    public void testEntityCache_ChangeNoticeEvictsOnEveryInstance() throws DatabaseException {
+        LocalInvalidationBus bus = new LocalInvalidationBus();
+        EntityCache<Category> node1 = EntityCache.subscribe("Category", bus);
+        EntityCache<Category> node2 = EntityCache.subscribe("Category", bus);
+        AtomicInteger reads = new AtomicInteger();
+        EntityCache.Loader<Category> loader = id -> {
+            reads.incrementAndGet();
+            return new Category(id, "Fiction", "Novels");
+        };
+
+        node1.get(1, loader);
+        node1.get(1, loader);
+        node2.get(1, loader);
+        assertEquals(2, reads.get());
+
+        bus.publish("Book", 1);
+        assertEquals(1, node1.size());
+        assertEquals(1, node2.size());
+
+        bus.publish("CATEGORY", 1);
+        assertEquals(0, node1.size());
+        assertEquals(0, node2.size());
+        node1.get(1, loader);
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void testEntityCache_MissingEntitiesAreNotCached() throws DatabaseException {
+        EntityCache<Category> cache = EntityCache.subscribe("Category", new LocalInvalidationBus());
+        AtomicInteger reads = new AtomicInteger();
+
+        assertNull(cache.get(1, id -> {
+            reads.incrementAndGet();
+            return null;
+        }));
+        assertNotNull(cache.get(1, id -> {
+            reads.incrementAndGet();
+            return new Category(id, "Fiction", "Novels");
+        }));
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testEntityCache_EntityReadDuringEvictionIsNotStored() throws DatabaseException {
+        LocalInvalidationBus bus = new LocalInvalidationBus();
+        EntityCache<Category> cache = EntityCache.subscribe("Category", bus);
+
+        Category category = cache.get(1, id -> {
+            bus.publish("Category", id);
+            return new Category(id, "Fiction", "Novels");
+        });
+
+        assertNotNull(category);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEntityCache_InvalidateAllDropsEverything() throws DatabaseException {
+        EntityCache<Category> cache = EntityCache.subscribe("Category", new LocalInvalidationBus());
+        cache.get(1, id -> new Category(id, "Fiction", "Novels"));
+        cache.get(2, id -> new Category(id, "History", "Non-fiction"));
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Runs two instances against the PostgreSQL database given by the LIBRARY_TEST_DB_URL, LIBRARY_TEST_DB_USER and
+     * LIBRARY_TEST_DB_PASSWORD environment variables, in a schema that is dropped afterwards. One instance caches a
+     * book; the other takes a copy of it, and the trigger's notice must evict the cached book.
+     */
+    @Test
+    public void testPostgresInvalidationBus_CopyTakenOnAnotherInstanceEvictsCachedBook() throws Exception {
+        String url = TestDatabase.url();
+        String user = TestDatabase.user();
+        String password = TestDatabase.password();
+        String schema = "invalidation_bus_test";
+
+        try (Connection node1 = DriverManager.getConnection(url, user, password);
+             Connection node2 = DriverManager.getConnection(url, user, password)) {
+            try (Statement statement = node1.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+                statement.execute("CREATE SCHEMA " + schema);
+                statement.execute("SET search_path TO " + schema + ", public");
+            }
+            try (Statement statement = node2.createStatement()) {
+                statement.execute("SET search_path TO " + schema + ", public");
+            }
+            try {
+                new SchemaMigrator(node1).migrate();
+                try (Statement statement = node1.createStatement()) {
+                    statement.execute("INSERT INTO Category (ID, Name, Description) VALUES (1, 'Fiction', 'Novels')");
+                    statement.execute("INSERT INTO Author (ID, Name, Email, Phone_number) VALUES (1, 'Frank Herbert', 'frank@example.com', '1')");
+                    statement.execute("INSERT INTO Publisher (ID, Name, Email, Phone_number) VALUES (1, 'Chilton', 'chilton@example.com', '2')");
+                    statement.execute("INSERT INTO Book (ID, Title, ID_author, Is_available, ID_category, ID_publisher, Copies_available) " +
+                            "VALUES (1, 'Dune', 1, TRUE, 1, 1, 2)");
+                }
+                // Listen only once the rows are written, so the notices of the inserts cannot evict the cached book
+                try (PostgresInvalidationBus bus = new PostgresInvalidationBus(url, user, password)) {
+                    BookDBRepository cachedBooks = new BookDBRepository(node1);
+                    cachedBooks.enableCache(bus);
+                    Book cached = cachedBooks.get(1);
+                    assertEquals(2, cached.getCopiesAvailable());
+                    assertEquals(1, cachedBooks.getCache().size());
+
+                    // Every read gets its own book: changing one does not change the cache
+                    cached.setBookName("Changed in memory");
+                    assertNotSame(cached, cachedBooks.get(1));
+                    assertEquals("Dune", cachedBooks.get(1).getBookName());
+
+                    assertEquals(1, new BookDBRepository(node2).takeCopy(1));
+
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (cachedBooks.getCache().size() > 0 && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(20);
+                    }
+                    assertEquals(0, cachedBooks.getCache().size());
+                    assertEquals(1, cachedBooks.get(1).getCopiesAvailable());
+                }
+            } finally {
+                dropSchema(node1, schema);
+            }
+        }
+    }
+
+    private void dropSchema(Connection connection, String schema) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package LibraryTests;
+import Exceptions.DatabaseException;
+import LibraryRepository.DataBaseRepository.SchemaMigrator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the schema migrations against a PostgreSQL database given by the LIBRARY_TEST_DB_URL,
+ * LIBRARY_TEST_DB_USER and LIBRARY_TEST_DB_PASSWORD environment variables, in a schema that is
+ * dropped afterwards. The tests are skipped when no database is configured, see {@link TestDatabase}.
+ */
+class SchemaMigratorTests {
+    private static final String SCHEMA = "schema_migrator_test";
+
+    private Connection connection;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(TestDatabase.url(), TestDatabase.user(), TestDatabase.password());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            statement.execute("CREATE SCHEMA " + SCHEMA);
+            statement.execute("SET search_path TO " + SCHEMA + ", public");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testMigrate_AppliesEachMigrationOnce() throws DatabaseException {
+        SchemaMigrator migrator = new SchemaMigrator(connection);
+
+        assertEquals(0, migrator.getCurrentVersion());
+        assertEquals(SchemaMigrator.getLatestVersion(), migrator.migrate());
+        assertEquals(SchemaMigrator.getLatestVersion(), migrator.getCurrentVersion());
+        assertEquals(0, migrator.migrate());
+    }
+
+    @Test
+    public void testMigrate_AccessPathsUseIndexes() throws DatabaseException, SQLException {
+        new SchemaMigrator(connection).migrate();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET enable_seqscan = off");
+        }
+
+        assertTrue(plan("SELECT * FROM Loan WHERE ID_member = 1 AND Status = 'ACTIVE'").contains("idx_loan_member_status"));
+        assertTrue(plan("SELECT * FROM Loan WHERE Status = 'ACTIVE' AND Due_date < CURRENT_DATE").contains("idx_loan_active_due_date"));
+        assertTrue(plan("SELECT * FROM Reservation WHERE ID_book = 1 ORDER BY Reservation_date").contains("idx_reservation_book_date"));
+        assertTrue(plan("SELECT * FROM Book WHERE ID_author = 1").contains("idx_book_author"));
+        assertTrue(plan("SELECT * FROM Book WHERE ID_category = 1").contains("idx_book_category"));
+        assertTrue(plan("SELECT * FROM Book WHERE Title ILIKE '%dune%'").contains("idx_book_title_trgm"));
+        assertTrue(plan("SELECT * FROM Member WHERE lower(Email) = 'john@example.com'").contains("uq_member_email_lower"));
+    }
+
+    @Test
+    public void testMigrate_MemberEmailIsUnique() throws DatabaseException, SQLException {
+        new SchemaMigrator(connection).migrate();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO Member (ID, Name, Email, Phone_number) VALUES (1, 'John Doe', 'john@example.com', '1234567890')");
+
+            assertThrows(SQLException.class, () -> statement.execute(
+                    "INSERT INTO Member (ID, Name, Email, Phone_number) VALUES (2, 'Jane Doe', 'john@example.com', '0987654321')"));
+            assertThrows(SQLException.class, () -> statement.execute(
+                    "INSERT INTO Member (ID, Name, Email, Phone_number) VALUES (3, 'Jim Doe', 'John@Example.com', '0987654322')"));
+        }
+    }
+
+    @Test
+    public void testMigrate_ReviewsKeepRatingAggregatesOfBook() throws DatabaseException, SQLException {
+        new SchemaMigrator(connection).migrate();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO Author (ID, Name) VALUES (1, 'Author')");
+            statement.execute("INSERT INTO Book (ID, Title, ID_author, Is_available, Copies_available) VALUES (1, 'Dune', 1, TRUE, 1)");
+            statement.execute("INSERT INTO Member (ID, Name, Email) VALUES (1, 'John Doe', 'john@example.com')");
+            statement.execute("INSERT INTO Review (ID, Rating, ID_book, ID_member) VALUES (1, 5, 1, 1), (2, 3, 1, 1), (3, 5, 1, 1)");
+            statement.execute("UPDATE Review SET Rating = 4 WHERE ID = 2");
+            statement.execute("DELETE FROM Review WHERE ID = 3");
+
+            assertThrows(SQLException.class, () -> statement.execute("INSERT INTO Review (ID, Rating, ID_book, ID_member) VALUES (4, 6, 1, 1)"));
+            try (ResultSet resultSet = statement.executeQuery(
+                    "SELECT Rating_count, Rating_sum, Rating_1, Rating_2, Rating_3, Rating_4, Rating_5 FROM Book WHERE ID = 1")) {
+                assertTrue(resultSet.next());
+                assertEquals(2, resultSet.getInt("Rating_count"));
+                assertEquals(9, resultSet.getLong("Rating_sum"));
+                assertEquals(0, resultSet.getInt("Rating_3"));
+                assertEquals(1, resultSet.getInt("Rating_4"));
+                assertEquals(1, resultSet.getInt("Rating_5"));
+            }
+        }
+    }
+
+    private String plan(String query) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN " + query)) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
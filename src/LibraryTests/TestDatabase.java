@@ -0,0 +1,64 @@
+package LibraryTests;
+
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The PostgreSQL databases the database tests run against, given by the LIBRARY_TEST_DB_URL,
+ * LIBRARY_TEST_REPLICA_URL, LIBRARY_TEST_DB_USER and LIBRARY_TEST_DB_PASSWORD environment variables.
+ * <p>
+ * The tests that need a database are skipped when it is not configured, so that the other tests can run
+ * without one. When LIBRARY_TEST_DB_REQUIRED is true, as in the CI build, they fail instead: a build that
+ * was meant to run them cannot pass without them.
+ */
+final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Gets the URL of the database, skipping or failing the test when it is not configured.
+     *
+     * @return the JDBC URL of the database
+     */
+    static String url() {
+        return require("LIBRARY_TEST_DB_URL");
+    }
+
+    /**
+     * Gets the URL of a second database, independent of the first, that stands in for a read replica,
+     * skipping or failing the test when it is not configured.
+     *
+     * @return the JDBC URL of the second database
+     */
+    static String replicaUrl() {
+        return require("LIBRARY_TEST_REPLICA_URL");
+    }
+
+    /**
+     * Gets the user the tests connect as.
+     *
+     * @return the user, or null to connect with the defaults of the driver
+     */
+    static String user() {
+        return System.getenv("LIBRARY_TEST_DB_USER");
+    }
+
+    /**
+     * Gets the password of the user the tests connect as.
+     *
+     * @return the password, or null to connect without one
+     */
+    static String password() {
+        return System.getenv("LIBRARY_TEST_DB_PASSWORD");
+    }
+
+    private static String require(String variable) {
+        String value = System.getenv(variable);
+        if (value == null && Boolean.parseBoolean(System.getenv("LIBRARY_TEST_DB_REQUIRED"))) {
+            fail(variable + " is not set, but LIBRARY_TEST_DB_REQUIRED is true");
+        }
+        assumeTrue(value != null, variable + " is not set");
+        return value;
+    }
+}
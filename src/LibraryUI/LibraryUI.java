@@ -4,6 +4,7 @@ import Exceptions.ValidationException;
 import LibraryController.LibraryController;
 import LibraryModel.Book;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
@@ -14,6 +15,8 @@ import java.util.Scanner;
  */
 
 public class LibraryUI {
+    private static final int LEADERBOARD_SIZE = 5;
+
     private final LibraryController controller;
     private final Scanner scanner;
     boolean continueLoop = true;
@@ -84,6 +87,8 @@ public class LibraryUI {
      */
 
     private void memberMenu() {
+        controller.prefetchRecommendations(userID);
+        controller.viewLeaderboards(LEADERBOARD_SIZE);
         while (true) {
             printMemberMenu();
             try {
@@ -98,6 +103,7 @@ public class LibraryUI {
                     case 7 -> viewActiveLoans();
                     case 8 -> viewActiveReservations();
                     case 9 -> viewLoanHistoryForMember();
+                    case 10 -> borrowBooks();
                     case 0 -> {
                         System.out.println("Thank you!");
                         return;
@@ -124,6 +130,7 @@ public class LibraryUI {
         System.out.println("7. View Active Loans for a Member");
         System.out.println("8. View Active Reservations");
         System.out.println("9. View Loan History");
+        System.out.println("10. Borrow Several Books");
         System.out.println("0. Exit");
         System.out.print("Choose an option: ");
     }
@@ -155,6 +162,7 @@ public class LibraryUI {
                     case 15 -> addPublisher();
                     case 16 -> viewAllReviewsOfBook();
                     case 17 -> deleteReviewFromBook();
+                    case 18 -> returnBooks();
                     case 0 -> {
                         System.out.println("Thank you!");
                         return;
@@ -189,6 +197,7 @@ public class LibraryUI {
         System.out.println("15. Add Publisher");
         System.out.println("16. View Reviews of Book");
         System.out.println("17. Delete Review");
+        System.out.println("18. Process Returned Books");
         System.out.println("0. Exit");
         System.out.print("Choose an option: ");
     }
@@ -209,6 +218,8 @@ public class LibraryUI {
                     case 4 -> viewBooksByAuthor();
                     case 5 -> viewSortedBooksByAvgRating();
                     case 6 -> recommendBooks();
+                    case 7 -> searchBooksFuzzy();
+                    case 8 -> viewLeaderboardsInCategory();
                     case 0 -> {
                         System.out.println("Thank you!");
                         return;
@@ -232,6 +243,8 @@ public class LibraryUI {
         System.out.println("4. All books by an author");
         System.out.println("5. All books sorted by rating");
         System.out.println("6. View book recommendations");
+        System.out.println("7. Search books by title or author (typos allowed)");
+        System.out.println("8. Top books in a category");
         System.out.println("0. Exit");
         System.out.print("Choose an option: ");
     }
@@ -580,6 +593,10 @@ public class LibraryUI {
                 String searchTerm = scanner.nextLine();
 
                 List<Book> books = controller.searchBook(searchTerm);
+                if (books.isEmpty()) {
+                    System.out.println("No exact matches, looking for close matches.");
+                    books = controller.searchBook(searchTerm, true);
+                }
 
                 if (books.isEmpty()) {
                     System.out.println("No books found matching your search criteria.");
@@ -665,6 +682,73 @@ public class LibraryUI {
         }
     }
 
+    /**
+     * Borrows several books at once for a member, as at a self-service kiosk.
+     * Prompts the user for member ID and the IDs of the books.
+     */
+
+    private void borrowBooks() {
+        while(true) {
+            try {
+                System.out.print("Enter member ID: ");
+                int memberID = Integer.parseInt(scanner.nextLine());
+                if (memberID <= 0) {
+                    throw new ValidationException("Member ID must be a positive integer.");
+                }
+                if (userID != memberID) {
+                    throw new ValidationException("Member IDs must be the same.");
+                }
+                List<Integer> bookIDs = readIDs("Enter book IDs separated by commas: ", "Book");
+                controller.borrowBooks(memberID, bookIDs);
+                break;
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid number format. Please try again.");
+            } catch (ValidationException e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns several loans at once, such as the books left in a book drop.
+     * Prompts the user for the IDs of the loans.
+     */
+
+    private void returnBooks() {
+        while(true) {
+            try {
+                List<Integer> loanIDs = readIDs("Enter loan IDs separated by commas: ", "Loan");
+                controller.returnBooks(loanIDs);
+                break;
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid number format. Please try again.");
+            } catch (ValidationException e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads a list of IDs separated by commas.
+     *
+     * @param prompt the prompt shown to the user
+     * @param item the name of the items, used in error messages
+     * @return the IDs, in the order they were entered
+     */
+
+    private List<Integer> readIDs(String prompt, String item) throws ValidationException {
+        System.out.print(prompt);
+        List<Integer> ids = new ArrayList<>();
+        for (String id : scanner.nextLine().split(",")) {
+            int value = Integer.parseInt(id.trim());
+            if (value <= 0) {
+                throw new ValidationException(item + " ID must be a positive integer.");
+            }
+            ids.add(value);
+        }
+        return ids;
+    }
+
     /**
      * Views the loan history for a specific member.
      * Prompts the user for the member ID to retrieve their loan history.
@@ -747,6 +831,30 @@ public class LibraryUI {
         }
     }
 
+    /**
+     * Displays the best rated and the most borrowed books of a category.
+     * Prompts the user for the category ID.
+     */
+
+    private void viewLeaderboardsInCategory() {
+        while(true) {
+            try {
+                viewAllCategories();
+                System.out.print("Enter category ID: ");
+                int categoryID = Integer.parseInt(scanner.nextLine());
+                if (categoryID <= 0) {
+                    throw new ValidationException("Category ID must be a positive integer.");
+                }
+                controller.viewLeaderboardsInCategory(categoryID, LEADERBOARD_SIZE);
+                break;
+            } catch (NumberFormatException e) {
+                System.err.println("Error: Invalid number format. Please try again.");
+            } catch (ValidationException e) {
+                System.err.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Displays all categories available in the library.
      */
@@ -1037,5 +1145,16 @@ public class LibraryUI {
         controller.sortBooksByAvgRating();
     }
 
+    /**
+     * Searches the books by the words of their title or author name, tolerating typos
+     */
+    public void searchBooksFuzzy() {
+        System.out.print("Enter title or author to search: ");
+        String searchTerm = scanner.nextLine();
+        if (controller.searchBook(searchTerm, true).isEmpty()) {
+            System.out.println("No books found matching your search criteria.");
+        }
+    }
+
 
 }
\ No newline at end of file
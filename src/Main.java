@@ -4,11 +4,13 @@ import LibraryController.LibraryController;
 import LibraryRepository.DataBaseRepository.DBConnection;
 import LibraryRepository.RepositoryFactory;
 import LibraryService.LibraryService;
+import LibraryService.OverdueSweeper;
 import LibraryUI.LibraryUI;
 import LibraryRepository.IRepository;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Scanner;
 
 public class Main {
@@ -34,6 +36,8 @@ public class Main {
         }
 
         LibraryService libraryService = new LibraryService( bookRepo, loanRepo, reservationRepo, categoryRepo, memberRepo, reviewRepo, authorRepo, publisherRepo, staffRepo);
+        OverdueSweeper overdueSweeper = new OverdueSweeper(libraryService);
+        overdueSweeper.start(Duration.ofHours(1));
         LibraryController libraryController = new LibraryController(libraryService);
 
         LibraryUI libraryUI = new LibraryUI(libraryController);